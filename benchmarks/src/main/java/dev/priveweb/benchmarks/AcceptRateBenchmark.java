@@ -0,0 +1,69 @@
+package dev.priveweb.benchmarks;
+
+import dev.priveweb.core.PriveApplication;
+import dev.priveweb.core.server.impl.ListenerConfiguration;
+import dev.priveweb.core.server.impl.PriveWebServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many connections per second a server accepts while many clients connect at once,
+ * with one acceptor and with several {@code SO_REUSEPORT} acceptors. Each operation connects, closes its output
+ * and waits for the server to close the connection, so it covers accepting, handing off and closing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class AcceptRateBenchmark {
+
+	@Param({"1", "4"})
+	private int acceptors;
+
+	@Param({"50", "4096"})
+	private int backlog;
+
+	private ExecutorService executor;
+	private PriveWebServer server;
+	private InetAddress address;
+	private int port;
+
+	@Setup
+	public void setup() throws IOException {
+		executor = Executors.newCachedThreadPool();
+		server = new PriveWebServer(executor, ListenerConfiguration.builder().acceptors(acceptors).backlog(backlog).build(), 0);
+		PriveApplication.startOnly(server, false);
+		address = InetAddress.getLoopbackAddress();
+		port = server.getLocalPorts()[0];
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.halt();
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public int connect() throws IOException {
+		try(Socket socket = new Socket(address, port)) {
+			// reset instead of lingering in TIME_WAIT, which would run out of ephemeral ports
+			socket.setSoLinger(true, 0);
+			socket.shutdownOutput();
+			InputStream in = socket.getInputStream();
+			int read = 0;
+			while(in.read() != -1) read++;
+			return read;
+		}
+	}
+
+}
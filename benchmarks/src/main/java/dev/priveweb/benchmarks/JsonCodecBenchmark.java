@@ -0,0 +1,93 @@
+package dev.priveweb.benchmarks;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.JsonWriter;
+import com.squareup.moshi.Moshi;
+import dev.priveweb.core.marshal.FastJson;
+import dev.priveweb.core.marshal.JsonAdapterCache;
+import okio.Buffer;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link FastJson @FastJson} codec against Moshi's reflective adapter
+ * for a typical 20-field DTO.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+	private JsonAdapter<Dto> reflective;
+	private JsonAdapter<Dto> fast;
+	private Dto dto;
+	private ByteString json;
+
+	@Setup
+	public void setup() {
+		reflective = new Moshi.Builder().build().adapter(Dto.class);
+		fast = JsonAdapterCache.adapter(Dto.class);
+		dto = new Dto();
+		json = ByteString.encodeUtf8(reflective.toJson(dto));
+		if(!fast.toJson(dto).equals(json.utf8())) throw new IllegalStateException("codecs disagree");
+	}
+
+	@Benchmark
+	public Buffer encodeReflective() throws IOException {
+		return encode(reflective);
+	}
+
+	@Benchmark
+	public Buffer encodeFast() throws IOException {
+		return encode(fast);
+	}
+
+	@Benchmark
+	public Dto decodeReflective() throws IOException {
+		return reflective.fromJson(JsonReader.of(new Buffer().write(json)));
+	}
+
+	@Benchmark
+	public Dto decodeFast() throws IOException {
+		return fast.fromJson(JsonReader.of(new Buffer().write(json)));
+	}
+
+	private Buffer encode(JsonAdapter<Dto> adapter) throws IOException {
+		Buffer buffer = new Buffer();
+		adapter.toJson(JsonWriter.of(buffer), dto);
+		return buffer;
+	}
+
+	@FastJson
+	public static class Dto {
+		private long id = 918_273_645L;
+		private long createdAt = 1_666_000_000_000L;
+		private long updatedAt = 1_666_000_500_000L;
+		private int version = 12;
+		private int quantity = 3;
+		private int priority = 1;
+		private double price = 129.95;
+		private double discount = 0.15;
+		private double weight = 2.4;
+		private boolean active = true;
+		private boolean shipped = false;
+		private String name = "Wireless keyboard";
+		private String sku = "KB-2048-BLK";
+		private String customer = "Jane Doe";
+		private String email = "jane.doe@example.com";
+		private String street = "221B Baker Street";
+		private String city = "London";
+		private String country = "GB";
+		private String note = "Leave at the \"front\" door";
+		private List<String> tags = List.of("electronics", "peripherals", "sale");
+	}
+
+}
@@ -0,0 +1,65 @@
+package dev.priveweb.benchmarks;
+
+import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.request.verbs.GetRequest;
+import dev.priveweb.core.http.response.ResponseObject;
+import dev.priveweb.core.server.impl.LocalConnector;
+import dev.priveweb.core.server.impl.PriveWebServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a request dispatched through a {@link LocalConnector}, which covers parsing, routing,
+ * marshalling and encoding without any sockets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalConnectorBenchmark {
+
+	private static final byte[] REQUEST = "GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	private ExecutorService executor;
+	private LocalConnector connector;
+
+	@Setup
+	public void setup() throws IOException {
+		executor = Executors.newWorkStealingPool();
+		// nothing is bound and the server is not started
+		PriveWebServer server = new PriveWebServer(executor, new int[0]);
+		server.register(new StatusListener());
+		connector = new LocalConnector(server);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public byte[] exchange() throws IOException {
+		return connector.exchange(REQUEST);
+	}
+
+	public static class StatusListener {
+
+		@GetRequest("/status")
+		public ResponseObject<String> status() {
+			return ResponseObject.<String>builder()
+					.responseCode(ResponseCode.S_200)
+					.responseBody("ok")
+					.responseBodyClass(String.class)
+					.build();
+		}
+
+	}
+
+}
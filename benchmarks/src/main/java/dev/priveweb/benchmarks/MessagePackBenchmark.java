@@ -0,0 +1,110 @@
+package dev.priveweb.benchmarks;
+
+import com.squareup.moshi.JsonAdapter;
+import dev.priveweb.core.marshal.JsonAdapterCache;
+import dev.priveweb.core.marshal.impl.JsonMarshaller;
+import dev.priveweb.core.marshal.impl.MessagePackMarshaller;
+import okio.Buffer;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares MessagePack encoded and decoded straight from and into the stream against going through a tree of maps
+ * and lists from the Moshi adapter, and against JSON, for a typical DTO with a nested list of line items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessagePackBenchmark {
+
+	private final MessagePackMarshaller msgpack = new MessagePackMarshaller();
+	private final JsonMarshaller json = JsonMarshaller.INSTANCE;
+	private JsonAdapter<Order> adapter;
+	private Order order;
+	private ByteString packed;
+	private ByteString encoded;
+
+	@Setup
+	public void setup() throws IOException {
+		adapter = JsonAdapterCache.adapter(Order.class);
+		order = new Order();
+		Buffer buffer = new Buffer();
+		msgpack.marshal(order, Order.class, buffer);
+		packed = buffer.readByteString();
+		json.marshal(order, Order.class, buffer);
+		encoded = buffer.readByteString();
+		msgpack.marshal(adapter.toJsonValue(order), Object.class, buffer);
+		if(!buffer.readByteString().equals(packed)) throw new IllegalStateException("encodings disagree");
+	}
+
+	@Benchmark
+	public Buffer encodeStreaming() throws IOException {
+		Buffer buffer = new Buffer();
+		msgpack.marshal(order, Order.class, buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public Buffer encodeTree() throws IOException {
+		Buffer buffer = new Buffer();
+		msgpack.marshal(adapter.toJsonValue(order), Object.class, buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public Buffer encodeJson() throws IOException {
+		Buffer buffer = new Buffer();
+		json.marshal(order, Order.class, buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public Object decodeStreaming() throws IOException {
+		return msgpack.unmarshal(Order.class, new Buffer().write(packed));
+	}
+
+	@Benchmark
+	public Object decodeTree() throws IOException {
+		return adapter.fromJsonValue(msgpack.unmarshal(Object.class, new Buffer().write(packed)));
+	}
+
+	@Benchmark
+	public Object decodeJson() throws IOException {
+		return json.unmarshal(Order.class, new Buffer().write(encoded));
+	}
+
+	public static class Order {
+		private long id = 918_273_645L;
+		private long createdAt = 1_666_000_000_000L;
+		private int version = 12;
+		private boolean shipped = false;
+		private String customer = "Jane Doe";
+		private String email = "jane.doe@example.com";
+		private String country = "GB";
+		private List<String> tags = List.of("electronics", "peripherals", "sale");
+		private List<Item> items = List.of(new Item("KB-2048-BLK", 1, 129.95), new Item("MS-0512-WHT", 2, 39.5), new Item("CB-0001-USB", 3, 9.99));
+	}
+
+	public static class Item {
+		private String sku;
+		private int quantity;
+		private double price;
+
+		public Item() {
+		}
+
+		Item(String sku, int quantity, double price) {
+			this.sku = sku;
+			this.quantity = quantity;
+			this.price = price;
+		}
+	}
+
+}
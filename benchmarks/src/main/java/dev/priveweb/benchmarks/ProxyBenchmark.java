@@ -0,0 +1,80 @@
+package dev.priveweb.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import dev.priveweb.core.http.handlers.ProxyHandler;
+import dev.priveweb.core.server.impl.LocalConnector;
+import dev.priveweb.core.server.impl.PriveWebServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a request forwarded by a {@link ProxyHandler} to a local upstream, with upstream connections
+ * kept alive and reused, and with a new connection for each request. Requests are served through a {@link LocalConnector},
+ * so only the upstream side goes over sockets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyBenchmark {
+
+	private static final byte[] REQUEST = "GET /proxy/status HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] BODY = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+
+	@Param({"true", "false"})
+	private boolean keepAlive;
+
+	private HttpServer upstream;
+	private ExecutorService executor;
+	private ProxyHandler proxy;
+	private LocalConnector connector;
+
+	@Setup
+	public void setup() throws IOException {
+		// the stand-in would otherwise hold back response bodies for delayed ACKs on kept-alive connections
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		upstream.createContext("/", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, BODY.length);
+			try(OutputStream out = exchange.getResponseBody()) {
+				out.write(BODY);
+			}
+		});
+		upstream.setExecutor(Executors.newFixedThreadPool(4));
+		upstream.start();
+		executor = Executors.newWorkStealingPool();
+		PriveWebServer server = new PriveWebServer(executor, new int[0]);
+		proxy = ProxyHandler.builder()
+				.routePrefix("/proxy/")
+				.upstream(URI.create("http://127.0.0.1:" + upstream.getAddress().getPort()))
+				.keepAlive(keepAlive)
+				.build();
+		server.register(proxy);
+		connector = new LocalConnector(server);
+	}
+
+	@TearDown
+	public void tearDown() {
+		proxy.close();
+		upstream.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public byte[] forward() throws IOException {
+		return connector.exchange(REQUEST);
+	}
+
+}
@@ -3,7 +3,11 @@ package dev.priveweb.core.data;
 import dev.priveweb.core.exception.MalformedRequestException;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 
 /**
@@ -40,4 +44,28 @@ public interface DataCoder {
 	@Contract(pure = true)
 	byte[] decode(byte[] bytes, @NotNull Charset charset) throws MalformedRequestException;
 
+	/**
+	 * Returns a stream that decodes the given stream according to this {@link DataCoder}'s encoding.
+	 * <p>
+	 *     Implementations should decode bytes as they arrive, without buffering the whole input.
+	 *     The default implementation reads the given stream fully and passes it to {@link #decode(byte[], Charset)}.
+	 * </p>
+	 * @param in The stream to decode.
+	 * @param charset The charset of which the bytes are in.
+	 * @return the decoding stream.
+	 * @throws MalformedRequestException if the given bytes does not correspond to the supported encoding.
+	 */
+	default @NotNull InputStream decode(@NotNull InputStream in, @NotNull Charset charset) throws IOException, MalformedRequestException {
+		return new ByteArrayInputStream(decode(in.readAllBytes(), charset));
+	}
+
+	/**
+	 * Gets the file extension of files precompressed with this encoding, for example {@code .gz} for {@code gzip}.
+	 * @return the extension, including the dot, or {@code null} if there is none.
+	 */
+	@Contract(pure = true)
+	default @Nullable String getFileExtension() {
+		return null;
+	}
+
 }
@@ -5,14 +5,20 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import dev.priveweb.core.util.HeaderUtils;
+
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Contains a list of {@link DataCoder}s to handle the {@code Transfer-Encoding} header.
+ * Contains a list of {@link DataCoder}s to handle the {@code Transfer-Encoding} header, or
+ * the {@code Content-Encoding} and {@code Accept-Encoding} headers.
  * <p>
  *     {@link DataCoder}s are resolved from this registry from the first index, {@code 0}.
  *     Essentially, {@code DataCoder}s from index {@code 0} have higher priority than those
@@ -37,10 +43,11 @@ public final class DataEncodingRegistry {
 		//no instance
 	}
 
-	private static final List<@NotNull DataCoder> dataCoders = new ArrayList<>();
-	private static final ReadWriteLock rwl = new ReentrantReadWriteLock(true);
-	private static final Lock wl = rwl.writeLock();
-	private static final Lock rl = rwl.readLock();
+	// each server has its own coders
+	private final List<@NotNull DataCoder> dataCoders = new ArrayList<>();
+	private final ReadWriteLock rwl = new ReentrantReadWriteLock(true);
+	private final Lock wl = rwl.writeLock();
+	private final Lock rl = rwl.readLock();
 
 	/**
 	 * Registers one or more {@link DataCoder}s.
@@ -49,8 +56,11 @@ public final class DataEncodingRegistry {
 	@Blocking
 	public void register(@NotNull DataCoder... coders) {
 		wl.lock();
-		dataCoders.addAll(List.of(coders));
-		wl.unlock();
+		try {
+			dataCoders.addAll(List.of(coders));
+		} finally {
+			wl.unlock();
+		}
 	}
 
 	/**
@@ -61,8 +71,11 @@ public final class DataEncodingRegistry {
 	@Blocking
 	public void register(@NotNull DataCoder coder, int position) {
 		wl.lock();
-		dataCoders.add(position, coder);
-		wl.unlock();
+		try {
+			dataCoders.add(position, coder);
+		} finally {
+			wl.unlock();
+		}
 	}
 
 	/**
@@ -75,11 +88,62 @@ public final class DataEncodingRegistry {
 	@Contract(pure = true)
 	public @Nullable DataCoder resolve(String encodingName) {
 		rl.lock();
-		for(DataCoder coder : dataCoders) {
-			if(coder.getCoderName().equalsIgnoreCase(encodingName)) return coder;
+		try {
+			for(DataCoder coder : dataCoders) {
+				if(coder.getCoderName().equalsIgnoreCase(encodingName)) return coder;
+			}
+			return null;
+		} finally {
+			rl.unlock();
+		}
+	}
+
+	/**
+	 * Gets all registered {@link DataCoder}s, in order of priority.
+	 * @return a snapshot of the registered coders.
+	 */
+	@Contract(pure = true)
+	public @NotNull List<@NotNull DataCoder> getCoders() {
+		rl.lock();
+		try {
+			return List.copyOf(dataCoders);
+		} finally {
+			rl.unlock();
+		}
+	}
+
+	/**
+	 * Chooses the coder for a response from an {@code Accept-Encoding} header. Among the codings with
+	 * the highest quality value, the one with the highest priority in this registry is chosen.
+	 * @param acceptEncoding The values of the {@code Accept-Encoding} header.
+	 * @return the chosen {@link DataCoder}, or {@code null} if the response should not be encoded.
+	 */
+	@Contract(pure = true)
+	public @Nullable DataCoder negotiate(@NotNull List<String> acceptEncoding) {
+		if(acceptEncoding.isEmpty()) return null;
+		Map<String, Double> qualities = new HashMap<>();
+		for(String value : acceptEncoding) {
+			for(String element : value.split(",")) {
+				if(element.isBlank()) continue;
+				qualities.put(HeaderUtils.stripParameters(element), HeaderUtils.getQuality(element));
+			}
+		}
+		rl.lock();
+		try {
+			DataCoder best = null;
+			double bestQuality = 0;
+			for(DataCoder coder : dataCoders) {
+				Double quality = qualities.get(coder.getCoderName().toLowerCase(Locale.ROOT));
+				if(quality == null) quality = qualities.getOrDefault("*", 0d);
+				if(quality > bestQuality) {
+					best = coder;
+					bestQuality = quality;
+				}
+			}
+			return best;
+		} finally {
+			rl.unlock();
 		}
-		rl.unlock();
-		return null;
 	}
 
 }
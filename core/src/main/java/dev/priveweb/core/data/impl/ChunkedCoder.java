@@ -1,6 +1,7 @@
 package dev.priveweb.core.data.impl;
 
 import dev.priveweb.core.util.Checks;
+import dev.priveweb.core.util.IOUtils;
 import gnu.trove.list.TCharList;
 import gnu.trove.list.linked.TCharLinkedList;
 import dev.priveweb.core.data.DataCoder;
@@ -8,6 +9,9 @@ import dev.priveweb.core.exception.MalformedRequestException;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.StringTokenizer;
@@ -80,6 +84,81 @@ public class ChunkedCoder implements DataCoder {
 		return new String(totalBuf.toArray(new char[totalBuf.size()])).getBytes(charset);
 	}
 
+	@Override
+	public @NotNull InputStream decode(@NotNull InputStream in, @NotNull Charset charset) {
+		return new ChunkedInputStream(in);
+	}
+
+	/**
+	 * Decodes the {@code chunked} encoding as chunks arrive.
+	 * See <a href="https://httpwg.org/specs/rfc9112.html#chunked.encoding">RFC 9112, section 7.1</a>.
+	 */
+	private static final class ChunkedInputStream extends InputStream {
+
+		private final InputStream in;
+		private final byte[] single = new byte[1];
+		private long remaining = 0; // bytes remaining in the current chunk
+		private boolean first = true;
+		private boolean eof = false;
+
+		private ChunkedInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte @NotNull [] b, int off, int len) throws IOException {
+			if(eof) return -1;
+			if(len == 0) return 0;
+			if(remaining == 0) {
+				if(!first) {
+					// every chunk's data is followed by a CRLF
+					var crlf = IOUtils.readLine(in);
+					if(crlf == null || !crlf.isEmpty()) throw new IOException("chunk data is not terminated by CRLF");
+				}
+				first = false;
+				remaining = readChunkSize();
+				if(remaining == 0) {
+					// skip the trailer section; trailer fields are not supported
+					String line;
+					do {
+						line = IOUtils.readLine(in);
+					} while(line != null && !line.isEmpty());
+					eof = true;
+					return -1;
+				}
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if(n == -1) throw new EOFException("stream ended with " + remaining + " bytes remaining in chunk");
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return eof ? 0 : (int) Math.min(in.available(), remaining);
+		}
+
+		private long readChunkSize() throws IOException {
+			var line = IOUtils.readLine(in);
+			if(line == null) throw new EOFException("stream ended before chunk size");
+			int ext = line.indexOf(';'); // ignore chunk extensions
+			if(ext != -1) line = line.substring(0, ext);
+			try {
+				long size = Long.parseLong(line.strip(), 16);
+				if(size < 0) throw new IOException("the number of bytes to read is negative");
+				return size;
+			} catch(NumberFormatException e) {
+				throw new IOException("the number of bytes to read is not in hexadecimal", e);
+			}
+		}
+
+	}
+
 	// UTILITY
 
 	/**
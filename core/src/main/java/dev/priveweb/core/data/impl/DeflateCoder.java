@@ -0,0 +1,51 @@
+package dev.priveweb.core.data.impl;
+
+import dev.priveweb.core.data.DataCoder;
+import dev.priveweb.core.exception.MalformedRequestException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class implements the {@code deflate} encoding, which is the {@code zlib} format.
+ */
+public class DeflateCoder implements DataCoder {
+
+	@Override
+	public @NotNull String getCoderName() {
+		return "deflate";
+	}
+
+	@Override
+	public byte[] encode(byte @NotNull [] bytes, @NotNull Charset charset) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+		try(DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+			deflater.write(bytes);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e); // a ByteArrayOutputStream does not throw
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public byte[] decode(byte @NotNull [] bytes, @NotNull Charset charset) throws MalformedRequestException {
+		try(InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readAllBytes();
+		} catch(IOException e) {
+			throw new MalformedRequestException("the bytes are not valid deflate data", e);
+		}
+	}
+
+	@Override
+	public @NotNull InputStream decode(@NotNull InputStream in, @NotNull Charset charset) {
+		return new InflaterInputStream(in);
+	}
+
+}
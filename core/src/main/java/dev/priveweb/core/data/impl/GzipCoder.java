@@ -0,0 +1,62 @@
+package dev.priveweb.core.data.impl;
+
+import dev.priveweb.core.data.DataCoder;
+import dev.priveweb.core.exception.MalformedRequestException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * This class implements the {@code gzip} encoding.
+ */
+public class GzipCoder implements DataCoder {
+
+	@Override
+	public @NotNull String getCoderName() {
+		return "gzip";
+	}
+
+	@Override
+	public byte[] encode(byte @NotNull [] bytes, @NotNull Charset charset) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+		try(GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+			gzip.write(bytes);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e); // a ByteArrayOutputStream does not throw
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public byte[] decode(byte @NotNull [] bytes, @NotNull Charset charset) throws MalformedRequestException {
+		try(InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readAllBytes();
+		} catch(IOException e) {
+			throw new MalformedRequestException("the bytes are not valid gzip data", e);
+		}
+	}
+
+	@Override
+	public @NotNull InputStream decode(@NotNull InputStream in, @NotNull Charset charset) throws IOException, MalformedRequestException {
+		try {
+			return new GZIPInputStream(in, 8192);
+		} catch(ZipException e) {
+			throw new MalformedRequestException("the stream is not valid gzip data", e);
+		}
+	}
+
+	@Override
+	public @Nullable String getFileExtension() {
+		return ".gz";
+	}
+
+}
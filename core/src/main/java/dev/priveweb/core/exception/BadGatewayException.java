@@ -0,0 +1,29 @@
+package dev.priveweb.core.exception;
+
+import dev.priveweb.core.http.ResponseCode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an upstream server cannot be reached, or answers with something that is not a valid response.
+ * <p>This is an {@link IOException}, as it is thrown while talking to the upstream.</p>
+ */
+public class BadGatewayException extends IOException implements ContainsResponseCode {
+
+	/**
+	 * Creates a new {@link BadGatewayException}.
+	 * @param message What went wrong.
+	 * @param cause The cause, if any.
+	 */
+	public BadGatewayException(@NotNull String message, @Nullable Throwable cause) {
+		super(message, cause);
+	}
+
+	@Override
+	public @NotNull ResponseCode getResponseCode() {
+		return ResponseCode.SV_502;
+	}
+
+}
@@ -0,0 +1,24 @@
+package dev.priveweb.core.exception;
+
+import dev.priveweb.core.http.ResponseCode;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown when a request has an {@code Expect} header with an expectation other than {@code 100-continue}.
+ */
+public class ExpectationFailedException extends Exception implements ContainsResponseCode {
+
+	/**
+	 * Creates a new {@link ExpectationFailedException}.
+	 * @param expectation The value of the {@code Expect} header.
+	 */
+	public ExpectationFailedException(@NotNull String expectation) {
+		super("unsupported expectation " + expectation);
+	}
+
+	@Override
+	public @NotNull ResponseCode getResponseCode() {
+		return ResponseCode.C_417;
+	}
+
+}
@@ -0,0 +1,29 @@
+package dev.priveweb.core.exception;
+
+import dev.priveweb.core.http.ResponseCode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an upstream server does not answer in time, or no connection to it becomes available in time.
+ * <p>This is an {@link IOException}, as it is thrown while talking to the upstream.</p>
+ */
+public class GatewayTimeoutException extends IOException implements ContainsResponseCode {
+
+	/**
+	 * Creates a new {@link GatewayTimeoutException}.
+	 * @param message What timed out.
+	 * @param cause The cause, if any.
+	 */
+	public GatewayTimeoutException(@NotNull String message, @Nullable Throwable cause) {
+		super(message, cause);
+	}
+
+	@Override
+	public @NotNull ResponseCode getResponseCode() {
+		return ResponseCode.SV_504;
+	}
+
+}
@@ -0,0 +1,28 @@
+package dev.priveweb.core.exception;
+
+import dev.priveweb.core.http.ResponseCode;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request body, or a part of it, exceeds the configured size limit.
+ * <p>This is an {@link IOException}, as it is thrown while the body is being read.</p>
+ */
+public class PayloadTooLargeException extends IOException implements ContainsResponseCode {
+
+	/**
+	 * Creates a new {@link PayloadTooLargeException}.
+	 * @param what What exceeded the limit, for example {@code request body}.
+	 * @param limit The limit, in bytes.
+	 */
+	public PayloadTooLargeException(@NotNull String what, long limit) {
+		super(what + " exceeds the limit of " + limit + " bytes");
+	}
+
+	@Override
+	public @NotNull ResponseCode getResponseCode() {
+		return ResponseCode.C_413;
+	}
+
+}
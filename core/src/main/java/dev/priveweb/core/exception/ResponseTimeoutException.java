@@ -0,0 +1,27 @@
+package dev.priveweb.core.exception;
+
+import dev.priveweb.core.http.ResponseCode;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+
+/**
+ * Thrown when the asynchronous result of a handler, such as a {@link java.util.concurrent.CompletionStage CompletionStage},
+ * is not ready in time.
+ */
+public class ResponseTimeoutException extends Exception implements ContainsResponseCode {
+
+	/**
+	 * Creates a new {@link ResponseTimeoutException}.
+	 * @param timeout The time that the result had.
+	 */
+	public ResponseTimeoutException(@NotNull Duration timeout) {
+		super("no result after " + timeout.toMillis() + " ms");
+	}
+
+	@Override
+	public @NotNull ResponseCode getResponseCode() {
+		return ResponseCode.SV_503;
+	}
+
+}
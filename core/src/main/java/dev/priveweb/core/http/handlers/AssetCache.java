@@ -0,0 +1,142 @@
+package dev.priveweb.core.http.handlers;
+
+import dev.priveweb.core.util.Checks;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A least-recently-used cache of {@linkplain CachedAsset encoded responses}, bounded by their total size
+ * rather than their number. This lets a {@link ResourceHandler} answer requests for small and medium assets
+ * without touching the file system.
+ */
+public final class AssetCache {
+
+	private final long capacity;
+	private final long maxEntrySize;
+	private final LinkedHashMap<String, CachedAsset> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private long size = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a new {@link AssetCache}.
+	 * @param capacity The maximum total size of all cached assets, in bytes.
+	 * @param maxEntrySize The maximum size of a single cached asset, in bytes. Larger assets are not cached.
+	 */
+	public AssetCache(long capacity, long maxEntrySize) {
+		Checks.ensurePositive(capacity);
+		Checks.ensurePositive(maxEntrySize);
+		this.capacity = capacity;
+		this.maxEntrySize = Math.min(maxEntrySize, capacity);
+	}
+
+	/**
+	 * Gets a cached asset, marking it as the most recently used.
+	 * @param key The key of the asset.
+	 * @return the asset, else {@code null}.
+	 */
+	public synchronized @Nullable CachedAsset get(@NotNull String key) {
+		CachedAsset asset = entries.get(key);
+		if(asset == null) misses++;
+		else hits++;
+		return asset;
+	}
+
+	/**
+	 * Whether an asset of the given size can be cached.
+	 * @param size The size of the asset, in bytes.
+	 * @return {@code true} if it is not larger than the maximum entry size.
+	 */
+	public boolean accepts(long size) {
+		return size <= maxEntrySize;
+	}
+
+	/**
+	 * Caches an asset, evicting the least recently used assets until it fits.
+	 * Assets larger than the {@linkplain #accepts(long) maximum entry size} are ignored.
+	 * @param key The key of the asset.
+	 * @param asset The asset.
+	 */
+	public synchronized void put(@NotNull String key, @NotNull CachedAsset asset) {
+		if(!accepts(asset.size())) return;
+		CachedAsset previous = entries.put(key, asset);
+		if(previous != null) size -= previous.size();
+		size += asset.size();
+		Iterator<Map.Entry<String, CachedAsset>> iterator = entries.entrySet().iterator();
+		while(size > capacity && iterator.hasNext()) {
+			var eldest = iterator.next();
+			if(eldest.getValue() == asset) continue;
+			size -= eldest.getValue().size();
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes a cached asset.
+	 * @param key The key of the asset.
+	 */
+	public synchronized void invalidate(@NotNull String key) {
+		CachedAsset previous = entries.remove(key);
+		if(previous != null) size -= previous.size();
+	}
+
+	/**
+	 * Removes all cached assets whose keys match the given predicate.
+	 * @param predicate The predicate.
+	 */
+	public synchronized void invalidateIf(@NotNull Predicate<String> predicate) {
+		entries.entrySet().removeIf(e -> {
+			if(!predicate.test(e.getKey())) return false;
+			size -= e.getValue().size();
+			return true;
+		});
+	}
+
+	/**
+	 * Gets the total size of all cached assets.
+	 * @return the size, in bytes.
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of cached assets.
+	 * @return the number of entries.
+	 */
+	public synchronized int count() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of requests answered from the cache.
+	 * @return the number of hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of requests that were not in the cache.
+	 * @return the number of misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Gets the number of assets evicted to make room for others.
+	 * @return the number of evictions.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+}
@@ -0,0 +1,23 @@
+package dev.priveweb.core.http.handlers;
+
+import dev.priveweb.core.http.response.EncodedResponse;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An entry of an {@link AssetCache}: an encoded response, along with the validators
+ * needed to answer conditional requests for it without touching the file system.
+ * @param response The encoded response.
+ * @param etag The entity tag of the response, including its quotes.
+ * @param lastModified The last modification time of the resource, in milliseconds since the epoch.
+ */
+public record CachedAsset(@NotNull EncodedResponse response, @NotNull String etag, long lastModified) {
+
+	/**
+	 * Gets the size of the encoded response.
+	 * @return the size, in bytes.
+	 */
+	public int size() {
+		return response.size();
+	}
+
+}
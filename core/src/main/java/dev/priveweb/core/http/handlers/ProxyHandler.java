@@ -0,0 +1,609 @@
+package dev.priveweb.core.http.handlers;
+
+import dev.priveweb.core.data.impl.ChunkedCoder;
+import dev.priveweb.core.exception.BadGatewayException;
+import dev.priveweb.core.exception.GatewayTimeoutException;
+import dev.priveweb.core.http.Header;
+import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.interceptor.Setup;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.http.request.PathParam;
+import dev.priveweb.core.http.request.RequestMethod;
+import dev.priveweb.core.http.response.BodyWriter;
+import dev.priveweb.core.http.response.HTTPResponse;
+import dev.priveweb.core.mapper.MappingConfiguration;
+import dev.priveweb.core.server.PriveServer;
+import dev.priveweb.core.util.BoundedInputStream;
+import dev.priveweb.core.util.HeaderUtils;
+import dev.priveweb.core.util.IOUtils;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.Singular;
+import lombok.SneakyThrows;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import slf4jansi.AnsiLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Handler that forwards requests to upstream HTTP/1.1 servers, as a reverse proxy.
+ * <p>
+ *     Every request under the {@linkplain #routePrefix route prefix} is sent to one of the {@linkplain #upstreams upstreams},
+ *     with the rest of its path appended to the upstream's path. Request and response bodies are streamed through
+ *     as they arrive, without being buffered, and hop-by-hop headers (such as {@code Connection}) are dropped in both directions.
+ * </p>
+ * <p>
+ *     Connections to each upstream are kept alive and reused, so that most requests skip connecting.
+ *     At most {@link #maxConnections} are open to each upstream at a time; further requests wait for one to be released.
+ * </p>
+ * <pre>{@code
+ * server.register(ProxyHandler.builder()
+ *         .routePrefix("/legacy/")
+ *         .upstream(URI.create("http://10.0.0.2:8080/api"))
+ *         .upstream(URI.create("http://10.0.0.3:8080/api"))
+ *         .balancing(ProxyHandler.Balancing.LEAST_LOADED)
+ *         .build());
+ * }</pre>
+ * <p>This does not provide security.</p>
+ */
+@Data
+@Builder
+public class ProxyHandler implements Setup, Closeable {
+
+	private static final Logger logger = AnsiLogger.of(LoggerFactory.getLogger(ProxyHandler.class));
+	private static final Set<String> HOP_BY_HOP_HEADERS = Set.of(
+			"connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "proxy-connection",
+			"te", "trailer", "transfer-encoding", "upgrade"
+	);
+	// these are safe to send again if a reused connection turns out to have been closed by the upstream
+	private static final Set<RequestMethod> IDEMPOTENT_METHODS = Set.of(RequestMethod.GET, RequestMethod.HEAD, RequestMethod.OPTIONS, RequestMethod.PUT, RequestMethod.DELETE);
+	private static final Map<Integer, ResponseCode> RESPONSE_CODES = new HashMap<>();
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final int BUFFER_SIZE = 8192;
+
+	static {
+		for(ResponseCode code : ResponseCode.values()) RESPONSE_CODES.put(code.toInteger(), code);
+	}
+
+	/**
+	 * The path prefix of the proxied routes. A request for {@code /legacy/users/1} with the prefix {@code /legacy/}
+	 * is sent to the upstream as {@code /users/1}, after the upstream's own path.
+	 */
+	@Builder.Default
+	private @NotNull String routePrefix = "/";
+
+	/**
+	 * The upstream servers, such as {@code http://10.0.0.2:8080} or {@code http://10.0.0.2:8080/api}. Only {@code http} is supported.
+	 */
+	@Singular
+	private @NotNull List<URI> upstreams;
+
+	/**
+	 * How an upstream is chosen for each request; {@link Balancing#ROUND_ROBIN} by default.
+	 */
+	@Builder.Default
+	private @NotNull Balancing balancing = Balancing.ROUND_ROBIN;
+
+	/**
+	 * The maximum number of connections open to each upstream, 64 by default.
+	 */
+	@Builder.Default
+	private int maxConnections = 64;
+
+	/**
+	 * Whether connections to the upstreams are kept alive and reused. This is enabled by default.
+	 */
+	@Builder.Default
+	private boolean keepAlive = true;
+
+	/**
+	 * How long a connection may stay unused before it is closed instead of reused. This should be shorter than
+	 * the upstreams' own keep-alive timeouts, so that connections they are about to close are not reused. This is 30 seconds by default.
+	 */
+	@Builder.Default
+	private @NotNull Duration idleTimeout = Duration.ofSeconds(30);
+
+	/**
+	 * How long to wait for a connection to an upstream, whether a new one or one of the {@link #maxConnections}
+	 * to be released, before answering with {@code 504 Gateway Timeout}. This is 5 seconds by default.
+	 */
+	@Builder.Default
+	private @NotNull Duration connectTimeout = Duration.ofSeconds(5);
+
+	/**
+	 * How long to wait for an upstream to send anything, before answering with {@code 504 Gateway Timeout}
+	 * (or, once the response has started, cutting it short). This is 30 seconds by default.
+	 */
+	@Builder.Default
+	private @NotNull Duration readTimeout = Duration.ofSeconds(30);
+
+	/**
+	 * Whether the {@code Host} header of the request is sent to the upstream as is. Otherwise, it is replaced with
+	 * the upstream's host, and sent as {@code X-Forwarded-Host} instead. This is disabled by default.
+	 */
+	@Builder.Default
+	private boolean preserveHost = false;
+
+	/**
+	 * The connection pools of the upstreams, which are created when the handler is set up.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final AtomicReference<List<Upstream>> pools = new AtomicReference<>(List.of());
+
+	@Getter(AccessLevel.NONE)
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * How an upstream is chosen for each request.
+	 */
+	public enum Balancing {
+
+		/**
+		 * Each upstream in turn.
+		 */
+		ROUND_ROBIN,
+		/**
+		 * The upstream with the fewest requests in flight, or the next one in turn if several have as few.
+		 */
+		LEAST_LOADED
+
+	}
+
+	// add routes dynamically
+	@Override
+	@SneakyThrows
+	public void setup(@NotNull MappingConfiguration configuration, @NotNull PriveServer server) {
+		List<Upstream> pools = new ArrayList<>(upstreams.size());
+		for(URI upstream : upstreams) pools.add(new Upstream(upstream, maxConnections));
+		for(Upstream previous : this.pools.getAndSet(List.copyOf(pools))) previous.close();
+		Method handler = getClass().getDeclaredMethod("proxy", String.class, HTTPRequest.class);
+		for(RequestMethod method : RequestMethod.values()) {
+			// HEAD requests are routed to GET handlers
+			if(method == RequestMethod.HEAD) continue;
+			configuration.map(getPrefix(), method, handler);
+			configuration.map(getPrefix() + "{**}", method, handler);
+		}
+		logger.info("Proxying {} to {}", getPrefix(), upstreams);
+	}
+
+	/**
+	 * The handler that forwards requests. This is not annotated;
+	 * the registration is done by the {@link #setup(MappingConfiguration, PriveServer)}.
+	 * @param path The path after the route prefix, or {@code null} for the prefix itself.
+	 * @param request The request.
+	 * @throws BadGatewayException if the upstream cannot be reached or does not answer properly.
+	 * @throws GatewayTimeoutException if the upstream does not answer in time.
+	 */
+	public HTTPResponse proxy(@PathParam @Nullable String path, @NotNull HTTPRequest request) throws IOException {
+		Upstream upstream = select();
+		RequestMethod method = request.getRequestMethod();
+		InputStream body = request.getRequestBodyStream();
+		var contentLengths = HeaderUtils.getHeader(request.getHeaders(), "Content-Length");
+		long contentLength = body == null ? 0 : contentLengths.isEmpty() ? -1 : Long.parseLong(contentLengths.get(0).strip());
+		byte[] head = encodeRequestHead(request, upstream, upstream.path + target(path, request), body == null ? 0 : contentLength);
+		Exchange exchange = null;
+		try {
+			for(int attempt = 0; ; attempt++) {
+				exchange = upstream.acquire(this);
+				try {
+					exchange.connection.out.write(head);
+					if(body != null) writeBody(body, contentLength, exchange.connection.out);
+					exchange.connection.out.flush();
+					HTTPResponse response = readResponse(exchange, method == RequestMethod.HEAD);
+					// connections are released once the response body has been read, or when the request is done otherwise
+					request.closeOnCompletion(exchange);
+					return response;
+				} catch(SocketTimeoutException e) {
+					throw new GatewayTimeoutException("upstream " + upstream + " did not answer within " + readTimeout.toMillis() + " ms", e);
+				} catch(BadGatewayException e) {
+					throw e;
+				} catch(IOException e) {
+					// the upstream may have closed a reused connection while it was idle
+					boolean retry = exchange.connection.reused && body == null && IDEMPOTENT_METHODS.contains(method) && attempt == 0;
+					exchange.close();
+					if(!retry) throw new BadGatewayException("could not exchange with upstream " + upstream + ": " + e.getMessage(), e);
+				}
+			}
+		} catch(IOException | RuntimeException e) {
+			if(exchange != null) exchange.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the idle connections to the upstreams. Connections in use are closed once they are released.
+	 */
+	@Override
+	public void close() {
+		for(Upstream upstream : pools.getAndSet(List.of())) upstream.close();
+	}
+
+	private @NotNull Upstream select() throws BadGatewayException {
+		List<Upstream> pools = this.pools.get();
+		if(pools.isEmpty()) throw new BadGatewayException("no upstreams are configured", null);
+		int start = Math.floorMod(next.getAndIncrement(), pools.size());
+		if(balancing == Balancing.ROUND_ROBIN) return pools.get(start);
+		Upstream selected = null;
+		for(int i = 0; i < pools.size(); i++) {
+			Upstream candidate = pools.get((start + i) % pools.size());
+			if(selected == null || candidate.inFlight.get() < selected.inFlight.get()) selected = candidate;
+		}
+		return selected;
+	}
+
+	private byte @NotNull [] encodeRequestHead(@NotNull HTTPRequest request, @NotNull Upstream upstream, @NotNull String target, long contentLength) {
+		StringBuilder head = new StringBuilder(256)
+				.append(request.getRequestMethod()).append(' ').append(target).append(" HTTP/1.1\r\n");
+		Set<String> excluded = getConnectionOptions(request.getHeaders());
+		excluded.add("content-length");
+		excluded.add("expect"); // answered by the server already
+		if(!preserveHost) excluded.add("host");
+		for(Header header : request.getHeaders()) {
+			if(!excluded.contains(header.header().toLowerCase(Locale.ROOT))) head.append(header.header()).append(": ").append(header.value()).append("\r\n");
+		}
+		if(!preserveHost) {
+			head.append("Host: ").append(upstream.authority).append("\r\n");
+			var host = HeaderUtils.getHeader(request.getHeaders(), "Host");
+			if(!host.isEmpty() && !HeaderUtils.containsHeader(request.getHeaders(), "X-Forwarded-Host")) head.append("X-Forwarded-Host: ").append(host.get(0)).append("\r\n");
+		}
+		if(contentLength > 0) head.append("Content-Length: ").append(contentLength).append("\r\n");
+		else if(contentLength < 0) head.append("Transfer-Encoding: chunked\r\n");
+		if(!keepAlive) head.append("Connection: close\r\n");
+		return head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Streams the request body to the upstream, in chunks if its length is not known.
+	 */
+	private static void writeBody(@NotNull InputStream body, long contentLength, @NotNull OutputStream out) throws IOException {
+		if(contentLength >= 0) {
+			body.transferTo(out);
+			return;
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int n;
+		while((n = body.read(buffer)) != -1) {
+			if(n == 0) continue;
+			out.write((Integer.toHexString(n) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			out.write(buffer, 0, n);
+			out.write('\r');
+			out.write('\n');
+		}
+		out.write(LAST_CHUNK);
+	}
+
+	/**
+	 * Reads the head of the upstream's response, and sets up its body to be streamed to the client.
+	 */
+	private @NotNull HTTPResponse readResponse(@NotNull Exchange exchange, boolean head) throws IOException {
+		InputStream in = exchange.connection.in;
+		int status;
+		List<Header> headers = new ArrayList<>();
+		do {
+			// interim responses, such as 100 Continue, are skipped
+			String statusLine = IOUtils.readLine(in);
+			if(statusLine == null) throw new IOException("connection closed before the response");
+			String[] parts = statusLine.split(" ", 3);
+			if(parts.length < 2 || !parts[0].startsWith("HTTP/1.")) throw new BadGatewayException("invalid status line from upstream " + exchange.upstream + ": " + statusLine, null);
+			try {
+				status = Integer.parseInt(parts[1]);
+			} catch(NumberFormatException e) {
+				throw new BadGatewayException("invalid status line from upstream " + exchange.upstream + ": " + statusLine, e);
+			}
+			headers.clear();
+			String line;
+			while((line = IOUtils.readLine(in)) != null && !line.isEmpty()) {
+				int colon = line.indexOf(':');
+				if(colon > 0) headers.add(new Header(line.substring(0, colon), line.substring(colon + 1).strip()));
+			}
+			if(line == null) throw new BadGatewayException("connection to upstream " + exchange.upstream + " closed in the response head", null);
+			if(status == 101) throw new BadGatewayException("upstream " + exchange.upstream + " switched protocols", null);
+			// an HTTP/1.0 upstream closes the connection after each response
+			if(parts[0].equals("HTTP/1.0")) exchange.reusable = false;
+		} while(status >= 100 && status < 200);
+		ResponseCode responseCode = RESPONSE_CODES.get(status);
+		if(responseCode == null) throw new BadGatewayException("unknown status " + status + " from upstream " + exchange.upstream, null);
+		for(String value : HeaderUtils.getHeader(headers, "Connection")) {
+			if(value.toLowerCase(Locale.ROOT).contains("close")) exchange.reusable = false;
+		}
+
+		var builder = HTTPResponse.builder()
+				.protocol("HTTP/1.1")
+				.responseCode(responseCode);
+		boolean bodiless = head || status == 204 || status == 304;
+		Set<String> excluded = getConnectionOptions(headers);
+		// the length of a bodiless response describes the body it would have had
+		if(!bodiless) excluded.add("content-length");
+		for(Header header : headers) {
+			if(!excluded.contains(header.header().toLowerCase(Locale.ROOT))) builder.header(header);
+		}
+		if(bodiless) {
+			exchange.release();
+			return builder.build();
+		}
+
+		var transferEncoding = HeaderUtils.getHeader(headers, "Transfer-Encoding");
+		var contentLength = HeaderUtils.getHeader(headers, "Content-Length");
+		InputStream body;
+		long length = -1;
+		if(!transferEncoding.isEmpty()) {
+			if(!String.join(",", transferEncoding).strip().equalsIgnoreCase("chunked")) {
+				throw new BadGatewayException("unsupported transfer coding " + transferEncoding + " from upstream " + exchange.upstream, null);
+			}
+			body = new ChunkedCoder().decode(in, StandardCharsets.ISO_8859_1);
+		} else if(!contentLength.isEmpty()) {
+			try {
+				length = Long.parseLong(contentLength.get(0).strip());
+			} catch(NumberFormatException e) {
+				throw new BadGatewayException("invalid Content-Length from upstream " + exchange.upstream, e);
+			}
+			if(length < 0) throw new BadGatewayException("invalid Content-Length from upstream " + exchange.upstream, null);
+			body = length == 0 ? new ByteArrayInputStream(new byte[0]) : new BoundedInputStream(in, length);
+		} else {
+			// the body ends when the upstream closes the connection
+			exchange.reusable = false;
+			body = in;
+		}
+		if(length == 0) {
+			exchange.release();
+			return builder.responseBody(new byte[0]).build();
+		}
+		long bodyLength = length;
+		return builder.bodyWriter(new BodyWriter() {
+			@Override
+			public void writeTo(@NotNull OutputStream out) throws IOException {
+				try {
+					byte[] buffer = new byte[BUFFER_SIZE];
+					int n;
+					while((n = body.read(buffer)) != -1) {
+						out.write(buffer, 0, n);
+						// whatever has arrived is passed on right away, so that streamed responses are not held back
+						if(body.available() == 0) out.flush();
+					}
+					exchange.release();
+				} finally {
+					exchange.close();
+				}
+			}
+
+			@Override
+			public long contentLength() {
+				return bodyLength;
+			}
+
+			@Override
+			public String toString() {
+				return "<" + (bodyLength < 0 ? "streamed" : bodyLength) + " bytes from " + exchange.upstream + ">";
+			}
+		}).build();
+	}
+
+	/**
+	 * Gets the names of the headers that must not be forwarded: the hop-by-hop headers, and those listed in {@code Connection}.
+	 */
+	private static @NotNull Set<String> getConnectionOptions(@NotNull List<Header> headers) {
+		Set<String> options = new HashSet<>(HOP_BY_HOP_HEADERS);
+		for(String value : HeaderUtils.getHeader(headers, "Connection")) {
+			for(String option : value.split(",")) {
+				if(!option.isBlank()) options.add(option.strip().toLowerCase(Locale.ROOT));
+			}
+		}
+		return options;
+	}
+
+	/**
+	 * Gets the target of a request on the upstream: the request-target as the client sent it, without the route prefix,
+	 * so that its case and percent-encoding are kept.
+	 */
+	private @NotNull String target(@Nullable String path, @NotNull HTTPRequest request) {
+		String target = request.getRequestTarget();
+		String prefix = getPrefix();
+		// routes match regardless of case, and so does the prefix
+		if(target.regionMatches(true, 0, prefix, 0, prefix.length() - 1)) {
+			String rest = target.substring(prefix.length() - 1);
+			if(rest.isEmpty() || rest.charAt(0) == '?') return "/" + rest;
+			if(rest.charAt(0) == '/') return rest;
+		}
+		// a request that was not read from a connection, or whose prefix was percent-encoded; the query keeps its case
+		int query = target.indexOf('?');
+		return encodePath(path) + (query >= 0 ? target.substring(query) : request.getQueryString());
+	}
+
+	private static @NotNull String encodePath(@Nullable String path) {
+		if(path == null || path.isEmpty()) return "/";
+		// path variables are decoded, so they are encoded again segment by segment
+		StringJoiner joiner = new StringJoiner("/", "/", "");
+		for(String segment : path.split("/", -1)) joiner.add(URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20"));
+		return joiner.toString();
+	}
+
+	private @NotNull String getPrefix() {
+		return routePrefix.endsWith("/") ? routePrefix : routePrefix + "/";
+	}
+
+	/**
+	 * The pool of connections to an upstream.
+	 */
+	private static final class Upstream {
+
+		private final String host;
+		private final int port;
+		private final String authority;
+		private final String path;
+		private final Semaphore permits;
+		// the most recently used connection is reused first, so that the others time out
+		private final Deque<Connection> idle = new ConcurrentLinkedDeque<>();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private volatile boolean closed = false;
+
+		private Upstream(@NotNull URI uri, int maxConnections) {
+			if(!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) throw new IllegalArgumentException("not an http upstream: " + uri);
+			this.host = uri.getHost();
+			this.port = uri.getPort() == -1 ? 80 : uri.getPort();
+			this.authority = uri.getPort() == -1 ? host : host + ':' + port;
+			String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+			this.path = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+			this.permits = new Semaphore(maxConnections, true);
+		}
+
+		/**
+		 * Takes an idle connection, or opens a new one.
+		 */
+		private @NotNull Exchange acquire(@NotNull ProxyHandler handler) throws IOException {
+			inFlight.incrementAndGet();
+			try {
+				if(!permits.tryAcquire(handler.connectTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+					throw new GatewayTimeoutException("no connection to upstream " + this + " became available within " + handler.connectTimeout.toMillis() + " ms", null);
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				inFlight.decrementAndGet();
+				throw new IOException("interrupted while waiting for a connection to upstream " + this, e);
+			} catch(IOException e) {
+				inFlight.decrementAndGet();
+				throw e;
+			}
+			long now = System.nanoTime();
+			Connection connection;
+			while((connection = idle.pollFirst()) != null) {
+				if(now - connection.idleSince < handler.idleTimeout.toNanos()) {
+					connection.reused = true;
+					return new Exchange(this, connection, handler.keepAlive);
+				}
+				connection.close();
+			}
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(host, port), (int) handler.connectTimeout.toMillis());
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout((int) handler.readTimeout.toMillis());
+				connection = new Connection(socket);
+			} catch(IOException e) {
+				socket.close();
+				permits.release();
+				inFlight.decrementAndGet();
+				if(e instanceof SocketTimeoutException) throw new GatewayTimeoutException("could not connect to upstream " + this + " within " + handler.connectTimeout.toMillis() + " ms", e);
+				throw new BadGatewayException("could not connect to upstream " + this + ": " + e.getMessage(), e);
+			}
+			return new Exchange(this, connection, handler.keepAlive);
+		}
+
+		private void release(@NotNull Connection connection, boolean reusable) {
+			if(reusable && !closed) {
+				connection.idleSince = System.nanoTime();
+				idle.offerFirst(connection);
+				// the pool may have been closed in the meantime
+				if(closed && idle.remove(connection)) connection.close();
+			} else {
+				connection.close();
+			}
+			permits.release();
+			inFlight.decrementAndGet();
+		}
+
+		private void close() {
+			closed = true;
+			Connection connection;
+			while((connection = idle.pollFirst()) != null) connection.close();
+		}
+
+		@Override
+		public String toString() {
+			return authority + path;
+		}
+
+	}
+
+	/**
+	 * A connection to an upstream.
+	 */
+	private static final class Connection {
+
+		private final Socket socket;
+		private final InputStream in;
+		private final OutputStream out;
+		private boolean reused = false;
+		private long idleSince;
+
+		private Connection(@NotNull Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+			this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			} catch(IOException ignored) {
+				// nothing left to do
+			}
+		}
+
+	}
+
+	/**
+	 * The use of a connection for one request. Closing it before it is {@linkplain #release() released} discards the connection,
+	 * as the rest of the response is still on it.
+	 */
+	private static final class Exchange implements Closeable {
+
+		private final Upstream upstream;
+		private final Connection connection;
+		private final AtomicBoolean done = new AtomicBoolean();
+		private boolean reusable;
+
+		private Exchange(@NotNull Upstream upstream, @NotNull Connection connection, boolean reusable) {
+			this.upstream = upstream;
+			this.connection = connection;
+			this.reusable = reusable;
+		}
+
+		/**
+		 * Returns the connection to the pool once the whole response has been read.
+		 */
+		private void release() {
+			if(done.compareAndSet(false, true)) upstream.release(connection, reusable);
+		}
+
+		@Override
+		public void close() {
+			if(done.compareAndSet(false, true)) upstream.release(connection, false);
+		}
+
+	}
+
+}
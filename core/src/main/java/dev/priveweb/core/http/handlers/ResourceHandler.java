@@ -1,30 +1,57 @@
 package dev.priveweb.core.http.handlers;
 
+import dev.priveweb.core.data.DataCoder;
+import dev.priveweb.core.data.DataEncodingRegistry;
 import dev.priveweb.core.http.Header;
 import dev.priveweb.core.http.ResponseCode;
 import dev.priveweb.core.http.interceptor.Setup;
 import dev.priveweb.core.http.request.verbs.GetRequest;
+import dev.priveweb.core.http.response.BodyWriter;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.http.response.EncodedResponse;
 import dev.priveweb.core.http.response.HTTPResponse;
 import dev.priveweb.core.mapper.MappingConfiguration;
 import dev.priveweb.core.server.PriveServer;
-import dev.priveweb.core.util.IOUtils;
+import dev.priveweb.core.server.impl.PriveWebServer;
+import dev.priveweb.core.util.HeaderUtils;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Data;
+import lombok.Getter;
 import lombok.Singular;
 import lombok.SneakyThrows;
 import dev.priveweb.core.http.request.PathParam;
 import dev.priveweb.core.http.request.RequestMethod;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import slf4jansi.AnsiLogger;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Handler for {@link GetRequest GetRequest}s on managed resources.
@@ -46,6 +73,10 @@ public class ResourceHandler implements Setup {
 	@Builder.Default
 	private @NotNull String resourcePrefix = "/";
 
+	/**
+	 * The files and directories to serve. A file is served by its name, and the files in a directory
+	 * (including those in its subdirectories) by the name of the directory followed by their paths.
+	 */
 	@Singular
 	private @NotNull Set<Path> resources;
 
@@ -55,57 +86,418 @@ public class ResourceHandler implements Setup {
 	@Builder.Default
 	private boolean showIndexHTMLFileIfInDirectory = true;
 
+	/**
+	 * The cache of encoded responses, or {@code null} to always read resources from disk.
+	 * By default, up to {@code 64 MiB} of resources of up to {@code 1 MiB} each are cached.
+	 */
+	@Builder.Default
+	private @Nullable AssetCache cache = new AssetCache(64L << 20, 1L << 20);
+
+	/**
+	 * Whether to load all resources into the {@linkplain #cache} when the handler is set up,
+	 * instead of on their first request.
+	 */
+	@Builder.Default
+	private boolean preload = false;
+
+	/**
+	 * {@code Cache-Control} header values by request path prefix, for example
+	 * {@code /static/js/} to {@code max-age=31536000, immutable}. The longest matching prefix applies;
+	 * if none does, no {@code Cache-Control} header is sent.
+	 */
+	@Singular("cacheControl")
+	private @NotNull Map<String, String> cacheControlPolicies;
+
+	/**
+	 * The size above which files are not hashed for their entity tags, which are then made of their size and modification time.
+	 * By default, files of up to {@code 16 MiB} are hashed.
+	 */
+	@Builder.Default
+	private long maxHashedSize = 16L << 20;
+
+	/**
+	 * The entity tags of files, computed once per version (modification time and size) of each file.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final Map<Path, FileVersion> versions = new ConcurrentHashMap<>();
+
+	// the tag is completed by the one request that hashes the file, and awaited by the others
+	private record FileVersion(long lastModified, long size, CompletableFuture<String> etag) {}
+
+	private static final int MAX_RANGES = 32;
+
+	/**
+	 * The content codings that resources may be sent in, or {@code null} to use the
+	 * server's {@linkplain dev.priveweb.core.server.impl.PriveWebServer#getContentCoders() content coders}.
+	 * A precompressed file next to a resource (such as {@code app.js.gz}) is preferred; otherwise,
+	 * text-like resources small enough to be {@linkplain #cache cached} are compressed once, and the result is cached.
+	 */
+	@Builder.Default
+	private @Nullable DataEncodingRegistry contentCoders = null;
+
+	/**
+	 * Resources that are sent unencoded whatever the client accepts, so that
+	 * their cached responses are found without touching the file system.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final Set<String> identityOnly = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Whether to watch the resources for changes, keeping the index and the {@linkplain #cache} current.
+	 */
+	@Builder.Default
+	private boolean watch = true;
+
+	/**
+	 * The index of all resources, which is built when the handler is set up.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final AtomicReference<ResourceIndex> index = new AtomicReference<>();
+
 	// add routes dynamically
 	@Override
 	@SneakyThrows
 	public void setup(@NotNull MappingConfiguration configuration, @NotNull PriveServer server) {
-		var resourcePrefix2 = resourcePrefix;
-		if(!resourcePrefix2.endsWith("/")) {
-			resourcePrefix2 += "/";
+		if(contentCoders == null && server instanceof PriveWebServer webServer) contentCoders = webServer.getContentCoders();
+		ResourceIndex index = new ResourceIndex(resources, showIndexHTMLFileIfInDirectory, getSidecarExtensions());
+		if(watch) index.watch(this::invalidate);
+		else index.build();
+		ResourceIndex previous = this.index.getAndSet(index);
+		if(previous != null) previous.close();
+		logger.info("Indexed {} resources under {}", index.keys().size(), getPrefix());
+		configuration.map(getPrefix() + "{**}", RequestMethod.GET, getClass().getDeclaredMethod("getResource", String.class, HTTPRequest.class));
+		if(preload && cache != null) {
+			for(String key : index.keys()) getResource(key, null);
+			logger.info("Preloaded {} resources ({} bytes)", cache.count(), cache.size());
 		}
-		configuration.map(resourcePrefix2 + "{}", RequestMethod.GET, getClass().getDeclaredMethod("getResource", String.class));
 	}
 
 	/**
 	 * The handler for getting resources. This is not annotated;
 	 * the registration is done by the {@link #setup(MappingConfiguration, PriveServer)}.
+	 * <p>
+	 *     Responses carry a strong {@code ETag} and a {@code Last-Modified} date, and conditional requests
+	 *     ({@code If-None-Match} or {@code If-Modified-Since}) for unchanged resources are answered with {@code 304 Not Modified}.
+	 * </p>
+	 * <p>
+	 *     {@code Range} requests (guarded by {@code If-Range}, if present) are answered with {@code 206 Partial Content}, either
+	 *     with a single range or with several ranges as {@code multipart/byteranges}. Ranges are sent straight from the file.
+	 * </p>
 	 * @param resource The resource to retrieve.
+	 * @param request The request, or {@code null} if the request is not conditional.
 	 */
-	public HTTPResponse getResource(@PathParam String resource) throws IOException {
+	public HTTPResponse getResource(@PathParam String resource, @Nullable HTTPRequest request) throws IOException {
 		var builder = HTTPResponse.builder();
 		builder.protocol("HTTP/1.1");
-		Path target = null;
-		for(Path res : resources) {
-			if(res.toString().replace("\\", "/").endsWith(resource)) {
-				if(Files.isDirectory(res)) {
-					var res2 = res.toString();
-					if(!res2.endsWith("/")) res2 += "/"; 
-					if(showIndexHTMLFileIfInDirectory) {
-						res2 += "index.html";
-						target = Path.of(res2);
-					}
-				} else target = res;
-				break;
+		resource = ResourceIndex.normalize(resource);
+		String cacheControl = getCacheControl(getPrefix() + resource);
+		String range = request == null ? null : HeaderUtils.getHeader(request.getHeaders(), "Range").stream().findFirst().orElse(null);
+		// ranges are always of the unencoded resource
+		DataCoder coding = request == null || range != null || contentCoders == null || identityOnly.contains(resource)
+				? null
+				: contentCoders.negotiate(HeaderUtils.getHeader(request.getHeaders(), "Accept-Encoding"));
+		// cached responses are complete, so ranges are read from the file
+		if(cache != null && range == null) {
+			// a hit does not touch the file system at all
+			CachedAsset asset = cache.get(coding == null ? resource : resource + ';' + coding.getCoderName());
+			if(asset != null) {
+				if(isNotModified(request, asset.etag(), asset.lastModified())) return notModified(asset.etag(), asset.lastModified(), cacheControl, contentCoders != null);
+				return builder.responseCode(ResponseCode.S_200).encoded(asset.response()).build();
 			}
 		}
-		if(target == null) {
+		ResourceIndex index = this.index.get();
+		ResourceIndex.Entry entry = index == null ? null : index.get(resource);
+		if(entry == null) {
 			return builder.responseCode(ResponseCode.C_404)
 					.header(new Header("Content-Length", "0"))
 					.responseBody(new byte[0])
 					.build();
 		} else {
-			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-			BufferedOutputStream dataOutputStream = new BufferedOutputStream(byteArrayOutputStream);
-			var data = IOUtils.readFromPath(target);
-			dataOutputStream.write(data, 0, data.length);
-			dataOutputStream.flush();
-			byteArrayOutputStream.flush();
-			return builder.responseCode(ResponseCode.S_200)
-					.responseBody(byteArrayOutputStream.toByteArray())
-					.header(new Header("Content-Type", Files.probeContentType(target) + "; charset=utf-8"))
-					.header(new Header("Content-Length", String.valueOf(data.length)))
+			// the index is kept current, so the file system is only read to send the file
+			Path target = entry.file();
+			long lastModified = entry.lastModified();
+			String contentType = entry.contentType();
+			// prefer a precompressed file, else compress once if the result can be cached
+			Path sidecar = null;
+			if(coding != null) {
+				sidecar = getSidecar(index, resource, coding, lastModified);
+				if(sidecar == null && (cache == null || !cache.accepts(entry.size()) || !isCompressible(contentType))) {
+					if(cache != null && cache.accepts(entry.size())) identityOnly.add(resource);
+					coding = null;
+				}
+			}
+			String etag = getETag(target, lastModified, entry.size());
+			// each encoding is a different representation, so it needs its own strong entity tag
+			if(coding != null) etag = etag.substring(0, etag.length() - 1) + '-' + coding.getCoderName() + '"';
+			if(isNotModified(request, etag, lastModified)) return notModified(etag, lastModified, cacheControl, contentCoders != null);
+			if(range != null && isRangeApplicable(request, etag, lastModified)) {
+				List<long[]> ranges = parseRanges(range, entry.size());
+				if(ranges != null) return partialContent(target, entry.size(), contentType, etag, lastModified, cacheControl, ranges);
+			}
+			builder.responseCode(ResponseCode.S_200)
+					.header(new Header("Content-Type", contentType))
+					.header(new Header("ETag", etag))
+					.header(new Header("Last-Modified", HeaderUtils.formatDate(lastModified)))
+					.header(new Header("Accept-Ranges", "bytes"));
+			if(cacheControl != null) builder.header(new Header("Cache-Control", cacheControl));
+			if(contentCoders != null) builder.header(new Header("Vary", "Accept-Encoding"));
+			if(coding != null) {
+				builder.header(new Header("Content-Encoding", coding.getCoderName()));
+				if(sidecar != null) builder.bodyWriter(BodyWriter.of(sidecar));
+				else builder.responseBody(coding.encode(Files.readAllBytes(target), StandardCharsets.UTF_8));
+			} else {
+				// the file is sent straight from disk when the response is written, so its size does not matter
+				builder.bodyWriter(BodyWriter.of(target));
+			}
+			HTTPResponse response = builder.build();
+			if(cache != null && cache.accepts(response.getContentLength())) {
+				EncodedResponse encoded = EncodedResponse.encode(response);
+				cache.put(coding == null ? resource : resource + ';' + coding.getCoderName(), new CachedAsset(encoded, etag, lastModified));
+				return builder.encoded(encoded).build();
+			}
+			return response;
+		}
+	}
+
+	/**
+	 * Gets the precompressed version of a resource, such as {@code app.js.gz}, if it exists and is not older than the resource.
+	 */
+	private static @Nullable Path getSidecar(@NotNull ResourceIndex index, @NotNull String resource, @NotNull DataCoder coding, long lastModified) {
+		if(coding.getFileExtension() == null) return null;
+		ResourceIndex.Entry sidecar = index.get(resource + coding.getFileExtension());
+		return sidecar != null && sidecar.lastModified() >= lastModified ? sidecar.file() : null;
+	}
+
+	private @NotNull List<String> getSidecarExtensions() {
+		if(contentCoders == null) return List.of();
+		return contentCoders.getCoders().stream().map(DataCoder::getFileExtension).filter(Objects::nonNull).toList();
+	}
+
+	/**
+	 * Drops everything cached about a resource that changed on disk.
+	 * @param key The key of the resource, or {@code null} if any resource may have changed.
+	 */
+	private void invalidate(@Nullable String key) {
+		if(key == null) {
+			if(cache != null) cache.invalidateIf(k -> true);
+			identityOnly.clear();
+			versions.clear();
+			return;
+		}
+		Set<String> keys = new HashSet<>();
+		keys.add(key);
+		// a precompressed file belongs to the resource it compresses
+		for(String extension : getSidecarExtensions()) {
+			if(key.endsWith(extension)) keys.add(key.substring(0, key.length() - extension.length()));
+		}
+		for(String k : keys) {
+			if(cache != null) cache.invalidateIf(c -> c.equals(k) || c.startsWith(k + ';'));
+			identityOnly.remove(k);
+		}
+	}
+
+	/**
+	 * Whether compressing a media type is worthwhile; already compressed formats, such as images, are not.
+	 */
+	private static boolean isCompressible(@NotNull String contentType) {
+		String type = HeaderUtils.stripParameters(contentType);
+		return type.startsWith("text/")
+				|| type.endsWith("+json") || type.endsWith("+xml")
+				|| type.equals("application/json") || type.equals("application/javascript")
+				|| type.equals("application/xml") || type.equals("application/wasm")
+				|| type.equals("image/svg+xml");
+	}
+
+	private @NotNull String getPrefix() {
+		return resourcePrefix.endsWith("/") ? resourcePrefix : resourcePrefix + "/";
+	}
+
+	private @Nullable String getCacheControl(@NotNull String path) {
+		String value = null;
+		int longest = -1;
+		for(var entry : cacheControlPolicies.entrySet()) {
+			if(path.startsWith(entry.getKey()) && entry.getKey().length() > longest) {
+				longest = entry.getKey().length();
+				value = entry.getValue();
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Gets the strong entity tag of a file, hashing its contents only if the file has changed since it was last hashed.
+	 * Concurrent requests for a new version wait for a single hash; files larger than {@link #maxHashedSize} are not hashed.
+	 */
+	private @NotNull String getETag(@NotNull Path file, long lastModified, long size) throws IOException {
+		// the size and the modification time tell versions apart as well, without reading the whole file
+		if(size > maxHashedSize) return '"' + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + '"';
+		FileVersion created = new FileVersion(lastModified, size, new CompletableFuture<>());
+		FileVersion version = versions.merge(file, created, (current, fresh) -> current.lastModified() == lastModified && current.size() == size ? current : fresh);
+		if(version == created) {
+			try {
+				version.etag().complete(hash(file));
+			} catch(IOException | RuntimeException e) {
+				// the next request tries again
+				versions.remove(file, version);
+				version.etag().completeExceptionally(e);
+			}
+		}
+		try {
+			return version.etag().join();
+		} catch(CompletionException e) {
+			if(e.getCause() instanceof IOException io) throw io;
+			throw e;
+		}
+	}
+
+	private static @NotNull String hash(@NotNull Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform has SHA-256
+		}
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(65536);
+			while(channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		// 128 bits are plenty to tell versions apart
+		return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest.digest(), 16)) + '"';
+	}
+
+	/**
+	 * Evaluates {@code If-None-Match}, or {@code If-Modified-Since} if there is none, as in RFC 7232.
+	 */
+	private static boolean isNotModified(@Nullable HTTPRequest request, @NotNull String etag, long lastModified) {
+		if(request == null) return false;
+		var ifNoneMatch = HeaderUtils.getHeader(request.getHeaders(), "If-None-Match");
+		if(!ifNoneMatch.isEmpty()) return HeaderUtils.matchesETag(ifNoneMatch, etag);
+		var ifModifiedSince = HeaderUtils.getHeader(request.getHeaders(), "If-Modified-Since");
+		if(ifModifiedSince.isEmpty()) return false;
+		Long since = HeaderUtils.parseDate(ifModifiedSince.get(0));
+		// HTTP dates have a resolution of one second
+		return since != null && lastModified / 1000 <= since / 1000;
+	}
+
+	/**
+	 * Evaluates {@code If-Range}: the range applies only if the resource has not changed.
+	 */
+	private static boolean isRangeApplicable(@NotNull HTTPRequest request, @NotNull String etag, long lastModified) {
+		var ifRange = HeaderUtils.getHeader(request.getHeaders(), "If-Range");
+		if(ifRange.isEmpty()) return true;
+		String value = ifRange.get(0).strip();
+		// strong comparison; weak tags never match
+		if(value.startsWith("\"") || value.startsWith("W/")) return value.equals(etag);
+		Long date = HeaderUtils.parseDate(value);
+		return date != null && date / 1000 == lastModified / 1000;
+	}
+
+	/**
+	 * Parses a {@code Range} header into sorted, coalesced ranges of inclusive first and last positions.
+	 * @return the ranges, an empty list if none can be satisfied, or {@code null} if the header should be ignored.
+	 */
+	private static @Nullable List<long[]> parseRanges(@NotNull String header, long size) {
+		header = header.strip();
+		if(!header.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+		List<long[]> ranges = new ArrayList<>();
+		for(String spec : header.substring(6).split(",")) {
+			spec = spec.strip();
+			int dash = spec.indexOf('-');
+			if(dash < 0) return null;
+			long first, last;
+			try {
+				if(dash == 0) {
+					// the last n bytes
+					long suffix = Long.parseLong(spec.substring(1));
+					if(suffix <= 0 || size == 0) continue;
+					first = Math.max(0, size - suffix);
+					last = size - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+					if(first < 0 || last < first) return null;
+					if(first >= size) continue;
+					last = Math.min(last, size - 1);
+				}
+			} catch(NumberFormatException e) {
+				return null;
+			}
+			ranges.add(new long[] {first, last});
+		}
+		ranges.sort(Comparator.comparingLong(r -> r[0]));
+		List<long[]> coalesced = new ArrayList<>();
+		for(long[] r : ranges) {
+			long[] previous = coalesced.isEmpty() ? null : coalesced.get(coalesced.size() - 1);
+			if(previous != null && r[0] <= previous[1] + 1) previous[1] = Math.max(previous[1], r[1]);
+			else coalesced.add(r);
+		}
+		// a request for many small ranges costs more than the whole file
+		return coalesced.size() > MAX_RANGES ? null : coalesced;
+	}
+
+	private static @NotNull HTTPResponse partialContent(@NotNull Path file, long size, @NotNull String contentType, @NotNull String etag, long lastModified, @Nullable String cacheControl, @NotNull List<long[]> ranges) {
+		var builder = HTTPResponse.builder()
+				.protocol("HTTP/1.1")
+				.header(new Header("Accept-Ranges", "bytes"))
+				.header(new Header("ETag", etag))
+				.header(new Header("Last-Modified", HeaderUtils.formatDate(lastModified)));
+		if(cacheControl != null) builder.header(new Header("Cache-Control", cacheControl));
+		if(ranges.isEmpty()) {
+			return builder.responseCode(ResponseCode.C_416)
+					.header(new Header("Content-Range", "bytes */" + size))
+					.build();
+		}
+		builder.responseCode(ResponseCode.S_206);
+		if(ranges.size() == 1) {
+			long[] r = ranges.get(0);
+			return builder.header(new Header("Content-Type", contentType))
+					.header(new Header("Content-Range", "bytes " + r[0] + "-" + r[1] + "/" + size))
+					.bodyWriter(BodyWriter.of(file, r[0], r[1] - r[0] + 1))
 					.build();
 		}
+		String boundary = UUID.randomUUID().toString();
+		byte[][] partHeads = new byte[ranges.size()][];
+		long length = 0;
+		for(int i = 0; i < ranges.size(); i++) {
+			long[] r = ranges.get(i);
+			partHeads[i] = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: bytes " + r[0] + "-" + r[1] + "/" + size + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+			length += partHeads[i].length + r[1] - r[0] + 1;
+		}
+		byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		long contentLength = length + end.length;
+		return builder.header(new Header("Content-Type", "multipart/byteranges; boundary=" + boundary))
+				.bodyWriter(new BodyWriter() {
+					@Override
+					public void writeTo(@NotNull OutputStream out) throws IOException {
+						for(int i = 0; i < partHeads.length; i++) {
+							long[] r = ranges.get(i);
+							out.write(partHeads[i]);
+							BodyWriter.of(file, r[0], r[1] - r[0] + 1).writeTo(out);
+						}
+						out.write(end);
+					}
+
+					@Override
+					public long contentLength() {
+						return contentLength;
+					}
+				})
+				.build();
+	}
+
+	private static @NotNull HTTPResponse notModified(@NotNull String etag, long lastModified, @Nullable String cacheControl, boolean vary) {
+		var builder = HTTPResponse.builder()
+				.protocol("HTTP/1.1")
+				.responseCode(ResponseCode.R_304)
+				.header(new Header("ETag", etag))
+				.header(new Header("Last-Modified", HeaderUtils.formatDate(lastModified)));
+		if(cacheControl != null) builder.header(new Header("Cache-Control", cacheControl));
+		if(vary) builder.header(new Header("Vary", "Accept-Encoding"));
+		return builder.build();
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,257 @@
+package dev.priveweb.core.http.handlers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import slf4jansi.AnsiLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * An index of the files served by a {@link ResourceHandler}, from their normalized request paths to their metadata,
+ * so that resources are found with one hash lookup instead of a scan. The index can be kept current with a {@link WatchService}.
+ * <p>
+ *     A file resource is indexed by its name. A directory resource is indexed recursively, by its name followed by the
+ *     path of each file in it; directories containing an {@code index.html} file are also indexed by their own path.
+ *     Request paths are lower-case, so keys are too.
+ * </p>
+ */
+final class ResourceIndex implements Closeable {
+
+	private static final Logger logger = AnsiLogger.of(LoggerFactory.getLogger(ResourceIndex.class));
+
+	/**
+	 * The metadata of an indexed file.
+	 * @param file The file.
+	 * @param size The size of the file, in bytes.
+	 * @param lastModified The last modification time of the file, in milliseconds since the epoch.
+	 * @param contentType The content type of the file.
+	 */
+	record Entry(@NotNull Path file, long size, long lastModified, @NotNull String contentType) {}
+
+	private final List<Path> roots;
+	private final boolean indexHTML;
+	private final Collection<String> sidecarExtensions;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+	private final Set<Path> registeredDirectories = ConcurrentHashMap.newKeySet();
+	private @Nullable WatchService watchService;
+
+	/**
+	 * Creates a new, empty {@link ResourceIndex}.
+	 * @param roots The file and directory resources.
+	 * @param indexHTML Whether to index directories by their {@code index.html} files.
+	 * @param sidecarExtensions The extensions of precompressed files to index next to file resources, such as {@code .gz}.
+	 */
+	ResourceIndex(@NotNull Collection<Path> roots, boolean indexHTML, @NotNull Collection<String> sidecarExtensions) {
+		this.roots = roots.stream().map(p -> p.toAbsolutePath().normalize()).toList();
+		this.indexHTML = indexHTML;
+		this.sidecarExtensions = List.copyOf(sidecarExtensions);
+	}
+
+	/**
+	 * Normalizes a request path into a key, for example {@code /CSS//site.css/} into {@code css/site.css}.
+	 */
+	static @NotNull String normalize(@NotNull String path) {
+		StringJoiner joiner = new StringJoiner("/");
+		for(String segment : path.split("/")) {
+			if(!segment.isEmpty()) joiner.add(segment.toLowerCase(Locale.ROOT));
+		}
+		return joiner.toString();
+	}
+
+	/**
+	 * Gets the metadata of a resource.
+	 * @param path The request path of the resource.
+	 * @return the metadata, or {@code null} if there is no such resource.
+	 */
+	@Nullable Entry get(@NotNull String path) {
+		return entries.get(normalize(path));
+	}
+
+	/**
+	 * Gets the keys of all indexed resources.
+	 * @return the keys.
+	 */
+	@NotNull Set<String> keys() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/**
+	 * Indexes all resources, replacing the current index.
+	 */
+	void build() throws IOException {
+		Map<String, Entry> fresh = new HashMap<>();
+		for(Path root : roots) {
+			if(Files.isDirectory(root)) indexDirectory(root, fresh);
+			else if(Files.isRegularFile(root)) indexFile(root, fresh);
+			else logger.warn("{!warn}Resource {} does not exist", root);
+		}
+		entries.keySet().retainAll(fresh.keySet());
+		entries.putAll(fresh);
+	}
+
+	/**
+	 * Indexes all resources like {@link #build()}, and then watches the indexed directories on a daemon thread.
+	 * The listener is called with the key of every resource that changed, or with {@code null} if everything may have changed.
+	 * @param listener The listener.
+	 */
+	void watch(@NotNull Consumer<@Nullable String> listener) throws IOException {
+		if(watchService != null || roots.isEmpty()) return;
+		WatchService service = roots.get(0).getFileSystem().newWatchService();
+		watchService = service;
+		for(Path root : roots) {
+			if(!Files.isDirectory(root) && root.getParent() != null) register(root.getParent());
+		}
+		// directories are registered as they are walked
+		build();
+		Thread thread = new Thread(() -> {
+			try {
+				while(true) {
+					WatchKey key = service.take();
+					Path directory = watchedDirectories.get(key);
+					for(WatchEvent<?> event : key.pollEvents()) {
+						try {
+							if(event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+								build();
+								listener.accept(null);
+							} else {
+								changed(directory.resolve((Path) event.context()), event.kind(), listener);
+							}
+						} catch(IOException e) {
+							logger.warn("{!warn}Unable to update the resource index: {}", e.toString());
+						}
+					}
+					if(!key.reset() && directory != null) {
+						watchedDirectories.remove(key);
+						registeredDirectories.remove(directory);
+					}
+				}
+			} catch(InterruptedException | ClosedWatchServiceException e) {
+				// the index was closed
+			}
+		}, "prive-resource-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching for changes.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(watchService != null) watchService.close();
+	}
+
+	private void changed(@NotNull Path path, @NotNull WatchEvent.Kind<?> kind, @NotNull Consumer<@Nullable String> listener) throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch(NoSuchFileException e) {
+			attributes = null;
+		}
+		for(Path root : roots) {
+			if(attributes != null && attributes.isDirectory()) {
+				// a new directory, whose files may have been created before it was watched
+				if(kind != StandardWatchEventKinds.ENTRY_CREATE || !path.startsWith(root)) continue;
+				Map<String, Entry> added = new HashMap<>();
+				indexDirectory(path, added);
+				entries.putAll(added);
+				added.keySet().forEach(listener);
+				continue;
+			}
+			Set<String> keys = keysOf(root, path);
+			if(attributes == null && path.startsWith(root) && !path.equals(root)) {
+				// this may have been a directory, so everything in it is removed too
+				String prefix = keyOf(root, path) + "/";
+				for(String key : entries.keySet()) {
+					if(key.startsWith(prefix)) keys.add(key);
+				}
+			}
+			for(String key : keys) {
+				if(attributes != null && attributes.isRegularFile()) entries.put(key, entryOf(path, attributes));
+				else entries.remove(key);
+				listener.accept(key);
+			}
+		}
+	}
+
+	/**
+	 * Gets the keys that a file can be indexed by, whether or not it exists.
+	 */
+	private @NotNull Set<String> keysOf(@NotNull Path root, @NotNull Path file) {
+		Set<String> keys = new HashSet<>();
+		if(root.equals(file)) {
+			keys.add(normalize(root.getFileName().toString()));
+		} else if(file.startsWith(root)) {
+			keys.add(keyOf(root, file));
+			if(indexHTML && file.getFileName().toString().equalsIgnoreCase("index.html")) keys.add(keyOf(root, file.getParent()));
+		} else if(file.getParent() != null && file.getParent().equals(root.getParent())) {
+			// a precompressed file next to a file resource
+			for(String extension : sidecarExtensions) {
+				if(file.getFileName().toString().equals(root.getFileName() + extension)) keys.add(normalize(file.getFileName().toString()));
+			}
+		}
+		return keys;
+	}
+
+	private static @NotNull String keyOf(@NotNull Path root, @NotNull Path file) {
+		return normalize(root.getFileName() + "/" + root.relativize(file).toString().replace('\\', '/'));
+	}
+
+	private void indexFile(@NotNull Path file, @NotNull Map<String, Entry> into) throws IOException {
+		into.put(normalize(file.getFileName().toString()), entryOf(file, Files.readAttributes(file, BasicFileAttributes.class)));
+		for(String extension : sidecarExtensions) {
+			Path sidecar = file.resolveSibling(file.getFileName() + extension);
+			if(Files.isRegularFile(sidecar)) into.put(normalize(sidecar.getFileName().toString()), entryOf(sidecar, Files.readAttributes(sidecar, BasicFileAttributes.class)));
+		}
+	}
+
+	/**
+	 * Walks a directory, indexing its files, and registering its directories if they are {@linkplain #watch(Consumer) watched}.
+	 */
+	private void indexDirectory(@NotNull Path directory, @NotNull Map<String, Entry> into) throws IOException {
+		Path root = roots.stream().filter(directory::startsWith).findFirst().orElse(directory);
+		Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if(attrs.isRegularFile()) {
+					for(String key : keysOf(root, file)) into.put(key, entryOf(file, attrs));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void register(@NotNull Path directory) throws IOException {
+		if(watchService == null || !registeredDirectories.add(directory)) return;
+		WatchKey key = directory.register(
+				watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE
+		);
+		watchedDirectories.put(key, directory);
+	}
+
+	private static @NotNull Entry entryOf(@NotNull Path file, @NotNull BasicFileAttributes attributes) throws IOException {
+		String contentType = Files.probeContentType(file);
+		if(contentType == null) contentType = "application/octet-stream";
+		else if(contentType.startsWith("text/")) contentType += "; charset=utf-8";
+		return new Entry(file, attributes.size(), attributes.lastModifiedTime().toMillis(), contentType);
+	}
+
+}
@@ -1,13 +1,22 @@
 package dev.priveweb.core.http.request;
 
 import dev.priveweb.core.http.Header;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Singular;
+import lombok.SneakyThrows;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -38,10 +47,100 @@ public class HTTPRequest {
 	private @NotNull String requestedResource;
 
 	/**
-	 * The request body, if applicable.
+	 * The query string of the requested resource, starting with {@code ?}, or an empty string if there is none.
+	 */
+	@Builder.Default
+	private @NotNull String queryString = "";
+
+	/**
+	 * The request-target as the client sent it, in its original case, still percent-encoded, and with the query string,
+	 * such as for forwarding the request as is. This is empty if the request was not read from a connection.
+	 */
+	@Builder.Default
+	private @NotNull String requestTarget = "";
+
+	/**
+	 * The request body, if applicable. This is only set once the body
+	 * has been {@linkplain #getRequestBody() read as a string}.
 	 */
 	private @Nullable String requestBody;
 
+	/**
+	 * The stream of the request body, if applicable. This reads directly from the connection,
+	 * already bounded by the {@code Content-Length} or decoded from the {@code Transfer-Encoding}.
+	 */
+	private @Nullable InputStream requestBodyStream;
+
+	/**
+	 * Resources to close once the response has been sent.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final List<Closeable> completionResources = new ArrayList<>();
+
+	/**
+	 * Whether the request has a body.
+	 * @return {@code true} if there is a request body.
+	 */
+	public boolean hasRequestBody() {
+		return requestBody != null || requestBodyStream != null;
+	}
+
+	/**
+	 * Gets the request body as a {@code UTF-8} string. If the body has not been read yet, the
+	 * {@linkplain #getRequestBodyStream() request body stream} is read in full.
+	 * <p>Prefer {@link #getRequestBodyStream()} for large bodies.</p>
+	 * @return the request body, else {@code null}.
+	 */
+	@SneakyThrows(IOException.class)
+	public synchronized @Nullable String getRequestBody() {
+		if(requestBody == null && requestBodyStream != null) {
+			try(InputStream in = requestBodyStream) {
+				requestBody = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			}
+			requestBodyStream = null;
+		}
+		return requestBody;
+	}
+
+	/**
+	 * Gets the request body as a stream, which can only be consumed once.
+	 * If the body was already {@linkplain #getRequestBody() read as a string}, a stream over that string is returned instead.
+	 * @return the request body stream, else {@code null}.
+	 */
+	public synchronized @Nullable InputStream getRequestBodyStream() {
+		if(requestBody != null) return new ByteArrayInputStream(requestBody.getBytes(StandardCharsets.UTF_8));
+		return requestBodyStream;
+	}
+
+	/**
+	 * Registers a resource, such as a spooled request body, to be closed once the response has been sent.
+	 * @param resource The resource.
+	 */
+	@ApiStatus.Internal
+	public synchronized void closeOnCompletion(@NotNull Closeable resource) {
+		completionResources.add(resource);
+	}
+
+	/**
+	 * Closes all resources {@linkplain #closeOnCompletion(Closeable) registered} with this request.
+	 * This is called by the server once the response has been sent.
+	 * @throws IOException the first exception thrown by a resource; the others are suppressed.
+	 */
+	@ApiStatus.Internal
+	public synchronized void complete() throws IOException {
+		IOException exception = null;
+		for(Closeable resource : completionResources) {
+			try {
+				resource.close();
+			} catch(IOException e) {
+				if(exception == null) exception = e;
+				else exception.addSuppressed(e);
+			}
+		}
+		completionResources.clear();
+		if(exception != null) throw exception;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -19,6 +19,10 @@ import java.lang.annotation.*;
  *     		// ...
  *     }
  * </pre>
+ * <p>
+ *     A {@code {**}} segment at the end of a route matches the rest of the path, which is given as one
+ *     path parameter; for example, {@code /files/{**}} matches {@code /files/css/site.css} with {@code css/site.css}.
+ * </p>
  * <p>This does not inject query parameters; for those, have a {@link QueryParameters} parameter instead.</p>
  * @see QueryParameters
  */
@@ -31,11 +31,10 @@ import java.lang.annotation.Target;
  * 				.build();
  * }
  *
- * // this is what happens behind the scenes
- * private static String toJSON(Object o) {
- *		Moshi moshi = new Moshi.Builder().build();
- * 	JsonAdapter<T> jsonAdapter = moshi.adapter(responseBodyClass);
- * 	return jsonAdapter.toJson(responseBody);
+ * // this is what happens behind the scenes; the body is parsed as it is read from the connection,
+ * // by the marshaller of its Content-Type (JSON if there is none)
+ * private static Object unmarshal(Parameter param, Marshaller marshaller, InputStream body) {
+ * 	return marshaller.unmarshal(param.getParameterizedType(), Okio.buffer(Okio.source(body)));
  * }
  * }</pre>
  */
@@ -38,7 +38,7 @@ public enum RequestMethod {
 	@ApiStatus.Internal
 	public static RequestMethod[] getRequestMethod(@NotNull AnnotatedElement obj) {
 		ArrayList<RequestMethod> methods = new ArrayList<>();
-		if(obj.isAnnotationPresent(GetRequest.class)) methods.add(GET);
+		if(obj.isAnnotationPresent(GetRequest.class) || obj.isAnnotationPresent(WebSocketRequest.class)) methods.add(GET);
 		if(obj.isAnnotationPresent(PostRequest.class)) methods.add(POST);
 		if(obj.isAnnotationPresent(DeleteRequest.class)) methods.add(DELETE);
 		if(obj.isAnnotationPresent(PutRequest.class)) methods.add(PUT);
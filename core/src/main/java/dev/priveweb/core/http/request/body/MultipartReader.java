@@ -0,0 +1,270 @@
+package dev.priveweb.core.http.request.body;
+
+import dev.priveweb.core.exception.MalformedRequestException;
+import dev.priveweb.core.http.Header;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A streaming parser of {@code multipart/form-data} request bodies (RFC 7578).
+ * <p>
+ *     Parts are read from the connection one at a time, as they are requested, and each part is
+ *     {@linkplain SpooledBody spooled} while it is read, so that neither the request nor any one part has to fit in memory.
+ *     A handler can receive the parts incrementally by declaring a {@code MultipartReader} parameter, or all at once by declaring
+ *     a {@code List<Part>} parameter.
+ * </p>
+ * <p>Closing the reader deletes the temporary files of all parts it has read.</p>
+ */
+public final class MultipartReader implements Iterable<Part>, Closeable {
+
+	private static final int BUFFER_SIZE = 16384;
+
+	private final InputStream in;
+	private final byte[] delimiter;
+	private final int threshold;
+	private final long maxPartSize;
+	private final @Nullable Path directory;
+	private final List<Part> parts = new ArrayList<>();
+
+	private final byte[] buffer;
+	private int pos = 0;
+	private int limit;
+	private boolean eof = false;
+	private boolean finished = false;
+
+	/**
+	 * Creates a new {@link MultipartReader}.
+	 * @param in The request body.
+	 * @param boundary The boundary, from the {@code Content-Type} header.
+	 * @param threshold The maximum number of bytes of a part to keep in memory.
+	 * @param maxPartSize The maximum size of a part, or {@code -1} for no limit.
+	 * @param directory The directory of temporary files, or {@code null} for the default temporary directory.
+	 */
+	public MultipartReader(@NotNull InputStream in, @NotNull String boundary, int threshold, long maxPartSize, @Nullable Path directory) {
+		this.in = in;
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+		this.threshold = threshold;
+		this.maxPartSize = maxPartSize;
+		this.directory = directory;
+		this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+		// the first delimiter need not be preceded by a line break, so one is assumed
+		buffer[0] = '\r';
+		buffer[1] = '\n';
+		this.limit = 2;
+	}
+
+	/**
+	 * Gets the boundary from a {@code multipart/form-data} content type.
+	 * @param contentType The value of the {@code Content-Type} header.
+	 * @return the boundary, or {@code null} if the content type is not {@code multipart/form-data} or has no boundary.
+	 */
+	public static @Nullable String getBoundary(@Nullable String contentType) {
+		if(contentType == null) return null;
+		String[] split = contentType.split(";");
+		if(!split[0].trim().equalsIgnoreCase("multipart/form-data")) return null;
+		for(int i = 1; i < split.length; i++) {
+			String param = split[i].trim();
+			if(param.regionMatches(true, 0, "boundary=", 0, 9)) {
+				String boundary = unquote(param.substring(9));
+				return boundary.isEmpty() || boundary.length() > 70 ? null : boundary;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the next part.
+	 * @return the part, or {@code null} if there are no more parts.
+	 * @throws MalformedRequestException if the body is not valid {@code multipart/form-data}.
+	 * @throws dev.priveweb.core.exception.PayloadTooLargeException if the part is larger than the limit.
+	 */
+	public @Nullable Part nextPart() throws IOException, MalformedRequestException {
+		if(finished) return null;
+		if(parts.isEmpty()) {
+			// discard the preamble
+			if(!readUntilDelimiter(null)) throw new MalformedRequestException("multipart body has no boundary");
+			if(afterDelimiter()) return null;
+		}
+		List<Header> headers = new ArrayList<>();
+		String line;
+		while(!(line = readLine()).isEmpty()) {
+			int colon = line.indexOf(':');
+			if(colon < 1) throw new MalformedRequestException("malformed part header: " + line);
+			headers.add(new Header(line.substring(0, colon).trim(), line.substring(colon + 1).trim()));
+		}
+		String name = null, filename = null, contentType = "text/plain";
+		for(Header h : headers) {
+			if(h.header().equalsIgnoreCase("Content-Disposition")) {
+				for(String param : h.value().split(";")) {
+					param = param.trim();
+					int eq = param.indexOf('=');
+					if(eq < 0) continue;
+					String key = param.substring(0, eq).trim();
+					if(key.equalsIgnoreCase("name")) name = unquote(param.substring(eq + 1).trim());
+					else if(key.equalsIgnoreCase("filename")) filename = unquote(param.substring(eq + 1).trim());
+				}
+			} else if(h.header().equalsIgnoreCase("Content-Type")) {
+				contentType = h.value();
+			}
+		}
+		SpooledBody.Spooler spooler = new SpooledBody.Spooler("part " + name, threshold, maxPartSize, directory);
+		Part part;
+		try {
+			if(!readUntilDelimiter(spooler)) throw new MalformedRequestException("multipart body ended within a part");
+			part = new Part(List.copyOf(headers), name, filename, contentType, spooler.finish());
+		} catch(IOException | MalformedRequestException | RuntimeException e) {
+			spooler.abort();
+			throw e;
+		}
+		parts.add(part);
+		afterDelimiter();
+		return part;
+	}
+
+	/**
+	 * Returns an iterator over the remaining parts. Any {@link IOException} is rethrown as an {@link UncheckedIOException},
+	 * and a {@link MalformedRequestException} is rethrown as an {@link IllegalStateException}.
+	 * @return the iterator.
+	 */
+	@Override
+	public @NotNull Iterator<Part> iterator() {
+		return new Iterator<>() {
+			private Part next;
+
+			@Override
+			public boolean hasNext() {
+				if(next == null) {
+					try {
+						next = nextPart();
+					} catch(IOException e) {
+						throw new UncheckedIOException(e);
+					} catch(MalformedRequestException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Part next() {
+				if(!hasNext()) throw new NoSuchElementException();
+				Part part = next;
+				next = null;
+				return part;
+			}
+		};
+	}
+
+	/**
+	 * Reads all remaining parts.
+	 * @return the parts.
+	 */
+	public @NotNull List<Part> readAll() throws IOException, MalformedRequestException {
+		while(nextPart() != null);
+		return List.copyOf(parts);
+	}
+
+	/**
+	 * Deletes the temporary files of all parts read so far.
+	 */
+	@Override
+	public void close() throws IOException {
+		for(Part part : parts) part.close();
+	}
+
+	/**
+	 * Reads up to the next delimiter, writing everything before it to the spooler if given.
+	 * @return {@code false} if the end of the stream was reached first.
+	 */
+	private boolean readUntilDelimiter(@Nullable SpooledBody.Spooler spooler) throws IOException {
+		while(true) {
+			int index = indexOfDelimiter();
+			if(index >= 0) {
+				if(spooler != null) spooler.write(buffer, pos, index - pos);
+				pos = index + delimiter.length;
+				return true;
+			}
+			// the delimiter may straddle the end of the buffer, so keep its length minus one
+			int safe = Math.max(pos, limit - delimiter.length + 1);
+			if(spooler != null) spooler.write(buffer, pos, safe - pos);
+			pos = safe;
+			if(eof) return false;
+			fill();
+		}
+	}
+
+	private int indexOfDelimiter() {
+		int last = limit - delimiter.length;
+		outer:
+		for(int i = pos; i <= last; i++) {
+			if(buffer[i] != '\r') continue;
+			for(int j = 1; j < delimiter.length; j++) if(buffer[i + j] != delimiter[j]) continue outer;
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Handles what follows a delimiter: either {@code --} for the last one, or a line break.
+	 * @return {@code true} if it was the last delimiter.
+	 */
+	private boolean afterDelimiter() throws IOException, MalformedRequestException {
+		while(limit - pos < 2 && !eof) fill();
+		if(limit - pos >= 2 && buffer[pos] == '-' && buffer[pos + 1] == '-') {
+			// the epilogue is ignored
+			finished = true;
+			return true;
+		}
+		// transport padding may precede the line break
+		if(!readLine().isBlank()) throw new MalformedRequestException("malformed multipart boundary");
+		return false;
+	}
+
+	private @NotNull String readLine() throws IOException, MalformedRequestException {
+		StringBuilder builder = new StringBuilder();
+		while(true) {
+			if(pos == limit) {
+				if(eof) throw new MalformedRequestException("multipart body ended unexpectedly");
+				fill();
+				continue;
+			}
+			byte b = buffer[pos++];
+			if(b == '\n') break;
+			if(builder.length() >= 8192) throw new MalformedRequestException("part header too long");
+			builder.append((char) (b & 0xFF));
+		}
+		int length = builder.length();
+		if(length > 0 && builder.charAt(length - 1) == '\r') builder.setLength(length - 1);
+		return new String(builder.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+	}
+
+	private void fill() throws IOException {
+		if(pos > 0) {
+			System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		int n = in.read(buffer, limit, buffer.length - limit);
+		if(n == -1) eof = true;
+		else limit += n;
+	}
+
+	private static @NotNull String unquote(@NotNull String s) {
+		if(s.length() >= 2 && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
+			return s.substring(1, s.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+		}
+		return s;
+	}
+
+}
@@ -0,0 +1,107 @@
+package dev.priveweb.core.http.request.body;
+
+import dev.priveweb.core.http.Header;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A part of a {@code multipart/form-data} request body, as read by a {@link MultipartReader}.
+ * The content of the part is {@linkplain SpooledBody spooled}, so large file uploads are kept on disk.
+ */
+@Getter
+public final class Part implements Closeable {
+
+	/**
+	 * The headers of the part.
+	 */
+	private final @NotNull List<@NotNull Header> headers;
+
+	/**
+	 * The form field name, from the {@code Content-Disposition} header.
+	 */
+	private final @Nullable String name;
+
+	/**
+	 * The file name sent by the client, if the part is a file upload.
+	 */
+	private final @Nullable String filename;
+
+	/**
+	 * The content type of the part, which defaults to {@code text/plain}.
+	 */
+	private final @NotNull String contentType;
+
+	/**
+	 * The content of the part.
+	 */
+	private final @NotNull SpooledBody body;
+
+	Part(@NotNull List<@NotNull Header> headers, @Nullable String name, @Nullable String filename, @NotNull String contentType, @NotNull SpooledBody body) {
+		this.headers = headers;
+		this.name = name;
+		this.filename = filename;
+		this.contentType = contentType;
+		this.body = body;
+	}
+
+	/**
+	 * Gets the value of a header of the part.
+	 * @param header The name of the header, which is case-insensitive.
+	 * @return the value, else {@code null}.
+	 */
+	public @Nullable String getHeader(@NotNull String header) {
+		for(Header h : headers) if(h.header().equalsIgnoreCase(header)) return h.value();
+		return null;
+	}
+
+	/**
+	 * Gets the size of the part's content.
+	 * @return the size, in bytes.
+	 */
+	public long getSize() {
+		return body.size();
+	}
+
+	/**
+	 * Opens a new stream over the part's content.
+	 * @return the stream.
+	 */
+	public @NotNull InputStream openStream() throws IOException {
+		return body.openStream();
+	}
+
+	/**
+	 * Reads the part's content as a {@code UTF-8} string.
+	 * @return the content.
+	 */
+	public @NotNull String getString() throws IOException {
+		return body.getString();
+	}
+
+	/**
+	 * Moves the part's content to the given path.
+	 * @param target The path to move the content to.
+	 * @see SpooledBody#transferTo(Path)
+	 */
+	public void transferTo(@NotNull Path target) throws IOException {
+		body.transferTo(target);
+	}
+
+	@Override
+	public void close() throws IOException {
+		body.close();
+	}
+
+	@Override
+	public String toString() {
+		return "Part[name=" + name + ", filename=" + filename + ", contentType=" + contentType + ", size=" + getSize() + "]";
+	}
+
+}
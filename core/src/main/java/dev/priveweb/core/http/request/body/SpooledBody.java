@@ -0,0 +1,175 @@
+package dev.priveweb.core.http.request.body;
+
+import dev.priveweb.core.exception.PayloadTooLargeException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A request body, or a part of one, that is kept in memory up to a threshold and
+ * spilled to a temporary file beyond it, so that large uploads never have to fit in the heap.
+ * <p>
+ *     A handler receives the request body this way by declaring a {@code SpooledBody} parameter.
+ *     The threshold is {@linkplain dev.priveweb.core.server.impl.PriveWebServer#getBodySpoolThreshold() configured on the server},
+ *     and temporary files are deleted once the response has been sent, unless they were {@linkplain #transferTo(Path) moved}.
+ * </p>
+ */
+public final class SpooledBody implements Closeable {
+
+	private final byte @Nullable [] bytes;
+	private final @Nullable Path file;
+	private final long size;
+
+	private SpooledBody(byte @Nullable [] bytes, @Nullable Path file, long size) {
+		this.bytes = bytes;
+		this.file = file;
+		this.size = size;
+	}
+
+	/**
+	 * Reads the given stream fully into a new {@link SpooledBody}.
+	 * @param in The stream to read.
+	 * @param threshold The maximum number of bytes to keep in memory.
+	 * @param maxSize The maximum number of bytes, or {@code -1} for no limit.
+	 * @param directory The directory of temporary files, or {@code null} for the default temporary directory.
+	 * @return the spooled body.
+	 * @throws PayloadTooLargeException if the stream has more than {@code maxSize} bytes.
+	 */
+	public static @NotNull SpooledBody spool(@NotNull InputStream in, int threshold, long maxSize, @Nullable Path directory) throws IOException {
+		Spooler spooler = new Spooler("request body", threshold, maxSize, directory);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while((n = in.read(buffer)) != -1) spooler.write(buffer, 0, n);
+			return spooler.finish();
+		} catch(IOException | RuntimeException e) {
+			spooler.abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the size of the body.
+	 * @return the size, in bytes.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Whether the body is held in memory.
+	 * @return {@code true} if there is no temporary file.
+	 */
+	public boolean isInMemory() {
+		return file == null;
+	}
+
+	/**
+	 * Gets the temporary file holding the body.
+	 * @return the file, or {@code null} if the body is {@linkplain #isInMemory() in memory}.
+	 */
+	public @Nullable Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Opens a new stream over the body.
+	 * @return the stream.
+	 */
+	public @NotNull InputStream openStream() throws IOException {
+		return bytes != null ? new ByteArrayInputStream(bytes) : Files.newInputStream(file);
+	}
+
+	/**
+	 * Reads the body as a {@code UTF-8} string. This should only be used for small bodies.
+	 * @return the body, as a string.
+	 */
+	public @NotNull String getString() throws IOException {
+		return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : Files.readString(file, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Moves the body to the given path, replacing it if it exists. A body in a temporary file is moved
+	 * without being copied (if the file system allows), and is then no longer deleted when the request completes.
+	 * @param target The path to move the body to.
+	 */
+	public void transferTo(@NotNull Path target) throws IOException {
+		if(bytes != null) {
+			Files.write(target, bytes);
+		} else {
+			Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Deletes the temporary file, if any.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(file != null) Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Writes bytes into memory until the threshold is reached, and then into a temporary file through a {@link FileChannel}.
+	 */
+	static final class Spooler {
+
+		private final String what;
+		private final int threshold;
+		private final long maxSize;
+		private final @Nullable Path directory;
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+		private @Nullable Path file;
+		private @Nullable FileChannel channel;
+		private long size = 0;
+
+		Spooler(@NotNull String what, int threshold, long maxSize, @Nullable Path directory) {
+			this.what = what;
+			this.threshold = threshold;
+			this.maxSize = maxSize;
+			this.directory = directory;
+		}
+
+		void write(byte @NotNull [] b, int off, int len) throws IOException {
+			if(len == 0) return;
+			size += len;
+			if(maxSize >= 0 && size > maxSize) throw new PayloadTooLargeException(what, maxSize);
+			if(channel == null && size > threshold) {
+				// spill what was kept in memory so far
+				file = directory == null ? Files.createTempFile("prive-", ".body") : Files.createTempFile(directory, "prive-", ".body");
+				channel = FileChannel.open(file, StandardOpenOption.WRITE);
+				writeFully(ByteBuffer.wrap(memory.toByteArray()));
+				memory = null;
+			}
+			if(channel != null) writeFully(ByteBuffer.wrap(b, off, len));
+			else memory.write(b, off, len);
+		}
+
+		@NotNull SpooledBody finish() throws IOException {
+			if(channel != null) {
+				channel.close();
+				return new SpooledBody(null, file, size);
+			}
+			return new SpooledBody(memory.toByteArray(), null, size);
+		}
+
+		void abort() throws IOException {
+			if(channel != null) channel.close();
+			if(file != null) Files.deleteIfExists(file);
+		}
+
+		private void writeFully(ByteBuffer buffer) throws IOException {
+			while(buffer.hasRemaining()) channel.write(buffer);
+		}
+
+	}
+
+}
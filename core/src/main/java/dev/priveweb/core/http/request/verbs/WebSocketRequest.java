@@ -0,0 +1,60 @@
+package dev.priveweb.core.http.request.verbs;
+
+import dev.priveweb.core.http.request.RequestMethod;
+
+import java.lang.annotation.*;
+
+/**
+ * Maps a WebSocket endpoint. The annotated method is invoked for the opening handshake, like a {@link GetRequest}
+ * handler, and returns the {@link dev.priveweb.core.http.websocket.WebSocketListener WebSocketListener} of the connection;
+ * it may instead return a response (such as {@code 403 Forbidden}) to refuse the connection.
+ * <pre>{@code
+ * @WebSocketRequest("/chat/{}")
+ * public WebSocketListener chat(@PathParam String room) {
+ *     return new WebSocketListener() {
+ *         @Override
+ *         public void onText(WebSocket socket, String message) {
+ *             rooms.get(room).broadcast(message);
+ *         }
+ *     };
+ * }
+ * }</pre>
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@CorrespondsTo(RequestMethod.GET)
+public @interface WebSocketRequest {
+
+	/**
+	 * The path of the endpoint; e.g.
+	 * <p>{@code /abc/def/g}</p>
+	 * @return the path of the endpoint.
+	 */
+	String[] value();
+
+	/**
+	 * The subprotocols supported by the endpoint, in order of preference.
+	 * @return the subprotocols; none by default.
+	 */
+	String[] subprotocols() default {};
+
+	/**
+	 * The maximum size of a received message, after decompression. Larger messages close the connection.
+	 * @return the maximum size, in bytes.
+	 */
+	int maxMessageSize() default 1 << 20;
+
+	/**
+	 * The maximum size of the messages waiting to be sent on a connection. Sending blocks while the queue is full.
+	 * @return the maximum size, in bytes.
+	 */
+	int maxQueuedBytes() default 1 << 20;
+
+	/**
+	 * Whether to compress messages with the {@code permessage-deflate} extension, if the client offers it.
+	 * @return {@code true} to compress messages.
+	 */
+	boolean compression() default true;
+
+}
@@ -0,0 +1,135 @@
+package dev.priveweb.core.http.response;
+
+import dev.priveweb.core.exception.ResponseTimeoutException;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.server.PriveServer;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waits for the result of a handler that returned a {@link CompletionStage}, without taking up a thread.
+ * The result is handed on when the stage completes, unless it takes longer than the timeout, in which case
+ * a {@link ResponseTimeoutException} is handed on instead, or the client disconnects first. Either way,
+ * the stage is then cancelled, if it supports it (as a {@link CompletableFuture} does).
+ */
+@ApiStatus.Internal
+public final class AsyncResponse {
+
+	private static final long PROBE_MILLIS = 1000;
+	// timeouts and disconnection checks of all pending responses share one thread
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "prive-async-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final CompletionStage<?> stage;
+	private final BiConsumer<Object, Throwable> then;
+	private final Runnable disconnected;
+	// guarded by this
+	private boolean done = false;
+	private @Nullable ScheduledFuture<?> timeoutTask;
+	private @Nullable ScheduledFuture<?> probeTask;
+
+	private AsyncResponse(@NotNull CompletionStage<?> stage, @NotNull BiConsumer<Object, Throwable> then, @NotNull Runnable disconnected) {
+		this.stage = stage;
+		this.then = then;
+		this.disconnected = disconnected;
+	}
+
+	/**
+	 * Waits for the result of a stage. Exactly one of the callbacks is called, once.
+	 * @param stage The stage returned by the handler.
+	 * @param timeout How long the stage has to complete.
+	 * @param probe Tells whether the client has disconnected, or {@code null} if that cannot be told. It is called every second,
+	 *              and never while {@code then} runs.
+	 * @param then Called with the result or the failure (with {@link CompletionException}s unwrapped), on the thread that completes the stage.
+	 * @param disconnected Called if the client disconnects first.
+	 */
+	public static void await(@NotNull CompletionStage<?> stage, @NotNull Duration timeout, @Nullable BooleanSupplier probe,
+	                         @NotNull BiConsumer<Object, Throwable> then, @NotNull Runnable disconnected) {
+		AsyncResponse response = new AsyncResponse(stage, then, disconnected);
+		synchronized(response) {
+			response.timeoutTask = TIMER.schedule(() -> response.timeOut(timeout), timeout.toNanos(), TimeUnit.NANOSECONDS);
+			if(probe != null) response.probeTask = TIMER.scheduleWithFixedDelay(() -> response.check(probe), PROBE_MILLIS, PROBE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		stage.whenComplete((result, error) -> {
+			if(response.finish()) then.accept(result, unwrap(error));
+		});
+	}
+
+	/**
+	 * Answers a failed stage with the server's fault recovery strategy.
+	 * @param error The failure.
+	 * @param request The request.
+	 * @param server The server.
+	 * @return the object to marshal into the response.
+	 */
+	public static @NotNull Object recover(@NotNull Throwable error, @NotNull HTTPRequest request, @NotNull PriveServer server) {
+		error = unwrap(error);
+		if(error instanceof Error e) return server.getFaultRecoveryStrategy().handleError(e, request, server);
+		return server.getFaultRecoveryStrategy().handleException(error instanceof Exception e ? e : new RuntimeException(error), request, server);
+	}
+
+	private static Throwable unwrap(@Nullable Throwable error) {
+		while((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) error = error.getCause();
+		return error;
+	}
+
+	/**
+	 * Marks the response as done.
+	 * @return whether it was not done before.
+	 */
+	private synchronized boolean finish() {
+		if(done) return false;
+		done = true;
+		if(timeoutTask != null) timeoutTask.cancel(false);
+		if(probeTask != null) probeTask.cancel(false);
+		return true;
+	}
+
+	private void timeOut(@NotNull Duration timeout) {
+		if(!finish()) return;
+		cancel();
+		// writing the response may block, which the timer must not
+		CompletableFuture.runAsync(() -> then.accept(null, new ResponseTimeoutException(timeout)));
+	}
+
+	private synchronized void check(@NotNull BooleanSupplier probe) {
+		// the lock keeps the response from being written while the probe looks at the connection
+		if(done || !probe.getAsBoolean()) return;
+		finish();
+		cancel();
+		disconnected.run();
+	}
+
+	private void cancel() {
+		cancel(stage);
+	}
+
+	/**
+	 * Cancels a stage, if it supports it.
+	 * @param stage The stage.
+	 */
+	public static void cancel(@NotNull CompletionStage<?> stage) {
+		try {
+			stage.toCompletableFuture().cancel(true);
+		} catch(UnsupportedOperationException ignored) {
+			// the stage cannot be cancelled
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+package dev.priveweb.core.http.response;
+
+import dev.priveweb.core.mapper.MappingResolver;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation tells the {@link MappingResolver MappingResolver} to tag the responses of a handler
+ * with a weak {@code ETag}, computed from a hash of the marshalled response body.
+ * <p>
+ *     If the {@code If-None-Match} header of a request matches the tag, the handler is still invoked,
+ *     but {@code 304 Not Modified} is sent instead of the body. This suits handlers that are polled,
+ *     and whose responses rarely change.
+ * </p>
+ * <p>
+ *     Only {@code 200 OK} responses with an in-memory body are tagged; responses that already
+ *     have an {@code ETag} header are left as they are.
+ * </p>
+ * <pre>{@code
+ * @AutoETag
+ * @GetRequest("/status")
+ * public ResponseObject<Status> status() {
+ *     return ResponseObject.<Status>builder()
+ *             .responseCode(ResponseCode.S_200)
+ *             .responseBody(Status.current())
+ *             .responseBodyClass(Status.class)
+ *             .build();
+ * }
+ * }</pre>
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AutoETag {
+}
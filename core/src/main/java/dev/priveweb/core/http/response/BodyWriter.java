@@ -0,0 +1,144 @@
+package dev.priveweb.core.http.response;
+
+import okio.Buffer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a response body directly to the client connection, instead of holding
+ * it as the {@linkplain HTTPResponse#getResponseBody() response body array}.
+ */
+@FunctionalInterface
+public interface BodyWriter {
+
+	/**
+	 * Writes the response body.
+	 * @param out The stream to the client.
+	 * @throws IOException if the body cannot be written.
+	 */
+	void writeTo(@NotNull OutputStream out) throws IOException;
+
+	/**
+	 * Gets the number of bytes that {@link #writeTo(OutputStream)} writes.
+	 * @return the length of the body, or {@code -1} if it is not known in advance.
+	 */
+	default long contentLength() {
+		return -1;
+	}
+
+	/**
+	 * Whether the body is held in memory, so that writing it is cheap and can be repeated.
+	 * @return {@code true} if the body is in memory.
+	 */
+	default boolean isInMemory() {
+		return false;
+	}
+
+	/**
+	 * Creates a {@link BodyWriter} that writes the contents of the given {@link Buffer}.
+	 * <p>The buffer is not consumed, so the writer can be used more than once.</p>
+	 * @param buffer The buffer to write.
+	 * @return the {@link BodyWriter}.
+	 */
+	@Contract(value = "_ -> new", pure = true)
+	static @NotNull BodyWriter of(@NotNull Buffer buffer) {
+		return new BodyWriter() {
+			@Override
+			public void writeTo(@NotNull OutputStream out) throws IOException {
+				buffer.copyTo(out, 0, buffer.size());
+			}
+
+			@Override
+			public long contentLength() {
+				return buffer.size();
+			}
+
+			@Override
+			public boolean isInMemory() {
+				return true;
+			}
+
+			@Override
+			public String toString() {
+				return buffer.snapshot().string(StandardCharsets.UTF_8);
+			}
+		};
+	}
+
+	/**
+	 * Creates a {@link BodyWriter} that writes the contents of the given file.
+	 * <p>
+	 *     The file is not loaded into memory. If the client connection is a {@linkplain ChannelOutputStream channel},
+	 *     the file is sent with {@link FileChannel#transferTo(long, long, WritableByteChannel) FileChannel.transferTo}, which lets the
+	 *     operating system copy it straight to the socket (i.e. {@code sendfile}); otherwise, it is streamed in chunks.
+	 * </p>
+	 * @param file The file to write.
+	 * @return the {@link BodyWriter}.
+	 * @throws IOException if the size of the file cannot be read.
+	 */
+	@Contract("_ -> new")
+	static @NotNull BodyWriter of(@NotNull Path file) throws IOException {
+		return of(file, 0, Files.size(file));
+	}
+
+	/**
+	 * Creates a {@link BodyWriter} that writes a region of the given file, in the same way as {@link #of(Path)}.
+	 * @param file The file to write.
+	 * @param offset The position of the first byte to write.
+	 * @param length The number of bytes to write.
+	 * @return the {@link BodyWriter}.
+	 */
+	@Contract("_, _, _ -> new")
+	static @NotNull BodyWriter of(@NotNull Path file, long offset, long length) {
+		return new BodyWriter() {
+			@Override
+			public void writeTo(@NotNull OutputStream out) throws IOException {
+				try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+					long end = offset + length;
+					if(out instanceof ChannelOutputStream cos && cos.getChannel() != null) {
+						cos.flush();
+						WritableByteChannel target = cos.getChannel();
+						long position = offset;
+						while(position < end) {
+							long n = channel.transferTo(position, end - position, target);
+							if(n <= 0 && channel.size() <= position) throw new IOException("file " + file + " was truncated while being sent");
+							position += n;
+						}
+					} else {
+						ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, 65536));
+						long position = offset;
+						while(position < end) {
+							buffer.clear();
+							if(buffer.remaining() > end - position) buffer.limit((int) (end - position));
+							int n = channel.read(buffer, position);
+							if(n == -1) throw new IOException("file " + file + " was truncated while being sent");
+							out.write(buffer.array(), 0, n);
+							position += n;
+						}
+					}
+				}
+			}
+
+			@Override
+			public long contentLength() {
+				return length;
+			}
+
+			@Override
+			public String toString() {
+				return "<" + length + " bytes from " + file + " at " + offset + ">";
+			}
+		};
+	}
+
+}
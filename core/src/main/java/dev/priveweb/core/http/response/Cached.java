@@ -0,0 +1,69 @@
+package dev.priveweb.core.http.response;
+
+import dev.priveweb.core.mapper.MappingResolver;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This annotation tells the {@link MappingResolver MappingResolver} to keep the encoded responses of a handler
+ * in the server's {@link ResponseCache}, so that the handler is not invoked again until they expire.
+ * <p>
+ *     Responses are cached by route and path variables, by the format negotiated from {@code Accept}, and by the values
+ *     of the {@linkplain #query() query parameters} and {@linkplain #headers() headers} that they depend on. While one request
+ *     invokes the handler, other requests for the same response wait for it. Only {@code 200 OK} responses are cached.
+ * </p>
+ * <pre>{@code
+ * @Cached(ttl = 10, staleWhileRevalidate = 60, query = "region")
+ * @GetRequest("/stats/{}")
+ * public ResponseObject<Stats> stats(@PathParam String id, QueryParameters query) {
+ *     return ResponseObject.<Stats>builder()
+ *             .responseCode(ResponseCode.S_200)
+ *             .responseBody(Stats.aggregate(id, query.getQueryParameters("region")))
+ *             .responseBodyClass(Stats.class)
+ *             .build();
+ * }
+ * }</pre>
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cached {
+
+	/**
+	 * How long a response is fresh, in {@linkplain #unit() units}.
+	 * @return the time to live.
+	 */
+	long ttl();
+
+	/**
+	 * How long after it expires a response may still be sent, in {@linkplain #unit() units}, while
+	 * the handler is invoked in the background to refresh it.
+	 * @return the stale period; {@code 0} to always wait for a fresh response.
+	 */
+	long staleWhileRevalidate() default 0;
+
+	/**
+	 * The unit of {@link #ttl()} and {@link #staleWhileRevalidate()}.
+	 * @return the time unit.
+	 */
+	TimeUnit unit() default TimeUnit.SECONDS;
+
+	/**
+	 * The names of the query parameters that responses depend on.
+	 * @return the query parameter names.
+	 */
+	String[] query() default {};
+
+	/**
+	 * The names of the request headers that responses depend on, such as {@code Accept-Language}.
+	 * The format negotiated from {@code Accept} is always part of the key.
+	 * @return the header names.
+	 */
+	String[] headers() default {};
+
+}
@@ -0,0 +1,38 @@
+package dev.priveweb.core.http.response;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A buffered stream to the client that also exposes the underlying {@link WritableByteChannel}, if there is one.
+ * {@link BodyWriter}s can write to the channel directly (for example, with {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)
+ * FileChannel.transferTo}), provided that they {@linkplain #flush() flush} this stream first.
+ */
+public class ChannelOutputStream extends BufferedOutputStream {
+
+	private final @Nullable WritableByteChannel channel;
+
+	/**
+	 * Creates a new {@link ChannelOutputStream}.
+	 * @param out The stream to the client.
+	 * @param channel The channel to the client, or {@code null} if there is none.
+	 */
+	public ChannelOutputStream(@NotNull OutputStream out, @Nullable WritableByteChannel channel) {
+		super(out, 8192);
+		this.channel = channel;
+	}
+
+	/**
+	 * Gets the channel to the client. Anything written to this stream must be {@linkplain #flush() flushed}
+	 * before writing to the channel.
+	 * @return the channel, or {@code null} if the connection does not have one.
+	 */
+	public @Nullable WritableByteChannel getChannel() {
+		return channel;
+	}
+
+}
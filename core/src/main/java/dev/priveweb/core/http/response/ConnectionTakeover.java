@@ -0,0 +1,28 @@
+package dev.priveweb.core.http.response;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Takes over a client connection after a response has been sent, for example to keep streaming
+ * events over it. The connection is not closed by the server once it has been taken over.
+ * @see HTTPResponse#getTakeover()
+ */
+@FunctionalInterface
+public interface ConnectionTakeover {
+
+	/**
+	 * Takes over the connection. This is called on the thread that handled the request, and should return
+	 * as soon as possible; the connection must eventually be closed, even if this throws.
+	 * @param socket The client socket.
+	 * @param in The stream from the client, positioned after the request.
+	 * @param out The stream to the client, positioned after the response head (and body, if any).
+	 * @throws IOException if the connection cannot be taken over.
+	 */
+	void takeOver(@NotNull Socket socket, @NotNull InputStream in, @NotNull OutputStream out) throws IOException;
+
+}
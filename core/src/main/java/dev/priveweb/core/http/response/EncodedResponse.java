@@ -0,0 +1,117 @@
+package dev.priveweb.core.http.response;
+
+import dev.priveweb.core.http.Header;
+import dev.priveweb.core.http.ResponseCode;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * A complete response (the status line, the headers and the body) encoded once into an off-heap buffer,
+ * so that it can be sent any number of times without encoding it again or copying it through the heap.
+ * The status and the headers are kept as well, for protocols other than HTTP/1.1 to encode in their own way.
+ * <p>Instances are immutable and can be shared between connections.</p>
+ */
+public final class EncodedResponse {
+
+	private final ByteBuffer buffer;
+	private final int headLength;
+	private final ResponseCode responseCode;
+	private final List<Header> headers;
+
+	private EncodedResponse(@NotNull ByteBuffer buffer, int headLength, @NotNull ResponseCode responseCode, @NotNull List<Header> headers) {
+		this.buffer = buffer;
+		this.headLength = headLength;
+		this.responseCode = responseCode;
+		this.headers = headers;
+	}
+
+	/**
+	 * Encodes the given response.
+	 * @param response The response to encode. Its body is written in full.
+	 * @return the encoded response.
+	 * @throws IOException if the body cannot be written.
+	 */
+	@Contract("_ -> new")
+	public static @NotNull EncodedResponse encode(@NotNull HTTPResponse response) throws IOException {
+		byte[] head = response.encodeHead();
+		long length = response.getContentLength();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(length >= 0 && length < Integer.MAX_VALUE ? (int) length : 8192);
+		response.writeBody(body);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(head.length + body.size());
+		buffer.put(head).put(body.toByteArray()).flip();
+		return new EncodedResponse(buffer.asReadOnlyBuffer(), head.length, response.getResponseCode(), List.copyOf(response.getHeaders()));
+	}
+
+	/**
+	 * Gets the size of the encoded response.
+	 * @return the size, in bytes.
+	 */
+	public int size() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * Gets the status of the response.
+	 * @return the response code.
+	 */
+	public @NotNull ResponseCode getResponseCode() {
+		return responseCode;
+	}
+
+	/**
+	 * Gets the headers of the response, as it was given to {@link #encode(HTTPResponse)}. These do not include the
+	 * {@code Content-Length} and {@code Connection} headers that were added for HTTP/1.1.
+	 * @return an unmodifiable list of the headers.
+	 */
+	public @NotNull List<Header> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Gets the status line and the headers.
+	 * @return a read-only view of the head of the response.
+	 */
+	public @NotNull ByteBuffer head() {
+		return buffer.slice(0, headLength);
+	}
+
+	/**
+	 * Gets the body.
+	 * @return a read-only view of the body of the response.
+	 */
+	public @NotNull ByteBuffer body() {
+		return buffer.slice(headLength, buffer.capacity() - headLength);
+	}
+
+	/**
+	 * Writes the response. If the stream is a {@link ChannelOutputStream} with a channel,
+	 * the buffer is written to the channel directly.
+	 * @param out The stream to the client.
+	 * @param head Whether to only write the status line and the headers (i.e. for a {@code HEAD} request).
+	 * @throws IOException if the response cannot be written.
+	 */
+	public void writeTo(@NotNull OutputStream out, boolean head) throws IOException {
+		ByteBuffer view = buffer.duplicate();
+		if(head) view.limit(headLength);
+		if(out instanceof ChannelOutputStream cos && cos.getChannel() != null) {
+			cos.flush();
+			WritableByteChannel channel = cos.getChannel();
+			while(view.hasRemaining()) channel.write(view);
+		} else {
+			byte[] chunk = new byte[Math.min(view.remaining(), 8192)];
+			while(view.hasRemaining()) {
+				int n = Math.min(chunk.length, view.remaining());
+				view.get(chunk, 0, n);
+				out.write(chunk, 0, n);
+			}
+		}
+	}
+
+}
@@ -8,7 +8,10 @@ import dev.priveweb.core.protocol.HTTPProtocol;
 import dev.priveweb.core.server.impl.PriveWebServer;
 import lombok.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
@@ -40,7 +43,72 @@ public class HTTPResponse implements Marshallable, ContainsResponseCode {
 	/**
 	 * The response body.
 	 */
-	private final byte @NotNull [] responseBody;
+	@Builder.Default
+	private final byte @NotNull [] responseBody = new byte[0];
+
+	/**
+	 * Writes the response body directly to the client. If this is set, it
+	 * is used instead of {@link #responseBody}.
+	 */
+	private final @Nullable BodyWriter bodyWriter;
+
+	/**
+	 * The complete response, already encoded. If this is set, it is sent as is,
+	 * and the other fields only describe it.
+	 */
+	private final @Nullable EncodedResponse encoded;
+
+	/**
+	 * Takes over the connection once the status line and the headers have been sent. If this is set,
+	 * the connection is not closed after the response; the takeover is responsible for closing it.
+	 */
+	private final @Nullable ConnectionTakeover takeover;
+
+	/**
+	 * Gets the length of the response body.
+	 * @return the length in bytes, or {@code -1} if it is not known in advance.
+	 */
+	public long getContentLength() {
+		return bodyWriter != null ? bodyWriter.contentLength() : responseBody.length;
+	}
+
+	/**
+	 * Writes the response body to the given stream.
+	 * @param out The stream to write to.
+	 * @throws IOException if the body cannot be written.
+	 */
+	public void writeBody(@NotNull OutputStream out) throws IOException {
+		if(bodyWriter != null) bodyWriter.writeTo(out);
+		else out.write(responseBody);
+	}
+
+	/**
+	 * Encodes the status line and the headers, ending with an empty line. The {@code Server} header is
+	 * replaced with the server's own, and {@code Content-Length} is added if the length is known. As connections
+	 * are not reused, {@code Connection: close} is added too, so that clients do not send requests on them.
+	 * @return the encoded head of the response.
+	 */
+	public byte @NotNull [] encodeHead() {
+		StringBuilder builder = new StringBuilder(256);
+		builder.append(protocol).append(' ').append(responseCode).append(PriveWebServer.HTTP_LF);
+		boolean hasContentLength = false;
+		boolean hasConnection = false;
+		for(Header header : headers) {
+			if(header.header().equalsIgnoreCase("Server")) header = new Header("Server", PriveWebServer.SERVER_HEADER_VALUE);
+			else if(header.header().equalsIgnoreCase("Content-Length")) hasContentLength = true;
+			else if(header.header().equalsIgnoreCase("Connection")) hasConnection = true;
+			builder.append(header.header()).append(": ").append(header.value()).append(PriveWebServer.HTTP_LF);
+		}
+		long contentLength = getContentLength();
+		// 1xx, 204 and 304 responses never have a body
+		boolean bodiless = responseCode == ResponseCode.S_204 || responseCode == ResponseCode.R_304 || responseCode.name().startsWith("I_");
+		if(!hasContentLength && contentLength >= 0 && !bodiless) {
+			builder.append("Content-Length: ").append(contentLength).append(PriveWebServer.HTTP_LF);
+		}
+		if(!hasConnection && !responseCode.name().startsWith("I_")) builder.append("Connection: close").append(PriveWebServer.HTTP_LF);
+		builder.append(PriveWebServer.HTTP_LF);
+		return builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
 
 	@Override
 	public String toString() {
@@ -56,7 +124,7 @@ public class HTTPResponse implements Marshallable, ContainsResponseCode {
 					.append(PriveWebServer.HTTP_LF);
 		}
 		builder.append(PriveWebServer.HTTP_LF);
-		builder.append(new String(responseBody, StandardCharsets.UTF_8));
+		builder.append(bodyWriter != null ? bodyWriter.toString() : new String(responseBody, StandardCharsets.UTF_8));
 		return builder.toString();
 	}
 
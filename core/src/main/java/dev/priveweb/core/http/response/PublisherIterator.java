@@ -0,0 +1,124 @@
+package dev.priveweb.core.http.response;
+
+import dev.priveweb.core.exception.ResponseTimeoutException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates over the items of a {@link Flow.Publisher}, so that they can be sent like those of a {@link java.util.stream.Stream Stream}.
+ * The publisher is subscribed to when the first item is needed, and only ever asked for a few items ahead of those sent,
+ * so a fast publisher waits for a slow client. Closing the iterator cancels the subscription.
+ */
+final class PublisherIterator implements Iterator<Object>, Flow.Subscriber<Object>, AutoCloseable {
+
+	private static final int PREFETCH = 16;
+	private static final Object COMPLETE = new Object();
+
+	private final Flow.Publisher<?> publisher;
+	private final @Nullable Duration timeout;
+	// signals arrive on the publisher's threads
+	private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+	private volatile @Nullable Flow.Subscription subscription;
+	private volatile boolean closed = false;
+	private boolean subscribed = false;
+	private @Nullable Object next;
+	private int consumed = 0;
+
+	/**
+	 * Creates a new {@link PublisherIterator}.
+	 * @param publisher The publisher.
+	 * @param timeout How long to wait for each item, or {@code null} to wait for as long as it takes.
+	 */
+	PublisherIterator(@NotNull Flow.Publisher<?> publisher, @Nullable Duration timeout) {
+		this.publisher = publisher;
+		this.timeout = timeout;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(next == null) next = take();
+		return next != COMPLETE;
+	}
+
+	@Override
+	public Object next() {
+		if(!hasNext()) throw new NoSuchElementException();
+		Object item = next;
+		next = null;
+		// ask for more once half of the items asked for are used up
+		if(++consumed == PREFETCH / 2) {
+			consumed = 0;
+			Flow.Subscription subscription = this.subscription;
+			if(subscription != null) subscription.request(PREFETCH / 2);
+		}
+		return item;
+	}
+
+	private @NotNull Object take() {
+		if(!subscribed) {
+			subscribed = true;
+			publisher.subscribe(this);
+		}
+		Object signal;
+		try {
+			signal = timeout == null ? signals.take() : signals.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new CompletionException(e);
+		}
+		if(signal == null) {
+			close();
+			throw new CompletionException(new ResponseTimeoutException(timeout));
+		}
+		if(signal instanceof Failure failure) {
+			if(failure.error() instanceof RuntimeException e) throw e;
+			throw new CompletionException(failure.error());
+		}
+		return signal;
+	}
+
+	@Override
+	public void onSubscribe(@NotNull Flow.Subscription subscription) {
+		if(this.subscription != null || closed) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		subscription.request(PREFETCH);
+	}
+
+	@Override
+	public void onNext(@NotNull Object item) {
+		signals.add(item);
+	}
+
+	@Override
+	public void onError(@NotNull Throwable throwable) {
+		signals.add(new Failure(throwable));
+	}
+
+	@Override
+	public void onComplete() {
+		signals.add(COMPLETE);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		Flow.Subscription subscription = this.subscription;
+		if(subscription != null) subscription.cancel();
+	}
+
+	private record Failure(@NotNull Throwable error) {}
+
+}
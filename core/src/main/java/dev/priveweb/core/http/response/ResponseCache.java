@@ -0,0 +1,286 @@
+package dev.priveweb.core.http.response;
+
+import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.util.Checks;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import slf4jansi.AnsiLogger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of encoded responses of {@link Cached} handlers, split into shards that are each a least-recently-used
+ * map bounded by the total size of its responses. Concurrent misses for the same key are collapsed into one
+ * invocation of the handler, and expired responses can be sent while they are refreshed in the background.
+ */
+public final class ResponseCache {
+
+	private static final Logger logger = AnsiLogger.of(LoggerFactory.getLogger(ResponseCache.class));
+
+	private record Entry(@NotNull HTTPResponse response, long size, long freshUntil, long staleUntil) {}
+
+	private final Executor executor;
+	private final long maxEntrySize;
+	private final Shard[] shards;
+	private final Map<String, CompletableFuture<HTTPResponse>> loading = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder staleHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder collapsed = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a new {@link ResponseCache}.
+	 * @param executor The executor to refresh stale responses on.
+	 * @param shards The number of shards, which is rounded up to a power of two.
+	 * @param capacity The maximum total size of all cached responses, in bytes, which is split evenly between the shards.
+	 * @param maxEntrySize The maximum size of a single cached response, in bytes. Larger responses are not cached.
+	 */
+	public ResponseCache(@NotNull Executor executor, int shards, long capacity, long maxEntrySize) {
+		Checks.ensurePositive(shards);
+		Checks.ensurePositive(capacity);
+		Checks.ensurePositive(maxEntrySize);
+		this.executor = executor;
+		this.shards = new Shard[shards == 1 ? 1 : Integer.highestOneBit(shards - 1) << 1];
+		for(int i = 0; i < this.shards.length; i++) this.shards[i] = new Shard(Math.max(capacity / this.shards.length, 1));
+		this.maxEntrySize = Math.min(maxEntrySize, capacity / this.shards.length);
+	}
+
+	/**
+	 * Gets a cached response, or loads it if it is not cached. While one thread loads a response,
+	 * others asking for the same key wait for it instead of loading it again.
+	 * <p>
+	 *     Only {@code 200 OK} responses whose bodies are in memory are cached. The returned response is
+	 *     {@linkplain HTTPResponse#getEncoded() encoded} if it was cached.
+	 * </p>
+	 * @param key The key of the response.
+	 * @param ttlMillis How long a loaded response is fresh, in milliseconds.
+	 * @param staleMillis How long after that the response may still be sent while it is refreshed, in milliseconds.
+	 * @param loader The loader of the response, which invokes the handler.
+	 * @return the response.
+	 * @throws Exception if the loader fails.
+	 */
+	public @NotNull HTTPResponse get(@NotNull String key, long ttlMillis, long staleMillis, @NotNull Callable<HTTPResponse> loader) throws Exception {
+		Shard shard = shard(key);
+		Entry entry;
+		long now = System.nanoTime();
+		synchronized(shard) {
+			entry = shard.get(key);
+			if(entry != null && now - entry.staleUntil() >= 0) {
+				shard.remove(key);
+				shard.size -= entry.size();
+				entry = null;
+			}
+		}
+		if(entry != null) {
+			if(now - entry.freshUntil() < 0) {
+				hits.increment();
+				return entry.response();
+			}
+			// send the stale response, and refresh it unless that is already happening
+			staleHits.increment();
+			if(!loading.containsKey(key)) {
+				try {
+					executor.execute(() -> {
+						try {
+							load(key, ttlMillis, staleMillis, loader);
+						} catch(Exception e) {
+							logger.warn("{!warn}Unable to refresh cached response '{}': {}", key, e.toString());
+						}
+					});
+				} catch(RejectedExecutionException e) {
+					// the server is shutting down
+				}
+			}
+			return entry.response();
+		}
+		misses.increment();
+		return load(key, ttlMillis, staleMillis, loader);
+	}
+
+	private @NotNull HTTPResponse load(@NotNull String key, long ttlMillis, long staleMillis, @NotNull Callable<HTTPResponse> loader) throws Exception {
+		CompletableFuture<HTTPResponse> future = new CompletableFuture<>();
+		CompletableFuture<HTTPResponse> running = loading.putIfAbsent(key, future);
+		if(running != null) {
+			collapsed.increment();
+			try {
+				return running.get();
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof Exception cause) throw cause;
+				throw e;
+			}
+		}
+		try {
+			HTTPResponse response = store(key, loader.call(), ttlMillis, staleMillis);
+			future.complete(response);
+			return response;
+		} catch(Throwable t) {
+			future.completeExceptionally(t);
+			throw t;
+		} finally {
+			loading.remove(key, future);
+		}
+	}
+
+	private @NotNull HTTPResponse store(@NotNull String key, @NotNull HTTPResponse response, long ttlMillis, long staleMillis) throws Exception {
+		BodyWriter writer = response.getBodyWriter();
+		if(response.getResponseCode() != ResponseCode.S_200 || writer != null && !writer.isInMemory() || response.getContentLength() > maxEntrySize) return response;
+		EncodedResponse encoded = response.getEncoded() != null ? response.getEncoded() : EncodedResponse.encode(response);
+		if(encoded.size() > maxEntrySize) return response;
+		HTTPResponse cached = HTTPResponse.builder()
+				.protocol(response.getProtocol())
+				.responseCode(response.getResponseCode())
+				.headers(response.getHeaders())
+				.encoded(encoded)
+				.build();
+		long now = System.nanoTime();
+		long freshUntil = now + ttlMillis * 1_000_000;
+		Entry entry = new Entry(cached, encoded.size(), freshUntil, freshUntil + staleMillis * 1_000_000);
+		Shard shard = shard(key);
+		synchronized(shard) {
+			Entry previous = shard.put(key, entry);
+			if(previous != null) shard.size -= previous.size();
+			shard.size += entry.size();
+			Iterator<Map.Entry<String, Entry>> iterator = shard.entrySet().iterator();
+			while(shard.size > shard.capacity && iterator.hasNext()) {
+				var eldest = iterator.next();
+				if(eldest.getValue() == entry) continue;
+				shard.size -= eldest.getValue().size();
+				iterator.remove();
+				evictions.increment();
+			}
+		}
+		return cached;
+	}
+
+	/**
+	 * Removes a cached response.
+	 * @param key The key of the response.
+	 */
+	public void invalidate(@NotNull String key) {
+		Shard shard = shard(key);
+		synchronized(shard) {
+			Entry previous = shard.remove(key);
+			if(previous != null) shard.size -= previous.size();
+		}
+	}
+
+	/**
+	 * Removes all cached responses.
+	 */
+	public void invalidateAll() {
+		for(Shard shard : shards) {
+			synchronized(shard) {
+				shard.clear();
+				shard.size = 0;
+			}
+		}
+	}
+
+	/**
+	 * Gets the total size of all cached responses.
+	 * @return the size, in bytes.
+	 */
+	public long size() {
+		long size = 0;
+		for(Shard shard : shards) {
+			synchronized(shard) {
+				size += shard.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the number of cached responses.
+	 * @return the number of entries.
+	 */
+	public int count() {
+		int count = 0;
+		for(Shard shard : shards) {
+			synchronized(shard) {
+				count += shard.size();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of requests answered with a fresh cached response.
+	 * @return the number of hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of requests answered with a stale cached response, which was then refreshed.
+	 * @return the number of stale hits.
+	 */
+	public long getStaleHits() {
+		return staleHits.sum();
+	}
+
+	/**
+	 * Gets the number of requests that were not in the cache.
+	 * @return the number of misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the number of misses that waited for another request to load the same response.
+	 * @return the number of collapsed misses.
+	 */
+	public long getCollapsed() {
+		return collapsed.sum();
+	}
+
+	/**
+	 * Gets the number of responses evicted to make room for others.
+	 * @return the number of evictions.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	private @NotNull Shard shard(@NotNull String key) {
+		int h = key.hashCode();
+		return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+	}
+
+	private static final class Shard extends LinkedHashMap<String, Entry> {
+
+		private final long capacity;
+		private long size = 0;
+
+		private Shard(long capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		public boolean equals(@Nullable Object o) {
+			return this == o;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this);
+		}
+
+	}
+
+}
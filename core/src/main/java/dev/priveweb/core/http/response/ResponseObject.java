@@ -1,19 +1,29 @@
 package dev.priveweb.core.http.response;
 
 import com.squareup.moshi.JsonAdapter;
-import com.squareup.moshi.Moshi;
+import com.squareup.moshi.JsonWriter;
 import dev.priveweb.core.exception.ContainsResponseCode;
 import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.marshal.JsonAdapterCache;
 import dev.priveweb.core.marshal.Marshallable;
+import dev.priveweb.core.marshal.Marshaller;
+import dev.priveweb.core.marshal.impl.JsonMarshaller;
 import dev.priveweb.core.protocol.HTTPProtocol;
+import dev.priveweb.core.server.PriveServer;
+import dev.priveweb.core.util.HeaderUtils;
 import lombok.*;
 import dev.priveweb.core.http.Header;
+import okio.Buffer;
+import okio.BufferedSink;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Unmodifiable;
 
+import java.io.IOException;
+import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Set;
 
 /**
  * A response object that handles the underlying details of {@link Marshallable}.
@@ -25,7 +35,8 @@ public final class ResponseObject<T> implements Marshallable, ContainsResponseCo
 
 	/**
 	 * Determines what MIME type to marshal into.
-	 * By default, this is {@code application/json}.
+	 * By default, this is {@code application/json}. If the server has a {@link Marshaller}
+	 * for this type, clients may ask for another registered type through the {@code Accept} header.
 	 */
 	@Builder.Default
 	@Setter(AccessLevel.NONE)
@@ -33,36 +44,82 @@ public final class ResponseObject<T> implements Marshallable, ContainsResponseCo
 	@NotNull @Getter private final ResponseCode responseCode;
 	@NotNull private final T responseBody;
 	@NotNull private final Class<T> responseBodyClass;
+	/**
+	 * The full type of the response body, for generic types such as {@code List<String>}
+	 * (see {@link com.squareup.moshi.Types#newParameterizedType(Type, Type...) Types.newParameterizedType}).
+	 * If this is not set, {@link #responseBodyClass} is used.
+	 */
+	@Nullable private final Type responseBodyType;
 	@Singular
 	@NotNull
 	private final List<Header> headers;
 
 	/**
-	 * Converts the response into JSON. This may be an
-	 * expensive operation, so it is recommended to cache this.
+	 * Converts the response into JSON. The adapter used is
+	 * {@linkplain JsonAdapterCache cached}; however, prefer {@link #writeJSON(BufferedSink)},
+	 * which does not build a string.
 	 * @return the response, in JSON.
 	 */
-	// @SneakyThrows(NoSuchFieldException.class)
 	public @NotNull String toJSON() {
-		Moshi moshi = new Moshi.Builder().build();
-		JsonAdapter<T> jsonAdapter = moshi.adapter(responseBodyClass);
-		return jsonAdapter.toJson(responseBody);
+		return getJsonAdapter().toJson(responseBody);
+	}
+
+	/**
+	 * Writes the response as JSON into the given sink, without building an intermediate string.
+	 * @param sink The sink to write to. This is not closed.
+	 * @throws IOException if the sink cannot be written to.
+	 */
+	public void writeJSON(@NotNull BufferedSink sink) throws IOException {
+		JsonWriter writer = JsonWriter.of(sink);
+		getJsonAdapter().toJson(writer, responseBody);
+		writer.flush();
 	}
 
+	private @NotNull JsonAdapter<T> getJsonAdapter() {
+		return JsonAdapterCache.adapter(responseBodyType != null ? responseBodyType : responseBodyClass);
+	}
+
+	/**
+	 * Marshals the response into {@link #marshalInto}. Only {@code application/json} is
+	 * available without a server; any other type is marshalled through {@link Object#toString()}.
+	 */
 	@Override
 	public @NotNull @Unmodifiable HTTPResponse marshal(HTTPProtocol protocol) {
-		String response;
-		if(marshalInto.equals("application/json")) {
-			response = toJSON();
-		} else {
-			response = responseBody.toString();
-		}
-		return HTTPResponse.builder()
+		return marshal(protocol, marshalInto.equals("application/json") ? JsonMarshaller.INSTANCE : null, false);
+	}
+
+	/**
+	 * Marshals the response with the server's {@linkplain PriveServer#getMarshallers() marshallers}.
+	 * If {@link #marshalInto} has a marshaller and no {@code Content-Type} header is set, the format is negotiated
+	 * from the request's {@code Accept} header, falling back to {@code marshalInto}.
+	 */
+	@Override
+	public @NotNull @Unmodifiable HTTPResponse marshal(HTTPProtocol protocol, @NotNull HTTPRequest request, @NotNull PriveServer server) {
+		Marshaller marshaller = server.getMarshallers().resolve(marshalInto);
+		if(marshaller == null || HeaderUtils.containsHeader(headers, "Content-Type")) return marshal(protocol, marshaller, false);
+		Marshaller negotiated = server.getMarshallers().negotiate(HeaderUtils.getHeader(request.getHeaders(), "Accept"));
+		return marshal(protocol, negotiated != null ? negotiated : marshaller, true);
+	}
+
+	@SneakyThrows(IOException.class) // writing into a Buffer does not throw
+	private @NotNull HTTPResponse marshal(HTTPProtocol protocol, @Nullable Marshaller marshaller, boolean negotiated) {
+		var builder = HTTPResponse.builder()
 				.headers(headers)
 				.responseCode(responseCode)
-				.responseBody(response.getBytes(StandardCharsets.UTF_8))
-				.protocol(protocol.toString())
-				.build();
+				.protocol(protocol.toString());
+		boolean hasContentType = HeaderUtils.containsHeader(headers, "Content-Type");
+		if(marshaller != null) {
+			if(!hasContentType) builder.header(new Header("Content-Type", marshaller.getMediaType()));
+			if(negotiated) builder.header(new Header("Vary", "Accept"));
+			// the body goes straight into pooled segments, which are then written to the client
+			Buffer buffer = new Buffer();
+			marshaller.marshal(responseBody, responseBodyType != null ? responseBodyType : responseBodyClass, buffer);
+			builder.bodyWriter(BodyWriter.of(buffer));
+		} else {
+			if(!hasContentType) builder.header(new Header("Content-Type", marshalInto));
+			builder.responseBody(responseBody.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return builder.build();
 	}
 
 }
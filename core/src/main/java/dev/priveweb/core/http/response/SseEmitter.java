@@ -0,0 +1,302 @@
+package dev.priveweb.core.http.response;
+
+import dev.priveweb.core.http.Header;
+import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.marshal.Marshallable;
+import dev.priveweb.core.protocol.HTTPProtocol;
+import dev.priveweb.core.server.PriveServer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stream of <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">server-sent events</a>.
+ * A handler returns an emitter, and then sends events to it from any thread for as long as the client is connected:
+ * <pre>{@code
+ * @GetRequest("/prices")
+ * public SseEmitter prices() {
+ *     SseEmitter emitter = new SseEmitter();
+ *     Subscription subscription = prices.subscribe(price -> emitter.send(price.id(), "price", price.toJson()));
+ *     emitter.onClose(subscription::cancel);
+ *     return emitter;
+ * }
+ * }</pre>
+ * <p>
+ *     Once the response head has been sent, the emitter takes over the connection, and the thread that handled the request
+ *     is released; an idle stream holds no thread. Comments are sent as heartbeats, so that proxies keep the connection open and
+ *     disconnected clients are noticed. When a client disconnects, sending fails, the emitter is closed, and its
+ *     {@linkplain #onClose(Runnable) close callbacks} run.
+ * </p>
+ * <p>
+ *     Events are queued and written by a writer thread, so sending never blocks. A client that falls more than 1 MiB behind,
+ *     or does not take any of its events for 30 seconds, is disconnected.
+ * </p>
+ * <p>
+ *     A client that reconnects sends the ID of the last event it received in the {@code Last-Event-ID} header,
+ *     which the handler can read from the {@link HTTPRequest}.
+ * </p>
+ */
+public final class SseEmitter implements Marshallable, Closeable {
+
+	private static final ScheduledExecutorService HEARTBEATS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "prive-sse-heartbeat");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// writes may block on slow clients, so they never run on the heartbeat thread
+	private static final ExecutorService WRITERS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "prive-sse-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+	private static final int MAX_QUEUED = 1 << 20;
+	private static final long WRITE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+	// how often stuck writes are looked for when no heartbeats are sent
+	private static final long WATCHDOG_MILLIS = 5000;
+
+	private final long heartbeatMillis;
+	private final long retryMillis;
+	private final List<Runnable> closeCallbacks = new CopyOnWriteArrayList<>();
+	// events that have not been written yet
+	private final ByteArrayOutputStream queued = new ByteArrayOutputStream();
+	private @Nullable Socket socket;
+	private @Nullable OutputStream out;
+	private @Nullable ScheduledFuture<?> heartbeat;
+	// whether a writer is draining the queue, and since when it has been writing its current chunk
+	private boolean writing = false;
+	private long writingSince;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new {@link SseEmitter} that sends a heartbeat every 15 seconds.
+	 */
+	public SseEmitter() {
+		this(Duration.ofSeconds(15), null);
+	}
+
+	/**
+	 * Creates a new {@link SseEmitter}.
+	 * @param heartbeat The time between heartbeats, or {@link Duration#ZERO} to send none.
+	 * @param retry The time that the client should wait before reconnecting, or {@code null} to leave it to the client.
+	 */
+	public SseEmitter(@NotNull Duration heartbeat, @Nullable Duration retry) {
+		this.heartbeatMillis = heartbeat.toMillis();
+		this.retryMillis = retry == null ? -1 : retry.toMillis();
+	}
+
+	/**
+	 * Sends an event with only data.
+	 * @param data The data of the event. It may span several lines.
+	 * @throws IOException if the client has disconnected, or has fallen too far behind.
+	 */
+	public void send(@NotNull String data) throws IOException {
+		send(null, null, data);
+	}
+
+	/**
+	 * Sends an event.
+	 * @param id The ID of the event, which the client sends back in the {@code Last-Event-ID} header when it reconnects, or {@code null}.
+	 * @param event The type of the event, or {@code null} for {@code message}.
+	 * @param data The data of the event. It may span several lines.
+	 * @throws IOException if the client has disconnected, or has fallen too far behind.
+	 * @throws IllegalArgumentException if the ID or the type contains a line break.
+	 */
+	public void send(@Nullable String id, @Nullable String event, @NotNull String data) throws IOException {
+		StringBuilder builder = new StringBuilder(data.length() + 32);
+		if(id != null) builder.append("id: ").append(field(id)).append('\n');
+		if(event != null) builder.append("event: ").append(field(event)).append('\n');
+		for(String line : data.split("\r\n|\r|\n", -1)) builder.append("data: ").append(line).append('\n');
+		builder.append('\n');
+		write(builder.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Registers a callback that runs once, when the stream is closed by either side.
+	 * If the stream is already closed, the callback runs immediately.
+	 * @param callback The callback.
+	 */
+	public void onClose(@NotNull Runnable callback) {
+		closeCallbacks.add(callback);
+		if(closed && closeCallbacks.remove(callback)) callback.run();
+	}
+
+	/**
+	 * Whether events can still be sent.
+	 * @return {@code true} if the stream has not been closed.
+	 */
+	@Contract(pure = true)
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Ends the stream and closes the connection. This has no effect if the stream is already closed.
+	 */
+	@Override
+	public void close() {
+		Socket socket;
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+			if(heartbeat != null) heartbeat.cancel(false);
+			socket = this.socket;
+		}
+		try {
+			if(socket != null) socket.close();
+		} catch(IOException ignored) {
+			// the connection is gone either way
+		}
+		for(Runnable callback : closeCallbacks) {
+			if(closeCallbacks.remove(callback)) callback.run();
+		}
+	}
+
+	@Override
+	public @NotNull HTTPResponse marshal(HTTPProtocol protocol) {
+		var builder = HTTPResponse.builder()
+				.protocol(protocol.toString())
+				.responseCode(ResponseCode.S_200)
+				.header(new Header("Content-Type", "text/event-stream"))
+				.header(new Header("Cache-Control", "no-cache"))
+				// the body ends when the connection is closed
+				.bodyWriter(out -> {
+					if(retryMillis >= 0) out.write(("retry: " + retryMillis + "\n\n").getBytes(StandardCharsets.UTF_8));
+				});
+		return builder.takeover(this::takeOver).build();
+	}
+
+	@Override
+	public @NotNull HTTPResponse marshal(HTTPProtocol protocol, @NotNull HTTPRequest request, @NotNull PriveServer server) {
+		// the connection is not taken over if the request fails, or is a HEAD request
+		request.closeOnCompletion(() -> {
+			synchronized(this) {
+				if(socket != null) return;
+			}
+			close();
+		});
+		return marshal(protocol);
+	}
+
+	private void takeOver(@NotNull Socket socket, @NotNull InputStream in, @NotNull OutputStream out) {
+		boolean closedEarly;
+		byte[] pending = null;
+		synchronized(this) {
+			this.socket = socket;
+			this.out = out;
+			closedEarly = closed;
+			if(closedEarly) {
+				pending = queued.toByteArray();
+			} else {
+				// the events sent so far are written by a writer, so that this thread is released at once
+				if(queued.size() > 0) dispatch();
+				long period = heartbeatMillis > 0 ? heartbeatMillis : WATCHDOG_MILLIS;
+				heartbeat = HEARTBEATS.scheduleAtFixedRate(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+			}
+		}
+		if(closedEarly) {
+			// the handler closed the emitter before the connection was taken over, after sending the pending events
+			try(socket) {
+				out.write(pending);
+				out.flush();
+			} catch(IOException ignored) {
+				// the connection is gone either way
+			}
+		}
+	}
+
+	/**
+	 * Sends a heartbeat, and disconnects the client if a write has been stuck for too long.
+	 * This runs on the shared heartbeat thread, so it must never block.
+	 */
+	private void heartbeat() {
+		boolean stuck;
+		synchronized(this) {
+			if(closed) return;
+			stuck = writing && System.nanoTime() - writingSince > WRITE_TIMEOUT_NANOS;
+			if(!stuck && heartbeatMillis > 0 && queued.size() == 0) {
+				queued.writeBytes(HEARTBEAT);
+				dispatch();
+			}
+		}
+		// closing the socket fails the stuck write; closing a TLS socket may itself write, so not on this thread
+		if(stuck) WRITERS.execute(this::close);
+	}
+
+	private void write(byte @NotNull [] event) throws IOException {
+		boolean overflowed;
+		synchronized(this) {
+			if(closed) throw new IOException("the event stream is closed");
+			overflowed = out != null && queued.size() + event.length > MAX_QUEUED;
+			if(!overflowed) {
+				queued.writeBytes(event);
+				if(out != null) dispatch();
+			}
+		}
+		if(overflowed) {
+			close();
+			throw new IOException("the client is not reading the event stream");
+		}
+	}
+
+	/**
+	 * Starts a writer, unless one is already draining the queue. This must be called while holding the lock.
+	 */
+	private void dispatch() {
+		if(writing) return;
+		writing = true;
+		WRITERS.execute(this::drain);
+	}
+
+	/**
+	 * Writes the queue until it is empty.
+	 */
+	private void drain() {
+		try {
+			while(true) {
+				byte[] chunk;
+				OutputStream out;
+				synchronized(this) {
+					if(closed || queued.size() == 0) {
+						writing = false;
+						return;
+					}
+					chunk = queued.toByteArray();
+					queued.reset();
+					writingSince = System.nanoTime();
+					out = this.out;
+				}
+				out.write(chunk);
+				out.flush();
+			}
+		} catch(IOException | RuntimeException e) {
+			synchronized(this) {
+				writing = false;
+			}
+			close();
+		}
+	}
+
+	private static @NotNull String field(@NotNull String value) {
+		if(value.indexOf('\n') != -1 || value.indexOf('\r') != -1) throw new IllegalArgumentException("event fields cannot contain line breaks");
+		return value;
+	}
+
+}
@@ -0,0 +1,223 @@
+package dev.priveweb.core.http.response;
+
+import dev.priveweb.core.http.Header;
+import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.marshal.Marshallable;
+import dev.priveweb.core.marshal.impl.JsonMarshaller;
+import dev.priveweb.core.protocol.HTTPProtocol;
+import dev.priveweb.core.server.PriveServer;
+import dev.priveweb.core.util.HeaderUtils;
+import okio.Buffer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * A response whose body is a sequence of elements, such as a {@link Stream}, an {@link Iterator}, an {@link Iterable}
+ * or a {@link Flow.Publisher} returned by a handler. The elements are marshalled one at a time while the body is sent with {@code chunked}
+ * transfer encoding, so the whole sequence is never held in memory.
+ * <p>
+ *     The body is a JSON array, or newline-delimited JSON ({@code application/x-ndjson}) if the client prefers it
+ *     in its {@code Accept} header. The sequence is closed when it has been sent, or when the client disconnects.
+ * </p>
+ */
+public final class StreamingResponse implements Marshallable, Closeable {
+
+	/**
+	 * The media type of newline-delimited JSON.
+	 */
+	public static final String NDJSON = "application/x-ndjson";
+	private static final int CHUNK_SIZE = 8192;
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	private final Iterator<?> iterator;
+	private final @Nullable AutoCloseable resource;
+	private final @Nullable Type elementType;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private StreamingResponse(@NotNull Iterator<?> iterator, @Nullable AutoCloseable resource, @Nullable Type elementType) {
+		this.iterator = iterator;
+		this.resource = resource;
+		this.elementType = elementType;
+	}
+
+	/**
+	 * Whether an object can be sent as a {@link StreamingResponse}.
+	 * @param object The object.
+	 * @return {@code true} if it is a {@link Stream}, an {@link Iterator}, an {@link Iterable} or a {@link Flow.Publisher}.
+	 */
+	@Contract(value = "null -> false", pure = true)
+	public static boolean isStreamable(@Nullable Object object) {
+		return object instanceof Stream<?> || object instanceof Iterator<?> || object instanceof Iterable<?> || object instanceof Flow.Publisher<?>;
+	}
+
+	/**
+	 * Creates a new {@link StreamingResponse}.
+	 * @param elements The {@link Stream}, {@link Iterator}, {@link Iterable} or {@link Flow.Publisher} of elements.
+	 * @param elementType The type of the elements, or {@code null} to use the class of each element.
+	 * @return the response.
+	 * @throws IllegalArgumentException if the object is not {@linkplain #isStreamable(Object) streamable}.
+	 */
+	@Contract("_, _ -> new")
+	public static @NotNull StreamingResponse of(@NotNull Object elements, @Nullable Type elementType) {
+		if(elements instanceof Flow.Publisher<?> publisher) return of(publisher, elementType, null);
+		if(elements instanceof Stream<?> stream) return new StreamingResponse(stream.iterator(), stream, elementType);
+		if(elements instanceof Iterator<?> iterator) return new StreamingResponse(iterator, iterator instanceof AutoCloseable c ? c : null, elementType);
+		if(elements instanceof Iterable<?> iterable) return new StreamingResponse(iterable.iterator(), iterable instanceof AutoCloseable c ? c : null, elementType);
+		throw new IllegalArgumentException(elements.getClass() + " is not a Stream, an Iterator or an Iterable");
+	}
+
+	/**
+	 * Creates a new {@link StreamingResponse} of the items of a {@link Flow.Publisher}. The publisher is asked for a few items
+	 * at a time as they are sent, and its subscription is cancelled if the client disconnects.
+	 * @param publisher The publisher.
+	 * @param elementType The type of the items, or {@code null} to use the class of each item.
+	 * @param timeout How long to wait for each item before the body is cut short, or {@code null} to wait for as long as it takes.
+	 * @return the response.
+	 */
+	@Contract("_, _, _ -> new")
+	public static @NotNull StreamingResponse of(@NotNull Flow.Publisher<?> publisher, @Nullable Type elementType, @Nullable Duration timeout) {
+		PublisherIterator iterator = new PublisherIterator(publisher, timeout);
+		return new StreamingResponse(iterator, iterator, elementType);
+	}
+
+	/**
+	 * Gets the element type of a return type such as {@code Stream<Item>}.
+	 * @param returnType The generic return type of a handler.
+	 * @return the element type, or {@code null} if it is not known.
+	 */
+	@Contract(pure = true)
+	public static @Nullable Type getElementType(@NotNull Type returnType) {
+		if(!(returnType instanceof ParameterizedType parameterized)
+				|| !(parameterized.getRawType() instanceof Class<?> raw)
+				|| parameterized.getActualTypeArguments().length != 1
+				|| !Stream.class.isAssignableFrom(raw) && !Iterator.class.isAssignableFrom(raw) && !Iterable.class.isAssignableFrom(raw)
+				&& !Flow.Publisher.class.isAssignableFrom(raw)) return null;
+		Type type = parameterized.getActualTypeArguments()[0];
+		if(type instanceof WildcardType wildcard) type = wildcard.getUpperBounds()[0];
+		return type instanceof TypeVariable<?> || type == Object.class ? null : type;
+	}
+
+	@Override
+	public @NotNull HTTPResponse marshal(HTTPProtocol protocol) {
+		return marshal(protocol, false, false);
+	}
+
+	@Override
+	public @NotNull HTTPResponse marshal(HTTPProtocol protocol, @NotNull HTTPRequest request, @NotNull PriveServer server) {
+		// the body may never be written (e.g. for HEAD requests), so the elements are closed with the request
+		request.closeOnCompletion(this);
+		return marshal(protocol, prefersNdjson(HeaderUtils.getHeader(request.getHeaders(), "Accept")), true);
+	}
+
+	/**
+	 * Tells whether streams are sent as newline-delimited JSON rather than as a JSON array to a client.
+	 * @param accept The values of the {@code Accept} headers.
+	 * @return whether the client prefers {@code application/x-ndjson} to {@code application/json}.
+	 */
+	public static boolean prefersNdjson(@NotNull List<String> accept) {
+		double json = 0, ndjson = 0;
+		for(String value : accept) {
+			for(String range : value.split(",")) {
+				if(range.isBlank()) continue;
+				String type = HeaderUtils.stripParameters(range);
+				if(type.equals(NDJSON)) ndjson = Math.max(ndjson, HeaderUtils.getQuality(range));
+				else if(type.equals("application/json") || type.equals("application/*") || type.equals("*/*")) json = Math.max(json, HeaderUtils.getQuality(range));
+			}
+		}
+		return ndjson > json;
+	}
+
+	private @NotNull HTTPResponse marshal(HTTPProtocol protocol, boolean ndjson, boolean negotiated) {
+		// HTTP/2 frames the body itself
+		boolean chunked = protocol != HTTPProtocol.HTTP2;
+		var builder = HTTPResponse.builder()
+				.protocol(protocol.toString())
+				.responseCode(ResponseCode.S_200)
+				.header(new Header("Content-Type", ndjson ? NDJSON : JsonMarshaller.INSTANCE.getMediaType()));
+		if(chunked) builder.header(new Header("Transfer-Encoding", "chunked"));
+		if(negotiated) builder.header(new Header("Vary", "Accept"));
+		return builder.bodyWriter(new BodyWriter() {
+			@Override
+			public void writeTo(@NotNull OutputStream out) throws IOException {
+				write(out, ndjson, chunked);
+			}
+
+			@Override
+			public String toString() {
+				return "<streamed " + (ndjson ? NDJSON : "JSON array") + ">";
+			}
+		}).build();
+	}
+
+	private void write(@NotNull OutputStream out, boolean ndjson, boolean chunked) throws IOException {
+		// if an element cannot be produced, the body is cut short without its last chunk, so the client sees it is incomplete
+		try(this) {
+			Buffer buffer = new Buffer();
+			if(!ndjson) buffer.writeByte('[');
+			boolean first = true;
+			while(iterator.hasNext()) {
+				Object element = iterator.next();
+				if(!first && !ndjson) buffer.writeByte(',');
+				JsonMarshaller.INSTANCE.marshal(element, elementType != null ? elementType : element == null ? Object.class : element.getClass(), buffer);
+				if(ndjson) buffer.writeByte('\n');
+				// the first element is sent at once, so the client gets the response before the sequence ends
+				if(first || buffer.size() >= CHUNK_SIZE) writeChunk(out, buffer, chunked);
+				first = false;
+			}
+			if(!ndjson) buffer.writeByte(']');
+			writeChunk(out, buffer, chunked);
+			if(chunked) out.write(LAST_CHUNK);
+			out.flush();
+		}
+	}
+
+	private static void writeChunk(@NotNull OutputStream out, @NotNull Buffer buffer, boolean chunked) throws IOException {
+		if(buffer.size() == 0) return;
+		if(chunked) out.write((Long.toHexString(buffer.size()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+		buffer.writeTo(out);
+		if(chunked) {
+			out.write('\r');
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/**
+	 * Closes the sequence of elements, if it can be closed. This has no effect if it is already closed.
+	 * @throws IOException if the sequence cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(resource == null || !closed.compareAndSet(false, true)) return;
+		try {
+			resource.close();
+		} catch(IOException | RuntimeException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StreamingResponse[" + (elementType == null ? "?" : elementType.getTypeName()) + "]";
+	}
+
+}
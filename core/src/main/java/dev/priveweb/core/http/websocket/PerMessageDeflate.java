@@ -0,0 +1,139 @@
+package dev.priveweb.core.http.websocket;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The {@code permessage-deflate} extension (RFC 7692). Both sides compress each message on its own
+ * ({@code no_context_takeover}), so a connection only keeps one {@link Deflater} and one {@link Inflater}, which are reset per message.
+ */
+final class PerMessageDeflate {
+
+	static final String NAME = "permessage-deflate";
+	/**
+	 * The response to an accepted offer.
+	 */
+	static final String RESPONSE = NAME + "; server_no_context_takeover; client_no_context_takeover";
+	private static final byte[] TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+	/**
+	 * Messages shorter than this are sent uncompressed, as compressing them saves little or nothing.
+	 */
+	static final int MIN_COMPRESSED_SIZE = 64;
+
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private final Inflater inflater = new Inflater(true);
+	// the compressor is only used by the writer, and the decompressor by the reader, which each end their own
+	private boolean deflaterEnded = false;
+	private boolean inflaterEnded = false;
+
+	/**
+	 * Whether a {@code Sec-WebSocket-Extensions} header offers an acceptable {@code permessage-deflate} configuration.
+	 * Offers that limit the server's window are declined, as {@link Deflater} always uses the largest window.
+	 * @param extensions The values of the {@code Sec-WebSocket-Extensions} header.
+	 * @return {@code true} if an offer is acceptable.
+	 */
+	static boolean isOffered(@NotNull List<String> extensions) {
+		for(String value : extensions) {
+			offers:
+			for(String offer : value.split(",")) {
+				String[] params = offer.split(";");
+				if(!params[0].strip().equalsIgnoreCase(NAME)) continue;
+				for(int i = 1; i < params.length; i++) {
+					String param = params[i].strip().toLowerCase(Locale.ROOT);
+					int equals = param.indexOf('=');
+					String name = equals == -1 ? param : param.substring(0, equals).strip();
+					switch(name) {
+						case "server_no_context_takeover", "client_no_context_takeover", "client_max_window_bits" -> {}
+						case "server_max_window_bits" -> {
+							if(!param.substring(equals + 1).strip().replace("\"", "").equals("15")) continue offers;
+						}
+						default -> {
+							continue offers;
+						}
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compresses a message.
+	 * @param data The message.
+	 * @return the compressed message, without the trailing empty block.
+	 * @throws IOException if the connection has been closed.
+	 */
+	byte @NotNull [] compress(byte @NotNull [] data) throws IOException {
+		if(deflaterEnded) throw new IOException("the connection is closed");
+		deflater.reset();
+		deflater.setInput(data);
+		byte[] chunk = new byte[Math.min(Math.max(data.length / 2, 64), 8192)];
+		ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.length);
+		int n;
+		while((n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH)) > 0) out.write(chunk, 0, n);
+		byte[] compressed = out.toByteArray();
+		// the sync flush ends with 00 00 FF FF, which the receiver adds back
+		return Arrays.copyOf(compressed, compressed.length - TAIL.length);
+	}
+
+	/**
+	 * Decompresses a message.
+	 * @param data The buffer holding the compressed message.
+	 * @param length The length of the compressed message.
+	 * @param limit The maximum size of the decompressed message.
+	 * @return the decompressed message, or {@code null} if it is larger than the limit.
+	 * @throws DataFormatException if the message is not valid DEFLATE data.
+	 * @throws IOException if the connection has been closed.
+	 */
+	byte @Nullable [] decompress(byte @NotNull [] data, int length, long limit) throws DataFormatException, IOException {
+		if(inflaterEnded) throw new IOException("the connection is closed");
+		inflater.reset();
+		inflater.setInput(data, 0, length);
+		byte[] chunk = new byte[8192];
+		ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Math.max(length * 4L, 64), Math.min(limit, 1 << 16)));
+		boolean tail = false;
+		while(true) {
+			int n = inflater.inflate(chunk);
+			if(n > 0) {
+				out.write(chunk, 0, n);
+				if(out.size() > limit) return null;
+			} else if(inflater.finished() || inflater.needsDictionary()) {
+				break;
+			} else if(inflater.needsInput()) {
+				if(tail) break;
+				inflater.setInput(TAIL);
+				tail = true;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Releases the native resources of the compressor. This must not be called while a message is being compressed.
+	 */
+	void endDeflater() {
+		if(deflaterEnded) return;
+		deflaterEnded = true;
+		deflater.end();
+	}
+
+	/**
+	 * Releases the native resources of the decompressor. This must not be called while a message is being decompressed.
+	 */
+	void endInflater() {
+		if(inflaterEnded) return;
+		inflaterEnded = true;
+		inflater.end();
+	}
+
+}
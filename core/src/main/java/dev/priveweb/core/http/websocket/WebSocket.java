@@ -0,0 +1,579 @@
+package dev.priveweb.core.http.websocket;
+
+import dev.priveweb.core.util.BufferPool;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import slf4jansi.AnsiLogger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+
+/**
+ * An open WebSocket connection (RFC 6455), created when a {@link dev.priveweb.core.http.request.verbs.WebSocketRequest WebSocketRequest}
+ * handler accepts a handshake.
+ * <p>
+ *     Each connection has its own thread, which reads frames into pooled buffers and calls the {@link WebSocketListener}.
+ *     Messages can be sent from any thread. They are queued, and written by whichever sending thread finds the connection idle,
+ *     together with any messages queued meanwhile; when the queue holds more than its limit, sending blocks until the client
+ *     has caught up. The returned futures complete once the message has been written.
+ * </p>
+ */
+public final class WebSocket {
+
+	private static final Logger logger = AnsiLogger.of(LoggerFactory.getLogger(WebSocket.class));
+
+	/** The connection was closed normally. */
+	public static final int NORMAL_CLOSURE = 1000;
+	/** The endpoint is going away, e.g. the server is shutting down. */
+	public static final int GOING_AWAY = 1001;
+	/** The connection was closed because of a protocol error. */
+	public static final int PROTOCOL_ERROR = 1002;
+	/** The endpoint cannot accept the type of data received. */
+	public static final int UNSUPPORTED_DATA = 1003;
+	/** The close frame had no status code. This is never sent. */
+	public static final int NO_STATUS = 1005;
+	/** The connection was lost without a close frame. This is never sent. */
+	public static final int ABNORMAL_CLOSURE = 1006;
+	/** A text message was not valid UTF-8. */
+	public static final int INVALID_PAYLOAD = 1007;
+	/** A message violated the policy of the endpoint. */
+	public static final int POLICY_VIOLATION = 1008;
+	/** A message was larger than the endpoint accepts. */
+	public static final int MESSAGE_TOO_BIG = 1009;
+	/** The endpoint failed while handling a message. */
+	public static final int INTERNAL_ERROR = 1011;
+
+	private static final int OP_CONTINUATION = 0x0, OP_TEXT = 0x1, OP_BINARY = 0x2, OP_CLOSE = 0x8, OP_PING = 0x9, OP_PONG = 0xA;
+	private static final int FIN = 0x80, RSV1 = 0x40;
+	private static final int CLOSE_TIMEOUT_MILLIS = 5000;
+	private static final BufferPool BUFFERS = new BufferPool(16 << 10, 256);
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	private record Frame(int head, byte @NotNull [] payload, @NotNull CompletableFuture<Void> future) {}
+
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private final WebSocketListener listener;
+	private final @Nullable String subprotocol;
+	private final @Nullable PerMessageDeflate deflate;
+	private final int maxMessageSize;
+	private final int maxQueuedBytes;
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT);
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	// guarded by queue
+	private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+	private long queuedBytes = 0;
+	private boolean writing = false;
+	private boolean closeSent = false;
+
+	WebSocket(@NotNull Socket socket, @NotNull InputStream in, @NotNull OutputStream out, @NotNull WebSocketListener listener,
+			  @Nullable String subprotocol, @Nullable PerMessageDeflate deflate, int maxMessageSize, int maxQueuedBytes) {
+		this.socket = socket;
+		this.in = in;
+		this.out = out;
+		this.listener = listener;
+		this.subprotocol = subprotocol;
+		this.deflate = deflate;
+		this.maxMessageSize = maxMessageSize;
+		this.maxQueuedBytes = maxQueuedBytes;
+	}
+
+	/**
+	 * Starts reading from the connection on its own thread.
+	 */
+	void start() {
+		Thread thread = new Thread(this::read, "prive-websocket-" + socket.getRemoteSocketAddress());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Sends a text message.
+	 * @param message The message.
+	 * @return a future that completes when the message has been written, or fails if the connection is closed.
+	 */
+	public @NotNull CompletableFuture<Void> sendText(@NotNull CharSequence message) {
+		return enqueue(FIN | OP_TEXT, message.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sends a binary message. The remaining bytes of the buffer are copied, so it can be reused at once.
+	 * @param message The message.
+	 * @return a future that completes when the message has been written, or fails if the connection is closed.
+	 */
+	public @NotNull CompletableFuture<Void> sendBinary(@NotNull ByteBuffer message) {
+		byte[] payload = new byte[message.remaining()];
+		message.get(payload);
+		return enqueue(FIN | OP_BINARY, payload);
+	}
+
+	/**
+	 * Sends a ping, which the client answers with a {@linkplain WebSocketListener#onPong(WebSocket, ByteBuffer) pong}.
+	 * @param payload The payload of the ping, of at most 125 bytes.
+	 * @return a future that completes when the ping has been written, or fails if the connection is closed.
+	 * @throws IllegalArgumentException if the payload is longer than 125 bytes.
+	 */
+	public @NotNull CompletableFuture<Void> ping(@NotNull ByteBuffer payload) {
+		if(payload.remaining() > 125) throw new IllegalArgumentException("the payload of a ping cannot be longer than 125 bytes");
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		return enqueue(FIN | OP_PING, bytes);
+	}
+
+	/**
+	 * Starts closing the connection. Messages already queued are sent first, and the client is then expected
+	 * to answer with its own close frame; if it does not within 5 seconds, the connection is closed anyway.
+	 * @param code The status code, such as {@link #NORMAL_CLOSURE}, or a code between 3000 and 4999.
+	 * @param reason The reason, of at most 123 bytes, or {@code null}.
+	 * @return a future that completes when the close frame has been written.
+	 * @throws IllegalArgumentException if the code cannot be sent, or the reason is too long.
+	 */
+	public @NotNull CompletableFuture<Void> close(int code, @Nullable String reason) {
+		if(!isValidCloseCode(code)) throw new IllegalArgumentException("invalid close code " + code);
+		byte[] bytes = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > 123) throw new IllegalArgumentException("the close reason cannot be longer than 123 bytes");
+		byte[] payload = new byte[bytes.length + 2];
+		payload[0] = (byte) (code >>> 8);
+		payload[1] = (byte) code;
+		System.arraycopy(bytes, 0, payload, 2, bytes.length);
+		try {
+			socket.setSoTimeout(CLOSE_TIMEOUT_MILLIS);
+		} catch(IOException ignored) {
+			// the connection is already gone
+		}
+		return enqueue(FIN | OP_CLOSE, payload);
+	}
+
+	/**
+	 * Starts closing the connection normally.
+	 * @return a future that completes when the close frame has been written.
+	 * @see #close(int, String)
+	 */
+	public @NotNull CompletableFuture<Void> close() {
+		return close(NORMAL_CLOSURE, null);
+	}
+
+	/**
+	 * Whether messages can still be sent.
+	 * @return {@code true} if the connection has not started closing.
+	 */
+	public boolean isOpen() {
+		synchronized(queue) {
+			return !closeSent && !closed.get();
+		}
+	}
+
+	/**
+	 * Gets the subprotocol that was agreed on in the handshake.
+	 * @return the subprotocol, or {@code null} if there is none.
+	 */
+	@Contract(pure = true)
+	public @Nullable String getSubprotocol() {
+		return subprotocol;
+	}
+
+	/**
+	 * Gets the size of the messages waiting to be sent.
+	 * @return the size, in bytes.
+	 */
+	public long getQueuedBytes() {
+		synchronized(queue) {
+			return queuedBytes;
+		}
+	}
+
+	/**
+	 * Gets the address of the client.
+	 * @return the address.
+	 */
+	public @NotNull SocketAddress getRemoteAddress() {
+		return socket.getRemoteSocketAddress();
+	}
+
+	/**
+	 * Queues a frame, and writes the queue if no other thread is writing it. Data frames wait while the queue is full.
+	 */
+	private @NotNull CompletableFuture<Void> enqueue(int head, byte @NotNull [] payload) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		boolean control = (head & 0x08) != 0;
+		synchronized(queue) {
+			try {
+				while(!control && queuedBytes >= maxQueuedBytes && !closeSent && !closed.get()) queue.wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.completeExceptionally(e);
+				return future;
+			}
+			if(closeSent || closed.get()) {
+				future.completeExceptionally(new IOException("the WebSocket is closed"));
+				return future;
+			}
+			if((head & 0x0F) == OP_CLOSE) closeSent = true;
+			queue.add(new Frame(head, payload, future));
+			queuedBytes += payload.length;
+			if(writing) return future;
+			writing = true;
+		}
+		drain();
+		return future;
+	}
+
+	/**
+	 * Writes queued frames until the queue is empty, flushing once at the end.
+	 */
+	private void drain() {
+		List<Frame> written = new ArrayList<>();
+		try {
+			while(true) {
+				Frame frame;
+				synchronized(queue) {
+					frame = queue.poll();
+				}
+				if(frame == null) {
+					out.flush();
+					for(Frame f : written) f.future().complete(null);
+					written.clear();
+					synchronized(queue) {
+						queue.notifyAll();
+						if(queue.isEmpty()) {
+							writing = false;
+							if(closed.get()) endDeflater();
+							return;
+						}
+					}
+					continue;
+				}
+				try {
+					writeFrame(frame);
+				} finally {
+					written.add(frame);
+					synchronized(queue) {
+						queuedBytes -= frame.payload().length;
+					}
+				}
+			}
+		} catch(IOException | RuntimeException e) {
+			List<Frame> failed;
+			synchronized(queue) {
+				failed = new ArrayList<>(queue);
+				queue.clear();
+				queuedBytes = 0;
+				writing = false;
+				closeSent = true;
+				// nothing is written after the close was marked as sent
+				endDeflater();
+				queue.notifyAll();
+			}
+			for(Frame f : written) f.future().completeExceptionally(e);
+			for(Frame f : failed) f.future().completeExceptionally(e);
+			abort();
+		}
+	}
+
+	private void writeFrame(@NotNull Frame frame) throws IOException {
+		int head = frame.head();
+		byte[] payload = frame.payload();
+		int opcode = head & 0x0F;
+		if(deflate != null && (opcode == OP_TEXT || opcode == OP_BINARY) && payload.length >= PerMessageDeflate.MIN_COMPRESSED_SIZE) {
+			payload = deflate.compress(payload);
+			head |= RSV1;
+		}
+		byte[] header = new byte[10];
+		header[0] = (byte) head;
+		int n;
+		if(payload.length < 126) {
+			header[1] = (byte) payload.length;
+			n = 2;
+		} else if(payload.length <= 0xFFFF) {
+			header[1] = 126;
+			header[2] = (byte) (payload.length >>> 8);
+			header[3] = (byte) payload.length;
+			n = 4;
+		} else {
+			header[1] = 127;
+			LONGS.set(header, 2, (long) payload.length);
+			n = 10;
+		}
+		out.write(header, 0, n);
+		out.write(payload);
+	}
+
+	/**
+	 * Reads frames until the connection is closed.
+	 */
+	private void read() {
+		int code = ABNORMAL_CLOSURE;
+		String reason = "";
+		ByteBuffer pooled = BUFFERS.acquire();
+		byte[] message = pooled.array();
+		byte[] control = new byte[125];
+		byte[] mask = new byte[4];
+		try {
+			call(() -> listener.onOpen(this));
+			int messageOpcode = -1;
+			boolean compressed = false;
+			int messageLength = 0;
+			while(true) {
+				int b0 = in.read();
+				int b1 = in.read();
+				if(b1 == -1) throw new EOFException();
+				boolean fin = (b0 & FIN) != 0;
+				int rsv = b0 & 0x70;
+				int opcode = b0 & 0x0F;
+				long length = b1 & 0x7F;
+				if(length == 126) length = (readByte() << 8) | readByte();
+				else if(length == 127) {
+					length = 0;
+					for(int i = 0; i < 8; i++) length = (length << 8) | readByte();
+					if(length < 0) throw new CloseException(PROTOCOL_ERROR, "invalid frame length");
+				}
+				if((b1 & 0x80) == 0) throw new CloseException(PROTOCOL_ERROR, "client frames must be masked");
+				readFully(mask, 0, 4);
+				if(opcode >= OP_CLOSE) {
+					if(!fin || length > 125 || rsv != 0) throw new CloseException(PROTOCOL_ERROR, "invalid control frame");
+					int n = (int) length;
+					readFully(control, 0, n);
+					unmask(control, 0, n, mask);
+					ByteBuffer payload = ByteBuffer.wrap(control, 0, n);
+					if(opcode == OP_CLOSE) {
+						if(n == 1) throw new CloseException(PROTOCOL_ERROR, "invalid close frame");
+						code = n == 0 ? NO_STATUS : (control[0] & 0xFF) << 8 | control[1] & 0xFF;
+						if(n > 0 && !isValidCloseCode(code)) throw new CloseException(PROTOCOL_ERROR, "invalid close code");
+						reason = n > 2 ? decode(control, 2, n - 2) : "";
+						// echo the status code, after any queued messages
+						replyClose(code == NO_STATUS ? new byte[0] : new byte[] {control[0], control[1]});
+						return;
+					} else if(opcode == OP_PING) {
+						byte[] pong = new byte[n];
+						payload.get(pong);
+						enqueue(FIN | OP_PONG, pong);
+					} else if(opcode == OP_PONG) {
+						call(() -> listener.onPong(this, payload));
+					} else {
+						throw new CloseException(PROTOCOL_ERROR, "unknown opcode " + opcode);
+					}
+					continue;
+				}
+				if(opcode == OP_CONTINUATION) {
+					if(messageOpcode == -1 || rsv != 0) throw new CloseException(PROTOCOL_ERROR, "unexpected continuation frame");
+				} else if(opcode == OP_TEXT || opcode == OP_BINARY) {
+					if(messageOpcode != -1) throw new CloseException(PROTOCOL_ERROR, "expected a continuation frame");
+					if(rsv != 0 && (rsv != RSV1 || deflate == null)) throw new CloseException(PROTOCOL_ERROR, "unexpected reserved bits");
+					messageOpcode = opcode;
+					compressed = rsv != 0;
+					messageLength = 0;
+				} else {
+					throw new CloseException(PROTOCOL_ERROR, "unknown opcode " + opcode);
+				}
+				if(messageLength + length > maxMessageSize) throw new CloseException(MESSAGE_TOO_BIG, "message too big");
+				int end = messageLength + (int) length;
+				if(end > message.length) message = Arrays.copyOf(message, (int) Math.min(Math.max(message.length * 2L, end), maxMessageSize));
+				readFully(message, messageLength, (int) length);
+				unmask(message, messageLength, (int) length, mask);
+				messageLength = end;
+				if(!fin) continue;
+				byte[] data = message;
+				int dataLength = messageLength;
+				if(compressed) {
+					try {
+						data = deflate.decompress(message, messageLength, maxMessageSize);
+					} catch(DataFormatException e) {
+						throw new CloseException(PROTOCOL_ERROR, "invalid compressed message");
+					}
+					if(data == null) throw new CloseException(MESSAGE_TOO_BIG, "message too big");
+					dataLength = data.length;
+				}
+				boolean closing;
+				synchronized(queue) {
+					closing = closeSent;
+				}
+				// messages received after the close frame was sent are discarded
+				if(!closing) {
+					if(messageOpcode == OP_TEXT) {
+						String text = decode(data, 0, dataLength);
+						call(() -> listener.onText(this, text));
+					} else {
+						// only valid during the call, as the array is pooled
+						ByteBuffer binary = ByteBuffer.wrap(data, 0, dataLength);
+						call(() -> listener.onBinary(this, binary));
+					}
+				}
+				messageOpcode = -1;
+				// large messages do not keep their buffers
+				if(message.length > pooled.capacity()) message = pooled.array();
+			}
+		} catch(CloseException e) {
+			code = e.code;
+			reason = e.getMessage();
+			replyClose(closePayload(e.code, e.getMessage()));
+		} catch(IOException e) {
+			// the connection was lost, or the client did not answer a close frame in time
+			code = ABNORMAL_CLOSURE;
+		} finally {
+			BUFFERS.release(pooled);
+			abort();
+			if(deflate != null) deflate.endInflater();
+			// a writer that is still draining ends the compressor itself once it is done
+			synchronized(queue) {
+				if(!writing) endDeflater();
+			}
+			try {
+				listener.onClose(this, code, reason);
+			} catch(RuntimeException e) {
+				logger.warn("{!warn}WebSocket listener failed while closing: {}", e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Sends a close frame unless one has been sent already, and waits for it to be written before the socket is closed.
+	 */
+	private void replyClose(byte @NotNull [] payload) {
+		boolean reply;
+		synchronized(queue) {
+			reply = !closeSent;
+		}
+		if(!reply) return;
+		try {
+			enqueue(FIN | OP_CLOSE, payload).get(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(Exception ignored) {
+			// the connection is closed either way
+		}
+	}
+
+	/**
+	 * Calls the listener, turning its exceptions into closing the connection with {@link #INTERNAL_ERROR}.
+	 */
+	private void call(@NotNull Runnable call) throws CloseException {
+		try {
+			call.run();
+		} catch(RuntimeException e) {
+			try {
+				listener.onError(this, e);
+			} catch(RuntimeException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			logger.error("{!error}WebSocket listener failed: {}", e.toString());
+			throw new CloseException(INTERNAL_ERROR, "");
+		}
+	}
+
+	/**
+	 * Releases the compressor, once no writer is using it. This must be called while holding the queue's lock.
+	 */
+	private void endDeflater() {
+		if(deflate != null) deflate.endDeflater();
+	}
+
+	/**
+	 * Closes the socket, and fails any messages still queued.
+	 */
+	private void abort() {
+		if(!closed.compareAndSet(false, true)) return;
+		synchronized(queue) {
+			queue.notifyAll();
+		}
+		try {
+			socket.close();
+		} catch(IOException ignored) {
+			// the connection is gone either way
+		}
+	}
+
+	private @NotNull String decode(byte @NotNull [] data, int offset, int length) throws CloseException {
+		try {
+			return decoder.reset().decode(ByteBuffer.wrap(data, offset, length)).toString();
+		} catch(CharacterCodingException e) {
+			throw new CloseException(INVALID_PAYLOAD, "invalid UTF-8");
+		}
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if(b == -1) throw new EOFException();
+		return b;
+	}
+
+	private void readFully(byte @NotNull [] buffer, int offset, int length) throws IOException {
+		while(length > 0) {
+			int n = in.read(buffer, offset, length);
+			if(n == -1) throw new EOFException();
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Unmasks a frame payload in place, eight bytes at a time.
+	 */
+	private static void unmask(byte @NotNull [] data, int offset, int length, byte @NotNull [] mask) {
+		long m = (mask[0] & 0xFFL) << 24 | (mask[1] & 0xFFL) << 16 | (mask[2] & 0xFFL) << 8 | mask[3] & 0xFFL;
+		long mask64 = m << 32 | m;
+		int i = 0;
+		for(; i + 8 <= length; i += 8) LONGS.set(data, offset + i, (long) LONGS.get(data, offset + i) ^ mask64);
+		for(; i < length; i++) data[offset + i] ^= mask[i & 3];
+	}
+
+	private static byte @NotNull [] closePayload(int code, @NotNull String reason) {
+		byte[] bytes = reason.getBytes(StandardCharsets.UTF_8);
+		byte[] payload = new byte[Math.min(bytes.length, 123) + 2];
+		payload[0] = (byte) (code >>> 8);
+		payload[1] = (byte) code;
+		System.arraycopy(bytes, 0, payload, 2, payload.length - 2);
+		return payload;
+	}
+
+	@Contract(pure = true)
+	private static boolean isValidCloseCode(int code) {
+		return code >= 1000 && code <= 1003 || code >= 1007 && code <= 1011 || code >= 3000 && code <= 4999;
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocket[" + socket.getRemoteSocketAddress() + "]";
+	}
+
+	/**
+	 * Ends the connection with a status code.
+	 */
+	private static final class CloseException extends Exception {
+
+		private final int code;
+
+		private CloseException(int code, @NotNull String reason) {
+			super(reason, null, false, false);
+			this.code = code;
+		}
+
+	}
+
+}
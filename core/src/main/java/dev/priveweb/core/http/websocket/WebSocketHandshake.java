@@ -0,0 +1,131 @@
+package dev.priveweb.core.http.websocket;
+
+import dev.priveweb.core.http.Header;
+import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.http.request.verbs.WebSocketRequest;
+import dev.priveweb.core.http.response.HTTPResponse;
+import dev.priveweb.core.marshal.Marshallable;
+import dev.priveweb.core.protocol.HTTPProtocol;
+import dev.priveweb.core.server.PriveServer;
+import dev.priveweb.core.util.HeaderUtils;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The server's side of the WebSocket opening handshake, which answers the request of a
+ * {@link WebSocketRequest} handler that returned a {@link WebSocketListener}. If the request is a valid
+ * handshake, the response switches protocols and the connection is taken over by a {@link WebSocket}.
+ */
+@ApiStatus.Internal
+public final class WebSocketHandshake implements Marshallable {
+
+	private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final String VERSION = "13";
+
+	private final WebSocketListener listener;
+	private final WebSocketRequest endpoint;
+
+	/**
+	 * Creates a new {@link WebSocketHandshake}.
+	 * @param listener The listener of the connection.
+	 * @param endpoint The annotation of the handler.
+	 */
+	public WebSocketHandshake(@NotNull WebSocketListener listener, @NotNull WebSocketRequest endpoint) {
+		this.listener = listener;
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * Without the request, the handshake cannot be answered, so this asks for an upgrade.
+	 */
+	@Override
+	public @NotNull HTTPResponse marshal(HTTPProtocol protocol) {
+		return HTTPResponse.builder()
+				.protocol(protocol.toString())
+				.responseCode(ResponseCode.C_426)
+				.header(new Header("Upgrade", "websocket"))
+				.header(new Header("Sec-WebSocket-Version", VERSION))
+				.build();
+	}
+
+	@Override
+	public @NotNull HTTPResponse marshal(HTTPProtocol protocol, @NotNull HTTPRequest request, @NotNull PriveServer server) {
+		List<Header> headers = request.getHeaders();
+		if(!hasToken(HeaderUtils.getHeader(headers, "Upgrade"), "websocket") || !hasToken(HeaderUtils.getHeader(headers, "Connection"), "upgrade")) {
+			return marshal(protocol);
+		}
+		if(!HeaderUtils.getHeader(headers, "Sec-WebSocket-Version").contains(VERSION)) return marshal(protocol);
+		List<String> keys = HeaderUtils.getHeader(headers, "Sec-WebSocket-Key");
+		if(keys.size() != 1 || !isValidKey(keys.get(0))) {
+			return HTTPResponse.builder()
+					.protocol(protocol.toString())
+					.responseCode(ResponseCode.C_400)
+					.build();
+		}
+		String subprotocol = selectSubprotocol(HeaderUtils.getHeader(headers, "Sec-WebSocket-Protocol"));
+		boolean compression = endpoint.compression() && PerMessageDeflate.isOffered(HeaderUtils.getHeader(headers, "Sec-WebSocket-Extensions"));
+		var builder = HTTPResponse.builder()
+				.protocol(protocol.toString())
+				.responseCode(ResponseCode.I_101)
+				.header(new Header("Upgrade", "websocket"))
+				.header(new Header("Connection", "Upgrade"))
+				.header(new Header("Sec-WebSocket-Accept", accept(keys.get(0).strip())));
+		if(subprotocol != null) builder.header(new Header("Sec-WebSocket-Protocol", subprotocol));
+		if(compression) builder.header(new Header("Sec-WebSocket-Extensions", PerMessageDeflate.RESPONSE));
+		return builder.takeover((socket, in, out) -> new WebSocket(
+				socket, in, out, listener, subprotocol,
+				compression ? new PerMessageDeflate() : null,
+				endpoint.maxMessageSize(), endpoint.maxQueuedBytes()
+		).start()).build();
+	}
+
+	/**
+	 * Selects the first subprotocol of the endpoint that the client offers.
+	 */
+	private @Nullable String selectSubprotocol(@NotNull List<String> offered) {
+		for(String subprotocol : endpoint.subprotocols()) {
+			if(hasToken(offered, subprotocol)) return subprotocol;
+		}
+		return null;
+	}
+
+	/**
+	 * Computes the {@code Sec-WebSocket-Accept} value for a key.
+	 * @param key The {@code Sec-WebSocket-Key} of the request.
+	 * @return the accept value.
+	 */
+	static @NotNull String accept(@NotNull String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1));
+			return Base64.getEncoder().encodeToString(digest);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+
+	private static boolean isValidKey(@NotNull String key) {
+		try {
+			return Base64.getDecoder().decode(key.strip()).length == 16;
+		} catch(IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static boolean hasToken(@NotNull List<String> values, @NotNull String token) {
+		for(String value : values) {
+			for(String element : value.split(",")) {
+				if(element.strip().equalsIgnoreCase(token)) return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,62 @@
+package dev.priveweb.core.http.websocket;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the events of a {@link WebSocket} connection. All methods are called on the thread that reads
+ * from the connection, one at a time, and do nothing by default.
+ */
+public interface WebSocketListener {
+
+	/**
+	 * Called once the connection is open, before any message is received.
+	 * @param socket The connection.
+	 */
+	default void onOpen(@NotNull WebSocket socket) {
+	}
+
+	/**
+	 * Called when a text message has been received.
+	 * @param socket The connection.
+	 * @param message The message.
+	 */
+	default void onText(@NotNull WebSocket socket, @NotNull String message) {
+	}
+
+	/**
+	 * Called when a binary message has been received.
+	 * @param socket The connection.
+	 * @param message The message. It is only valid during this call: the buffer wraps a pooled array that is reused
+	 *                for the next message once this returns, so its content must be copied to be kept or used on another thread.
+	 */
+	default void onBinary(@NotNull WebSocket socket, @NotNull ByteBuffer message) {
+	}
+
+	/**
+	 * Called when a pong has been received. Pings are answered automatically.
+	 * @param socket The connection.
+	 * @param payload The payload of the pong.
+	 */
+	default void onPong(@NotNull WebSocket socket, @NotNull ByteBuffer payload) {
+	}
+
+	/**
+	 * Called once, when the connection has been closed by either side, or has failed.
+	 * @param socket The connection.
+	 * @param code The status code of the closure, such as {@link WebSocket#NORMAL_CLOSURE}, or {@link WebSocket#ABNORMAL_CLOSURE} if the connection was lost.
+	 * @param reason The reason of the closure, which may be empty.
+	 */
+	default void onClose(@NotNull WebSocket socket, int code, @NotNull String reason) {
+	}
+
+	/**
+	 * Called when a listener method throws. The connection is then closed with {@link WebSocket#INTERNAL_ERROR}.
+	 * @param socket The connection.
+	 * @param error The error.
+	 */
+	default void onError(@NotNull WebSocket socket, @NotNull Throwable error) {
+	}
+
+}
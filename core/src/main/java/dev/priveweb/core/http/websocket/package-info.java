@@ -0,0 +1,4 @@
+/**
+ * This package contains the WebSocket (RFC 6455) support: the opening handshake, framing, and connections.
+ */
+package dev.priveweb.core.http.websocket;
\ No newline at end of file
@@ -1,24 +1,44 @@
 package dev.priveweb.core.mapper;
 
-import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.JsonDataException;
-import com.squareup.moshi.Moshi;
+import dev.priveweb.core.exception.ContainsResponseCode;
 import dev.priveweb.core.exception.HandlerNotFoundException;
 import dev.priveweb.core.exception.MalformedRequestException;
+import dev.priveweb.core.exception.ResponseTimeoutException;
+import dev.priveweb.core.http.Header;
 import dev.priveweb.core.http.ResponseCode;
 import dev.priveweb.core.http.request.*;
 import dev.priveweb.core.http.request.verbs.*;
 import dev.priveweb.core.http.request.PathParam;
 import dev.priveweb.core.http.request.RequestBody;
+import dev.priveweb.core.http.request.body.MultipartReader;
+import dev.priveweb.core.http.request.body.Part;
+import dev.priveweb.core.http.request.body.SpooledBody;
+import dev.priveweb.core.http.response.AsyncResponse;
+import dev.priveweb.core.http.response.AutoETag;
+import dev.priveweb.core.http.response.BodyWriter;
+import dev.priveweb.core.http.response.Cached;
 import dev.priveweb.core.http.response.HTTPResponse;
+import dev.priveweb.core.http.response.ResponseCache;
+import dev.priveweb.core.http.response.StreamingResponse;
 import dev.priveweb.core.http.session.Session;
+import dev.priveweb.core.http.websocket.WebSocketHandshake;
+import dev.priveweb.core.http.websocket.WebSocketListener;
 import dev.priveweb.core.mapper.impl.MappingConfigurationImpl;
+import dev.priveweb.core.marshal.Marshallable;
+import dev.priveweb.core.marshal.Marshaller;
+import dev.priveweb.core.marshal.impl.JsonMarshaller;
+import dev.priveweb.core.protocol.HTTPProtocol;
 import dev.priveweb.core.server.PriveServer;
 import dev.priveweb.core.server.impl.PriveWebServer;
+import dev.priveweb.core.util.HeaderUtils;
+import dev.priveweb.core.util.IOUtils;
 import dev.priveweb.core.util.Pair;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
+import okio.BufferedSource;
+import okio.Okio;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -26,10 +46,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import slf4jansi.AnsiLogger;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Resolves all the methods for an object.
@@ -83,13 +118,12 @@ public class MappingResolver {
 			@NotNull RequestMethod requestMethod,
 			@Nullable QueryParameters parameters,
 			@NotNull HTTPRequest request,
-			@Nullable String requestBody,
 			@NotNull String... pathvars
 
 	) throws HandlerNotFoundException, MalformedRequestException {
 
 		if(requestMethod != RequestMethod.POST && requestMethod != RequestMethod.PATCH && requestMethod != RequestMethod.PUT) {
-			if(requestBody != null) {
+			if(request.hasRequestBody()) {
 				throw new MalformedRequestException(requestMethod + " requests cannot have request bodies");
 			}
 		}
@@ -107,14 +141,14 @@ public class MappingResolver {
 		if(v == null) {
 			throw new HandlerNotFoundException(request);
 		};
-		return Objects.requireNonNull(v, "Handler cannot be null").invoke(object, requestMethod, parameters, mappingConfigurer, requestBody, request, new Session() {}, pathvars);
+		return Objects.requireNonNull(v, "Handler cannot be null").invoke(object, requestMethod, parameters, mappingConfigurer, request, new Session() {}, pathvars);
 
 	}
 
 	public static final class MappingHandler {
 
-		private static final Moshi moshi = new Moshi.Builder().build();
-		private static final Map<Class<?>, JsonAdapter<?>> jsonAdapterMap = new Hashtable<>();
+		private static final Set<String> NOT_MODIFIED_HEADERS = Set.of("cache-control", "content-location", "date", "etag", "expires", "vary");
+
 		@Getter @Setter private Method method;
 		@Getter private final Set<RequestMethod> requestMethods;
 		private final PriveWebServer server;
@@ -144,12 +178,10 @@ public class MappingResolver {
 				@NotNull RequestMethod method, // the RequestMethod used
 				@Nullable QueryParameters queryParameters, // the query parameters (if there are none, it is null)
 				@NotNull MappingConfiguration configuration, // the MappingConfiguration.
-				@Nullable String requestBody, // the request body
-				@NotNull HTTPRequest request, // the request itself
+				@NotNull HTTPRequest request, // the request itself, including the request body
 				@NotNull Session session,
 				@NotNull String... pathvars // the path variables.
 		) {
-			var body = requestBody;
 			if(server.isVerbose()) logger.info("Resolving path {} with {} path variables: {}", route, pathvars.length, Arrays.toString(pathvars));
 			if(!requestMethods.contains(method)) {
 				logger.warn("{!warn}Attempted to invoke non-existent {} request handler", method.name());
@@ -184,27 +216,36 @@ public class MappingResolver {
 						}
 						actualParamList.add(i, pathvar);
 					} else if(param.isAnnotationPresent(RequestBody.class)) {
-						actualParamList.add(i, requestBody);
+						actualParamList.add(i, request.getRequestBody());
 					}
-				} else if(paramClass.isAnnotationPresent(RequestBody.class)) {
-					JsonAdapter<?> jsonAdapter;
-					if(requestBody != null) {
-						if(jsonAdapterMap.containsKey(paramClass)) {
-							jsonAdapter = jsonAdapterMap.get(paramClass);
-						} else {
-							jsonAdapter = moshi.adapter(paramClass);
-							jsonAdapterMap.put(paramClass, jsonAdapter);
-						}
+				} else if(paramClass == SpooledBody.class) {
+					actualParamList.add(i, spool(request));
+				} else if(paramClass == MultipartReader.class) {
+					actualParamList.add(i, multipart(request));
+				} else if(paramClass == List.class
+						&& param.getParameterizedType() instanceof ParameterizedType type
+						&& type.getActualTypeArguments()[0] == Part.class) {
+					MultipartReader reader = multipart(request);
+					actualParamList.add(i, reader == null ? null : reader.readAll());
+				} else if(paramClass == InputStream.class && param.isAnnotationPresent(RequestBody.class)) {
+					actualParamList.add(i, request.getRequestBodyStream());
+				} else if(param.isAnnotationPresent(RequestBody.class)) {
+					if(request.hasRequestBody()) {
+						// the Content-Type selects the marshaller; JSON is assumed if there is none
+						var contentType = HeaderUtils.getHeader(request.getHeaders(), "Content-Type");
+						Marshaller marshaller = contentType.isEmpty() ? null : server.getMarshallers().resolve(contentType.get(0));
+						if(marshaller == null) marshaller = JsonMarshaller.INSTANCE;
 						Object o;
-						try {
-							o = jsonAdapter.fromJson(requestBody);
-						} catch(JsonDataException e) {
+						// parse straight from the connection as bytes arrive, without an intermediate string
+						try(BufferedSource source = Okio.buffer(Okio.source(Objects.requireNonNull(request.getRequestBodyStream())))) {
+							o = marshaller.unmarshal(param.getParameterizedType(), source);
+						} catch(JsonDataException | IOException e) {
 							if(server.isVerbose()) {
-								logger.warn("{!warn}Unable to deserialize object '{}' (substring to index 25)", requestBody.substring(0, 25));
+								logger.warn("{!warn}Unable to deserialize request body into {}: {}", paramClass.getSimpleName(), e.toString());
 								logger.warn("{!warn}Value will be set as null.");
 							}
 							o = null;
- 						}
+						}
 						actualParamList.add(i, o);
 					} else {
 						actualParamList.add(i, null);
@@ -216,8 +257,29 @@ public class MappingResolver {
 				}
 			}
 			try {
+				Cached cached = this.method.getAnnotation(Cached.class);
+				if(cached != null) return cached(cached, object, actualParamList.toArray(Object[]::new), queryParameters, request, pathvars);
 				if(server.isVerbose()) logger.info("Calling method '{}' through reflection with parameters {}", this.method.getName(), actualParamList);
-				Object obj = this.method.invoke(object, actualParamList.toArray(Object[]::new));
+				Object result = this.method.invoke(object, actualParamList.toArray(Object[]::new));
+				if(result instanceof CompletionStage<?> stage) {
+					// the result is marshalled when it is ready, by the thread that completes the stage
+					Type type = getResultType(this.method.getGenericReturnType());
+					CompletableFuture<Object> response = stage.thenApply(value -> {
+						Object obj = upgrade(stream(value, type));
+						if(!this.method.isAnnotationPresent(AutoETag.class)) return obj;
+						try {
+							return revalidate(tag(IOUtils.marshalObjectIntoResponse(obj, HTTPProtocol.HTTP1_1, request, server)), request);
+						} catch(IOException e) {
+							throw new CompletionException(e);
+						}
+					}).toCompletableFuture();
+					// cancelling the response (on a timeout or a disconnect) cancels the handler's work as well
+					response.whenComplete((value, error) -> {
+						if(response.isCancelled()) AsyncResponse.cancel(stage);
+					});
+					return response;
+				}
+				Object obj = upgrade(stream(result, this.method.getGenericReturnType()));
 				if(server.isVerbose()) {
 					if(obj == null) {
 						logger.warn("{!warn}Returned object is null, setting response object to 200 OK");
@@ -229,7 +291,17 @@ public class MappingResolver {
 						logger.info("Successfully invoked, got result {}", obj.getClass().getSimpleName());
 					}
 				}
+				if(this.method.isAnnotationPresent(AutoETag.class) && obj != null) {
+					return revalidate(tag(IOUtils.marshalObjectIntoResponse(obj, HTTPProtocol.HTTP1_1, request, server)), request);
+				}
 				return Objects.requireNonNull(obj);
+			} catch(InvocationTargetException e) {
+				// limits hit while the handler reads the body carry their own response code
+				Throwable cause = e.getCause() instanceof UncheckedIOException u ? u.getCause() : e.getCause();
+				if(cause instanceof ContainsResponseCode) throw cause;
+				logger.error("{!error}Failed to invoke {} handler for '{}'; {}", method, route, e.toString());
+				e.printStackTrace();
+				return null;
 			} catch(Exception e) {
 				logger.error("{!error}Failed to invoke {} handler for '{}'; {}", method, route, e.toString());
 				e.printStackTrace();
@@ -237,6 +309,135 @@ public class MappingResolver {
 			}
 		}
 
+		/**
+		 * Invokes the handler of a {@link Cached} route through the server's {@link ResponseCache}.
+		 */
+		private @NotNull HTTPResponse cached(@NotNull Cached cached, @NotNull Object object, @NotNull Object[] args, @Nullable QueryParameters queryParameters, @NotNull HTTPRequest request, @NotNull String... pathvars) throws Exception {
+			// routes are shared by handlers of several methods, whose responses are cached apart
+			StringJoiner key = new StringJoiner("\n").add(this.method.toGenericString()).add(route);
+			for(String pathvar : pathvars) key.add(pathvar);
+			for(String name : cached.query()) key.add(name + '=' + (queryParameters == null ? null : queryParameters.getQueryParameters(name)));
+			for(String name : cached.headers()) key.add(name + ':' + HeaderUtils.getHeader(request.getHeaders(), name));
+			// responses vary by the format negotiated from Accept, whether or not it is listed
+			List<String> accept = HeaderUtils.getHeader(request.getHeaders(), "Accept");
+			Marshaller negotiated = server.getMarshallers().negotiate(accept);
+			key.add((negotiated == null ? "" : negotiated.getMediaType()) + (StreamingResponse.prefersNdjson(accept) ? ";ndjson" : ""));
+			HTTPResponse response = server.getResponseCache().get(key.toString(), cached.unit().toMillis(cached.ttl()), cached.unit().toMillis(cached.staleWhileRevalidate()), () -> {
+				if(server.isVerbose()) logger.info("Calling cached method '{}' through reflection with parameters {}", this.method.getName(), Arrays.toString(args));
+				Object result = this.method.invoke(object, args);
+				Type type = this.method.getGenericReturnType();
+				if(result instanceof CompletionStage<?> stage) {
+					// a cached response is built once, so waiting for it here holds up only the requests that miss
+					type = getResultType(type);
+					try {
+						result = stage.toCompletableFuture().get(server.getAsyncTimeout().toNanos(), TimeUnit.NANOSECONDS);
+					} catch(TimeoutException e) {
+						stage.toCompletableFuture().cancel(true);
+						throw new ResponseTimeoutException(server.getAsyncTimeout());
+					} catch(ExecutionException e) {
+						throw e.getCause() instanceof Exception cause ? cause : e;
+					}
+				}
+				HTTPResponse marshalled = IOUtils.marshalObjectIntoResponse(stream(result, type), HTTPProtocol.HTTP1_1, request, server);
+				return this.method.isAnnotationPresent(AutoETag.class) ? tag(marshalled) : marshalled;
+			});
+			return this.method.isAnnotationPresent(AutoETag.class) ? revalidate(response, request) : response;
+		}
+
+		/**
+		 * Wraps a returned {@link java.util.stream.Stream Stream}, {@link Iterator}, {@link Iterable} or
+		 * {@link java.util.concurrent.Flow.Publisher Publisher} so that it is marshalled element by element,
+		 * using the element type of the given return type.
+		 */
+		private @Nullable Object stream(@Nullable Object obj, @Nullable Type returnType) {
+			if(obj instanceof Marshallable || !StreamingResponse.isStreamable(obj)) return obj;
+			Type elementType = returnType == null ? null : StreamingResponse.getElementType(returnType);
+			if(obj instanceof Flow.Publisher<?> publisher) return StreamingResponse.of(publisher, elementType, server.getAsyncTimeout());
+			return StreamingResponse.of(obj, elementType);
+		}
+
+		/**
+		 * Gets the type of the result of a return type such as {@code CompletionStage<Item>}.
+		 * @return the result type, or {@code null} if it is not known.
+		 */
+		private static @Nullable Type getResultType(@NotNull Type returnType) {
+			if(!(returnType instanceof ParameterizedType parameterized) || parameterized.getActualTypeArguments().length != 1) return null;
+			Type type = parameterized.getActualTypeArguments()[0];
+			return type instanceof WildcardType wildcard ? wildcard.getUpperBounds()[0] : type;
+		}
+
+		/**
+		 * Answers the opening handshake of a {@link WebSocketRequest} handler that returned a {@link WebSocketListener}.
+		 */
+		private @Nullable Object upgrade(@Nullable Object obj) {
+			WebSocketRequest endpoint = this.method.getAnnotation(WebSocketRequest.class);
+			return endpoint != null && obj instanceof WebSocketListener listener ? new WebSocketHandshake(listener, endpoint) : obj;
+		}
+
+		/**
+		 * Tags the response of an {@link AutoETag} handler with a weak entity tag computed from its body.
+		 */
+		private @NotNull HTTPResponse tag(@NotNull HTTPResponse response) throws IOException {
+			BodyWriter writer = response.getBodyWriter();
+			if(response.getResponseCode() != ResponseCode.S_200 || response.getEncoded() != null || writer != null && !writer.isInMemory()
+					|| HeaderUtils.containsHeader(response.getHeaders(), "ETag")) return response;
+			byte[] body = response.getResponseBody();
+			if(writer != null) {
+				// marshalled bodies are held in buffers, which are copied once to be hashed
+				ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(writer.contentLength(), 32));
+				writer.writeTo(out);
+				body = out.toByteArray();
+			}
+			return HTTPResponse.builder()
+					.protocol(response.getProtocol())
+					.responseCode(response.getResponseCode())
+					.headers(response.getHeaders())
+					.header(new Header("ETag", HeaderUtils.weakETag(body)))
+					.responseBody(body)
+					.build();
+		}
+
+		/**
+		 * Answers with {@code 304 Not Modified} instead of a tagged response if the client already has the same body.
+		 */
+		private @NotNull HTTPResponse revalidate(@NotNull HTTPResponse response, @NotNull HTTPRequest request) {
+			var etag = HeaderUtils.getHeader(response.getHeaders(), "ETag");
+			if(response.getResponseCode() != ResponseCode.S_200 || etag.isEmpty()
+					|| !HeaderUtils.matchesETag(HeaderUtils.getHeader(request.getHeaders(), "If-None-Match"), etag.get(0))) return response;
+			var builder = HTTPResponse.builder()
+					.protocol(response.getProtocol())
+					.responseCode(ResponseCode.R_304);
+			// a 304 has the headers that a 200 would have had, except those describing the body
+			for(Header header : response.getHeaders()) {
+				if(NOT_MODIFIED_HEADERS.contains(header.header().toLowerCase(Locale.ROOT))) builder.header(header);
+			}
+			return builder.build();
+		}
+
+		/**
+		 * Spools the request body, which is deleted once the response has been sent.
+		 */
+		private @Nullable SpooledBody spool(@NotNull HTTPRequest request) throws IOException {
+			InputStream in = request.getRequestBodyStream();
+			if(in == null) return null;
+			SpooledBody body = SpooledBody.spool(in, server.getBodySpoolThreshold(), server.getMaxRequestBodySize(), server.getSpoolDirectory());
+			request.closeOnCompletion(body);
+			return body;
+		}
+
+		/**
+		 * Creates a reader over a {@code multipart/form-data} request body, whose parts are deleted once the response has been sent.
+		 */
+		private @Nullable MultipartReader multipart(@NotNull HTTPRequest request) {
+			var contentType = HeaderUtils.getHeader(request.getHeaders(), "Content-Type");
+			String boundary = contentType.isEmpty() ? null : MultipartReader.getBoundary(contentType.get(0));
+			InputStream in = request.getRequestBodyStream();
+			if(boundary == null || in == null) return null;
+			MultipartReader reader = new MultipartReader(in, boundary, server.getBodySpoolThreshold(), server.getMaxPartSize(), server.getSpoolDirectory());
+			request.closeOnCompletion(reader);
+			return reader;
+		}
+
 		@Override
 		public String toString() {
 			return new StringJoiner(", ", MappingHandler.class.getSimpleName() + "[", "]").add("method=" + method).add("requestMethods=" + requestMethods).add("server=" + server).add("route='" + route + "'").toString();
@@ -250,6 +451,7 @@ public class MappingResolver {
 		ArrayList<String> get = new ArrayList<>();
 		ArrayList<String> post = new ArrayList<>();
 		if(obj.isAnnotationPresent(GetRequest.class)) get.addAll(List.of(obj.getAnnotation(GetRequest.class).value()));
+		if(obj.isAnnotationPresent(WebSocketRequest.class)) get.addAll(List.of(obj.getAnnotation(WebSocketRequest.class).value()));
 		if(obj.isAnnotationPresent(PostRequest.class)) post.addAll(List.of(obj.getAnnotation(PostRequest.class).value()));
 		if(obj.isAnnotationPresent(DeleteRequest.class)) post.addAll(List.of(obj.getAnnotation(DeleteRequest.class).value()));
 		if(obj.isAnnotationPresent(OptionsRequest.class)) post.addAll(List.of(obj.getAnnotation(OptionsRequest.class).value()));
@@ -0,0 +1,31 @@
+package dev.priveweb.core.marshal;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a class to be marshalled by a specialized JSON codec instead of Moshi's reflective adapter.
+ * <p>
+ *     When the class is first marshalled, Prive resolves a {@link java.lang.invoke.MethodHandle MethodHandle}
+ *     for every field and pre-encodes the field names, so that neither fields nor names are looked up again.
+ *     This applies transparently to {@link dev.priveweb.core.http.response.ResponseObject ResponseObject}s and
+ *     {@link dev.priveweb.core.http.request.RequestBody @RequestBody} parameters.
+ * </p>
+ * <p>
+ *     The JSON is the same as Moshi's: fields are written in alphabetical order, {@code null} values are omitted,
+ *     and {@link com.squareup.moshi.Json @Json} names are honoured. Annotated classes must not be generic,
+ *     must have a no-argument constructor, and must be open to Prive.
+ * </p>
+ * <pre>{@code
+ * @FastJson
+ * public class Order {
+ *     private long id;
+ *     private String customer;
+ *     private List<String> items;
+ * }
+ * }</pre>
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FastJson {
+}
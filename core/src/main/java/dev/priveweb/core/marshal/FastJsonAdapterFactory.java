@@ -0,0 +1,408 @@
+package dev.priveweb.core.marshal;
+
+import com.squareup.moshi.*;
+import lombok.SneakyThrows;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Creates the specialized codecs of {@link FastJson @FastJson} classes.
+ */
+final class FastJsonAdapterFactory implements JsonAdapter.Factory {
+
+	static final FastJsonAdapterFactory INSTANCE = new FastJsonAdapterFactory();
+
+	private FastJsonAdapterFactory() {
+		//no instance
+	}
+
+	@Override
+	public @Nullable JsonAdapter<?> create(@NotNull Type type, @NotNull Set<? extends Annotation> annotations, @NotNull Moshi moshi) {
+		if(!annotations.isEmpty() || !(type instanceof Class<?> clazz) || !clazz.isAnnotationPresent(FastJson.class)) return null;
+		if(clazz.getTypeParameters().length != 0 || clazz.isRecord() || clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+			throw new IllegalArgumentException("@FastJson class " + clazz.getName() + " must be a concrete, non-generic class");
+		}
+		try {
+			return new FastJsonAdapter<>(clazz, moshi).nullSafe();
+		} catch(ReflectiveOperationException e) {
+			throw new IllegalArgumentException("cannot create a JSON codec for " + clazz.getName(), e);
+		}
+	}
+
+	private static final class FastJsonAdapter<T> extends JsonAdapter<T> {
+
+		private final Class<T> type;
+		private final MethodHandle constructor; // ()Object
+		private final FieldCodec[] fields; // in alphabetical order, like Moshi's ClassJsonAdapter
+		private final JsonReader.Options options;
+
+		private FastJsonAdapter(Class<T> type, Moshi moshi) throws ReflectiveOperationException {
+			this.type = type;
+			var lookup = MethodHandles.lookup();
+			Constructor<T> ctor = type.getDeclaredConstructor();
+			ctor.setAccessible(true);
+			this.constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+			Map<String, FieldCodec> codecs = new TreeMap<>();
+			for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for(Field f : c.getDeclaredFields()) {
+					int modifiers = f.getModifiers();
+					if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) continue;
+					Json json = f.getAnnotation(Json.class);
+					if(json != null && json.ignore()) continue;
+					String name = json == null || json.name().equals(Json.UNSET_NAME) ? f.getName() : json.name();
+					f.setAccessible(true);
+					codecs.putIfAbsent(name, FieldCodec.of(name, f, lookup, moshi)); // subclass fields shadow superclass ones
+				}
+			}
+			this.fields = codecs.values().toArray(FieldCodec[]::new);
+			this.options = JsonReader.Options.of(codecs.keySet().toArray(String[]::new));
+		}
+
+		@Override
+		public T fromJson(@NotNull JsonReader reader) throws IOException {
+			T instance;
+			try {
+				instance = type.cast(constructor.invokeExact());
+			} catch(Throwable t) {
+				throw new IllegalStateException("cannot instantiate " + type.getName(), t);
+			}
+			reader.beginObject();
+			while(reader.hasNext()) {
+				int index = reader.selectName(options); // matches against the pre-encoded names
+				if(index == -1) {
+					reader.skipName();
+					reader.skipValue();
+				} else {
+					fields[index].read(reader, instance);
+				}
+			}
+			reader.endObject();
+			return instance;
+		}
+
+		@Override
+		public void toJson(@NotNull JsonWriter writer, T value) throws IOException {
+			try(BufferedSink sink = writer.valueSink()) {
+				sink.writeByte('{');
+				boolean first = true;
+				for(FieldCodec field : fields) {
+					if(field.write(sink, value, first)) first = false;
+				}
+				sink.writeByte('}');
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "FastJsonAdapter(" + type.getName() + ")";
+		}
+
+	}
+
+	/**
+	 * Reads and writes one field. Primitive and {@link String} fields are accessed without boxing and
+	 * written straight to the sink; anything else is delegated to the Moshi adapter of the field type.
+	 */
+	private abstract static class FieldCodec {
+
+		final ByteString name; // "name":
+		final ByteString nextName; // ,"name":
+		final MethodHandle getter;
+		final MethodHandle setter;
+
+		@SneakyThrows(IOException.class) // writing into a Buffer does not throw
+		FieldCodec(String name, MethodHandle getter, MethodHandle setter) {
+			Buffer buffer = new Buffer();
+			writeString(buffer, name);
+			buffer.writeByte(':');
+			this.name = buffer.readByteString();
+			this.nextName = new Buffer().writeByte(',').write(this.name).readByteString();
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		/**
+		 * Writes the field, preceded by its name.
+		 * @return whether anything was written.
+		 */
+		abstract boolean write(BufferedSink sink, Object o, boolean first) throws IOException;
+
+		abstract void read(JsonReader reader, Object o) throws IOException;
+
+		final void writeName(BufferedSink sink, boolean first) throws IOException {
+			sink.write(first ? name : nextName);
+		}
+
+		static FieldCodec of(String name, Field f, MethodHandles.Lookup lookup, Moshi moshi) throws IllegalAccessException {
+			Class<?> type = f.getType();
+			MethodHandle getter = lookup.unreflectGetter(f);
+			MethodHandle setter = lookup.unreflectSetter(f);
+			Set<Annotation> qualifiers = new LinkedHashSet<>();
+			for(Annotation annotation : f.getAnnotations()) {
+				if(annotation.annotationType().isAnnotationPresent(JsonQualifier.class)) qualifiers.add(annotation);
+			}
+			if(qualifiers.isEmpty()) {
+				if(type == int.class) return new IntCodec(name, getter, setter);
+				if(type == long.class) return new LongCodec(name, getter, setter);
+				if(type == double.class) return new DoubleCodec(name, getter, setter);
+				if(type == boolean.class) return new BooleanCodec(name, getter, setter);
+				if(type == String.class) return new StringCodec(name, getter, setter);
+			}
+			return new ObjectCodec(name, getter, setter, moshi.adapter(f.getGenericType(), qualifiers));
+		}
+
+	}
+
+	private static final class IntCodec extends FieldCodec {
+
+		IntCodec(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(int.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, int.class)));
+		}
+
+		@Override
+		boolean write(BufferedSink sink, Object o, boolean first) throws IOException {
+			int value;
+			try {
+				value = (int) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			writeName(sink, first);
+			sink.writeDecimalLong(value);
+			return true;
+		}
+
+		@Override
+		void read(JsonReader reader, Object o) throws IOException {
+			int value = reader.nextInt();
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class LongCodec extends FieldCodec {
+
+		LongCodec(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(long.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, long.class)));
+		}
+
+		@Override
+		boolean write(BufferedSink sink, Object o, boolean first) throws IOException {
+			long value;
+			try {
+				value = (long) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			writeName(sink, first);
+			sink.writeDecimalLong(value);
+			return true;
+		}
+
+		@Override
+		void read(JsonReader reader, Object o) throws IOException {
+			long value = reader.nextLong();
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class DoubleCodec extends FieldCodec {
+
+		DoubleCodec(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(double.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, double.class)));
+		}
+
+		@Override
+		boolean write(BufferedSink sink, Object o, boolean first) throws IOException {
+			double value;
+			try {
+				value = (double) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			if(Double.isNaN(value) || Double.isInfinite(value)) throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+			writeName(sink, first);
+			sink.writeUtf8(Double.toString(value));
+			return true;
+		}
+
+		@Override
+		void read(JsonReader reader, Object o) throws IOException {
+			double value = reader.nextDouble();
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class BooleanCodec extends FieldCodec {
+
+		private static final ByteString TRUE = ByteString.encodeUtf8("true");
+		private static final ByteString FALSE = ByteString.encodeUtf8("false");
+
+		BooleanCodec(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(boolean.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, boolean.class)));
+		}
+
+		@Override
+		boolean write(BufferedSink sink, Object o, boolean first) throws IOException {
+			boolean value;
+			try {
+				value = (boolean) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			writeName(sink, first);
+			sink.write(value ? TRUE : FALSE);
+			return true;
+		}
+
+		@Override
+		void read(JsonReader reader, Object o) throws IOException {
+			boolean value = reader.nextBoolean();
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class StringCodec extends FieldCodec {
+
+		StringCodec(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(String.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, String.class)));
+		}
+
+		@Override
+		boolean write(BufferedSink sink, Object o, boolean first) throws IOException {
+			String value;
+			try {
+				value = (String) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			if(value == null) return false;
+			writeName(sink, first);
+			writeString(sink, value);
+			return true;
+		}
+
+		@Override
+		void read(JsonReader reader, Object o) throws IOException {
+			String value = reader.peek() == JsonReader.Token.NULL ? reader.nextNull() : reader.nextString();
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class ObjectCodec extends FieldCodec {
+
+		private final JsonAdapter<Object> adapter;
+
+		ObjectCodec(String name, MethodHandle getter, MethodHandle setter, JsonAdapter<Object> adapter) {
+			super(name, getter.asType(MethodType.methodType(Object.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+			this.adapter = adapter;
+		}
+
+		@Override
+		boolean write(BufferedSink sink, Object o, boolean first) throws IOException {
+			Object value;
+			try {
+				value = (Object) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			if(value == null) return false;
+			writeName(sink, first);
+			// JsonUtf8Writer writes straight into the sink, so it does not need to be flushed
+			adapter.toJson(JsonWriter.of(sink), value);
+			return true;
+		}
+
+		@Override
+		void read(JsonReader reader, Object o) throws IOException {
+			Object value = adapter.fromJson(reader);
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	// UTILITY
+
+	private static final String[] REPLACEMENT_CHARS = new String[128];
+
+	static {
+		for(int i = 0; i <= 0x1F; i++) {
+			REPLACEMENT_CHARS[i] = String.format("\\u%04x", i);
+		}
+		REPLACEMENT_CHARS['"'] = "\\\"";
+		REPLACEMENT_CHARS['\\'] = "\\\\";
+		REPLACEMENT_CHARS['\t'] = "\\t";
+		REPLACEMENT_CHARS['\b'] = "\\b";
+		REPLACEMENT_CHARS['\n'] = "\\n";
+		REPLACEMENT_CHARS['\r'] = "\\r";
+		REPLACEMENT_CHARS['\f'] = "\\f";
+	}
+
+	/**
+	 * Writes the given string as a quoted and escaped JSON string, escaping the same characters as Moshi.
+	 */
+	private static void writeString(BufferedSink sink, String value) throws IOException {
+		sink.writeByte('"');
+		int last = 0;
+		int length = value.length();
+		for(int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String replacement;
+			if(c < 128) {
+				replacement = REPLACEMENT_CHARS[c];
+				if(replacement == null) continue;
+			} else if(c == '\u2028') {
+				replacement = "\\u2028";
+			} else if(c == '\u2029') {
+				replacement = "\\u2029";
+			} else {
+				continue;
+			}
+			if(last < i) sink.writeUtf8(value, last, i);
+			sink.writeUtf8(replacement);
+			last = i + 1;
+		}
+		if(last < length) sink.writeUtf8(value, last, length);
+		sink.writeByte('"');
+	}
+
+}
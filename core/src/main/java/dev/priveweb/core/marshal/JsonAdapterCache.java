@@ -0,0 +1,50 @@
+package dev.priveweb.core.marshal;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A process-wide cache of {@link JsonAdapter}s.
+ * <p>
+ *     Building a {@link Moshi} instance and resolving an adapter is expensive, so all of Prive's JSON
+ *     marshalling shares one {@code Moshi} instance and the adapters resolved from it. Adapters are keyed by
+ *     {@link Type}, so generic types such as {@code List<String>} get their own adapters.
+ * </p>
+ * <p>Classes annotated with {@link FastJson @FastJson} get specialized adapters instead of reflective ones.</p>
+ */
+public final class JsonAdapterCache {
+
+	private static final Moshi moshi = new Moshi.Builder()
+			.add(FastJsonAdapterFactory.INSTANCE)
+			.build();
+	private static final Map<Type, JsonAdapter<?>> adapters = new ConcurrentHashMap<>();
+
+	private JsonAdapterCache() {
+		//no instance
+	}
+
+	/**
+	 * Gets the shared {@link Moshi} instance.
+	 * @return the {@link Moshi} instance.
+	 */
+	public static @NotNull Moshi getMoshi() {
+		return moshi;
+	}
+
+	/**
+	 * Gets the cached {@link JsonAdapter} for the given type, resolving it on first use.
+	 * @param type The type to get the adapter of.
+	 * @return the adapter, which is safe to use concurrently.
+	 * @param <T> The type of the adapted objects.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> @NotNull JsonAdapter<T> adapter(@NotNull Type type) {
+		return (JsonAdapter<T>) adapters.computeIfAbsent(type, moshi::adapter);
+	}
+
+}
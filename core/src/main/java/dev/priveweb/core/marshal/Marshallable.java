@@ -1,7 +1,9 @@
 package dev.priveweb.core.marshal;
 
+import dev.priveweb.core.http.request.HTTPRequest;
 import dev.priveweb.core.protocol.HTTPProtocol;
 import dev.priveweb.core.http.response.HTTPResponse;
+import dev.priveweb.core.server.PriveServer;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -17,4 +19,16 @@ public interface Marshallable {
 	 */
 	@NotNull HTTPResponse marshal(HTTPProtocol protocol);
 
+	/**
+	 * Marshals an object into a proper HTTP response for the given request, which
+	 * allows the response to depend on request headers such as {@code Accept}.
+	 * <p>By default, this ignores the request and calls {@link #marshal(HTTPProtocol)}.</p>
+	 * @param request The request being answered.
+	 * @param server The server answering the request.
+	 * @return the HTTP response.
+	 */
+	default @NotNull HTTPResponse marshal(HTTPProtocol protocol, @NotNull HTTPRequest request, @NotNull PriveServer server) {
+		return marshal(protocol);
+	}
+
 }
@@ -0,0 +1,59 @@
+package dev.priveweb.core.marshal;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Converts objects to and from a media type, such as {@code application/json}.
+ * <p>
+ *     Marshallers are registered in the server's {@link MarshallerRegistry}, which selects one
+ *     for responses from the request's {@code Accept} header and for
+ *     {@link dev.priveweb.core.http.request.RequestBody @RequestBody} parameters from its {@code Content-Type}.
+ * </p>
+ */
+public interface Marshaller {
+
+	/**
+	 * Returns the media type produced by this marshaller, for example {@code application/json}.
+	 * <p>This is used as the {@code Content-Type} of responses.</p>
+	 * @return the media type.
+	 */
+	@Contract(pure = true)
+	@NotNull String getMediaType();
+
+	/**
+	 * Whether this marshaller handles the given media type. By default, this only matches {@link #getMediaType()};
+	 * implementations may override this to accept aliases.
+	 * @param mediaType The media type, without parameters.
+	 * @return {@code true} if this marshaller handles the media type.
+	 */
+	@Contract(pure = true)
+	default boolean supports(@NotNull String mediaType) {
+		return getMediaType().equalsIgnoreCase(mediaType);
+	}
+
+	/**
+	 * Writes the given object into the sink.
+	 * @param value The object to write.
+	 * @param type The type of the object.
+	 * @param sink The sink to write to. This is not closed.
+	 * @throws IOException if the object cannot be written.
+	 */
+	void marshal(@Nullable Object value, @NotNull Type type, @NotNull BufferedSink sink) throws IOException;
+
+	/**
+	 * Reads an object from the source.
+	 * @param type The type of the object.
+	 * @param source The source to read from.
+	 * @return the object read.
+	 * @throws IOException if the source cannot be read, or does not conform to the media type.
+	 */
+	@Nullable Object unmarshal(@NotNull Type type, @NotNull BufferedSource source) throws IOException;
+
+}
@@ -0,0 +1,114 @@
+package dev.priveweb.core.marshal;
+
+import dev.priveweb.core.util.HeaderUtils;
+import org.jetbrains.annotations.Blocking;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Contains the {@link Marshaller}s of a server, keyed by media type.
+ * <p>
+ *     Like the {@link dev.priveweb.core.data.DataEncodingRegistry DataEncodingRegistry}, marshallers
+ *     with a lower index have higher priority. This class maintains safety during concurrent operations.
+ * </p>
+ * <pre>{@code
+ * PriveServer server = ...;
+ * Marshaller marshaller = server.getMarshallers().negotiate(List.of("application/msgpack, application/json;q=0.5"));
+ * }</pre>
+ */
+public final class MarshallerRegistry {
+
+	private final List<@NotNull Marshaller> marshallers = new ArrayList<>();
+	private final ReadWriteLock rwl = new ReentrantReadWriteLock(true);
+	private final Lock wl = rwl.writeLock();
+	private final Lock rl = rwl.readLock();
+
+	/**
+	 * Registers one or more {@link Marshaller}s.
+	 * @param marshallers The marshallers to register.
+	 */
+	@Blocking
+	public void register(@NotNull Marshaller... marshallers) {
+		wl.lock();
+		try {
+			this.marshallers.addAll(List.of(marshallers));
+		} finally {
+			wl.unlock();
+		}
+	}
+
+	/**
+	 * Registers one {@link Marshaller} in the given {@code position}.
+	 * @param marshaller The marshaller to register.
+	 * @param position The index to add the given {@code Marshaller} to.
+	 */
+	@Blocking
+	public void register(@NotNull Marshaller marshaller, int position) {
+		wl.lock();
+		try {
+			marshallers.add(position, marshaller);
+		} finally {
+			wl.unlock();
+		}
+	}
+
+	/**
+	 * Resolves the {@link Marshaller} of the given media type.
+	 * @param mediaType The media type; parameters such as {@code charset} are ignored.
+	 * @return the resolved {@link Marshaller}, else {@code null}.
+	 */
+	@Contract(pure = true)
+	public @Nullable Marshaller resolve(@NotNull String mediaType) {
+		String type = HeaderUtils.stripParameters(mediaType);
+		rl.lock();
+		try {
+			for(Marshaller marshaller : marshallers) {
+				if(marshaller.supports(type)) return marshaller;
+			}
+			return null;
+		} finally {
+			rl.unlock();
+		}
+	}
+
+	/**
+	 * Selects the {@link Marshaller} most preferred by the given {@code Accept} header values, according to
+	 * <a href="https://www.rfc-editor.org/rfc/rfc9110.html#name-accept">RFC 9110, section 12.5.1</a>.
+	 * <p>Wildcards such as {@code *}{@code /*} do not select anything; the caller's default applies to them.</p>
+	 * @param accept The values of the {@code Accept} headers.
+	 * @return the selected {@link Marshaller}, or {@code null} if no registered marshaller is explicitly accepted
+	 * 		   with a higher quality than any wildcard.
+	 */
+	@Contract(pure = true)
+	public @Nullable Marshaller negotiate(@NotNull List<String> accept) {
+		Marshaller best = null;
+		double bestQuality = 0;
+		double wildcardQuality = 0;
+		for(String value : accept) {
+			for(String range : value.split(",")) {
+				if(range.isBlank()) continue;
+				double quality = HeaderUtils.getQuality(range);
+				String type = HeaderUtils.stripParameters(range);
+				if(type.endsWith("/*")) {
+					wildcardQuality = Math.max(wildcardQuality, quality);
+					continue;
+				}
+				if(quality <= bestQuality) continue;
+				Marshaller marshaller = resolve(type);
+				if(marshaller != null) {
+					best = marshaller;
+					bestQuality = quality;
+				}
+			}
+		}
+		return wildcardQuality > bestQuality ? null : best;
+	}
+
+}
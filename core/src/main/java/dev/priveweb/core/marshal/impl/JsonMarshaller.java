@@ -0,0 +1,42 @@
+package dev.priveweb.core.marshal.impl;
+
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.JsonWriter;
+import dev.priveweb.core.marshal.JsonAdapterCache;
+import dev.priveweb.core.marshal.Marshaller;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * This class implements {@code application/json} through the {@linkplain JsonAdapterCache cached} Moshi adapters.
+ */
+public class JsonMarshaller implements Marshaller {
+
+	/**
+	 * The shared instance, used when no server is available.
+	 */
+	public static final JsonMarshaller INSTANCE = new JsonMarshaller();
+
+	@Override
+	public @NotNull String getMediaType() {
+		return "application/json";
+	}
+
+	@Override
+	public void marshal(@Nullable Object value, @NotNull Type type, @NotNull BufferedSink sink) throws IOException {
+		JsonWriter writer = JsonWriter.of(sink);
+		JsonAdapterCache.adapter(type).toJson(writer, value);
+		writer.flush();
+	}
+
+	@Override
+	public @Nullable Object unmarshal(@NotNull Type type, @NotNull BufferedSource source) throws IOException {
+		return JsonAdapterCache.adapter(type).fromJson(JsonReader.of(source));
+	}
+
+}
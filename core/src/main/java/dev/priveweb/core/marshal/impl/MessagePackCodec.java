@@ -0,0 +1,953 @@
+package dev.priveweb.core.marshal.impl;
+
+import com.squareup.moshi.Json;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonClass;
+import com.squareup.moshi.JsonQualifier;
+import dev.priveweb.core.marshal.JsonAdapterCache;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Options;
+import okio.Utf8;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes and decodes values of one type as MessagePack, straight between the objects and the stream.
+ * <p>
+ *     Strings, numbers, booleans, enums, {@code List}s, {@code Set}s, {@code Collection}s, {@code Map}s with string keys
+ *     and plain classes get their own codecs, which follow Moshi's rules: fields in alphabetical order, {@code null}s omitted,
+ *     {@link Json @Json} names honoured. Other types (such as arrays, records, or fields with {@link JsonQualifier qualifiers})
+ *     are converted through their Moshi adapters into a tree of maps, lists and values, which is then encoded.
+ * </p>
+ */
+abstract class MessagePackCodec {
+
+	private static final int NIL = 0xC0;
+	// like Moshi's JsonReader, so that nesting cannot exhaust the stack
+	private static final int MAX_DEPTH = 255;
+	private static final Map<Type, MessagePackCodec> codecs = new ConcurrentHashMap<>();
+
+	/**
+	 * Writes the value, which may be {@code null}.
+	 */
+	abstract void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException;
+
+	/**
+	 * Reads a value.
+	 * @throws IOException if the stream ends, holds something else, or nests containers too deeply.
+	 */
+	final @Nullable Object read(@NotNull BufferedSource source) throws IOException {
+		return read(source, 0);
+	}
+
+	/**
+	 * Reads a value inside the given number of containers.
+	 * @throws IOException if the stream ends, holds something else, or nests containers too deeply.
+	 */
+	abstract @Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException;
+
+	/**
+	 * Gets the codec of the given type, creating it on first use.
+	 */
+	static @NotNull MessagePackCodec of(@NotNull Type type) {
+		MessagePackCodec codec = codecs.get(type);
+		if(codec == null) {
+			// not computeIfAbsent, as creating a codec may create those of its element types
+			codec = create(type);
+			MessagePackCodec previous = codecs.putIfAbsent(type, codec);
+			if(previous != null) codec = previous;
+		}
+		return codec;
+	}
+
+	private static @NotNull MessagePackCodec create(@NotNull Type type) {
+		Class<?> raw = type instanceof Class<?> c ? c : type instanceof ParameterizedType p ? (Class<?>) p.getRawType() : null;
+		if(raw == null) return new TreeCodec(type);
+		if(raw == String.class) return StringCodec.INSTANCE;
+		if(raw == Object.class) return DynamicCodec.INSTANCE;
+		if(raw == boolean.class || raw == Boolean.class) return new BooleanCodec(raw.isPrimitive());
+		if(raw == int.class || raw == Integer.class) return new IntegerCodec(Integer.class, raw.isPrimitive());
+		if(raw == long.class || raw == Long.class) return new IntegerCodec(Long.class, raw.isPrimitive());
+		if(raw == short.class || raw == Short.class) return new IntegerCodec(Short.class, raw.isPrimitive());
+		if(raw == byte.class || raw == Byte.class) return new IntegerCodec(Byte.class, raw.isPrimitive());
+		if(raw == double.class || raw == Double.class) return new FloatCodec(false, raw.isPrimitive());
+		if(raw == float.class || raw == Float.class) return new FloatCodec(true, raw.isPrimitive());
+		if(raw.isEnum()) return new EnumCodec(raw);
+		if(raw == List.class || raw == Collection.class || raw == Set.class) {
+			return new CollectionCodec(of(typeArgument(type, 0)), raw == Set.class);
+		}
+		if(raw == Map.class && typeArgument(type, 0) == String.class) return new MapCodec(of(typeArgument(type, 1)));
+		if(type instanceof Class<?>) {
+			MessagePackCodec codec = ClassCodec.create(raw);
+			if(codec != null) return codec;
+		}
+		return new TreeCodec(type);
+	}
+
+	private static @NotNull Type typeArgument(@NotNull Type type, int index) {
+		if(!(type instanceof ParameterizedType p)) return Object.class;
+		Type argument = p.getActualTypeArguments()[index];
+		// List<? extends Foo> is written and read as List<Foo>
+		if(argument instanceof WildcardType wildcard) argument = wildcard.getUpperBounds()[0];
+		return argument;
+	}
+
+	// CODECS
+
+	private static final class StringCodec extends MessagePackCodec {
+
+		static final StringCodec INSTANCE = new StringCodec();
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			if(value == null) sink.writeByte(NIL);
+			else writeString((String) value, sink);
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			return readNil(source) ? null : readString(source);
+		}
+
+	}
+
+	private static final class BooleanCodec extends MessagePackCodec {
+
+		private final boolean primitive;
+
+		BooleanCodec(boolean primitive) {
+			this.primitive = primitive;
+		}
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			sink.writeByte(value == null ? NIL : (Boolean) value ? 0xC3 : 0xC2);
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			if(!primitive && readNil(source)) return null;
+			return readBoolean(source);
+		}
+
+	}
+
+	private static final class IntegerCodec extends MessagePackCodec {
+
+		private final Class<?> boxed;
+		private final boolean primitive;
+
+		IntegerCodec(Class<?> boxed, boolean primitive) {
+			this.boxed = boxed;
+			this.primitive = primitive;
+		}
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			if(value == null) sink.writeByte(NIL);
+			else writeLong(((Number) value).longValue(), sink);
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			if(!primitive && readNil(source)) return null;
+			long l = readLong(source);
+			if(boxed == Long.class) return l;
+			if(boxed == Integer.class && l == (int) l) return (int) l;
+			if(boxed == Short.class && l == (short) l) return (short) l;
+			if(boxed == Byte.class && l == (byte) l) return (byte) l;
+			throw new IOException("Expected " + boxed.getSimpleName() + " but was " + l);
+		}
+
+	}
+
+	private static final class FloatCodec extends MessagePackCodec {
+
+		private final boolean single;
+		private final boolean primitive;
+
+		FloatCodec(boolean single, boolean primitive) {
+			this.single = single;
+			this.primitive = primitive;
+		}
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			if(value == null) sink.writeByte(NIL);
+			else if(single) sink.writeByte(0xCA).writeInt(Float.floatToIntBits((Float) value)); // float 32
+			else writeDouble(((Number) value).doubleValue(), sink);
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			if(!primitive && readNil(source)) return null;
+			double d = readDouble(source);
+			return single ? (Object) (float) d : (Object) d;
+		}
+
+	}
+
+	private static final class EnumCodec extends MessagePackCodec {
+
+		private final Map<Object, String> names = new HashMap<>();
+		private final Map<String, Object> constants = new HashMap<>();
+
+		EnumCodec(Class<?> type) {
+			for(Object constant : type.getEnumConstants()) {
+				String name = ((Enum<?>) constant).name();
+				try {
+					Json json = type.getField(name).getAnnotation(Json.class);
+					if(json != null && !json.name().equals(Json.UNSET_NAME)) name = json.name();
+				} catch(NoSuchFieldException e) {
+					throw new IllegalStateException(e); // every constant is a field
+				}
+				names.put(constant, name);
+				constants.put(name, constant);
+			}
+		}
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			if(value == null) sink.writeByte(NIL);
+			else writeString(names.get(value), sink);
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			if(readNil(source)) return null;
+			String name = readString(source);
+			Object constant = constants.get(name);
+			if(constant == null) throw new IOException("Expected one of " + constants.keySet() + " but was " + name);
+			return constant;
+		}
+
+	}
+
+	private static final class CollectionCodec extends MessagePackCodec {
+
+		private final MessagePackCodec element;
+		private final boolean set;
+
+		CollectionCodec(MessagePackCodec element, boolean set) {
+			this.element = element;
+			this.set = set;
+		}
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			if(value == null) {
+				sink.writeByte(NIL);
+				return;
+			}
+			Collection<?> collection = (Collection<?>) value;
+			writeHeader(collection.size(), 0x90, 0xDC, sink);
+			for(Object e : collection) element.write(e, sink);
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			if(readNil(source)) return null;
+			int size = readArrayHeader(source);
+			int nested = enter(depth);
+			// do not trust the declared size for preallocation
+			Collection<Object> collection = set ? new LinkedHashSet<>() : new ArrayList<>(Math.min(size, 1024));
+			for(int i = 0; i < size; i++) collection.add(element.read(source, nested));
+			return collection;
+		}
+
+	}
+
+	private static final class MapCodec extends MessagePackCodec {
+
+		private final MessagePackCodec value;
+
+		MapCodec(MessagePackCodec value) {
+			this.value = value;
+		}
+
+		@Override
+		void write(@Nullable Object map, @NotNull BufferedSink sink) throws IOException {
+			if(map == null) {
+				sink.writeByte(NIL);
+				return;
+			}
+			writeHeader(((Map<?, ?>) map).size(), 0x80, 0xDE, sink);
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet()) {
+				writeString(String.valueOf(entry.getKey()), sink);
+				value.write(entry.getValue(), sink);
+			}
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			if(readNil(source)) return null;
+			int size = readMapHeader(source);
+			int nested = enter(depth);
+			Map<String, Object> map = new LinkedHashMap<>(Math.min(size, 1024) * 2);
+			for(int i = 0; i < size; i++) map.put(readKey(source, nested), value.read(source, nested));
+			return map;
+		}
+
+	}
+
+	/**
+	 * The codec of {@code Object}: values are written by their runtime types, and read as trees.
+	 */
+	private static final class DynamicCodec extends MessagePackCodec {
+
+		static final DynamicCodec INSTANCE = new DynamicCodec();
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			if(value == null) {
+				sink.writeByte(NIL);
+			} else if(value instanceof Boolean b) {
+				sink.writeByte(b ? 0xC3 : 0xC2);
+			} else if(value instanceof String s) {
+				writeString(s, sink);
+			} else if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				writeLong(((Number) value).longValue(), sink);
+			} else if(value instanceof BigInteger i) {
+				if(i.bitLength() < 64) writeLong(i.longValue(), sink);
+				else writeDouble(i.doubleValue(), sink);
+			} else if(value instanceof BigDecimal d) {
+				if(d.stripTrailingZeros().scale() <= 0 && d.toBigInteger().bitLength() < 64) writeLong(d.longValue(), sink);
+				else writeDouble(d.doubleValue(), sink);
+			} else if(value instanceof Number n) {
+				writeDouble(n.doubleValue(), sink);
+			} else if(value instanceof Collection<?> collection) {
+				writeHeader(collection.size(), 0x90, 0xDC, sink);
+				for(Object element : collection) write(element, sink);
+			} else if(value instanceof Map<?, ?> map) {
+				writeHeader(map.size(), 0x80, 0xDE, sink);
+				for(Map.Entry<?, ?> entry : map.entrySet()) {
+					writeString(String.valueOf(entry.getKey()), sink);
+					write(entry.getValue(), sink);
+				}
+			} else {
+				of(value.getClass()).write(value, sink);
+			}
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			return readTree(source, depth);
+		}
+
+	}
+
+	/**
+	 * Goes through the Moshi adapter of the type, for types that have no codec of their own.
+	 */
+	private static final class TreeCodec extends MessagePackCodec {
+
+		private final JsonAdapter<Object> adapter;
+
+		TreeCodec(Type type) {
+			this.adapter = JsonAdapterCache.adapter(type);
+		}
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			DynamicCodec.INSTANCE.write(adapter.toJsonValue(value), sink);
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			return adapter.fromJsonValue(readTree(source, depth));
+		}
+
+	}
+
+	/**
+	 * The codec of a plain class, written as a map of its fields. Field names are pre-encoded, and matched against
+	 * the stream without decoding them when they are encoded the same way.
+	 */
+	private static final class ClassCodec extends MessagePackCodec {
+
+		private final Class<?> type;
+		private final MethodHandle constructor; // ()Object
+		private final FieldCodec[] fields; // in alphabetical order, like Moshi's ClassJsonAdapter
+		private final @Nullable Options names;
+		private final Map<String, FieldCodec> byName = new HashMap<>();
+
+		private ClassCodec(Class<?> type, MethodHandle constructor, FieldCodec[] fields) {
+			this.type = type;
+			this.constructor = constructor;
+			this.fields = fields;
+			ByteString[] encoded = new ByteString[fields.length];
+			for(int i = 0; i < fields.length; i++) {
+				encoded[i] = fields[i].name;
+				byName.put(fields[i].key, fields[i]);
+			}
+			this.names = fields.length == 0 ? null : Options.of(encoded);
+		}
+
+		/**
+		 * Creates the codec of the class, if it is a plain class whose fields can all be accessed.
+		 */
+		static @Nullable ClassCodec create(Class<?> type) {
+			if(type.isPrimitive() || type.isArray() || type.isInterface() || type.isRecord() || type.isAnonymousClass() || type.isLocalClass()
+					|| Modifier.isAbstract(type.getModifiers()) || type.getTypeParameters().length != 0
+					|| type.isMemberClass() && !Modifier.isStatic(type.getModifiers())
+					|| type.isAnnotationPresent(JsonClass.class) || isPlatformType(type)) return null;
+			try {
+				var lookup = MethodHandles.lookup();
+				Constructor<?> ctor = type.getDeclaredConstructor();
+				ctor.setAccessible(true);
+				MethodHandle constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+				Map<String, FieldCodec> codecs = new TreeMap<>();
+				for(Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+					if(isPlatformType(c) || c.getTypeParameters().length != 0) return null;
+					for(Field f : c.getDeclaredFields()) {
+						int modifiers = f.getModifiers();
+						if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) continue;
+						Json json = f.getAnnotation(Json.class);
+						if(json != null && json.ignore()) continue;
+						for(Annotation annotation : f.getAnnotations()) {
+							if(annotation.annotationType().isAnnotationPresent(JsonQualifier.class)) return null;
+						}
+						String name = json == null || json.name().equals(Json.UNSET_NAME) ? f.getName() : json.name();
+						f.setAccessible(true);
+						codecs.putIfAbsent(name, FieldCodec.of(name, f, lookup)); // subclass fields shadow superclass ones
+					}
+				}
+				return new ClassCodec(type, constructor, codecs.values().toArray(FieldCodec[]::new));
+			} catch(ReflectiveOperationException | RuntimeException e) {
+				return null; // e.g. no no-argument constructor, or not open to Prive
+			}
+		}
+
+		private static boolean isPlatformType(Class<?> type) {
+			String name = type.getName();
+			return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("kotlin.") || name.startsWith("android.");
+		}
+
+		@Override
+		void write(@Nullable Object value, @NotNull BufferedSink sink) throws IOException {
+			if(value == null) {
+				sink.writeByte(NIL);
+				return;
+			}
+			int present = 0;
+			for(FieldCodec field : fields) {
+				if(field.isPresent(value)) present++;
+			}
+			writeHeader(present, 0x80, 0xDE, sink);
+			for(FieldCodec field : fields) field.write(value, sink);
+		}
+
+		@Override
+		@Nullable Object read(@NotNull BufferedSource source, int depth) throws IOException {
+			if(readNil(source)) return null;
+			Object instance;
+			try {
+				instance = constructor.invokeExact();
+			} catch(Throwable t) {
+				throw new IllegalStateException("cannot instantiate " + type.getName(), t);
+			}
+			int size = readMapHeader(source);
+			int nested = enter(depth);
+			for(int i = 0; i < size; i++) {
+				int index = names == null ? -1 : source.select(names);
+				// names encoded differently, such as a short name as str 8, are decoded and looked up
+				FieldCodec field = index != -1 ? fields[index] : byName.get(readKey(source, nested));
+				if(field == null) skip(source, nested);
+				else field.read(instance, source, nested);
+			}
+			return instance;
+		}
+
+	}
+
+	/**
+	 * Reads and writes one field. Fields of type {@code int}, {@code long}, {@code double} and {@code boolean}
+	 * are accessed without boxing; the others are delegated to the codec of their type.
+	 */
+	private abstract static class FieldCodec {
+
+		final String key;
+		final ByteString name; // with its header
+		final MethodHandle getter;
+		final MethodHandle setter;
+
+		FieldCodec(String key, MethodHandle getter, MethodHandle setter) {
+			this.key = key;
+			Buffer buffer = new Buffer();
+			try {
+				writeString(key, buffer);
+			} catch(IOException e) {
+				throw new IllegalStateException(e); // writing into a Buffer does not throw
+			}
+			this.name = buffer.readByteString();
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		/**
+		 * Tells whether the field is written, which is when it is not {@code null}.
+		 */
+		boolean isPresent(Object o) {
+			return true;
+		}
+
+		/**
+		 * Writes the field, preceded by its name, unless it is {@code null}.
+		 */
+		abstract void write(Object o, BufferedSink sink) throws IOException;
+
+		abstract void read(Object o, BufferedSource source, int depth) throws IOException;
+
+		static FieldCodec of(String name, Field f, MethodHandles.Lookup lookup) throws IllegalAccessException {
+			Class<?> type = f.getType();
+			MethodHandle getter = lookup.unreflectGetter(f);
+			MethodHandle setter = lookup.unreflectSetter(f);
+			if(type == int.class) return new IntField(name, getter, setter);
+			if(type == long.class) return new LongField(name, getter, setter);
+			if(type == double.class) return new DoubleField(name, getter, setter);
+			if(type == boolean.class) return new BooleanField(name, getter, setter);
+			if(containsTypeVariable(f.getGenericType())) throw new IllegalArgumentException("unresolved type of field " + f);
+			return new ObjectField(name, getter, setter, f.getGenericType());
+		}
+
+		private static boolean containsTypeVariable(Type type) {
+			if(type instanceof TypeVariable<?>) return true;
+			if(type instanceof GenericArrayType array) return containsTypeVariable(array.getGenericComponentType());
+			if(type instanceof WildcardType wildcard) return Arrays.stream(wildcard.getUpperBounds()).anyMatch(FieldCodec::containsTypeVariable);
+			if(type instanceof ParameterizedType p) return Arrays.stream(p.getActualTypeArguments()).anyMatch(FieldCodec::containsTypeVariable);
+			return false;
+		}
+
+	}
+
+	private static final class IntField extends FieldCodec {
+
+		IntField(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(int.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, int.class)));
+		}
+
+		@Override
+		void write(Object o, BufferedSink sink) throws IOException {
+			int value;
+			try {
+				value = (int) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			sink.write(name);
+			writeLong(value, sink);
+		}
+
+		@Override
+		void read(Object o, BufferedSource source, int depth) throws IOException {
+			long l = readLong(source);
+			if(l != (int) l) throw new IOException("Expected an int but was " + l + " at " + key);
+			try {
+				setter.invokeExact(o, (int) l);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class LongField extends FieldCodec {
+
+		LongField(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(long.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, long.class)));
+		}
+
+		@Override
+		void write(Object o, BufferedSink sink) throws IOException {
+			long value;
+			try {
+				value = (long) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			sink.write(name);
+			writeLong(value, sink);
+		}
+
+		@Override
+		void read(Object o, BufferedSource source, int depth) throws IOException {
+			long value = readLong(source);
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class DoubleField extends FieldCodec {
+
+		DoubleField(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(double.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, double.class)));
+		}
+
+		@Override
+		void write(Object o, BufferedSink sink) throws IOException {
+			double value;
+			try {
+				value = (double) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			sink.write(name);
+			writeDouble(value, sink);
+		}
+
+		@Override
+		void read(Object o, BufferedSource source, int depth) throws IOException {
+			double value = readDouble(source);
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class BooleanField extends FieldCodec {
+
+		BooleanField(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter.asType(MethodType.methodType(boolean.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, boolean.class)));
+		}
+
+		@Override
+		void write(Object o, BufferedSink sink) throws IOException {
+			boolean value;
+			try {
+				value = (boolean) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			sink.write(name);
+			sink.writeByte(value ? 0xC3 : 0xC2);
+		}
+
+		@Override
+		void read(Object o, BufferedSource source, int depth) throws IOException {
+			boolean value = readBoolean(source);
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	private static final class ObjectField extends FieldCodec {
+
+		private final Type type;
+		// resolved on first use, as the field may be of the class that declares it
+		private volatile MessagePackCodec codec;
+
+		ObjectField(String name, MethodHandle getter, MethodHandle setter, Type type) {
+			super(name, getter.asType(MethodType.methodType(Object.class, Object.class)), setter.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+			this.type = type;
+		}
+
+		private Object get(Object o) {
+			try {
+				return (Object) getter.invokeExact(o);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+		private MessagePackCodec codec() {
+			MessagePackCodec codec = this.codec;
+			if(codec == null) this.codec = codec = MessagePackCodec.of(type);
+			return codec;
+		}
+
+		@Override
+		boolean isPresent(Object o) {
+			return get(o) != null;
+		}
+
+		@Override
+		void write(Object o, BufferedSink sink) throws IOException {
+			Object value = get(o);
+			if(value == null) return;
+			sink.write(name);
+			codec().write(value, sink);
+		}
+
+		@Override
+		void read(Object o, BufferedSource source, int depth) throws IOException {
+			Object value = codec().read(source, depth);
+			try {
+				setter.invokeExact(o, value);
+			} catch(Throwable t) {
+				throw new IllegalStateException(t);
+			}
+		}
+
+	}
+
+	// ENCODING
+
+	static void writeLong(long l, @NotNull BufferedSink sink) throws IOException {
+		if(l >= 0) {
+			if(l < 0x80) sink.writeByte((int) l); // positive fixint
+			else if(l <= 0xFF) sink.writeByte(0xCC).writeByte((int) l);
+			else if(l <= 0xFFFF) sink.writeByte(0xCD).writeShort((int) l);
+			else if(l <= 0xFFFFFFFFL) sink.writeByte(0xCE).writeInt((int) l);
+			else sink.writeByte(0xCF).writeLong(l);
+		} else {
+			if(l >= -32) sink.writeByte((int) l); // negative fixint
+			else if(l >= Byte.MIN_VALUE) sink.writeByte(0xD0).writeByte((int) l);
+			else if(l >= Short.MIN_VALUE) sink.writeByte(0xD1).writeShort((int) l);
+			else if(l >= Integer.MIN_VALUE) sink.writeByte(0xD2).writeInt((int) l);
+			else sink.writeByte(0xD3).writeLong(l);
+		}
+	}
+
+	static void writeDouble(double d, @NotNull BufferedSink sink) throws IOException {
+		sink.writeByte(0xCB).writeLong(Double.doubleToLongBits(d)); // float 64
+	}
+
+	static void writeString(@NotNull String s, @NotNull BufferedSink sink) throws IOException {
+		long size = Utf8.size(s);
+		if(size < 32) sink.writeByte(0xA0 | (int) size); // fixstr
+		else if(size <= 0xFF) sink.writeByte(0xD9).writeByte((int) size);
+		else if(size <= 0xFFFF) sink.writeByte(0xDA).writeShort((int) size);
+		else sink.writeByte(0xDB).writeInt((int) size);
+		sink.writeUtf8(s);
+	}
+
+	static void writeHeader(int size, int fix, int code16, @NotNull BufferedSink sink) throws IOException {
+		if(size < 16) sink.writeByte(fix | size);
+		else if(size <= 0xFFFF) sink.writeByte(code16).writeShort(size);
+		else sink.writeByte(code16 + 1).writeInt(size); // array 32 / map 32
+	}
+
+	// DECODING
+
+	/**
+	 * Reads {@code nil}, if it is next.
+	 * @return whether it was.
+	 */
+	private static boolean readNil(@NotNull BufferedSource source) throws IOException {
+		source.require(1);
+		if((source.getBuffer().getByte(0) & 0xFF) != NIL) return false;
+		source.skip(1);
+		return true;
+	}
+
+	private static boolean readBoolean(@NotNull BufferedSource source) throws IOException {
+		int b = source.readByte() & 0xFF;
+		if(b == 0xC3) return true;
+		if(b == 0xC2) return false;
+		throw unexpected(b, "a boolean");
+	}
+
+	private static long readLong(@NotNull BufferedSource source) throws IOException {
+		int b = source.readByte() & 0xFF;
+		if(b <= 0x7F) return b; // positive fixint
+		if(b >= 0xE0) return (byte) b; // negative fixint
+		switch(b) {
+			case 0xCC: return source.readByte() & 0xFF;
+			case 0xCD: return source.readShort() & 0xFFFF;
+			case 0xCE: return source.readInt() & 0xFFFFFFFFL;
+			case 0xCF: {
+				long l = source.readLong();
+				if(l < 0) throw new IOException("Expected a long but was " + Long.toUnsignedString(l));
+				return l;
+			}
+			case 0xD0: return source.readByte();
+			case 0xD1: return source.readShort();
+			case 0xD2: return source.readInt();
+			case 0xD3: return source.readLong();
+			case 0xCA, 0xCB: {
+				double d = b == 0xCA ? Float.intBitsToFloat(source.readInt()) : Double.longBitsToDouble(source.readLong());
+				if(d != (long) d) throw new IOException("Expected a long but was " + d);
+				return (long) d;
+			}
+			default: throw unexpected(b, "an integer");
+		}
+	}
+
+	private static double readDouble(@NotNull BufferedSource source) throws IOException {
+		source.require(1);
+		int b = source.getBuffer().getByte(0) & 0xFF;
+		if(b == 0xCA) {
+			source.skip(1);
+			return Float.intBitsToFloat(source.readInt());
+		}
+		if(b == 0xCB) {
+			source.skip(1);
+			return Double.longBitsToDouble(source.readLong());
+		}
+		if(b == 0xCF) {
+			source.skip(1);
+			long l = source.readLong();
+			return l >= 0 ? l : new BigDecimal(Long.toUnsignedString(l)).doubleValue();
+		}
+		return readLong(source);
+	}
+
+	private static @NotNull String readString(@NotNull BufferedSource source) throws IOException {
+		int b = source.readByte() & 0xFF;
+		if((b & 0xE0) == 0xA0) return source.readUtf8(b & 0x1F); // fixstr
+		return switch(b) {
+			case 0xD9 -> source.readUtf8(source.readByte() & 0xFF);
+			case 0xDA -> source.readUtf8(source.readShort() & 0xFFFF);
+			case 0xDB -> source.readUtf8(source.readInt() & 0xFFFFFFFFL);
+			case 0xC4 -> source.readByteString(source.readByte() & 0xFF).base64();
+			case 0xC5 -> source.readByteString(source.readShort() & 0xFFFF).base64();
+			case 0xC6 -> source.readByteString(source.readInt() & 0xFFFFFFFFL).base64();
+			default -> throw unexpected(b, "a string");
+		};
+	}
+
+	private static @NotNull String readKey(@NotNull BufferedSource source, int depth) throws IOException {
+		return String.valueOf(readTree(source, depth));
+	}
+
+	private static int readArrayHeader(@NotNull BufferedSource source) throws IOException {
+		int b = source.readByte() & 0xFF;
+		if((b & 0xF0) == 0x90) return b & 0x0F;
+		if(b == 0xDC) return source.readShort() & 0xFFFF;
+		if(b == 0xDD) return checkSize(source.readInt());
+		throw unexpected(b, "an array");
+	}
+
+	private static int readMapHeader(@NotNull BufferedSource source) throws IOException {
+		int b = source.readByte() & 0xFF;
+		if((b & 0xF0) == 0x80) return b & 0x0F;
+		if(b == 0xDE) return source.readShort() & 0xFFFF;
+		if(b == 0xDF) return checkSize(source.readInt());
+		throw unexpected(b, "a map");
+	}
+
+	/**
+	 * Reads a value as a tree of maps, lists, strings, numbers and booleans.
+	 * Integers are read as {@code long}s, and binary values as Base64 strings.
+	 * @param depth The number of containers around the value.
+	 */
+	static @Nullable Object readTree(@NotNull BufferedSource source, int depth) throws IOException {
+		int b = source.readByte() & 0xFF;
+		if(b <= 0x7F) return (long) b; // positive fixint
+		if(b >= 0xE0) return (long) (byte) b; // negative fixint
+		if((b & 0xF0) == 0x80) return readMap(b & 0x0F, source, depth);
+		if((b & 0xF0) == 0x90) return readList(b & 0x0F, source, depth);
+		if((b & 0xE0) == 0xA0) return source.readUtf8(b & 0x1F);
+		return switch(b) {
+			case NIL -> null;
+			case 0xC2 -> false;
+			case 0xC3 -> true;
+			case 0xC4 -> source.readByteString(source.readByte() & 0xFF).base64();
+			case 0xC5 -> source.readByteString(source.readShort() & 0xFFFF).base64();
+			case 0xC6 -> source.readByteString(source.readInt() & 0xFFFFFFFFL).base64();
+			case 0xCA -> (double) Float.intBitsToFloat(source.readInt());
+			case 0xCB -> Double.longBitsToDouble(source.readLong());
+			case 0xCC -> (long) (source.readByte() & 0xFF);
+			case 0xCD -> (long) (source.readShort() & 0xFFFF);
+			case 0xCE -> source.readInt() & 0xFFFFFFFFL;
+			case 0xCF -> {
+				long l = source.readLong();
+				yield l >= 0 ? (Object) l : new BigDecimal(Long.toUnsignedString(l));
+			}
+			case 0xD0 -> (long) source.readByte();
+			case 0xD1 -> (long) source.readShort();
+			case 0xD2 -> (long) source.readInt();
+			case 0xD3 -> source.readLong();
+			case 0xD9 -> source.readUtf8(source.readByte() & 0xFF);
+			case 0xDA -> source.readUtf8(source.readShort() & 0xFFFF);
+			case 0xDB -> source.readUtf8(source.readInt() & 0xFFFFFFFFL);
+			case 0xDC -> readList(source.readShort() & 0xFFFF, source, depth);
+			case 0xDD -> readList(checkSize(source.readInt()), source, depth);
+			case 0xDE -> readMap(source.readShort() & 0xFFFF, source, depth);
+			case 0xDF -> readMap(checkSize(source.readInt()), source, depth);
+			default -> throw new IOException("unsupported MessagePack type 0x" + Integer.toHexString(b));
+		};
+	}
+
+	private static @NotNull List<Object> readList(int size, @NotNull BufferedSource source, int depth) throws IOException {
+		int nested = enter(depth);
+		List<Object> list = new ArrayList<>(Math.min(size, 1024)); // do not trust the declared size for preallocation
+		for(int i = 0; i < size; i++) list.add(readTree(source, nested));
+		return list;
+	}
+
+	private static @NotNull Map<String, Object> readMap(int size, @NotNull BufferedSource source, int depth) throws IOException {
+		int nested = enter(depth);
+		Map<String, Object> map = new LinkedHashMap<>(Math.min(size, 1024) * 2);
+		for(int i = 0; i < size; i++) {
+			map.put(readKey(source, nested), readTree(source, nested));
+		}
+		return map;
+	}
+
+	/**
+	 * Skips a value without decoding it.
+	 */
+	private static void skip(@NotNull BufferedSource source, int depth) throws IOException {
+		int b = source.readByte() & 0xFF;
+		if(b <= 0x7F || b >= 0xE0) return; // fixint
+		if((b & 0xF0) == 0x80) skipValues(2L * (b & 0x0F), source, depth);
+		else if((b & 0xF0) == 0x90) skipValues(b & 0x0F, source, depth);
+		else if((b & 0xE0) == 0xA0) source.skip(b & 0x1F);
+		else switch(b) {
+			case NIL, 0xC2, 0xC3 -> {}
+			case 0xC4, 0xD9 -> source.skip(source.readByte() & 0xFF);
+			case 0xC5, 0xDA -> source.skip(source.readShort() & 0xFFFF);
+			case 0xC6, 0xDB -> source.skip(source.readInt() & 0xFFFFFFFFL);
+			case 0xCC, 0xD0 -> source.skip(1);
+			case 0xCD, 0xD1 -> source.skip(2);
+			case 0xCA, 0xCE, 0xD2 -> source.skip(4);
+			case 0xCB, 0xCF, 0xD3 -> source.skip(8);
+			case 0xDC -> skipValues(source.readShort() & 0xFFFF, source, depth);
+			case 0xDD -> skipValues(checkSize(source.readInt()), source, depth);
+			case 0xDE -> skipValues(2L * (source.readShort() & 0xFFFF), source, depth);
+			case 0xDF -> skipValues(2L * checkSize(source.readInt()), source, depth);
+			default -> throw new IOException("unsupported MessagePack type 0x" + Integer.toHexString(b));
+		}
+	}
+
+	private static void skipValues(long count, @NotNull BufferedSource source, int depth) throws IOException {
+		int nested = enter(depth);
+		for(long i = 0; i < count; i++) skip(source, nested);
+	}
+
+	/**
+	 * Enters a container inside the given number of others.
+	 * @return the depth of the values in the container.
+	 * @throws IOException if containers are nested too deeply.
+	 */
+	private static int enter(int depth) throws IOException {
+		if(depth >= MAX_DEPTH) throw new IOException("MessagePack containers are nested more than " + MAX_DEPTH + " deep");
+		return depth + 1;
+	}
+
+	private static int checkSize(int size) throws IOException {
+		if(size < 0) throw new IOException("MessagePack container is too large");
+		return size;
+	}
+
+	private static @NotNull IOException unexpected(int b, @NotNull String expected) {
+		return new IOException("Expected " + expected + " but was MessagePack type 0x" + Integer.toHexString(b));
+	}
+
+}
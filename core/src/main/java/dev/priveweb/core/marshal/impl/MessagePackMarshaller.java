@@ -0,0 +1,48 @@
+package dev.priveweb.core.marshal.impl;
+
+import dev.priveweb.core.marshal.JsonAdapterCache;
+import dev.priveweb.core.marshal.Marshaller;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * This class implements <a href="https://github.com/msgpack/msgpack/blob/master/spec.md">MessagePack</a>,
+ * a compact binary alternative to JSON for service-to-service calls.
+ * <p>
+ *     Objects are encoded and decoded straight from and into the stream, following the same rules as the
+ *     {@linkplain JsonAdapterCache cached} Moshi adapters. Hence, any type that can be marshalled into JSON can be
+ *     marshalled into MessagePack, with the same field names. Types that Moshi adapts in its own way are converted
+ *     by their adapters into a tree of maps, lists, strings, numbers and booleans, which is then encoded.
+ *     Binary ({@code bin}) values are read as Base64 strings; extension types are not supported.
+ * </p>
+ */
+public class MessagePackMarshaller implements Marshaller {
+
+	@Override
+	public @NotNull String getMediaType() {
+		return "application/msgpack";
+	}
+
+	@Override
+	public boolean supports(@NotNull String mediaType) {
+		return mediaType.equalsIgnoreCase("application/msgpack")
+				|| mediaType.equalsIgnoreCase("application/x-msgpack")
+				|| mediaType.equalsIgnoreCase("application/vnd.msgpack");
+	}
+
+	@Override
+	public void marshal(@Nullable Object value, @NotNull Type type, @NotNull BufferedSink sink) throws IOException {
+		MessagePackCodec.of(type).write(value, sink);
+	}
+
+	@Override
+	public @Nullable Object unmarshal(@NotNull Type type, @NotNull BufferedSource source) throws IOException {
+		return MessagePackCodec.of(type).read(source);
+	}
+
+}
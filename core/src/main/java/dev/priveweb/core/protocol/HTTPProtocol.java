@@ -6,7 +6,8 @@ package dev.priveweb.core.protocol;
 public enum HTTPProtocol {
 
 	HTTP1_1("HTTP/1.1"),
-	; // currently only supported
+	HTTP2("HTTP/2"),
+	;
 
 	private final String s;
 	HTTPProtocol(String s) { this.s = s; }
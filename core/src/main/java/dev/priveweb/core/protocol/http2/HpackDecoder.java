@@ -0,0 +1,107 @@
+package dev.priveweb.core.protocol.http2;
+
+import dev.priveweb.core.http.Header;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541). Every block of a connection must be decoded in order,
+ * even those of refused streams, as they change the dynamic table.
+ */
+final class HpackDecoder {
+
+	private final HpackTable table;
+	private final int maxTableSize;
+	private final int maxHeaderListSize;
+	private byte[] block;
+	private int position;
+	private int end;
+
+	/**
+	 * Creates a new {@link HpackDecoder}.
+	 * @param maxTableSize The {@code SETTINGS_HEADER_TABLE_SIZE} sent to the peer.
+	 * @param maxHeaderListSize The {@code SETTINGS_MAX_HEADER_LIST_SIZE} sent to the peer.
+	 */
+	HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+		this.table = new HpackTable(maxTableSize);
+		this.maxTableSize = maxTableSize;
+		this.maxHeaderListSize = maxHeaderListSize;
+	}
+
+	/**
+	 * Decodes a header block.
+	 * @param block The buffer holding the header block.
+	 * @param length The length of the header block.
+	 * @return the header list, or {@code null} if it is larger than the maximum header list size.
+	 * @throws Http2Exception if the header block is invalid, which is a connection error.
+	 */
+	@Nullable List<Header> decode(byte @NotNull [] block, int length) throws Http2Exception {
+		this.block = block;
+		this.position = 0;
+		this.end = length;
+		List<Header> fields = new ArrayList<>();
+		long listSize = 0;
+		boolean sizeUpdateAllowed = true;
+		try {
+			while(position < end) {
+				int b = block[position] & 0xFF;
+				Header field;
+				if((b & 0x80) != 0) {
+					// indexed field
+					field = table.get(readInteger(7));
+				} else if((b & 0x40) != 0) {
+					// literal field, added to the table
+					int index = readInteger(6);
+					field = new Header(index == 0 ? readString() : table.get(index).header(), readString());
+					table.add(field);
+				} else if((b & 0x20) != 0) {
+					int size = readInteger(5);
+					if(!sizeUpdateAllowed || size > maxTableSize) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "invalid dynamic table size update");
+					table.setMaxSize(size);
+					continue;
+				} else {
+					// literal field, not indexed or never indexed
+					int index = readInteger(4);
+					field = new Header(index == 0 ? readString() : table.get(index).header(), readString());
+				}
+				sizeUpdateAllowed = false;
+				listSize += field.header().length() + field.value().length() + 32;
+				// the rest of the block is still decoded, so that the dynamic table stays in sync
+				if(listSize <= maxHeaderListSize) fields.add(field);
+			}
+		} finally {
+			this.block = null;
+		}
+		return listSize > maxHeaderListSize ? null : fields;
+	}
+
+	private int readInteger(int prefixBits) throws Http2Exception {
+		int max = (1 << prefixBits) - 1;
+		int value = block[position++] & max;
+		if(value < max) return value;
+		for(int shift = 0; ; shift += 7) {
+			if(position >= end || shift > 21) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "invalid HPACK integer");
+			int b = block[position++] & 0xFF;
+			value += (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+	}
+
+	private @NotNull String readString() throws Http2Exception {
+		if(position >= end) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "truncated HPACK string");
+		boolean huffman = (block[position] & 0x80) != 0;
+		int length = readInteger(7);
+		if(length > end - position) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "truncated HPACK string");
+		byte[] bytes = huffman ? Huffman.decode(block, position, length) : null;
+		String string = bytes != null
+				? new String(bytes, StandardCharsets.ISO_8859_1)
+				: new String(block, position, length, StandardCharsets.ISO_8859_1);
+		position += length;
+		return string;
+	}
+
+}
@@ -0,0 +1,102 @@
+package dev.priveweb.core.protocol.http2;
+
+import dev.priveweb.core.http.Header;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes header lists into HPACK header blocks (RFC 7541). Fields are added to the dynamic table,
+ * except those whose values change with every response, which would only push useful entries out,
+ * and sensitive ones, which are never indexed. Strings are Huffman-encoded when that makes them shorter.
+ */
+final class HpackEncoder {
+
+	private static final int MAX_TABLE_SIZE = 4096;
+	private static final Set<String> UNINDEXED = Set.of("content-length", "date", "etag", "last-modified", "expires", "age", ":path", "location");
+	private static final Set<String> SENSITIVE = Set.of("set-cookie", "authorization", "proxy-authorization");
+
+	private final HpackTable table = new HpackTable(MAX_TABLE_SIZE);
+	// the smallest and the last table size since the previous header block, which must be signalled
+	private int minPendingSize = -1;
+	private int pendingSize = -1;
+
+	/**
+	 * Applies the {@code SETTINGS_HEADER_TABLE_SIZE} of the peer. The table never grows beyond 4096 bytes.
+	 * @param peerMaxSize The maximum size of the table that the peer allows.
+	 */
+	void setMaxTableSize(int peerMaxSize) {
+		int size = Math.min(peerMaxSize, MAX_TABLE_SIZE);
+		if(size == table.getMaxSize() && pendingSize == -1) return;
+		minPendingSize = minPendingSize == -1 ? size : Math.min(minPendingSize, size);
+		pendingSize = size;
+		table.setMaxSize(size);
+	}
+
+	/**
+	 * Encodes a header list.
+	 * @param fields The fields, with lowercase names.
+	 * @param out The stream to write the header block to.
+	 */
+	void encode(@NotNull List<Header> fields, @NotNull ByteArrayOutputStream out) {
+		if(pendingSize != -1) {
+			if(minPendingSize < pendingSize) writeInteger(out, 0x20, 5, minPendingSize);
+			writeInteger(out, 0x20, 5, pendingSize);
+			minPendingSize = pendingSize = -1;
+		}
+		for(Header field : fields) {
+			int index = table.indexOf(field);
+			if(index != 0) {
+				writeInteger(out, 0x80, 7, index);
+				continue;
+			}
+			String name = field.header();
+			int nameIndex = table.indexOfName(name);
+			if(SENSITIVE.contains(name)) {
+				writeInteger(out, 0x10, 4, nameIndex);
+			} else if(UNINDEXED.contains(name)) {
+				writeInteger(out, 0x00, 4, nameIndex);
+			} else {
+				writeInteger(out, 0x40, 6, nameIndex);
+				table.add(field);
+			}
+			if(nameIndex == 0) writeString(out, name);
+			writeString(out, field.value());
+		}
+	}
+
+	private static void writeString(@NotNull ByteArrayOutputStream out, @NotNull String string) {
+		byte[] bytes = string.getBytes(StandardCharsets.ISO_8859_1);
+		int huffman = Huffman.encodedLength(bytes);
+		if(huffman < bytes.length) {
+			writeInteger(out, 0x80, 7, huffman);
+			Huffman.encode(bytes, out);
+		} else {
+			writeInteger(out, 0x00, 7, bytes.length);
+			out.writeBytes(bytes);
+		}
+	}
+
+	/**
+	 * Writes an integer with an N-bit prefix (RFC 7541, section 5.1).
+	 * @param flags The bits of the first byte above the prefix.
+	 */
+	static void writeInteger(@NotNull ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+		int max = (1 << prefixBits) - 1;
+		if(value < max) {
+			out.write(flags | value);
+			return;
+		}
+		out.write(flags | max);
+		value -= max;
+		while(value >= 0x80) {
+			out.write(value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+}
@@ -0,0 +1,191 @@
+package dev.priveweb.core.protocol.http2;
+
+import dev.priveweb.core.http.Header;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The HPACK index address space (RFC 7541, section 2.3): the static table, followed by a dynamic table
+ * whose newest entry comes first, and whose oldest entries are evicted when it grows beyond its maximum size.
+ */
+final class HpackTable {
+
+	private static final Header[] STATIC_TABLE = {
+			null,
+			new Header(":authority", ""),
+			new Header(":method", "GET"),
+			new Header(":method", "POST"),
+			new Header(":path", "/"),
+			new Header(":path", "/index.html"),
+			new Header(":scheme", "http"),
+			new Header(":scheme", "https"),
+			new Header(":status", "200"),
+			new Header(":status", "204"),
+			new Header(":status", "206"),
+			new Header(":status", "304"),
+			new Header(":status", "400"),
+			new Header(":status", "404"),
+			new Header(":status", "500"),
+			new Header("accept-charset", ""),
+			new Header("accept-encoding", "gzip, deflate"),
+			new Header("accept-language", ""),
+			new Header("accept-ranges", ""),
+			new Header("accept", ""),
+			new Header("access-control-allow-origin", ""),
+			new Header("age", ""),
+			new Header("allow", ""),
+			new Header("authorization", ""),
+			new Header("cache-control", ""),
+			new Header("content-disposition", ""),
+			new Header("content-encoding", ""),
+			new Header("content-language", ""),
+			new Header("content-length", ""),
+			new Header("content-location", ""),
+			new Header("content-range", ""),
+			new Header("content-type", ""),
+			new Header("cookie", ""),
+			new Header("date", ""),
+			new Header("etag", ""),
+			new Header("expect", ""),
+			new Header("expires", ""),
+			new Header("from", ""),
+			new Header("host", ""),
+			new Header("if-match", ""),
+			new Header("if-modified-since", ""),
+			new Header("if-none-match", ""),
+			new Header("if-range", ""),
+			new Header("if-unmodified-since", ""),
+			new Header("last-modified", ""),
+			new Header("link", ""),
+			new Header("location", ""),
+			new Header("max-forwards", ""),
+			new Header("proxy-authenticate", ""),
+			new Header("proxy-authorization", ""),
+			new Header("range", ""),
+			new Header("referer", ""),
+			new Header("refresh", ""),
+			new Header("retry-after", ""),
+			new Header("server", ""),
+			new Header("set-cookie", ""),
+			new Header("strict-transport-security", ""),
+			new Header("transfer-encoding", ""),
+			new Header("user-agent", ""),
+			new Header("vary", ""),
+			new Header("via", ""),
+			new Header("www-authenticate", "")
+	};
+	static final int STATIC_LENGTH = STATIC_TABLE.length - 1;
+	private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+	private static final Map<Header, Integer> STATIC_FIELDS = new HashMap<>();
+
+	static {
+		for(int i = STATIC_LENGTH; i > 0; i--) {
+			// the lowest index wins
+			STATIC_NAMES.put(STATIC_TABLE[i].header(), i);
+			if(!STATIC_TABLE[i].value().isEmpty()) STATIC_FIELDS.put(STATIC_TABLE[i], i);
+		}
+	}
+
+	private Header[] entries = new Header[16];
+	private int first = 0; // the position of the newest entry
+	private int count = 0;
+	private int size = 0;
+	private int maxSize;
+
+	/**
+	 * Creates a new {@link HpackTable}.
+	 * @param maxSize The maximum size of the dynamic table.
+	 */
+	HpackTable(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets an entry.
+	 * @param index The index, starting at {@code 1}.
+	 * @return the entry.
+	 * @throws Http2Exception if there is no such entry.
+	 */
+	@NotNull Header get(int index) throws Http2Exception {
+		if(index <= 0 || index > STATIC_LENGTH + count) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "invalid HPACK index " + index);
+		if(index <= STATIC_LENGTH) return STATIC_TABLE[index];
+		return entries[(first + index - STATIC_LENGTH - 1) & (entries.length - 1)];
+	}
+
+	/**
+	 * Finds an entry with the given name and value.
+	 * @return the index, or {@code 0} if there is none.
+	 */
+	int indexOf(@NotNull Header field) {
+		Integer index = STATIC_FIELDS.get(field);
+		if(index != null) return index;
+		for(int i = 0; i < count; i++) {
+			if(entries[(first + i) & (entries.length - 1)].equals(field)) return STATIC_LENGTH + i + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Finds an entry with the given name.
+	 * @return the index, or {@code 0} if there is none.
+	 */
+	int indexOfName(@NotNull String name) {
+		Integer index = STATIC_NAMES.get(name);
+		if(index != null) return index;
+		for(int i = 0; i < count; i++) {
+			if(entries[(first + i) & (entries.length - 1)].header().equals(name)) return STATIC_LENGTH + i + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds an entry to the dynamic table, evicting the oldest entries to make room.
+	 * An entry larger than the table empties it, and is not added.
+	 */
+	void add(@NotNull Header field) {
+		int entrySize = sizeOf(field);
+		evict(maxSize - entrySize);
+		if(entrySize > maxSize) return;
+		if(count == entries.length) {
+			Header[] grown = new Header[entries.length * 2];
+			for(int i = 0; i < count; i++) grown[i] = entries[(first + i) & (entries.length - 1)];
+			entries = grown;
+			first = 0;
+		}
+		first = (first - 1) & (entries.length - 1);
+		entries[first] = field;
+		count++;
+		size += entrySize;
+	}
+
+	/**
+	 * Changes the maximum size of the dynamic table, evicting entries if it shrinks.
+	 */
+	void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evict(maxSize);
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	private void evict(int targetSize) {
+		while(count > 0 && size > targetSize) {
+			int last = (first + count - 1) & (entries.length - 1);
+			size -= sizeOf(entries[last]);
+			entries[last] = null;
+			count--;
+		}
+	}
+
+	/**
+	 * The size of an entry is the length of its name and value, plus 32 bytes of overhead.
+	 */
+	private static int sizeOf(@NotNull Header field) {
+		return field.header().length() + field.value().length() + 32;
+	}
+
+}
@@ -0,0 +1,865 @@
+package dev.priveweb.core.protocol.http2;
+
+import dev.priveweb.core.exception.MalformedRequestException;
+import dev.priveweb.core.exception.PayloadTooLargeException;
+import dev.priveweb.core.http.Header;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.http.request.RequestMethod;
+import dev.priveweb.core.http.response.AsyncResponse;
+import dev.priveweb.core.http.response.EncodedResponse;
+import dev.priveweb.core.http.response.HTTPResponse;
+import dev.priveweb.core.protocol.HTTPProtocol;
+import dev.priveweb.core.server.impl.PriveWebServer;
+import dev.priveweb.core.util.HeaderUtils;
+import dev.priveweb.core.util.IOUtils;
+import dev.priveweb.core.util.LimitedInputStream;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import slf4jansi.AnsiLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An HTTP/2 connection (RFC 9113), started either with the connection preface (with "prior knowledge", or after
+ * selecting {@code h2} with ALPN on a TLS connection) or by upgrading an HTTP/1.1 request with {@code Upgrade: h2c}.
+ * Frames are read on the connection's own thread, and each stream is handled on a thread of its own,
+ * so that a slow handler does not hold up the other streams.
+ * <p>Server push is not supported, and responses that take over the connection (such as WebSocket handshakes)
+ * are refused with {@code HTTP_1_1_REQUIRED}, so that the client retries them over HTTP/1.1.</p>
+ */
+@ApiStatus.Internal
+public final class Http2Connection {
+
+	/**
+	 * The request line that starts the connection preface.
+	 */
+	public static final String PREFACE_LINE = "PRI * HTTP/2.0";
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] PREFACE_REST = "\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] SWITCHING_PROTOCOLS = "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	private static final int DATA = 0x0;
+	private static final int HEADERS = 0x1;
+	private static final int PRIORITY = 0x2;
+	private static final int RST_STREAM = 0x3;
+	private static final int SETTINGS = 0x4;
+	private static final int PUSH_PROMISE = 0x5;
+	private static final int PING = 0x6;
+	private static final int GOAWAY = 0x7;
+	private static final int WINDOW_UPDATE = 0x8;
+	private static final int CONTINUATION = 0x9;
+
+	private static final int FLAG_END_STREAM = 0x1;
+	private static final int FLAG_ACK = 0x1;
+	private static final int FLAG_END_HEADERS = 0x4;
+	private static final int FLAG_PADDED = 0x8;
+	private static final int FLAG_PRIORITY = 0x20;
+
+	private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	private static final int SETTINGS_ENABLE_PUSH = 0x2;
+	private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	private static final int DEFAULT_WINDOW = 65535;
+	private static final int MAX_WINDOW = Integer.MAX_VALUE;
+	private static final int MAX_FRAME_SIZE = 16384;
+	private static final int HEADER_TABLE_SIZE = 4096;
+	private static final int MAX_HEADER_LIST_SIZE = 64 << 10;
+	private static final int STREAM_WINDOW = 256 << 10;
+	private static final int CONNECTION_WINDOW = 1 << 20;
+	private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+	private static final Logger logger = AnsiLogger.of(LoggerFactory.getLogger(Http2Connection.class));
+
+	// a server that has not been started has no workers, so its streams get threads of their own
+	private static final ExecutorService STREAMS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "prive-h2-stream");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Finds and invokes the handler of a request, the same way as for HTTP/1.1 requests.
+	 */
+	@FunctionalInterface
+	public interface Dispatcher {
+
+		/**
+		 * Dispatches a request.
+		 * @param request The request.
+		 * @param query The query string, starting with {@code ?}, or an empty string.
+		 * @param bodyException The exception to answer with instead, if the request body is not acceptable.
+		 * @return the object to marshal into the response.
+		 */
+		@NotNull Object dispatch(@NotNull HTTPRequest request, @NotNull String query, @Nullable Exception bodyException);
+
+	}
+
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private final PriveWebServer server;
+	private final Dispatcher dispatcher;
+	private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+	private final HpackDecoder decoder = new HpackDecoder(HEADER_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+	// guarded by writeLock
+	private final HpackEncoder encoder = new HpackEncoder();
+	private final Object writeLock = new Object();
+	// guarded by flowLock, along with the send windows of the streams
+	private final Object flowLock = new Object();
+	private long connectionSendWindow = DEFAULT_WINDOW;
+	private int peerInitialWindow = DEFAULT_WINDOW;
+	private volatile int peerMaxFrameSize = MAX_FRAME_SIZE;
+	// only used by the reading thread
+	private int lastStreamId = 0;
+	private int connectionReceiveWindow = CONNECTION_WINDOW;
+	private int connectionConsumed = 0;
+	private boolean goingAway = false;
+	private volatile boolean inputClosed = false;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new {@link Http2Connection}.
+	 * @param socket The socket of the connection.
+	 * @param in The stream from the client.
+	 * @param out The stream to the client.
+	 * @param server The server that accepted the connection.
+	 * @param dispatcher Dispatches the requests.
+	 */
+	public Http2Connection(@NotNull Socket socket, @NotNull InputStream in, @NotNull OutputStream out, @NotNull PriveWebServer server, @NotNull Dispatcher dispatcher) {
+		this.socket = socket;
+		this.in = in;
+		this.out = out;
+		this.server = server;
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Checks if a request asks to upgrade its connection to HTTP/2, with {@code Upgrade: h2c}
+	 * and a single valid {@code HTTP2-Settings} header.
+	 * @param headers The headers of the request.
+	 * @return {@code true} if the connection can be upgraded.
+	 */
+	public static boolean isUpgrade(@NotNull List<Header> headers) {
+		List<String> settings = HeaderUtils.getHeader(headers, "HTTP2-Settings");
+		if(settings.size() != 1 || !hasToken(headers, "Upgrade", "h2c")) return false;
+		if(!hasToken(headers, "Connection", "upgrade") || !hasToken(headers, "Connection", "http2-settings")) return false;
+		try {
+			return Base64.getUrlDecoder().decode(settings.get(0).strip()).length % 6 == 0;
+		} catch(IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static boolean hasToken(@NotNull List<Header> headers, @NotNull String header, @NotNull String token) {
+		for(String value : HeaderUtils.getHeader(headers, header)) {
+			for(String t : value.split(",")) {
+				if(t.strip().equalsIgnoreCase(token)) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Serves the connection on its own thread, once the first line of the connection preface has been read.
+	 * The connection is closed when it ends.
+	 */
+	public void start() {
+		spawn(null, null);
+	}
+
+	/**
+	 * Switches the connection to HTTP/2 and serves it on its own thread, answering the request that asked for
+	 * the upgrade on stream {@code 1}. The connection is closed when it ends.
+	 * @param request The request, which must not have a body.
+	 * @param query The query string of the request.
+	 */
+	public void start(@NotNull HTTPRequest request, @NotNull String query) {
+		spawn(request, query);
+	}
+
+	private void spawn(@Nullable HTTPRequest upgraded, @Nullable String query) {
+		Thread thread = new Thread(() -> serve(upgraded, query), "prive-h2-" + socket.getRemoteSocketAddress());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void serve(@Nullable HTTPRequest upgraded, @Nullable String query) {
+		try {
+			if(upgraded == null) {
+				if(!Arrays.equals(in.readNBytes(PREFACE_REST.length), PREFACE_REST)) return;
+			} else {
+				out.write(SWITCHING_PROTOCOLS);
+			}
+			writeSettings();
+			if(upgraded != null) {
+				byte[] settings = Base64.getUrlDecoder().decode(HeaderUtils.getHeader(upgraded.getHeaders(), "HTTP2-Settings").get(0).strip());
+				applySettings(settings, settings.length);
+				// the request is the first stream, which is already half-closed
+				Http2Stream stream = new Http2Stream(1, this, STREAM_WINDOW, peerInitialWindow);
+				stream.endInput();
+				streams.put(1, stream);
+				lastStreamId = 1;
+				dispatch(stream, () -> {
+					try {
+						respond(stream, upgraded, query, null);
+					} catch(Exception e) {
+						fail(stream, e);
+					} finally {
+						finish(stream, upgraded);
+					}
+				});
+				if(!Arrays.equals(in.readNBytes(PREFACE.length), PREFACE)) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "invalid connection preface");
+			}
+			if(server.isVerbose()) //noinspection PlaceholderCountMatchesArgumentCount
+				logger.info("Serving HTTP/2 connection from {highlight}", socket.getRemoteSocketAddress());
+			readFrames();
+			// the client will send nothing more, so the streams still waiting for their request bodies are cancelled
+			inputClosed = true;
+			for(Http2Stream stream : streams.values()) {
+				if(!stream.isInputEnded()) stream.reset(Http2Exception.CANCEL);
+			}
+			wakeWriters();
+			awaitStreams();
+		} catch(Http2Exception e) {
+			if(server.isVerbose()) logger.warn("{!warn}Closing HTTP/2 connection from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+			goAway(e.getErrorCode(), e.getMessage());
+		} catch(IOException ignored) {
+			// the connection was lost
+		} finally {
+			close();
+		}
+	}
+
+	private void readFrames() throws IOException {
+		byte[] header = new byte[9];
+		byte[] payload = new byte[MAX_FRAME_SIZE];
+		boolean first = true;
+		while(true) {
+			int b = in.read();
+			if(b == -1) return;
+			header[0] = (byte) b;
+			readFully(header, 1, 8);
+			int length = (header[0] & 0xFF) << 16 | (header[1] & 0xFF) << 8 | header[2] & 0xFF;
+			int type = header[3] & 0xFF;
+			int flags = header[4] & 0xFF;
+			int streamId = readInt(header, 5) & 0x7FFFFFFF;
+			if(length > MAX_FRAME_SIZE) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "frame of " + length + " bytes");
+			readFully(payload, 0, length);
+			if(first && type != SETTINGS) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "expected SETTINGS frame");
+			first = false;
+			try {
+				switch(type) {
+					case DATA -> onData(payload, length, flags, streamId);
+					case HEADERS -> onHeaders(payload, length, flags, streamId);
+					case PRIORITY -> {
+						if(streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PRIORITY frame on stream 0");
+						if(length != 5) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "invalid PRIORITY frame");
+						// priorities are only advice, and every stream is served at once anyway
+					}
+					case RST_STREAM -> {
+						if(streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM frame on stream 0");
+						if(length != 4) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "invalid RST_STREAM frame");
+						if(streamId > lastStreamId) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM frame on idle stream");
+						Http2Stream stream = streams.get(streamId);
+						if(stream != null) stream.reset(readInt(payload, 0));
+					}
+					case SETTINGS -> {
+						if(streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS frame on stream " + streamId);
+						if((flags & FLAG_ACK) != 0) {
+							if(length != 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS acknowledgement with payload");
+						} else {
+							if(length % 6 != 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "invalid SETTINGS frame");
+							applySettings(payload, length);
+							writeFrame(SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+						}
+					}
+					case PUSH_PROMISE -> throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PUSH_PROMISE frame from client");
+					case PING -> {
+						if(streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PING frame on stream " + streamId);
+						if(length != 8) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "invalid PING frame");
+						if((flags & FLAG_ACK) == 0) writeFrame(PING, FLAG_ACK, 0, payload, 0, 8);
+					}
+					case GOAWAY -> {
+						if(streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "GOAWAY frame on stream " + streamId);
+						// the streams already open are still served
+						goingAway = true;
+					}
+					case WINDOW_UPDATE -> onWindowUpdate(payload, length, streamId);
+					case CONTINUATION -> throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "unexpected CONTINUATION frame");
+					default -> {
+						// unknown frame types are ignored
+					}
+				}
+			} catch(Http2Exception e) {
+				if(e.getStreamId() == 0) throw e;
+				Http2Stream stream = streams.get(e.getStreamId());
+				if(stream != null) stream.reset(e.getErrorCode());
+				resetStream(e.getStreamId(), e.getErrorCode());
+			}
+		}
+	}
+
+	private void onData(byte @NotNull [] payload, int length, int flags, int streamId) throws IOException {
+		if(streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA frame on stream 0");
+		if(streamId > lastStreamId) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA frame on idle stream");
+		int offset = 0, end = length;
+		if((flags & FLAG_PADDED) != 0) {
+			if(length == 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "invalid DATA frame");
+			offset = 1;
+			end -= payload[0] & 0xFF;
+			if(end < offset) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "invalid DATA frame padding");
+		}
+		// the whole frame counts against the connection window, even if its stream is gone
+		if(length > connectionReceiveWindow) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "connection window exceeded");
+		connectionReceiveWindow -= length;
+		connectionConsumed += length;
+		if(connectionConsumed >= CONNECTION_WINDOW / 2) {
+			sendWindowUpdate(0, connectionConsumed);
+			connectionReceiveWindow += connectionConsumed;
+			connectionConsumed = 0;
+		}
+		Http2Stream stream = streams.get(streamId);
+		// frames already in flight when a stream was reset are ignored
+		if(stream != null && !stream.isReset()) stream.receive(payload, offset, end - offset, length, (flags & FLAG_END_STREAM) != 0);
+	}
+
+	private void onHeaders(byte @NotNull [] payload, int length, int flags, int streamId) throws IOException {
+		if(streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS frame on stream 0");
+		int offset = 0, end = length;
+		if((flags & FLAG_PADDED) != 0) {
+			if(length == 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "invalid HEADERS frame");
+			offset = 1;
+			end -= payload[0] & 0xFF;
+		}
+		if((flags & FLAG_PRIORITY) != 0) offset += 5;
+		if(end < offset) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "invalid HEADERS frame padding");
+		// the header block may continue in CONTINUATION frames, which must follow at once
+		byte[] block;
+		int blockLength;
+		if((flags & FLAG_END_HEADERS) != 0) {
+			block = Arrays.copyOfRange(payload, offset, end);
+			blockLength = block.length;
+		} else {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(end - offset + MAX_FRAME_SIZE);
+			buffer.write(payload, offset, end - offset);
+			byte[] header = new byte[9];
+			int continuationFlags;
+			do {
+				readFully(header, 0, 9);
+				int continuationLength = (header[0] & 0xFF) << 16 | (header[1] & 0xFF) << 8 | header[2] & 0xFF;
+				continuationFlags = header[4] & 0xFF;
+				if((header[3] & 0xFF) != CONTINUATION || (readInt(header, 5) & 0x7FFFFFFF) != streamId) {
+					throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "expected CONTINUATION frame");
+				}
+				if(continuationLength > MAX_FRAME_SIZE) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "frame of " + continuationLength + " bytes");
+				if(buffer.size() + continuationLength > 2 * MAX_HEADER_LIST_SIZE) throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "header block too large");
+				readFully(payload, 0, continuationLength);
+				buffer.write(payload, 0, continuationLength);
+			} while((continuationFlags & FLAG_END_HEADERS) == 0);
+			block = buffer.toByteArray();
+			blockLength = block.length;
+		}
+		// every block is decoded, even if the stream is refused, to keep the dynamic table in sync
+		List<Header> fields = decoder.decode(block, blockLength);
+		boolean endStream = (flags & FLAG_END_STREAM) != 0;
+		Http2Stream stream = streams.get(streamId);
+		if(stream != null) {
+			// trailers, which are not passed on
+			if(!endStream) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "trailers without END_STREAM");
+			stream.endInput();
+			return;
+		}
+		if(streamId % 2 == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "stream " + streamId + " opened by server");
+		// trailers of a stream that was already reset are ignored
+		if(streamId <= lastStreamId) return;
+		lastStreamId = streamId;
+		if(goingAway || streams.size() >= server.getHttp2MaxConcurrentStreams()) {
+			resetStream(streamId, Http2Exception.REFUSED_STREAM);
+			return;
+		}
+		int initialWindow;
+		synchronized(flowLock) {
+			initialWindow = peerInitialWindow;
+		}
+		Http2Stream created = new Http2Stream(streamId, this, STREAM_WINDOW, initialWindow);
+		if(endStream) created.endInput();
+		streams.put(streamId, created);
+		dispatch(created, () -> handle(created, fields));
+	}
+
+	/**
+	 * Hands a stream to the server's workers, through its admission control, which may refuse it.
+	 */
+	private void dispatch(@NotNull Http2Stream stream, @NotNull Runnable handler) {
+		ExecutorService workers = server.getWorkers();
+		if(workers == null) {
+			STREAMS.execute(handler);
+			return;
+		}
+		server.getAdmissionControl().admit(handler, workers, () -> {
+			// the client may retry a refused stream, as nothing of it was processed
+			stream.reset(Http2Exception.REFUSED_STREAM);
+			resetStream(stream.id, Http2Exception.REFUSED_STREAM);
+			streams.remove(stream.id);
+			synchronized(this) {
+				notifyAll();
+			}
+		});
+	}
+
+	private void onWindowUpdate(byte @NotNull [] payload, int length, int streamId) throws Http2Exception {
+		if(length != 4) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "invalid WINDOW_UPDATE frame");
+		int increment = readInt(payload, 0) & 0x7FFFFFFF;
+		if(increment == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "window increment of 0");
+		synchronized(flowLock) {
+			if(streamId == 0) {
+				if(connectionSendWindow + increment > MAX_WINDOW) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "connection window overflow");
+				connectionSendWindow += increment;
+			} else {
+				Http2Stream stream = streams.get(streamId);
+				if(stream == null) return;
+				if(stream.sendWindow + increment > MAX_WINDOW) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "stream window overflow");
+				stream.sendWindow += increment;
+			}
+			flowLock.notifyAll();
+		}
+	}
+
+	private void applySettings(byte @NotNull [] payload, int length) throws Http2Exception {
+		for(int i = 0; i < length; i += 6) {
+			int id = (payload[i] & 0xFF) << 8 | payload[i + 1] & 0xFF;
+			int value = readInt(payload, i + 2);
+			switch(id) {
+				case SETTINGS_HEADER_TABLE_SIZE -> {
+					synchronized(writeLock) {
+						encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+					}
+				}
+				case SETTINGS_ENABLE_PUSH -> {
+					if(value != 0 && value != 1) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "invalid SETTINGS_ENABLE_PUSH");
+				}
+				case SETTINGS_INITIAL_WINDOW_SIZE -> {
+					if(value < 0) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "invalid SETTINGS_INITIAL_WINDOW_SIZE");
+					synchronized(flowLock) {
+						// the change applies to the windows of all open streams
+						int delta = value - peerInitialWindow;
+						for(Http2Stream stream : streams.values()) {
+							if(stream.sendWindow + delta > MAX_WINDOW) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "stream window overflow");
+							stream.sendWindow += delta;
+						}
+						peerInitialWindow = value;
+						flowLock.notifyAll();
+					}
+				}
+				case SETTINGS_MAX_FRAME_SIZE -> {
+					if(value < MAX_FRAME_SIZE || value > 0xFFFFFF) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "invalid SETTINGS_MAX_FRAME_SIZE");
+					peerMaxFrameSize = value;
+				}
+				default -> {
+					// the others do not concern a server, and unknown ones are ignored
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles a request stream, on its own thread.
+	 */
+	private void handle(@NotNull Http2Stream stream, @Nullable List<Header> fields) {
+		HTTPRequest request = null;
+		try {
+			if(fields == null) {
+				writeHeaders(stream, List.of(new Header(":status", "431")), true);
+				return;
+			}
+			String method = null, path = null, scheme = null, authority = null;
+			List<Header> headers = new ArrayList<>(fields.size() + 1);
+			StringJoiner cookies = new StringJoiner("; ");
+			for(Header field : fields) {
+				String name = field.header();
+				if(name.startsWith(":")) {
+					// pseudo-header fields come first, once each
+					if(!headers.isEmpty()) throw malformed(stream);
+					switch(name) {
+						case ":method" -> method = method == null ? field.value() : malformedValue(stream);
+						case ":path" -> path = path == null ? field.value() : malformedValue(stream);
+						case ":scheme" -> scheme = scheme == null ? field.value() : malformedValue(stream);
+						case ":authority" -> authority = authority == null ? field.value() : malformedValue(stream);
+						default -> throw malformed(stream);
+					}
+				} else {
+					if(!name.equals(name.toLowerCase(Locale.ROOT)) || CONNECTION_HEADERS.contains(name)) throw malformed(stream);
+					if(name.equals("te") && !field.value().equalsIgnoreCase("trailers")) throw malformed(stream);
+					// cookies may be split into several fields, which handlers expect as one header
+					if(name.equals("cookie")) cookies.add(field.value());
+					else headers.add(field);
+				}
+			}
+			if(method == null || scheme == null || path == null || path.isEmpty()) throw malformed(stream);
+			if(cookies.length() > 0) headers.add(new Header("cookie", cookies.toString()));
+			if(authority != null && !HeaderUtils.containsHeader(headers, "host")) headers.add(0, new Header("host", authority));
+			RequestMethod requestMethod;
+			try {
+				requestMethod = RequestMethod.valueOf(method);
+			} catch(IllegalArgumentException e) {
+				writeHeaders(stream, List.of(new Header(":status", "501")), true);
+				return;
+			}
+			if(server.isVerbose()) //noinspection PlaceholderCountMatchesArgumentCount
+				logger.info("Handling {} request on HTTP/2 stream {} from {highlight}", method, stream.id, socket.getRemoteSocketAddress());
+			String requested = path.toLowerCase();
+			String query = "";
+			int queryIndex = requested.lastIndexOf('?');
+			if(queryIndex != -1) {
+				query = requested.substring(queryIndex);
+				requested = requested.substring(0, queryIndex);
+			}
+			Exception bodyException = null;
+			List<String> contentLength = HeaderUtils.getHeader(headers, "content-length");
+			if(!contentLength.isEmpty()) {
+				try {
+					long length = Long.parseLong(contentLength.get(0).strip());
+					if(length < 0) throw new NumberFormatException("negative Content-Length");
+					if(server.getMaxRequestBodySize() >= 0 && length > server.getMaxRequestBodySize()) {
+						bodyException = new PayloadTooLargeException("request body", server.getMaxRequestBodySize());
+					}
+				} catch(NumberFormatException e) {
+					bodyException = new MalformedRequestException("invalid Content-Length", e);
+				}
+			}
+			InputStream body = stream.isEmpty() || bodyException != null ? null : stream.body();
+			// the length is only advisory, so the limit is enforced while the body is read
+			if(body != null && server.getMaxRequestBodySize() >= 0) body = new LimitedInputStream(body, server.getMaxRequestBodySize());
+			request = HTTPRequest.builder()
+					.protocol(HTTPProtocol.HTTP2.toString())
+					.headers(headers)
+					.requestedResource(requested)
+					.queryString(query)
+					.requestTarget(path)
+					.requestMethod(requestMethod)
+					.requestBodyStream(body)
+					.build();
+			respond(stream, request, query, bodyException);
+		} catch(Exception e) {
+			fail(stream, e);
+		} finally {
+			finish(stream, request);
+		}
+	}
+
+	private static @NotNull Http2Exception malformed(@NotNull Http2Stream stream) {
+		return new Http2Exception(Http2Exception.PROTOCOL_ERROR, stream.id, "malformed request");
+	}
+
+	private static @NotNull String malformedValue(@NotNull Http2Stream stream) throws Http2Exception {
+		throw malformed(stream);
+	}
+
+	private void respond(@NotNull Http2Stream stream, @NotNull HTTPRequest request, @NotNull String query, @Nullable Exception bodyException) throws IOException {
+		Object responseObject = dispatcher.dispatch(request, query, bodyException);
+		if(responseObject instanceof CompletionStage<?> stage) {
+			// streams have threads of their own, so this one waits; the stage is cancelled if the stream is reset
+			CompletableFuture<Object> result = new CompletableFuture<>();
+			AsyncResponse.await(stage, server.getAsyncTimeout(), stream::isReset, (value, error) -> {
+				if(error == null) result.complete(value);
+				else result.completeExceptionally(error);
+			}, () -> result.cancel(false));
+			try {
+				responseObject = result.get();
+			} catch(CancellationException e) {
+				return;
+			} catch(ExecutionException e) {
+				responseObject = AsyncResponse.recover(e.getCause(), request, server);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		HTTPResponse response = IOUtils.marshalObjectIntoResponse(responseObject, HTTPProtocol.HTTP2, request, server);
+		if(response.getTakeover() != null) {
+			// the takeover needs the whole connection
+			stream.reset(Http2Exception.HTTP_1_1_REQUIRED);
+			resetStream(stream.id, Http2Exception.HTTP_1_1_REQUIRED);
+			return;
+		}
+		boolean head = request.getRequestMethod() == RequestMethod.HEAD;
+		int status;
+		List<Header> headers;
+		long contentLength;
+		ByteBuffer body = null;
+		EncodedResponse encoded = response.getEncoded();
+		if(encoded != null) {
+			status = encoded.getResponseCode().toInteger();
+			headers = encoded.getHeaders();
+			body = encoded.body();
+			contentLength = body.remaining();
+		} else {
+			status = response.getResponseCode().toInteger();
+			headers = response.getHeaders();
+			contentLength = response.getContentLength();
+		}
+		// 1xx, 204 and 304 responses never have a body
+		boolean bodiless = status < 200 || status == 204 || status == 304;
+		List<Header> fields = new ArrayList<>(headers.size() + 2);
+		fields.add(new Header(":status", Integer.toString(status)));
+		boolean hasContentLength = false;
+		for(Header header : headers) {
+			String name = header.header().toLowerCase(Locale.ROOT);
+			if(CONNECTION_HEADERS.contains(name)) continue;
+			if(name.equals("server")) {
+				fields.add(new Header(name, PriveWebServer.SERVER_HEADER_VALUE));
+				continue;
+			}
+			if(name.equals("content-length")) hasContentLength = true;
+			fields.add(new Header(name, header.value()));
+		}
+		if(!hasContentLength && contentLength >= 0 && !bodiless) fields.add(new Header("content-length", Long.toString(contentLength)));
+		boolean empty = head || bodiless || contentLength == 0;
+		writeHeaders(stream, fields, empty);
+		if(empty) return;
+		OutputStream output = stream.output(peerMaxFrameSize);
+		if(body != null) {
+			byte[] chunk = new byte[Math.min(body.remaining(), MAX_FRAME_SIZE)];
+			while(body.hasRemaining()) {
+				int n = Math.min(chunk.length, body.remaining());
+				body.get(chunk, 0, n);
+				output.write(chunk, 0, n);
+			}
+		} else {
+			response.writeBody(output);
+		}
+		// the stream is only ended if the whole body was written, so that the client sees a cut short one as such
+		output.close();
+	}
+
+	private void fail(@NotNull Http2Stream stream, @NotNull Exception e) {
+		int code = e instanceof Http2Exception h2 ? h2.getErrorCode() : Http2Exception.INTERNAL_ERROR;
+		if(!(e instanceof IOException)) e.printStackTrace(System.err);
+		if(stream.isReset()) return;
+		stream.reset(code);
+		resetStream(stream.id, code);
+	}
+
+	private void finish(@NotNull Http2Stream stream, @Nullable HTTPRequest request) {
+		try {
+			// delete spooled request bodies
+			if(request != null) request.complete();
+		} catch(IOException e) {
+			e.printStackTrace(System.err);
+		} finally {
+			// the response is complete, so the rest of the request body is not needed
+			if(!stream.isReset() && !stream.isInputEnded()) {
+				stream.reset(Http2Exception.NO_ERROR);
+				resetStream(stream.id, Http2Exception.NO_ERROR);
+			}
+			streams.remove(stream.id);
+			synchronized(this) {
+				notifyAll();
+			}
+		}
+	}
+
+	private synchronized void awaitStreams() {
+		try {
+			while(!streams.isEmpty()) wait();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sends part of the body of a stream, waiting for the flow control windows to allow it.
+	 * @throws IOException if the stream was reset, or the connection was closed.
+	 */
+	void sendData(@NotNull Http2Stream stream, byte @NotNull [] data, int offset, int length, boolean endStream) throws IOException {
+		if(length == 0) {
+			if(endStream) writeFrame(DATA, FLAG_END_STREAM, stream.id, data, 0, 0);
+			return;
+		}
+		while(length > 0) {
+			int n = acquireWindow(stream, length);
+			writeFrame(DATA, n == length && endStream ? FLAG_END_STREAM : 0, stream.id, data, offset, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	private int acquireWindow(@NotNull Http2Stream stream, int wanted) throws IOException {
+		synchronized(flowLock) {
+			while(true) {
+				if(closed) throw new IOException("connection closed");
+				if(stream.isReset()) throw new IOException("stream " + stream.id + " was reset");
+				long available = Math.min(connectionSendWindow, stream.sendWindow);
+				if(available > 0) {
+					int n = (int) Math.min(Math.min(available, wanted), peerMaxFrameSize);
+					connectionSendWindow -= n;
+					stream.sendWindow -= n;
+					return n;
+				}
+				// no update can arrive once the client has stopped sending
+				if(inputClosed) throw new IOException("connection closed by client");
+				try {
+					flowLock.wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while waiting for the flow control window", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wakes the threads that are waiting to send data, so that they notice a reset or a closed connection.
+	 */
+	void wakeWriters() {
+		synchronized(flowLock) {
+			flowLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Opens the receiving window of a stream, or of the connection if the stream ID is {@code 0}.
+	 */
+	void sendWindowUpdate(int streamId, int increment) throws IOException {
+		byte[] payload = new byte[4];
+		writeInt(payload, 0, increment);
+		writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+	}
+
+	private void writeSettings() throws IOException {
+		int[][] settings = {
+				{SETTINGS_MAX_CONCURRENT_STREAMS, server.getHttp2MaxConcurrentStreams()},
+				{SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW},
+				{SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE}
+		};
+		byte[] payload = new byte[settings.length * 6];
+		for(int i = 0; i < settings.length; i++) {
+			payload[i * 6] = (byte) (settings[i][0] >> 8);
+			payload[i * 6 + 1] = (byte) settings[i][0];
+			writeInt(payload, i * 6 + 2, settings[i][1]);
+		}
+		writeFrame(SETTINGS, 0, 0, payload, 0, payload.length);
+		sendWindowUpdate(0, CONNECTION_WINDOW - DEFAULT_WINDOW);
+	}
+
+	private void writeHeaders(@NotNull Http2Stream stream, @NotNull List<Header> fields, boolean endStream) throws IOException {
+		ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+		synchronized(writeLock) {
+			if(stream.isReset()) throw new IOException("stream " + stream.id + " was reset");
+			// blocks are encoded in the order they are sent, as that is the order the client decodes them in
+			encoder.encode(fields, block);
+			byte[] bytes = block.toByteArray();
+			int maxFrameSize = peerMaxFrameSize;
+			int offset = 0;
+			do {
+				int n = Math.min(maxFrameSize, bytes.length - offset);
+				boolean first = offset == 0;
+				int flags = (offset + n == bytes.length ? FLAG_END_HEADERS : 0) | (first && endStream ? FLAG_END_STREAM : 0);
+				writeFrameHeader(n, first ? HEADERS : CONTINUATION, flags, stream.id);
+				out.write(bytes, offset, n);
+				offset += n;
+			} while(offset < bytes.length);
+			out.flush();
+		}
+	}
+
+	private void resetStream(int streamId, int code) {
+		byte[] payload = new byte[4];
+		writeInt(payload, 0, code);
+		try {
+			writeFrame(RST_STREAM, 0, streamId, payload, 0, 4);
+		} catch(IOException ignored) {
+			// the connection is gone, and the stream with it
+		}
+	}
+
+	private void goAway(int code, @NotNull String message) {
+		byte[] debug = message.getBytes(StandardCharsets.UTF_8);
+		byte[] payload = new byte[8 + Math.min(debug.length, 256)];
+		writeInt(payload, 0, lastStreamId);
+		writeInt(payload, 4, code);
+		System.arraycopy(debug, 0, payload, 8, payload.length - 8);
+		try {
+			writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+		} catch(IOException ignored) {
+			// the connection is closed anyway
+		}
+	}
+
+	private void writeFrame(int type, int flags, int streamId, byte @NotNull [] payload, int offset, int length) throws IOException {
+		synchronized(writeLock) {
+			writeFrameHeader(length, type, flags, streamId);
+			out.write(payload, offset, length);
+			out.flush();
+		}
+	}
+
+	private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+		byte[] header = new byte[9];
+		header[0] = (byte) (length >> 16);
+		header[1] = (byte) (length >> 8);
+		header[2] = (byte) length;
+		header[3] = (byte) type;
+		header[4] = (byte) flags;
+		writeInt(header, 5, streamId);
+		out.write(header);
+	}
+
+	private void close() {
+		closed = true;
+		for(Http2Stream stream : streams.values()) stream.reset(Http2Exception.CANCEL);
+		wakeWriters();
+		try {
+			try {
+				out.close();
+			} finally {
+				socket.close();
+			}
+		} catch(IOException ignored) {
+			// already closed
+		}
+	}
+
+	private void readFully(byte @NotNull [] buffer, int offset, int length) throws IOException {
+		if(in.readNBytes(buffer, offset, length) < length) throw new EOFException("connection closed in the middle of a frame");
+	}
+
+	private static int readInt(byte @NotNull [] buffer, int offset) {
+		return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16 | (buffer[offset + 2] & 0xFF) << 8 | buffer[offset + 3] & 0xFF;
+	}
+
+	private static void writeInt(byte @NotNull [] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >> 24);
+		buffer[offset + 1] = (byte) (value >> 16);
+		buffer[offset + 2] = (byte) (value >> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+}
@@ -0,0 +1,57 @@
+package dev.priveweb.core.protocol.http2;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * An HTTP/2 error (RFC 9113, section 5.4). A connection error ends the whole connection with {@code GOAWAY};
+ * a stream error only resets its stream.
+ */
+final class Http2Exception extends IOException {
+
+	static final int NO_ERROR = 0x0;
+	static final int PROTOCOL_ERROR = 0x1;
+	static final int INTERNAL_ERROR = 0x2;
+	static final int FLOW_CONTROL_ERROR = 0x3;
+	static final int STREAM_CLOSED = 0x5;
+	static final int FRAME_SIZE_ERROR = 0x6;
+	static final int REFUSED_STREAM = 0x7;
+	static final int CANCEL = 0x8;
+	static final int COMPRESSION_ERROR = 0x9;
+	static final int ENHANCE_YOUR_CALM = 0xb;
+	static final int HTTP_1_1_REQUIRED = 0xd;
+
+	private final int errorCode;
+	private final int streamId;
+
+	/**
+	 * Creates a new connection error.
+	 * @param errorCode The error code.
+	 * @param message The detail message.
+	 */
+	Http2Exception(int errorCode, @NotNull String message) {
+		this(errorCode, 0, message);
+	}
+
+	/**
+	 * Creates a new stream error, or a connection error if the stream ID is {@code 0}.
+	 * @param errorCode The error code.
+	 * @param streamId The ID of the stream.
+	 * @param message The detail message.
+	 */
+	Http2Exception(int errorCode, int streamId, @NotNull String message) {
+		super(message);
+		this.errorCode = errorCode;
+		this.streamId = streamId;
+	}
+
+	int getErrorCode() {
+		return errorCode;
+	}
+
+	int getStreamId() {
+		return streamId;
+	}
+
+}
@@ -0,0 +1,210 @@
+package dev.priveweb.core.protocol.http2;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A stream of an {@link Http2Connection}, carrying one request and its response. The request body is queued
+ * as DATA frames arrive, and the window is opened again as the handler reads it, so a handler that reads slowly
+ * only holds back its own stream. The response body is sent in DATA frames as the peer's windows allow.
+ */
+final class Http2Stream {
+
+	final int id;
+	private final Http2Connection connection;
+	private final int windowUpdateThreshold;
+	// guarded by this
+	private final ArrayDeque<byte[]> received = new ArrayDeque<>();
+	private int receiveWindow;
+	private int consumed = 0; // read since the last WINDOW_UPDATE
+	private boolean inputEnded = false;
+	private int resetCode = -1;
+	// guarded by the connection's flow control lock
+	long sendWindow;
+
+	/**
+	 * Creates a new {@link Http2Stream}.
+	 * @param id The ID of the stream.
+	 * @param connection The connection of the stream.
+	 * @param receiveWindow The initial window for the request body.
+	 * @param sendWindow The initial window for the response body, as set by the peer.
+	 */
+	Http2Stream(int id, @NotNull Http2Connection connection, int receiveWindow, long sendWindow) {
+		this.id = id;
+		this.connection = connection;
+		this.receiveWindow = receiveWindow;
+		this.windowUpdateThreshold = receiveWindow / 2;
+		this.sendWindow = sendWindow;
+	}
+
+	/**
+	 * Queues the data of a DATA frame.
+	 * @param flowControlled The length of the whole frame payload, including the padding.
+	 * @throws Http2Exception if the stream is half-closed, or the peer sent more than the window allows.
+	 */
+	synchronized void receive(byte @NotNull [] data, int offset, int length, int flowControlled, boolean endStream) throws Http2Exception {
+		if(inputEnded) throw new Http2Exception(Http2Exception.STREAM_CLOSED, id, "DATA frame on half-closed stream");
+		if(flowControlled > receiveWindow) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, id, "stream window exceeded");
+		receiveWindow -= flowControlled;
+		// the padding is never read, so it is given back with the next update
+		consumed += flowControlled - length;
+		if(length > 0) received.add(Arrays.copyOfRange(data, offset, offset + length));
+		if(endStream) inputEnded = true;
+		notifyAll();
+	}
+
+	/**
+	 * Marks the end of the request.
+	 */
+	synchronized void endInput() {
+		inputEnded = true;
+		notifyAll();
+	}
+
+	synchronized boolean isInputEnded() {
+		return inputEnded;
+	}
+
+	/**
+	 * Whether the request has ended without a body.
+	 */
+	synchronized boolean isEmpty() {
+		return inputEnded && received.isEmpty();
+	}
+
+	/**
+	 * Marks the stream as reset, failing any further reads and writes.
+	 * @param code The error code.
+	 */
+	void reset(int code) {
+		synchronized(this) {
+			if(resetCode == -1) resetCode = code;
+			notifyAll();
+		}
+		connection.wakeWriters();
+	}
+
+	synchronized boolean isReset() {
+		return resetCode != -1;
+	}
+
+	/**
+	 * Gets the request body.
+	 * @return a stream of the request body, which blocks until data arrives.
+	 */
+	@NotNull InputStream body() {
+		return new InputStream() {
+			private byte[] current;
+			private int position;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte @NotNull [] b, int off, int len) throws IOException {
+				if(len == 0) return 0;
+				int n, update = 0;
+				synchronized(Http2Stream.this) {
+					while(current == null || position == current.length) {
+						current = received.poll();
+						position = 0;
+						if(current != null) continue;
+						if(resetCode != -1) throw new IOException("stream " + id + " was reset");
+						if(inputEnded) return -1;
+						try {
+							Http2Stream.this.wait();
+						} catch(InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException();
+						}
+					}
+					n = Math.min(len, current.length - position);
+					System.arraycopy(current, position, b, off, n);
+					position += n;
+					consumed += n;
+					// the window is opened in large steps, so that the peer is not sent an update for every read
+					if(consumed >= windowUpdateThreshold && !inputEnded) {
+						update = consumed;
+						receiveWindow += consumed;
+						consumed = 0;
+					}
+				}
+				if(update > 0) connection.sendWindowUpdate(id, update);
+				return n;
+			}
+
+			@Override
+			public int available() {
+				synchronized(Http2Stream.this) {
+					return current == null ? 0 : current.length - position;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Gets a stream for the response body. Data is sent in frames of up to the peer's maximum frame size,
+	 * and closing the stream ends it.
+	 * @param frameSize The size of the buffer.
+	 * @return a stream of the response body.
+	 */
+	@NotNull OutputStream output(int frameSize) {
+		return new OutputStream() {
+			private final byte[] buffer = new byte[frameSize];
+			private int count = 0;
+			private boolean closed = false;
+
+			@Override
+			public void write(int b) throws IOException {
+				if(count == buffer.length) flushBuffer();
+				buffer[count++] = (byte) b;
+			}
+
+			@Override
+			public void write(byte @NotNull [] b, int off, int len) throws IOException {
+				if(closed) throw new IOException("stream closed");
+				if(count == 0 && len >= buffer.length) {
+					// large writes skip the buffer
+					connection.sendData(Http2Stream.this, b, off, len, false);
+					return;
+				}
+				while(len > 0) {
+					if(count == buffer.length) flushBuffer();
+					int n = Math.min(len, buffer.length - count);
+					System.arraycopy(b, off, buffer, count, n);
+					count += n;
+					off += n;
+					len -= n;
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if(count > 0) flushBuffer();
+			}
+
+			@Override
+			public void close() throws IOException {
+				if(closed) return;
+				closed = true;
+				connection.sendData(Http2Stream.this, buffer, 0, count, true);
+				count = 0;
+			}
+
+			private void flushBuffer() throws IOException {
+				connection.sendData(Http2Stream.this, buffer, 0, count, false);
+				count = 0;
+			}
+		};
+	}
+
+}
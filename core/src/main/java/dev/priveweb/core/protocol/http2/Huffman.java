@@ -0,0 +1,122 @@
+package dev.priveweb.core.protocol.http2;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * The Huffman code of HPACK (RFC 7541, Appendix B). The code is canonical, so only the length of the code of
+ * each symbol is listed; the codes themselves follow from numbering the symbols in order of length, then value.
+ */
+final class Huffman {
+
+	private static final int EOS = 256;
+	private static final int MAX_LENGTH = 30;
+	private static final byte[] LENGTHS = {
+			13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+			28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+			6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+			5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+			13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+			15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+			6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+			20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+			24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+			22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+			21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+			26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+			19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+			20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+			26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+			30
+	};
+	private static final int[] CODES = new int[LENGTHS.length];
+	// for each length, the first code of that length, the number of codes, and the index of the first symbol in SYMBOLS
+	private static final int[] FIRST_CODE = new int[MAX_LENGTH + 1];
+	private static final int[] COUNT = new int[MAX_LENGTH + 1];
+	private static final int[] FIRST_INDEX = new int[MAX_LENGTH + 1];
+	private static final int[] SYMBOLS = new int[LENGTHS.length];
+
+	static {
+		int code = 0, index = 0;
+		for(int length = 1; length <= MAX_LENGTH; length++) {
+			FIRST_CODE[length] = code;
+			FIRST_INDEX[length] = index;
+			for(int symbol = 0; symbol < LENGTHS.length; symbol++) {
+				if(LENGTHS[symbol] != length) continue;
+				CODES[symbol] = code++;
+				SYMBOLS[index++] = symbol;
+				COUNT[length]++;
+			}
+			code <<= 1;
+		}
+	}
+
+	private Huffman() {}
+
+	/**
+	 * Gets the length of a string once encoded.
+	 * @param string The string, one byte per character.
+	 * @return the length, in bytes.
+	 */
+	static int encodedLength(byte @NotNull [] string) {
+		long bits = 0;
+		for(byte b : string) bits += LENGTHS[b & 0xFF];
+		return (int) ((bits + 7) >> 3);
+	}
+
+	/**
+	 * Encodes a string, padding the last byte with the most significant bits of the end-of-string code.
+	 * @param string The string, one byte per character.
+	 * @param out The stream to write to.
+	 */
+	static void encode(byte @NotNull [] string, @NotNull ByteArrayOutputStream out) {
+		long buffer = 0;
+		int bits = 0;
+		for(byte b : string) {
+			int symbol = b & 0xFF;
+			buffer = buffer << LENGTHS[symbol] | CODES[symbol];
+			bits += LENGTHS[symbol];
+			while(bits >= 8) {
+				bits -= 8;
+				out.write((int) (buffer >> bits));
+			}
+			buffer &= (1L << bits) - 1;
+		}
+		if(bits > 0) out.write((int) (buffer << (8 - bits)) | 0xFF >> bits);
+	}
+
+	/**
+	 * Decodes a string.
+	 * @param data The buffer holding the encoded string.
+	 * @param offset The offset of the string.
+	 * @param length The length of the string.
+	 * @return the decoded string, one byte per character.
+	 * @throws Http2Exception if the string is not validly encoded.
+	 */
+	static byte @NotNull [] decode(byte @NotNull [] data, int offset, int length) throws Http2Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length * 8 / 5 + 1);
+		int code = 0, bits = 0;
+		for(int i = offset; i < offset + length; i++) {
+			for(int shift = 7; shift >= 0; shift--) {
+				code = code << 1 | (data[i] >> shift) & 1;
+				bits++;
+				int index = code - FIRST_CODE[bits];
+				if(index >= 0 && index < COUNT[bits]) {
+					int symbol = SYMBOLS[FIRST_INDEX[bits] + index];
+					if(symbol == EOS) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "EOS in Huffman-encoded string");
+					out.write(symbol);
+					code = 0;
+					bits = 0;
+				} else if(bits == MAX_LENGTH) {
+					throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "invalid Huffman code");
+				}
+			}
+		}
+		// the padding is shorter than a byte, and is a prefix of EOS (i.e. all ones)
+		if(bits > 7 || code != (1 << bits) - 1) throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "invalid Huffman padding");
+		return out.toByteArray();
+	}
+
+}
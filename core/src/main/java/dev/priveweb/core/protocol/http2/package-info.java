@@ -0,0 +1,4 @@
+/**
+ * HTTP/2: framing, HPACK header compression, flow control and stream multiplexing.
+ */
+package dev.priveweb.core.protocol.http2;
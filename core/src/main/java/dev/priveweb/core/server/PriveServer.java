@@ -3,6 +3,7 @@ package dev.priveweb.core.server;
 import dev.priveweb.core.exception.DefaultFaultRecovery;
 import dev.priveweb.core.exception.FaultRecoveryStrategy;
 import dev.priveweb.core.mapper.MappingConfiguration;
+import dev.priveweb.core.marshal.MarshallerRegistry;
 import org.jetbrains.annotations.*;
 
 import java.io.IOException;
@@ -54,4 +55,11 @@ public interface PriveServer {
 	 */
 	void setFaultRecoveryStrategy(@Nullable FaultRecoveryStrategy faultRecoveryStrategy);
 
+	/**
+	 * Gets the {@link MarshallerRegistry} containing the media types that
+	 * responses and request bodies can be marshalled into.
+	 * @return the {@link MarshallerRegistry} used.
+	 */
+	@NotNull MarshallerRegistry getMarshallers();
+
 }
@@ -0,0 +1,354 @@
+package dev.priveweb.core.server.impl;
+
+import dev.priveweb.core.http.Header;
+import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.response.EncodedResponse;
+import dev.priveweb.core.http.response.HTTPResponse;
+import lombok.Builder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how much work a {@link PriveWebServer} takes on, so that the requests it accepts are answered in bounded time
+ * instead of all requests timing out together under overload. Turned away connections are answered with a
+ * {@code 503 Service Unavailable} with {@code Retry-After}, encoded once up front, so that turning them away costs little.
+ * <ul>
+ *     <li>Connections beyond {@link #getMaxConnections()} are turned away as soon as they are accepted.</li>
+ *     <li>Requests beyond {@link #getMaxQueuedRequests()} waiting for a worker are turned away instead of queued.</li>
+ *     <li>
+ *         With a {@link #getTargetDelay()}, requests are shed by how long they waited for a worker, in the manner of CoDel:
+ *         while the queue drains now and then (some request waited less than the target within the last {@link #getInterval()}),
+ *         requests may wait up to the interval; once it has not, the queue is standing, and requests that waited longer than the target are shed.
+ *         This bounds the delay of the requests that are served, at the expense of some that would have been served late.
+ *     </li>
+ * </ul>
+ * All limits are off by default.
+ * <pre>{@code
+ * server.setAdmissionControl(AdmissionControl.builder()
+ *         .maxConnections(10_000)
+ *         .maxQueuedRequests(1024)
+ *         .targetDelay(Duration.ofMillis(5))
+ *         .build());
+ * }</pre>
+ * <p>Connections on TLS listeners are closed instead of answered, as the answer would have to be encrypted.
+ * HTTP/2 streams wait for the same workers, and are refused with {@code REFUSED_STREAM} instead.
+ * Requests served by a {@link LocalConnector} are not limited.</p>
+ */
+public final class AdmissionControl {
+
+	private static final int DRAIN_MILLIS = 100;
+	private static final int MAX_DRAIN_BYTES = 65536;
+	private static final int SHEDDERS = 4;
+
+	private final int maxConnections;
+	private final int maxQueuedRequests;
+	private final @Nullable Duration targetDelay;
+	private final @NotNull Duration interval;
+	private final @NotNull Duration retryAfter;
+
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final LongAdder rejectedConnections = new LongAdder();
+	private final LongAdder rejectedRequests = new LongAdder();
+	private final LongAdder shedRequests = new LongAdder();
+	// whether, and since when, requests have waited longer than the target
+	private volatile boolean aboveTarget = false;
+	private volatile long aboveTargetSince;
+	private volatile @Nullable EncodedResponse rejection;
+	// turned away connections are answered off the acceptor and worker threads, once there are any
+	private volatile @Nullable ExecutorService shedder;
+
+	/**
+	 * Creates a new {@link AdmissionControl}.
+	 * @param maxConnections The maximum number of open connections, or 0 for no limit.
+	 * @param maxQueuedRequests The maximum number of requests waiting for a worker, or 0 for no limit.
+	 * @param targetDelay How long requests may wait for a worker while the queue is standing, or {@code null} to not shed requests by their delay.
+	 * @param interval How long the delay has to stay above the target before requests are shed by it, or {@code null} for 100 milliseconds.
+	 * @param retryAfter When clients are told to retry, or {@code null} for 1 second.
+	 * @throws IllegalArgumentException if a limit is negative, or a duration is not positive.
+	 */
+	@Builder
+	public AdmissionControl(int maxConnections, int maxQueuedRequests, @Nullable Duration targetDelay,
+	                        @Nullable Duration interval, @Nullable Duration retryAfter) {
+		if(maxConnections < 0 || maxQueuedRequests < 0) throw new IllegalArgumentException("limits cannot be negative");
+		if(targetDelay != null && (targetDelay.isNegative() || targetDelay.isZero())) throw new IllegalArgumentException("the target delay must be positive");
+		if(interval != null && (interval.isNegative() || interval.isZero())) throw new IllegalArgumentException("the interval must be positive");
+		if(retryAfter != null && (retryAfter.isNegative() || retryAfter.isZero())) throw new IllegalArgumentException("the retry delay must be positive");
+		this.maxConnections = maxConnections;
+		this.maxQueuedRequests = maxQueuedRequests;
+		this.targetDelay = targetDelay;
+		this.interval = interval == null ? Duration.ofMillis(100) : interval;
+		this.retryAfter = retryAfter == null ? Duration.ofSeconds(1) : retryAfter;
+	}
+
+	/**
+	 * Admits a connection that was just accepted, and hands it to the workers.
+	 * @param socket The connection.
+	 * @param handler Handles the connection.
+	 * @param workers The workers.
+	 * @param tls Whether the connection is on a TLS listener.
+	 */
+	void admit(@NotNull Socket socket, @NotNull Runnable handler, @NotNull ExecutorService workers, boolean tls) {
+		if(maxConnections > 0) {
+			// connections are released just after they are closed, so the client may already have moved on
+			if(connections.size() >= maxConnections) connections.removeIf(Socket::isClosed);
+			if(connections.size() >= maxConnections) {
+				rejectedConnections.increment();
+				reject(socket, tls);
+				return;
+			}
+			connections.add(socket);
+		}
+		admit(handler, workers, () -> {
+			release(socket);
+			reject(socket, tls);
+		});
+	}
+
+	/**
+	 * Admits a request on a connection that is already open, such as an HTTP/2 stream, and hands it to the workers.
+	 * It is turned away like the first request of a connection: if too many requests are waiting already,
+	 * or once it has waited too long for a worker.
+	 * @param handler Handles the request.
+	 * @param workers The workers.
+	 * @param refuse Turns the request away. This runs on the calling thread, or on a worker.
+	 */
+	public void admit(@NotNull Runnable handler, @NotNull Executor workers, @NotNull Runnable refuse) {
+		if(maxQueuedRequests > 0 && queued.get() >= maxQueuedRequests) {
+			rejectedRequests.increment();
+			refuse.run();
+			return;
+		}
+		queued.incrementAndGet();
+		long enqueued = System.nanoTime();
+		try {
+			workers.execute(() -> {
+				queued.decrementAndGet();
+				if(shouldShed(System.nanoTime() - enqueued)) {
+					shedRequests.increment();
+					refuse.run();
+					return;
+				}
+				handler.run();
+			});
+		} catch(RejectedExecutionException e) {
+			queued.decrementAndGet();
+			rejectedRequests.increment();
+			refuse.run();
+		}
+	}
+
+	/**
+	 * Stops counting a connection, once it has been closed.
+	 */
+	void release(@NotNull Socket socket) {
+		connections.remove(socket);
+	}
+
+	/**
+	 * Decides whether a request that waited for the given time is shed.
+	 */
+	private boolean shouldShed(long delay) {
+		if(targetDelay == null) return false;
+		if(delay < targetDelay.toNanos()) {
+			aboveTarget = false;
+			return false;
+		}
+		long now = System.nanoTime();
+		if(!aboveTarget) {
+			aboveTargetSince = now;
+			aboveTarget = true;
+		}
+		// a standing queue only lets requests wait for the target, a draining one for the interval
+		boolean standing = now - aboveTargetSince > interval.toNanos();
+		return delay > (standing ? targetDelay : interval).toNanos();
+	}
+
+	private void reject(@NotNull Socket socket, boolean tls) {
+		if(tls) {
+			close(socket);
+			return;
+		}
+		try {
+			shedder().execute(() -> answer(socket));
+		} catch(RejectedExecutionException e) {
+			// too many at once to answer them all
+			close(socket);
+		}
+	}
+
+	/**
+	 * Answers with the {@linkplain #getRejection() rejection}, and reads what the client sent for a moment, so that
+	 * closing the connection does not reset it before the client has read the answer.
+	 */
+	private void answer(@NotNull Socket socket) {
+		try {
+			OutputStream out = socket.getOutputStream();
+			getRejection().writeTo(out, false);
+			out.flush();
+			socket.shutdownOutput();
+			socket.setSoTimeout(DRAIN_MILLIS);
+			InputStream in = socket.getInputStream();
+			byte[] buffer = new byte[8192];
+			long deadline = System.nanoTime() + DRAIN_MILLIS * 1_000_000L;
+			int drained = 0, n;
+			while(drained < MAX_DRAIN_BYTES && System.nanoTime() < deadline && (n = in.read(buffer)) != -1) drained += n;
+		} catch(IOException ignored) {
+			// the client is gone, or took too long to read the answer
+		} finally {
+			close(socket);
+		}
+	}
+
+	private static void close(@NotNull Socket socket) {
+		try {
+			socket.close();
+		} catch(IOException ignored) {
+			// nothing left to do
+		}
+	}
+
+	/**
+	 * Gets the response to turned away connections: {@code 503 Service Unavailable} with {@code Retry-After}.
+	 * @return the encoded response.
+	 */
+	public @NotNull EncodedResponse getRejection() {
+		EncodedResponse rejection = this.rejection;
+		if(rejection == null) {
+			try {
+				rejection = EncodedResponse.encode(HTTPResponse.builder()
+						.protocol("HTTP/1.1")
+						.responseCode(ResponseCode.SV_503)
+						.header(new Header("Retry-After", Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000))))
+						.header(new Header("Content-Type", "text/plain; charset=utf-8"))
+						.responseBody(ResponseCode.SV_503.toString().getBytes(StandardCharsets.UTF_8))
+						.build());
+			} catch(IOException e) {
+				throw new UncheckedIOException(e); // the body is in memory
+			}
+			this.rejection = rejection;
+		}
+		return rejection;
+	}
+
+	/**
+	 * Gets the maximum number of open connections.
+	 * @return the number of connections, or 0 for no limit.
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Gets the maximum number of requests waiting for a worker.
+	 * @return the number of requests, or 0 for no limit.
+	 */
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/**
+	 * Gets how long requests may wait for a worker while the queue is standing.
+	 * @return the delay, or {@code null} if requests are not shed by their delay.
+	 */
+	public @Nullable Duration getTargetDelay() {
+		return targetDelay;
+	}
+
+	/**
+	 * Gets how long the delay has to stay above the {@linkplain #getTargetDelay() target} before requests are shed by it,
+	 * which is also how long requests may wait while it does not.
+	 * @return the interval.
+	 */
+	public @NotNull Duration getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Gets when clients are told to retry, which is sent as {@code Retry-After}.
+	 * @return the delay.
+	 */
+	public @NotNull Duration getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Gets the number of open connections that are counted against the {@linkplain #getMaxConnections() limit}.
+	 * @return the number of connections, or 0 if there is no limit.
+	 */
+	public int getConnections() {
+		return connections.size();
+	}
+
+	/**
+	 * Gets the number of requests waiting for a worker.
+	 * @return the number of requests.
+	 */
+	public int getQueuedRequests() {
+		return queued.get();
+	}
+
+	/**
+	 * Gets the number of connections turned away because there were {@linkplain #getMaxConnections() as many} already.
+	 * @return the number of connections.
+	 */
+	public long getRejectedConnections() {
+		return rejectedConnections.sum();
+	}
+
+	/**
+	 * Gets the number of requests turned away because {@linkplain #getMaxQueuedRequests() as many} were waiting already.
+	 * @return the number of requests.
+	 */
+	public long getRejectedRequests() {
+		return rejectedRequests.sum();
+	}
+
+	/**
+	 * Gets the number of requests shed because they waited too long for a worker.
+	 * @return the number of requests.
+	 */
+	public long getShedRequests() {
+		return shedRequests.sum();
+	}
+
+	private @NotNull ExecutorService shedder() {
+		ExecutorService shedder = this.shedder;
+		if(shedder == null) {
+			synchronized(this) {
+				shedder = this.shedder;
+				if(shedder == null) this.shedder = shedder = newShedder();
+			}
+		}
+		return shedder;
+	}
+
+	private static @NotNull ExecutorService newShedder() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(SHEDDERS, SHEDDERS, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1024), runnable -> {
+			Thread thread = new Thread(runnable, "prive-shedder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+}
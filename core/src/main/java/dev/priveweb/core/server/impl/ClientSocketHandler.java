@@ -1,35 +1,42 @@
 package dev.priveweb.core.server.impl;
 
+import dev.priveweb.core.exception.ExpectationFailedException;
 import dev.priveweb.core.exception.FaultRecoveryStrategy;
 import dev.priveweb.core.exception.HandlerNotFoundException;
 import dev.priveweb.core.exception.MalformedRequestException;
+import dev.priveweb.core.exception.PayloadTooLargeException;
 import dev.priveweb.core.exception.TransferEncodingNotImplementedException;
 import dev.priveweb.core.exposure.PriveWebServerExpose;
 import dev.priveweb.core.protocol.HTTPProtocol;
+import dev.priveweb.core.protocol.http2.Http2Connection;
+import dev.priveweb.core.server.tls.TlsConfiguration;
+import dev.priveweb.core.server.tls.TlsConnection;
 import dev.priveweb.core.util.HeaderUtils;
 import lombok.SneakyThrows;
 import dev.priveweb.core.http.Header;
 import dev.priveweb.core.http.request.HTTPRequest;
 import dev.priveweb.core.http.request.QueryParameters;
 import dev.priveweb.core.http.request.RequestMethod;
+import dev.priveweb.core.http.response.AsyncResponse;
+import dev.priveweb.core.http.response.ChannelOutputStream;
 import dev.priveweb.core.http.response.HTTPResponse;
 import dev.priveweb.core.mapper.MappingResolver;
-import dev.priveweb.core.util.Checks;
+import dev.priveweb.core.util.BoundedInputStream;
 import dev.priveweb.core.util.IOUtils;
+import dev.priveweb.core.util.LimitedInputStream;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import slf4jansi.AnsiLogger;
-import sun.misc.Unsafe;
 
 import java.io.*;
-import java.lang.reflect.Field;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Handler for client sockets.
@@ -41,17 +48,8 @@ class ClientSocketHandler implements Runnable {
 	private final PriveWebServer server;
 	private final FaultRecoveryStrategy faultRecoveryStrategy;
 	private static final Logger logger = AnsiLogger.of(LoggerFactory.getLogger(PriveWebServer.class));
-	private static final Unsafe unsafe;
-
-	static {
-		try {
-			Field f = Unsafe.class.getDeclaredField("theUnsafe");
-			f.setAccessible(true);
-			unsafe = (Unsafe) f.get(null);
-		} catch(NoSuchFieldException | IllegalAccessException e) {
-			throw new InternalError(e);
-		}
-	}
+	private static final int DRAIN_MILLIS = 2000;
+	private static final long MAX_DRAIN_BYTES = 1 << 20;
 
 	ClientSocketHandler(Socket socket, boolean verbose, PriveWebServer server, FaultRecoveryStrategy faultRecoveryStrategy) {
 		this.sock = socket;
@@ -63,38 +61,57 @@ class ClientSocketHandler implements Runnable {
 	@Override
 	@SneakyThrows(IOException.class)
 	public void run() {
-		try(
-				Socket socket = sock;
-				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1)); // use a superset of US-ASCII to comply with the HTTP spec
-				PrintStream out = new PrintStream(socket.getOutputStream())
-		) {
+		Socket socket = sock;
+		InputStream in;
+		OutputStream out;
+		// the local connector and Unix domain sockets never leave the host, so they always speak cleartext
+		TlsConfiguration tls = socket instanceof LocalConnector.LocalSocket || socket instanceof UnixDomainSocket ? null : server.getTls();
+		if(tls != null) {
+			TlsConnection connection;
+			try {
+				connection = TlsConnection.accept(socket, tls, server.isHttp2Enabled());
+			} catch(IOException e) {
+				if(verbose) logger.warn("{!warn}TLS handshake with {} failed: {}", socket.getRemoteSocketAddress(), e.getMessage());
+				socket.close();
+				return;
+			}
+			in = new BufferedInputStream(connection.getInputStream());
+			// writing to the channel would skip the encryption
+			out = new ChannelOutputStream(connection.getOutputStream(), null);
+		} else {
+			in = new BufferedInputStream(socket.getInputStream()); // read bytewise, the body stays in the stream
+			// the channel, if any, lets static files be sent without copying them through the heap
+			out = new ChannelOutputStream(socket.getOutputStream(), socket.getChannel());
+		}
+		// a response that takes over the connection closes it itself
+		boolean detached = false;
+		try {
 			String requested;
 
-			String input = in.readLine();
-			List<String> headers = new LinkedList<>();
+			String input = IOUtils.readLine(in);
+			if(input == null || input.isBlank()) return; // the client closed the connection without sending a request
+			if(input.equals(Http2Connection.PREFACE_LINE) && server.isHttp2Enabled()) {
+				// HTTP/2 with prior knowledge; the connection serves itself from now on
+				detached = true;
+				new Http2Connection(detach(socket), in, out, server, this::resolve).start();
+				return;
+			}
+			List<Header> hList = new ArrayList<>();
 			String line;
-			boolean headersParsed = false; // whether the headers are already parsed.
-			while(in.ready() && (line = in.readLine()) != null) {
-				if(!headersParsed) {
-					if(line.isBlank()) {
-						headersParsed = true;
-						// ready to move on to next line
-					} else {
-						line = line.stripLeading(); // if \r exists then remove it
-						if(line.split(":")[0].isBlank()) continue;
-						headers.add(
-								line.replace("\0", "\s")
-										.replace("\r", "\s")
-										.replace("\n", "\s")
-						);
-					}
-				}
+			while((line = IOUtils.readLine(in)) != null && !line.isBlank()) {
+				line = line.stripLeading()
+						.replace("\0", "\s")
+						.replace("\r", "\s");
+				int colon = line.indexOf(':');
+				if(colon <= 0 || line.substring(0, colon).isBlank()) continue;
+				hList.add(new Header(line.substring(0, colon), line.substring(colon + 1).strip()));
 			}
 			StringTokenizer parse = new StringTokenizer(input);
 			String method = parse.nextToken().toUpperCase(); // get HTTP method
 			if(verbose) //noinspection PlaceholderCountMatchesArgumentCount
 				logger.info("Handling {} request from {highlight}", method, socket.getRemoteSocketAddress());
-			requested = parse.nextToken().toLowerCase();
+			String target = parse.nextToken();
+			requested = target.toLowerCase();
 			String queryParams = "";
 			int endIndex = requested.lastIndexOf("?");
 			if(endIndex != -1) {
@@ -103,193 +120,359 @@ class ClientSocketHandler implements Runnable {
 				requested = temp;
 			}
 
-			var hList = headers.parallelStream().map(s -> {
-				var s1 = s.split(":");
-				var sb = new StringBuilder();
-				for(int i = 1; i < s1.length; i++) {
-					String s2 = s1[i];
-					if(s2.endsWith("\r\n")) {
-						s2 = s2.substring(0, s2.lastIndexOf("\r\n") - 1);
-					} else if(s2.endsWith("\n")) {
-						s2 = s2.substring(0, s2.lastIndexOf("\n") - 1);
-					}
-					sb.append(s2);
-				}
-				return new Header(s1[0], sb.toString().stripLeading());
-			}).toList();
+			@Nullable InputStream requestBody;
+			@Nullable Exception bodyException = null;
 
-			Object responseObject = null;
-			@Nullable String requestBody;
-
-			HTTPRequest.HTTPRequestBuilder builder = HTTPRequest.builder();
-			HTTPRequest httpRequest = builder.protocol("HTTP/1.1")
-					.headers(hList)
-					.requestedResource(requested)
-					.requestMethod(RequestMethod.valueOf(method))
-					.build();
-
-			if(verbose) {
-				if(httpRequest.getRequestMethod() == RequestMethod.HEAD) {
-					logger.info("Found HEAD request, substituting it for GET request");
+			// a client that expects 100 Continue waits for it before sending the body
+			boolean expectContinue = false;
+			if(HeaderUtils.containsHeader(hList, "Expect")) {
+				String expectation = HeaderUtils.getHeader(hList, "Expect").get(0).strip();
+				if(expectation.equalsIgnoreCase("100-continue")) {
+					expectContinue = true;
+				} else {
+					bodyException = new ExpectationFailedException(expectation);
 				}
 			}
+			InputStream body = expectContinue ? new ContinueInputStream(in, out) : in;
 
-			if(
+			if(expectContinue && !hasRoute(RequestMethod.valueOf(method), requested)) {
+				// no handler would read the body, so the client is not asked for it; this is checked before
+				// any decoders are set up, as those may read the first bytes right away
+				requestBody = null;
+			} else if(
 					// THIS MAY BE A REQUEST SMUGGLING ATTACK!!!
 					HeaderUtils.containsHeader(hList, "Transfer-Encoding")
 					&& HeaderUtils.containsHeader(hList, "Content-Length")
 			) {
-				if(verbose) logger.warn("{!warn}Rejected request from {}; There is a potential request smuggling attack", socket.getInetAddress().getHostAddress());
+				if(verbose) logger.warn("{!warn}Rejected request from {}; There is a potential request smuggling attack", socket.getRemoteSocketAddress());
 				requestBody = null;
-				responseObject = faultRecoveryStrategy.handleException(new MalformedRequestException("request smuggling attack possible; request rejected"), httpRequest, server);
+				bodyException = new MalformedRequestException("request smuggling attack possible; request rejected");
 			}
 
 			// priority -> T.E. -> C.L.
 			else if(HeaderUtils.containsHeader(hList, "Transfer-Encoding")) {
-				var l = new ArrayList<>(HeaderUtils.getHeader(hList, "Transfer-Encoding"));
+				// codings are listed in the order they were applied, so decode them in reverse
+				var l = new ArrayList<String>();
+				for(String value : HeaderUtils.getHeader(hList, "Transfer-Encoding")) {
+					for(String coding : value.split(",")) {
+						if(!coding.isBlank()) l.add(coding.strip());
+					}
+				}
 				Collections.reverse(l);
-				requestBody = null;
-				for(String s : HeaderUtils.getHeader(hList, "Transfer-Encoding")) {
+				requestBody = body;
+				for(String s : l) {
 					var tc = server.getTransferCoders().resolve(s);
 					if(tc == null) {
 						// 501 Not Implemented
-						responseObject = faultRecoveryStrategy.handleException(new TransferEncodingNotImplementedException(s), httpRequest, server);
+						bodyException = new TransferEncodingNotImplementedException(s);
 						requestBody = null;
 						break;
 					} else {
-						ByteBuffer buffer = ByteBuffer.allocate(socket.getInputStream().available());
-						buffer.put(socket.getInputStream().readNBytes(socket.getInputStream().available()));
-						requestBody = new String(buffer.array(), StandardCharsets.ISO_8859_1);
+						try {
+							requestBody = tc.decode(requestBody, StandardCharsets.ISO_8859_1);
+						} catch(MalformedRequestException e) {
+							bodyException = e;
+							requestBody = null;
+							break;
+						}
 					}
 				}
+				// the decoded length is unknown, so the limit is enforced while the body is read
+				if(requestBody != null && server.getMaxRequestBodySize() >= 0) requestBody = new LimitedInputStream(requestBody, server.getMaxRequestBodySize());
 			} else if(HeaderUtils.containsHeader(hList, "Content-Length")) {
-				int contentLength = Integer.parseInt(HeaderUtils.getHeader(hList, "Content-Length").get(0));
-				if(contentLength > 0) {
-					byte[] bytes = new byte[contentLength];
-					for(int i = 0; i < contentLength; i++) {
-						bytes[i] = (byte) socket.getInputStream().read();
-					}
-					requestBody = new String(bytes);
-				} else {
-					requestBody = null;
+				long contentLength;
+				try {
+					contentLength = Long.parseLong(HeaderUtils.getHeader(hList, "Content-Length").get(0).strip());
+					if(contentLength < 0) throw new NumberFormatException("negative Content-Length");
+				} catch(NumberFormatException e) {
+					contentLength = 0;
+					bodyException = new MalformedRequestException("invalid Content-Length", e);
+				}
+				if(server.getMaxRequestBodySize() >= 0 && contentLength > server.getMaxRequestBodySize()) {
+					// the body is never read, only drained after the response
+					bodyException = new PayloadTooLargeException("request body", server.getMaxRequestBodySize());
 				}
+				// the body is not read here; it is streamed to whatever consumes it
+				requestBody = contentLength > 0 ? new BoundedInputStream(body, contentLength) : null;
 			} else {
 				requestBody = null;
 			}
 
-			if(requestBody != null) {
-				try {
-					unsafe.putObject(
-							httpRequest,
-							unsafe.objectFieldOffset(HTTPRequest.class.getDeclaredField("requestBody")),
-							requestBody
-					);
-				} catch(NoSuchFieldException e) {
-					unsafe.throwException(e); // we should never get here
+			HTTPRequest.HTTPRequestBuilder builder = HTTPRequest.builder();
+			HTTPRequest httpRequest = builder.protocol("HTTP/1.1")
+					.headers(hList)
+					.requestedResource(requested)
+					.queryString(queryParams)
+					.requestTarget(target)
+					.requestMethod(RequestMethod.valueOf(method))
+					.requestBodyStream(requestBody)
+					.build();
+
+			if(verbose) {
+				if(httpRequest.getRequestMethod() == RequestMethod.HEAD) {
+					logger.info("Found HEAD request, substituting it for GET request");
 				}
 			}
 
-			if(!requested.endsWith("/")) requested += "/";
-			requested = URLDecoder.decode(requested, StandardCharsets.UTF_8);
-
-			if(server.isVerbose()) System.out.println("\n" + httpRequest + "\n");
-
-			// invoke mapping resolvers
-			for(MappingResolver resolver : PriveWebServerExpose.getMappingResolvers(server)) {
-				if(responseObject != null) break;
-				for(var entry : resolver.getMappingHandlerMap().entrySet()) {
-					if(entry.getKey().getRight() == (httpRequest.getRequestMethod() == RequestMethod.HEAD ? RequestMethod.GET : httpRequest.getRequestMethod())) {
-						var url = entry.getKey().getLeft();
-						if(!url.endsWith("/")) url += "/";
-						if(url.equals(requested) && !url.contains("{}")) {
-							// fast-path if no pathvar present ({})
-							try {
-								responseObject = resolver.invokeRequestHandler(url, httpRequest.getRequestMethod() == RequestMethod.HEAD ? RequestMethod.GET : httpRequest.getRequestMethod(), QueryParameters.parseQueryStringWithoutURL(queryParams, server), httpRequest, requestBody);
-								if(verbose) logger.info("Successfully obtained response object from resolver {}", Integer.toHexString(resolver.hashCode()));
-								break;
-							} catch(Exception exception) {
-								responseObject = faultRecoveryStrategy.handleException(exception, httpRequest, server);
-							} catch(Error error) {
-								responseObject = faultRecoveryStrategy.handleError(error, httpRequest, server);
-							}
-							break;
-						} else {
-							// check pathvars present
-							var resolverPath = url.split("/");
-							var requestedPath = requested.split("/");
-							if(resolverPath.length == requestedPath.length) {
-								List<String> pathvarList = new LinkedList<>();
-								boolean errorFlag = false;
-								// start resolving
-								for(int i = 0; i < resolverPath.length; i++) {
-									var res = resolverPath[i];
-									var req = requestedPath[i];
-									if(!res.equals(req)) {
-										if(res.equals("{}")) {
-											pathvarList.add(req);
-										} else {
-											errorFlag = true;
-											break;
-										}
-									}
-								}
-								if(errorFlag) {
-									if(verbose) logger.warn("{!warn}Cannot locate {} handler for route {}", httpRequest.getRequestMethod(), httpRequest.getRequestedResource());
-								} else {
-									if(verbose) logger.warn("{!warn}Successfully located {} handler for route {}", httpRequest.getRequestMethod(), httpRequest.getRequestedResource());
-									try {
-										responseObject = resolver.invokeRequestHandler(url, httpRequest.getRequestMethod() == RequestMethod.HEAD ? RequestMethod.GET : httpRequest.getRequestMethod(), QueryParameters.parseQueryStringWithoutURL(queryParams, server), httpRequest, requestBody, pathvarList.toArray(String[]::new));
-										if(verbose) logger.info("Successfully obtained response object from resolver {}", Integer.toHexString(resolver.hashCode()));
-										break;
-									} catch(Exception exception) {
-										responseObject = faultRecoveryStrategy.handleException(exception, httpRequest, server);
-									} catch(Error error) {
-										responseObject = faultRecoveryStrategy.handleError(error, httpRequest, server);
-									}
-									break;
-								}
-							}
-						}
-					}
+			if(tls == null && server.isHttp2Enabled() && requestBody == null && bodyException == null && Http2Connection.isUpgrade(hList)) {
+				// the request is answered over HTTP/2, on the connection's own thread
+				detached = true;
+				new Http2Connection(detach(socket), in, out, server, this::resolve).start(httpRequest, queryParams);
+				return;
+			}
+
+			Object responseObject = resolve(httpRequest, queryParams, bodyException);
+
+			if(responseObject instanceof CompletionStage<?> stage) {
+				// the worker is released; the response is written by whichever thread completes the stage
+				detached = true;
+				respondLater(stage, httpRequest, requestBody, socket, in, out);
+				return;
+			}
+			detached = respond(responseObject, httpRequest, requestBody, socket, in, out);
+		} finally {
+			if(!detached) {
+				try {
+					out.close();
+				} finally {
+					socket.close();
+					server.getAdmissionControl().release(socket);
 				}
 			}
+		}
+	}
 
-			if(responseObject == null) responseObject = faultRecoveryStrategy.handleException(new HandlerNotFoundException(httpRequest), httpRequest, server);
+	/**
+	 * Marshals and writes the response, hands the connection over if the response takes it over,
+	 * and drains the rest of the request otherwise.
+	 * @return whether the connection was taken over, in which case it must not be closed.
+	 */
+	private boolean respond(Object responseObject, HTTPRequest httpRequest, @Nullable InputStream requestBody,
+	                        Socket socket, InputStream in, OutputStream out) throws IOException {
+		boolean detached = false;
+		// serialize HTTPResponse
+		try {
+			HTTPResponse response = IOUtils.marshalObjectIntoResponse(responseObject, HTTPProtocol.HTTP1_1, httpRequest, server);
+			boolean head = httpRequest.getRequestMethod() == RequestMethod.HEAD;
+			writeResponse(response, head, out);
+			if(response.getTakeover() != null && !head) {
+				detached = true;
+				response.getTakeover().takeOver(detach(socket), in, out);
+			}
+		} catch(Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			// delete spooled request bodies
+			httpRequest.complete();
+		}
+		// unread request bytes make closing the connection reset it, which can discard the response before the client reads it
+		if(!detached && (requestBody instanceof BoundedInputStream bounded && bounded.remaining() > 0 || in.available() > 0)) drain(socket, in);
+		return detached;
+	}
 
-			// serialize HTTPResponse
+	/**
+	 * Writes the response once the stage returned by the handler completes, or answers with 503 Service Unavailable
+	 * if it takes longer than the server's {@linkplain PriveWebServer#getAsyncTimeout() async timeout}.
+	 * The stage is cancelled if the client disconnects first.
+	 */
+	private void respondLater(CompletionStage<?> stage, HTTPRequest httpRequest, @Nullable InputStream requestBody,
+	                          Socket socket, InputStream in, OutputStream out) {
+		// a disconnect can only be told apart from the rest of the request once the body has been read
+		boolean probe = !(socket instanceof LocalConnector.LocalSocket)
+				&& (requestBody == null || requestBody instanceof BoundedInputStream bounded && bounded.remaining() == 0);
+		AsyncResponse.await(stage, server.getAsyncTimeout(), probe ? () -> isDisconnected(socket, in) : null, (result, error) -> {
+			boolean detached = false;
 			try {
-				HTTPResponse response = IOUtils.marshalObjectIntoResponse(responseObject, HTTPProtocol.HTTP1_1);
-				out.print(response.getProtocol() + " " + response.getResponseCode() + PriveWebServer.HTTP_LF);
-				var headerList = response.getHeaders();
-				headerList = headerList.stream().map(header -> {
-					if(header.header().equalsIgnoreCase("Server")) {
-						return new Header("Server", PriveWebServer.SERVER_HEADER_VALUE);
-					} else return header;
-				}).toList();
-				for(Header header : headerList) {
-					out.print(header.header() + ": " + header.value() + PriveWebServer.HTTP_LF);
-				}
-				if(httpRequest.getRequestMethod() != RequestMethod.HEAD) {
-					out.print(PriveWebServer.HTTP_LF);
-					var cTypeList = response.getHeaders().stream().filter(header -> header.header().equalsIgnoreCase("Content-Type")).toList();
-					String cType = cTypeList.size() > 0 ? cTypeList.get(0).value() : "";
-					if(cType.startsWith("text/")) {
-						out.print(new String(response.getResponseBody(), StandardCharsets.UTF_8));
-						out.flush();
-					} else {
-						out.flush();
-						var dos = new DataOutputStream(socket.getOutputStream());
-						dos.write(response.getResponseBody(), 0, response.getResponseBody().length);
-						dos.flush();
-						Checks.ensureEquals(dos.size(), response.getResponseBody().length);
+				Object responseObject = error == null ? result : AsyncResponse.recover(error, httpRequest, server);
+				detached = respond(responseObject, httpRequest, requestBody, socket, in, out);
+			} catch(IOException e) {
+				if(verbose) logger.warn("{!warn}Could not write the response to {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+			} finally {
+				if(!detached) close(socket, out);
+			}
+		}, () -> {
+			if(verbose) logger.info("Client {} disconnected before the response was ready", socket.getRemoteSocketAddress());
+			try {
+				httpRequest.complete();
+			} catch(IOException e) {
+				if(verbose) logger.warn("{!warn}Could not release the resources of the request: {}", e.getMessage());
+			} finally {
+				close(socket, out);
+			}
+		});
+	}
+
+	/**
+	 * Tells whether the client has closed the connection, by trying to read from it for a moment.
+	 * This must only be called once the request has been read entirely.
+	 */
+	private static boolean isDisconnected(Socket socket, InputStream in) {
+		try {
+			int timeout = socket.getSoTimeout();
+			socket.setSoTimeout(1);
+			try {
+				return in.read() == -1;
+			} finally {
+				socket.setSoTimeout(timeout);
+			}
+		} catch(SocketTimeoutException e) {
+			return false;
+		} catch(IOException e) {
+			return true;
+		}
+	}
+
+	private void close(Socket socket, OutputStream out) {
+		try {
+			out.close();
+		} catch(IOException ignored) {
+			// the connection is closed below either way
+		}
+		try {
+			socket.close();
+		} catch(IOException ignored) {
+			// nothing left to do
+		} finally {
+			server.getAdmissionControl().release(socket);
+		}
+	}
+
+	/**
+	 * Wraps a connection that is handed over, so that the admission control stops counting it once it is closed.
+	 */
+	private Socket detach(Socket socket) {
+		if(socket instanceof LocalConnector.LocalSocket) return socket;
+		AdmissionControl admissionControl = server.getAdmissionControl();
+		return new DetachedSocket(socket, () -> admissionControl.release(socket));
+	}
+
+	/**
+	 * Finds and invokes the handler of a request, or the fault recovery strategy if there is none or it fails.
+	 * This is shared by HTTP/1.1 and HTTP/2 requests.
+	 * @param httpRequest The request.
+	 * @param queryParams The query string, starting with {@code ?}, or an empty string.
+	 * @param bodyException The exception to answer with instead, if the request body is not acceptable.
+	 * @return the object to marshal into the response.
+	 */
+	private @NotNull Object resolve(HTTPRequest httpRequest, String queryParams, @Nullable Exception bodyException) {
+		Object responseObject = null;
+		if(bodyException != null) responseObject = faultRecoveryStrategy.handleException(bodyException, httpRequest, server);
+
+		String requested = normalize(httpRequest.getRequestedResource());
+		RequestMethod requestMethod = httpRequest.getRequestMethod() == RequestMethod.HEAD ? RequestMethod.GET : httpRequest.getRequestMethod();
+
+		if(server.isVerbose()) System.out.println("\n" + httpRequest + "\n");
+
+		// invoke mapping resolvers
+		for(MappingResolver resolver : PriveWebServerExpose.getMappingResolvers(server)) {
+			if(responseObject != null) break;
+			for(var entry : resolver.getMappingHandlerMap().entrySet()) {
+				if(entry.getKey().getRight() == requestMethod) {
+					var url = entry.getKey().getLeft();
+					if(!url.endsWith("/")) url += "/";
+					String[] pathvars = match(url, requested);
+					if(pathvars == null) continue;
+					if(verbose) logger.info("Located {} handler for route {}", httpRequest.getRequestMethod(), httpRequest.getRequestedResource());
+					try {
+						responseObject = resolver.invokeRequestHandler(url, requestMethod, QueryParameters.parseQueryStringWithoutURL(queryParams, server), httpRequest, pathvars);
+						if(verbose) logger.info("Successfully obtained response object from resolver {}", Integer.toHexString(resolver.hashCode()));
+					} catch(Exception exception) {
+						responseObject = faultRecoveryStrategy.handleException(exception, httpRequest, server);
+					} catch(Error error) {
+						responseObject = faultRecoveryStrategy.handleError(error, httpRequest, server);
 					}
-				} else {
-					out.flush();
+					break;
 				}
-			} catch(Exception e) {
-				e.printStackTrace(System.err);
 			}
 		}
+
+		if(responseObject == null) responseObject = faultRecoveryStrategy.handleException(new HandlerNotFoundException(httpRequest), httpRequest, server);
+		return responseObject;
+	}
+
+	/**
+	 * Whether a handler is mapped to the given route, without invoking it.
+	 * @param requestMethod The request method.
+	 * @param requested The requested resource, without the query string.
+	 */
+	private boolean hasRoute(RequestMethod requestMethod, String requested) {
+		if(requestMethod == RequestMethod.HEAD) requestMethod = RequestMethod.GET;
+		requested = normalize(requested);
+		for(MappingResolver resolver : PriveWebServerExpose.getMappingResolvers(server)) {
+			for(var entry : resolver.getMappingHandlerMap().keySet()) {
+				if(entry.getRight() != requestMethod) continue;
+				var url = entry.getLeft();
+				if(!url.endsWith("/")) url += "/";
+				if(match(url, requested) != null) return true;
+			}
+		}
+		return false;
+	}
+
+	private static String normalize(String requested) {
+		if(!requested.endsWith("/")) requested += "/";
+		return URLDecoder.decode(requested, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Matches a requested resource against the URL of a handler.
+	 * @param url The URL of the handler, ending with {@code /}.
+	 * @param requested The {@linkplain #normalize(String) normalized} requested resource.
+	 * @return the path variables, or {@code null} if the resource does not match.
+	 */
+	private static String @Nullable [] match(String url, String requested) {
+		// fast-path if no pathvar present ({})
+		if(url.equals(requested) && !url.contains("{")) return new String[0];
+		var resolverPath = url.split("/");
+		var requestedPath = requested.split("/");
+		// a trailing {**} matches the rest of the path, however many segments it has
+		boolean rest = resolverPath.length > 0 && resolverPath[resolverPath.length - 1].equals("{**}");
+		if(resolverPath.length != requestedPath.length && !(rest && requestedPath.length >= resolverPath.length)) return null;
+		List<String> pathvarList = new LinkedList<>();
+		for(int i = 0; i < resolverPath.length; i++) {
+			if(rest && i == resolverPath.length - 1) {
+				pathvarList.add(String.join("/", Arrays.copyOfRange(requestedPath, i, requestedPath.length)));
+				break;
+			}
+			var res = resolverPath[i];
+			var req = requestedPath[i];
+			if(!res.equals(req)) {
+				if(!res.equals("{}")) return null;
+				pathvarList.add(req);
+			}
+		}
+		return pathvarList.toArray(String[]::new);
+	}
+
+	/**
+	 * Closes the output of the connection, and then reads and discards the rest of the request for a bounded time.
+	 */
+	private static void drain(Socket socket, InputStream in) {
+		try {
+			socket.shutdownOutput();
+			socket.setSoTimeout(DRAIN_MILLIS);
+			long deadline = System.nanoTime() + DRAIN_MILLIS * 1_000_000L;
+			byte[] buffer = new byte[8192];
+			long drained = 0;
+			int n;
+			while(drained < MAX_DRAIN_BYTES && System.nanoTime() < deadline && (n = in.read(buffer)) != -1) drained += n;
+		} catch(IOException ignored) {
+			// the client may have closed the connection already
+		}
+	}
+
+	/**
+	 * Writes the status line, the headers and (unless this answers a {@code HEAD} request) the body
+	 * of the given response. The body is written straight from the response, without copying it into a string.
+	 */
+	private static void writeResponse(HTTPResponse response, boolean head, OutputStream out) throws IOException {
+		if(response.getEncoded() != null) {
+			response.getEncoded().writeTo(out, head);
+		} else {
+			out.write(response.encodeHead());
+			if(!head) response.writeBody(out);
+		}
+		out.flush();
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,66 @@
+package dev.priveweb.core.server.impl;
+
+import dev.priveweb.core.http.ResponseCode;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The stream of a request body whose client waits for {@code 100 Continue} before sending it.
+ * The interim response is sent when the body is first read, so the client does not upload a body
+ * that is never consumed, such as that of a request rejected for its size or by its handler.
+ * <p>Closing this stream does not close the underlying stream.</p>
+ */
+final class ContinueInputStream extends FilterInputStream {
+
+	private static final byte[] CONTINUE = ("HTTP/1.1 " + ResponseCode.I_100 + PriveWebServer.HTTP_LF + PriveWebServer.HTTP_LF).getBytes(StandardCharsets.US_ASCII);
+
+	private final OutputStream out;
+	private boolean sent = false;
+
+	ContinueInputStream(@NotNull InputStream in, @NotNull OutputStream out) {
+		super(in);
+		this.out = out;
+	}
+
+	private void sendContinue() throws IOException {
+		if(sent) return;
+		sent = true;
+		out.write(CONTINUE);
+		out.flush();
+	}
+
+	@Override
+	public int read() throws IOException {
+		sendContinue();
+		return in.read();
+	}
+
+	@Override
+	public int read(byte @NotNull [] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		sendContinue();
+		return in.read(b, off, len);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		sendContinue();
+		return in.skip(n);
+	}
+
+	@Override
+	public int available() throws IOException {
+		// the client sends nothing until it is asked to
+		return sent ? in.available() : 0;
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,146 @@
+package dev.priveweb.core.server.impl;
+
+import dev.priveweb.core.http.response.ConnectionTakeover;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection that the handler hands over, to HTTP/2 or to a {@link ConnectionTakeover}, which close it whenever it ends.
+ * Closing it runs a callback once, so that the server learns when the connection is gone.
+ */
+final class DetachedSocket extends Socket {
+
+	private final Socket socket;
+	private final Runnable onClose;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	DetachedSocket(@NotNull Socket socket, @NotNull Runnable onClose) {
+		this.socket = socket;
+		this.onClose = onClose;
+	}
+
+	@Override
+	public @NotNull InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public @NotNull OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public @Nullable SocketChannel getChannel() {
+		return socket.getChannel();
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		socket.setSoTimeout(timeout);
+	}
+
+	@Override
+	public int getSoTimeout() throws SocketException {
+		return socket.getSoTimeout();
+	}
+
+	@Override
+	public void setTcpNoDelay(boolean on) throws SocketException {
+		socket.setTcpNoDelay(on);
+	}
+
+	@Override
+	public boolean getTcpNoDelay() throws SocketException {
+		return socket.getTcpNoDelay();
+	}
+
+	@Override
+	public void shutdownInput() throws IOException {
+		socket.shutdownInput();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		socket.shutdownOutput();
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return socket.isInputShutdown();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return socket.isOutputShutdown();
+	}
+
+	@Override
+	public @Nullable SocketAddress getRemoteSocketAddress() {
+		return socket.getRemoteSocketAddress();
+	}
+
+	@Override
+	public @Nullable SocketAddress getLocalSocketAddress() {
+		return socket.getLocalSocketAddress();
+	}
+
+	@Override
+	public @Nullable InetAddress getInetAddress() {
+		return socket.getInetAddress();
+	}
+
+	@Override
+	public @Nullable InetAddress getLocalAddress() {
+		return socket.getLocalAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return socket.getPort();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return socket.isConnected();
+	}
+
+	@Override
+	public boolean isBound() {
+		return socket.isBound();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			socket.close();
+		} finally {
+			if(closed.compareAndSet(false, true)) onClose.run();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return socket.toString();
+	}
+
+}
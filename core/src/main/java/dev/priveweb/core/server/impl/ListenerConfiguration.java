@@ -0,0 +1,118 @@
+package dev.priveweb.core.server.impl;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The settings of the TCP listeners of a {@link PriveWebServer}: how connections are accepted,
+ * and the options of the sockets that are accepted.
+ * <pre>{@code
+ * var listeners = ListenerConfiguration.builder()
+ *         .backlog(4096)
+ *         .acceptors(4)
+ *         .build();
+ * var server = new PriveWebServer(executor, listeners, 8080);
+ * }</pre>
+ */
+@Getter
+@Builder
+public final class ListenerConfiguration {
+
+	/**
+	 * The maximum number of connections waiting to be accepted on each listening socket. Connections beyond that are
+	 * refused or, on Linux, have their {@code SYN} dropped and retried by the client, so bursts need a deep queue.
+	 * The operating system may cap it (e.g. with {@code net.core.somaxconn}). This is 1024 by default.
+	 */
+	@Builder.Default private final int backlog = 1024;
+	/**
+	 * The number of threads accepting connections on each port, 1 by default. Each one takes up a thread of the server's
+	 * socket executor for as long as the server runs, so the executor must have enough threads.
+	 */
+	@Builder.Default private final int acceptors = 1;
+	/**
+	 * Whether each acceptor gets its own listening socket with {@code SO_REUSEPORT}, so that the kernel spreads incoming
+	 * connections over their queues instead of all acceptors taking turns on one. This only applies with several acceptors,
+	 * on platforms that support the option (such as Linux); elsewhere, the acceptors share one socket.
+	 * <p>Note that other processes of the same user can then bind the port as well. This is enabled by default.</p>
+	 */
+	@Builder.Default private final boolean reusePort = true;
+	/**
+	 * Whether a port can be bound again while earlier connections on it are in {@code TIME_WAIT}, such as right after a restart.
+	 * This is enabled by default.
+	 */
+	@Builder.Default private final boolean reuseAddress = true;
+	/**
+	 * Whether accepted sockets disable Nagle's algorithm ({@code TCP_NODELAY}), so that small responses are not delayed.
+	 * This is enabled by default.
+	 */
+	@Builder.Default private final boolean tcpNoDelay = true;
+	/**
+	 * Whether accepted sockets send TCP keepalive probes ({@code SO_KEEPALIVE}) to detect dead peers. This is disabled by default.
+	 */
+	@Builder.Default private final boolean keepAlive = false;
+	/**
+	 * The size of the receive buffer of accepted sockets in bytes, or 0 for the operating system's default. It is set on
+	 * the listening socket, as windows larger than 64 KiB have to be negotiated before a connection is accepted.
+	 */
+	@Builder.Default private final int receiveBufferSize = 0;
+	/**
+	 * The size of the send buffer of accepted sockets in bytes, or 0 for the operating system's default.
+	 */
+	@Builder.Default private final int sendBufferSize = 0;
+
+	/**
+	 * Binds the listening sockets of a port.
+	 * @param port The port, or 0 for an ephemeral one, which all the port's sockets then share.
+	 * @return one socket per acceptor; acceptors that share a socket get the same one.
+	 */
+	@NotNull List<ServerSocket> bind(int port) throws IOException {
+		boolean shared = acceptors <= 1 || !reusePort || !supportsReusePort();
+		List<ServerSocket> sockets = new ArrayList<>();
+		try {
+			for(int i = 0; i < acceptors; i++) {
+				if(shared && i > 0) {
+					sockets.add(sockets.get(0));
+					continue;
+				}
+				// sockets accepted from a channel have channels too, which are needed for zero-copy file transfers
+				ServerSocketChannel channel = ServerSocketChannel.open();
+				sockets.add(channel.socket());
+				channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+				if(!shared) channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				if(receiveBufferSize > 0) channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+				channel.bind(new InetSocketAddress(port), backlog);
+				port = channel.socket().getLocalPort();
+			}
+		} catch(IOException | RuntimeException e) {
+			for(ServerSocket socket : sockets) socket.close();
+			throw e;
+		}
+		return sockets;
+	}
+
+	/**
+	 * Applies the options to an accepted socket.
+	 */
+	void configure(@NotNull Socket socket) throws IOException {
+		socket.setTcpNoDelay(tcpNoDelay);
+		if(keepAlive) socket.setKeepAlive(true);
+		if(sendBufferSize > 0) socket.setSendBufferSize(sendBufferSize);
+	}
+
+	private static boolean supportsReusePort() throws IOException {
+		try(ServerSocketChannel channel = ServerSocketChannel.open()) {
+			return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		}
+	}
+
+}
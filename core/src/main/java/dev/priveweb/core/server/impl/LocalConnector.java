@@ -0,0 +1,224 @@
+package dev.priveweb.core.server.impl;
+
+import dev.priveweb.core.http.Header;
+import dev.priveweb.core.http.request.HTTPRequest;
+import dev.priveweb.core.util.HeaderUtils;
+import lombok.Getter;
+import lombok.Setter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A connector that serves requests from memory instead of a socket. The request goes through the same parsing,
+ * routing, handler invocation, marshalling and encoding as on a real connection, on the calling thread,
+ * and the bytes the server would have sent are returned.
+ * <p>The server does not have to be {@linkplain PriveWebServer#start(boolean) started}, which makes this suitable for
+ * integration tests and benchmarks of the full request path without binding ports:</p>
+ * <pre>{@code
+ * var connector = new LocalConnector(server);
+ * String response = connector.exchange("GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n");
+ * }</pre>
+ * <p>Connections are always in cleartext, even if the server's listeners use TLS.</p>
+ */
+public final class LocalConnector {
+
+	private final PriveWebServer server;
+	/**
+	 * How long to wait for a connection that was taken over (e.g. by a WebSocket or an event stream) to be closed,
+	 * after which it is closed and whatever was sent until then is returned. This is 30 seconds by default.
+	 */
+	@Getter @Setter private @NotNull Duration takeoverTimeout = Duration.ofSeconds(30);
+
+	/**
+	 * Creates a new {@link LocalConnector}.
+	 * @param server The server whose handlers serve the requests.
+	 */
+	public LocalConnector(@NotNull PriveWebServer server) {
+		this.server = server;
+	}
+
+	/**
+	 * Serves a connection that sends the given bytes and then ends its input.
+	 * @param request The raw request, such as {@code GET / HTTP/1.1\r\nHost: localhost\r\n\r\n}.
+	 * @return the raw response.
+	 * @throws IOException if the connection cannot be served.
+	 */
+	public byte @NotNull [] exchange(byte @NotNull [] request) throws IOException {
+		LocalSocket socket = new LocalSocket(request);
+		new ClientSocketHandler(socket, server.isVerbose(), server, server.getFaultRecoveryStrategy()).run();
+		try {
+			// a connection that was taken over is closed on another thread
+			if(!socket.closed.await(takeoverTimeout.toMillis(), TimeUnit.MILLISECONDS)) socket.close();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			socket.close();
+		}
+		return socket.response.toByteArray();
+	}
+
+	/**
+	 * Serves a connection that sends the given request, encoded in {@code ISO-8859-1}.
+	 * @param request The raw request.
+	 * @return the raw response, decoded in {@code ISO-8859-1}.
+	 * @throws IOException if the connection cannot be served.
+	 * @see #exchange(byte[])
+	 */
+	public @NotNull String exchange(@NotNull String request) throws IOException {
+		return new String(exchange(request.getBytes(StandardCharsets.ISO_8859_1)), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Serves a connection that sends the given request. The {@linkplain HTTPRequest#getRequestTarget() request-target} is sent
+	 * if it is set, otherwise the {@linkplain HTTPRequest#getRequestedResource() requested resource}
+	 * and the {@linkplain HTTPRequest#getQueryString() query string}. A {@code Content-Length}
+	 * header is added to a body that has none.
+	 * @param request The request.
+	 * @return the raw response.
+	 * @throws IOException if the connection cannot be served, or the request body cannot be read.
+	 * @see #exchange(byte[])
+	 */
+	public byte @NotNull [] exchange(@NotNull HTTPRequest request) throws IOException {
+		byte[] body = null;
+		if(request.getRequestBody() != null) {
+			body = request.getRequestBody().getBytes(StandardCharsets.UTF_8);
+		} else if(request.getRequestBodyStream() != null) {
+			body = request.getRequestBodyStream().readAllBytes();
+		}
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		String target = request.getRequestTarget().isEmpty() ? request.getRequestedResource() + request.getQueryString() : request.getRequestTarget();
+		StringBuilder head = new StringBuilder()
+				.append(request.getRequestMethod()).append(' ')
+				.append(target).append(' ')
+				.append(request.getProtocol()).append(PriveWebServer.HTTP_LF);
+		for(Header header : request.getHeaders()) head.append(header.header()).append(": ").append(header.value()).append(PriveWebServer.HTTP_LF);
+		if(body != null && !HeaderUtils.containsHeader(request.getHeaders(), "Content-Length") && !HeaderUtils.containsHeader(request.getHeaders(), "Transfer-Encoding")) {
+			head.append("Content-Length: ").append(body.length).append(PriveWebServer.HTTP_LF);
+		}
+		head.append(PriveWebServer.HTTP_LF);
+		encoded.writeBytes(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+		if(body != null) encoded.writeBytes(body);
+		return exchange(encoded.toByteArray());
+	}
+
+	/**
+	 * A connection that reads the request from memory and writes the response to memory.
+	 */
+	static final class LocalSocket extends Socket {
+
+		private static final InetSocketAddress ADDRESS = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+		private final InputStream in;
+		private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+		private final OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte @NotNull [] b, int off, int len) throws IOException {
+				// writers such as event streams find out that the connection is gone this way
+				if(isClosed()) throw new SocketException("Socket closed");
+				response.write(b, off, len);
+			}
+		};
+		private final CountDownLatch closed = new CountDownLatch(1);
+		private int timeout = 0;
+
+		private LocalSocket(byte @NotNull [] request) {
+			this.in = new ByteArrayInputStream(request);
+		}
+
+		@Override
+		public @NotNull InputStream getInputStream() {
+			return in;
+		}
+
+		@Override
+		public @NotNull OutputStream getOutputStream() {
+			return out;
+		}
+
+		@Override
+		public @Nullable SocketChannel getChannel() {
+			return null;
+		}
+
+		@Override
+		public void setSoTimeout(int timeout) {
+			this.timeout = timeout;
+		}
+
+		@Override
+		public int getSoTimeout() {
+			return timeout;
+		}
+
+		@Override
+		public void shutdownInput() {
+		}
+
+		@Override
+		public void shutdownOutput() {
+		}
+
+		@Override
+		public @NotNull InetAddress getInetAddress() {
+			return ADDRESS.getAddress();
+		}
+
+		@Override
+		public int getPort() {
+			return ADDRESS.getPort();
+		}
+
+		@Override
+		public @NotNull SocketAddress getRemoteSocketAddress() {
+			return ADDRESS;
+		}
+
+		@Override
+		public @NotNull SocketAddress getLocalSocketAddress() {
+			return ADDRESS;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public boolean isBound() {
+			return true;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return closed.getCount() == 0;
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+
+		@Override
+		public String toString() {
+			return "LocalSocket";
+		}
+
+	}
+
+}
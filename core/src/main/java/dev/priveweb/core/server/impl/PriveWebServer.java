@@ -3,11 +3,18 @@ package dev.priveweb.core.server.impl;
 import dev.priveweb.core.PriveApplication;
 import dev.priveweb.core.data.DataEncodingRegistry;
 import dev.priveweb.core.data.impl.ChunkedCoder;
+import dev.priveweb.core.data.impl.DeflateCoder;
+import dev.priveweb.core.data.impl.GzipCoder;
 import dev.priveweb.core.exception.DefaultFaultRecovery;
 import dev.priveweb.core.exception.FaultRecoveryStrategy;
 import dev.priveweb.core.http.request.RequestMethod;
+import dev.priveweb.core.http.response.ResponseCache;
 import dev.priveweb.core.http.request.verbs.*;
+import dev.priveweb.core.marshal.MarshallerRegistry;
+import dev.priveweb.core.marshal.impl.JsonMarshaller;
+import dev.priveweb.core.marshal.impl.MessagePackMarshaller;
 import dev.priveweb.core.server.PriveServer;
+import dev.priveweb.core.server.tls.TlsConfiguration;
 import lombok.Getter;
 import lombok.Setter;
 import dev.priveweb.core.http.interceptor.Setup;
@@ -19,7 +26,16 @@ import slf4jansi.AnsiLogger;
 
 import java.io.*;
 import java.lang.reflect.Method;
-import java.net.ServerSocket;
+import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -47,9 +63,79 @@ public final class PriveWebServer implements PriveServer {
 	@Getter @Setter private boolean connectionReuseEnabled = false;
 	/**
 	 * Gets the {@link DataEncodingRegistry} containing
-	 * all available {@code Transfer-Encoding} implementations.
+	 * all available {@code Transfer-Encoding} implementations. Only {@code chunked} is registered by default;
+	 * bodies decoded by other coders are only bounded by the {@code maxRequestBodySize}.
 	 */
 	@Getter private final DataEncodingRegistry transferCoders = new DataEncodingRegistry();
+	/**
+	 * Gets the {@link DataEncodingRegistry} containing the {@code Content-Encoding}s
+	 * that responses may be compressed with. {@code gzip} has the highest priority.
+	 */
+	@Getter private final DataEncodingRegistry contentCoders = new DataEncodingRegistry();
+	/**
+	 * Gets the {@link MarshallerRegistry} containing all available media types
+	 * for responses and request bodies. {@code application/json} has the highest priority.
+	 */
+	@Getter private final MarshallerRegistry marshallers = new MarshallerRegistry();
+	/**
+	 * The maximum size of a request body in bytes, or {@code -1} for no limit.
+	 * Larger requests are answered with {@code 413 Payload Too Large}.
+	 */
+	@Getter @Setter private long maxRequestBodySize = -1;
+	/**
+	 * The maximum size of a single {@code multipart/form-data} part in bytes, or {@code -1} for no limit.
+	 */
+	@Getter @Setter private long maxPartSize = -1;
+	/**
+	 * Request bodies and parts up to this many bytes are kept in memory; larger ones are spooled to temporary files.
+	 */
+	@Getter @Setter private int bodySpoolThreshold = 1 << 20;
+	/**
+	 * The directory of spooled request bodies, or {@code null} for the default temporary directory.
+	 */
+	@Getter @Setter private @Nullable java.nio.file.Path spoolDirectory = null;
+	/**
+	 * The cache of responses of {@link dev.priveweb.core.http.response.Cached Cached} handlers. By default, it has 16 shards
+	 * holding up to {@code 64 MiB} of responses of up to {@code 1 MiB} each, and refreshes stale responses on daemon threads.
+	 */
+	@Getter @Setter private @NotNull ResponseCache responseCache;
+	/**
+	 * Whether clients may speak HTTP/2: in cleartext (h2c), either with prior knowledge or by sending {@code Upgrade: h2c},
+	 * or on TLS listeners by selecting {@code h2} with ALPN.
+	 */
+	@Getter @Setter private boolean http2Enabled = true;
+	/**
+	 * The maximum number of concurrent streams of an HTTP/2 connection. Further streams are refused until others end.
+	 */
+	@Getter @Setter private int http2MaxConcurrentStreams = 100;
+	/**
+	 * How long a handler's {@link java.util.concurrent.CompletionStage CompletionStage} has to complete before the request
+	 * is answered with 503 Service Unavailable and the stage is cancelled. It is also how long a streamed
+	 * {@link java.util.concurrent.Flow.Publisher Publisher} may go without publishing an item. This is 30 seconds by default.
+	 */
+	@Getter @Setter private @NotNull Duration asyncTimeout = Duration.ofSeconds(30);
+	/**
+	 * How many connections and queued requests the listeners take on, and when requests are shed instead of served late.
+	 * There are no limits by default.
+	 */
+	@Getter @Setter private @NotNull AdmissionControl admissionControl = AdmissionControl.builder().build();
+	/**
+	 * The workers that handle requests, or {@code null} while the server has not been started.
+	 */
+	@Getter private @Nullable ExecutorService workers;
+	/**
+	 * The TLS settings of the TCP listeners, or {@code null} if connections are not secured.
+	 * Unix domain sockets always speak cleartext.
+	 */
+	@Getter private @Nullable TlsConfiguration tls = null;
+	/**
+	 * The settings of the TCP listeners and of the sockets they accept.
+	 */
+	@Getter private final @NotNull ListenerConfiguration listenerConfiguration;
+	/**
+	 * The listeners on Unix domain sockets, by the path of their socket file.
+	 */
+	private final Map<Path, ServerSocketChannel> domainSockets = new LinkedHashMap<>();
 
 	/**
 	 * Creates a new {@link PriveWebServer} with the given {@link ServerSocket}
@@ -61,7 +147,9 @@ public final class PriveWebServer implements PriveServer {
 	public PriveWebServer(@NotNull ExecutorService executor, ServerSocket @NotNull ... serverSockets) {
 		this.serverSocketExecutor = executor;
 		this.serverSockets = serverSockets;
-		transferCoders.register(new ChunkedCoder()); // "Transfer-Encoding: chunked" MUST BE SUPPORTED!!!
+		this.listenerConfiguration = ListenerConfiguration.builder().build();
+		this.responseCache = newResponseCache();
+		registerDefaults();
 	}
 
 	/**
@@ -73,15 +161,126 @@ public final class PriveWebServer implements PriveServer {
 	 * @param ports                The ports to listen to.
 	 */
 	public PriveWebServer(@NotNull ExecutorService serverSocketExecutor, int @NotNull ... ports) throws IOException {
+		this(serverSocketExecutor, ListenerConfiguration.builder().build(), ports);
+	}
+
+	/**
+	 * Creates a new {@link PriveWebServer} listening on the given ports with the given {@link ListenerConfiguration}.
+	 * All connections are not secured.
+	 *
+	 * @param serverSocketExecutor The socket executor to use, which runs the acceptors.
+	 * @param listeners            The settings of the listeners.
+	 * @param ports                The ports to listen to, where 0 picks an ephemeral port.
+	 */
+	public PriveWebServer(@NotNull ExecutorService serverSocketExecutor, @NotNull ListenerConfiguration listeners, int @NotNull ... ports) throws IOException {
 		this.serverSocketExecutor = serverSocketExecutor;
+		this.listenerConfiguration = listeners;
+		this.responseCache = newResponseCache();
 		List<ServerSocket> serverSockets = new ArrayList<>();
-		for(int p : ports) {
-			serverSockets.add(new ServerSocket(p) {{
-				setReuseAddress(connectionReuseEnabled);
-			}});
-		}
+		// one entry per acceptor
+		for(int p : ports) serverSockets.addAll(listeners.bind(p));
 		this.serverSockets = serverSockets.toArray(ServerSocket[]::new);
-		transferCoders.register(new ChunkedCoder());
+		registerDefaults();
+	}
+
+	/**
+	 * Creates a new {@link PriveWebServer} with a default {@link ServerSocket}
+	 * with the given port and the given {@link ExecutorService}. All connections
+	 * are secured with TLS, and clients that offer {@code h2} with ALPN speak HTTP/2.
+	 *
+	 * @param serverSocketExecutor The socket executor to use.
+	 * @param tls                  The TLS settings.
+	 * @param ports                The ports to listen to.
+	 */
+	public PriveWebServer(@NotNull ExecutorService serverSocketExecutor, @NotNull TlsConfiguration tls, int @NotNull ... ports) throws IOException {
+		this(serverSocketExecutor, ListenerConfiguration.builder().build(), tls, ports);
+	}
+
+	/**
+	 * Creates a new {@link PriveWebServer} listening on the given ports with the given {@link ListenerConfiguration}.
+	 * All connections are secured with TLS, and clients that offer {@code h2} with ALPN speak HTTP/2.
+	 *
+	 * @param serverSocketExecutor The socket executor to use, which runs the acceptors.
+	 * @param listeners            The settings of the listeners.
+	 * @param tls                  The TLS settings.
+	 * @param ports                The ports to listen to, where 0 picks an ephemeral port.
+	 */
+	public PriveWebServer(@NotNull ExecutorService serverSocketExecutor, @NotNull ListenerConfiguration listeners, @NotNull TlsConfiguration tls, int @NotNull ... ports) throws IOException {
+		this(serverSocketExecutor, listeners, ports);
+		this.tls = tls;
+		tls.applySessionSettings();
+	}
+
+	/**
+	 * Gets the ports the server listens to, which tells the ones picked for port 0.
+	 * @return the ports, in the order they were given.
+	 */
+	public int @NotNull [] getLocalPorts() {
+		return Arrays.stream(serverSockets).mapToInt(ServerSocket::getLocalPort).distinct().toArray();
+	}
+
+	/**
+	 * Listens on a Unix domain socket, which only the owner and the group of the socket file may connect to.
+	 * @param path The path of the socket file.
+	 * @return this {@link PriveWebServer}
+	 * @throws IOException if the socket cannot be bound.
+	 * @see #bind(Path, Set)
+	 */
+	@Contract("_ -> this")
+	public PriveWebServer bind(@NotNull Path path) throws IOException {
+		return bind(path, PosixFilePermissions.fromString("rw-rw----"));
+	}
+
+	/**
+	 * Listens on a Unix domain socket, such as for a proxy on the same host, skipping the overhead of the loopback
+	 * TCP stack. A socket file left behind by an earlier process is replaced, unless a server still accepts connections on it;
+	 * the file is deleted once the server {@linkplain #halt() halts} or the JVM exits.
+	 * <p>Connections on the socket are not secured with {@linkplain #getTls() TLS}, even if the TCP listeners are,
+	 * as they never leave the host.</p>
+	 * <p>The permissions are set right after binding. Connecting needs write permission, and clients that should not connect
+	 * at all are best kept out with the permissions of the parent directory, which are in place before the socket exists.</p>
+	 * @param path The path of the socket file.
+	 * @param permissions The permissions of the socket file, which are ignored by file systems without POSIX permissions.
+	 * @return this {@link PriveWebServer}
+	 * @throws IOException if the socket cannot be bound, or the path is taken by a file that is not a stale socket.
+	 * @throws IllegalStateException if the server is already running.
+	 */
+	@Contract("_, _ -> this")
+	public PriveWebServer bind(@NotNull Path path, @NotNull Set<PosixFilePermission> permissions) throws IOException {
+		if(running) throw new IllegalStateException("listeners must be bound before the server starts");
+		path = path.toAbsolutePath();
+		if(Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			if(!isStaleSocket(path)) throw new BindException("Address already in use: " + path);
+			Files.delete(path);
+		}
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.bind(UnixDomainSocketAddress.of(path), listenerConfiguration.getBacklog());
+			path.toFile().deleteOnExit();
+			try {
+				Files.setPosixFilePermissions(path, permissions);
+			} catch(UnsupportedOperationException ignored) {
+				// not a POSIX file system
+			}
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			Files.deleteIfExists(path);
+			throw e;
+		}
+		domainSockets.put(path, channel);
+		return this;
+	}
+
+	/**
+	 * Whether the file is a socket that nothing accepts connections on anymore.
+	 */
+	private static boolean isStaleSocket(@NotNull Path path) throws IOException {
+		if(!Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) return false;
+		try(SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(path))) {
+			return false;
+		} catch(ConnectException e) {
+			return true;
+		}
 	}
 
 	/**
@@ -117,22 +316,63 @@ public final class PriveWebServer implements PriveServer {
 		logger.info("{!important}Using {} as the fault recovery strategy", faultRecoveryStrategy.getClass().getSimpleName());
 		logger.info("{!important}JRE Version    : " + Runtime.version());
 		logger.info("{!important}Maximum memory : " + Runtime.getRuntime().maxMemory() + " bytes");
-		ExecutorService service = Executors.newWorkStealingPool();
+		ExecutorService service = workers = Executors.newWorkStealingPool();
 		for(ServerSocket serverSocket : serverSockets) {
 			serverSocketExecutor.submit(() -> {
 				while(running) {
 					try {
 						@SuppressWarnings("BlockingMethodInNonBlockingContext") // context is serverSocketExecutor
 						var socket = serverSocket.accept();
+						try {
+							listenerConfiguration.configure(socket);
+						} catch(IOException e) {
+							// the client is already gone
+							socket.close();
+							continue;
+						}
 						ClientSocketHandler handler = new ClientSocketHandler(socket, verbose, this, faultRecoveryStrategy);
-						service.submit(handler);
+						admissionControl.admit(socket, handler, service, tls != null);
 					} catch(IOException e) {
+						if(!running) break; // closed by halt()
 						throw new RuntimeException(e);
 					}
 				}
 				logger.info("{!important}Halted socket handler for port {}", serverSocket.getLocalPort());
 			});
 		}
+		for(Map.Entry<Path, ServerSocketChannel> listener : domainSockets.entrySet()) {
+			serverSocketExecutor.submit(() -> {
+				while(running) {
+					try {
+						@SuppressWarnings("BlockingMethodInNonBlockingContext") // context is serverSocketExecutor
+						var socket = new UnixDomainSocket(listener.getValue().accept());
+						ClientSocketHandler handler = new ClientSocketHandler(socket, verbose, this, faultRecoveryStrategy);
+						admissionControl.admit(socket, handler, service, false);
+					} catch(IOException e) {
+						if(!running) break; // closed by halt()
+						throw new RuntimeException(e);
+					}
+				}
+				logger.info("{!important}Halted socket handler for {}", listener.getKey());
+			});
+		}
+	}
+
+	private void registerDefaults() {
+		transferCoders.register(new ChunkedCoder()); // "Transfer-Encoding: chunked" MUST BE SUPPORTED!!!
+		// compressed request bodies inflate without bound, so gzip and deflate are only content codings of responses
+		contentCoders.register(new GzipCoder(), new DeflateCoder());
+		marshallers.register(JsonMarshaller.INSTANCE, new MessagePackMarshaller());
+	}
+
+	private static @NotNull ResponseCache newResponseCache() {
+		// the socket executor is taken up by the accepting loops, so refreshes get their own threads
+		ExecutorService refresher = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "prive-cache-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		return new ResponseCache(refresher, 16, 64L << 20, 1L << 20);
 	}
 
 	/**
@@ -141,6 +381,21 @@ public final class PriveWebServer implements PriveServer {
 	@NonBlocking
 	public void halt() {
 		running = false;
+		for(ServerSocket serverSocket : serverSockets) {
+			try {
+				serverSocket.close();
+			} catch(IOException ignored) {
+				// closed anyway
+			}
+		}
+		for(Map.Entry<Path, ServerSocketChannel> listener : domainSockets.entrySet()) {
+			try {
+				listener.getValue().close();
+				Files.deleteIfExists(listener.getKey());
+			} catch(IOException e) {
+				logger.warn("{!warn}Could not remove the socket file {}: {}", listener.getKey(), e.getMessage());
+			}
+		}
 	}
 
 	@Override
@@ -191,7 +446,8 @@ public final class PriveWebServer implements PriveServer {
 		// we can get annotations directly, getRequestMethod(AnnotatedElement) already checks for it
 		switch(requestMethod) {
 			case GET -> {
-				return method.getAnnotation(GetRequest.class).value();
+				GetRequest get = method.getAnnotation(GetRequest.class);
+				return get != null ? get.value() : method.getAnnotation(WebSocketRequest.class).value();
 			}
 			case POST -> {
 				return method.getAnnotation(PostRequest.class).value();
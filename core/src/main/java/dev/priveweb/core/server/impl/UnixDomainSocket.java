@@ -0,0 +1,212 @@
+package dev.priveweb.core.server.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection accepted on a Unix domain socket, adapted to a {@link Socket} so that it is handled
+ * like any TCP connection. Such channels have no socket adaptor of their own.
+ * <p>The channel is non-blocking and waited on with selectors, so that the {@linkplain #setSoTimeout(int) read timeout}
+ * works as it does for TCP sockets. For the same reason, {@link #getChannel()} returns {@code null}.</p>
+ */
+final class UnixDomainSocket extends Socket {
+
+	private final SocketChannel channel;
+	private final Selector readSelector;
+	private final Selector writeSelector;
+	private final Object readLock = new Object();
+	private final Object writeLock = new Object();
+	private final InputStream in = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte @NotNull [] b, int off, int len) throws IOException {
+			return UnixDomainSocket.this.read(ByteBuffer.wrap(b, off, len));
+		}
+	};
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte @NotNull [] b, int off, int len) throws IOException {
+			UnixDomainSocket.this.write(ByteBuffer.wrap(b, off, len));
+		}
+	};
+	private volatile int timeout = 0;
+	private volatile boolean closed = false;
+
+	UnixDomainSocket(@NotNull SocketChannel channel) throws IOException {
+		this.channel = channel;
+		channel.configureBlocking(false);
+		// reads and writes may wait on different threads at the same time
+		this.readSelector = Selector.open();
+		this.writeSelector = Selector.open();
+		channel.register(readSelector, SelectionKey.OP_READ);
+		channel.register(writeSelector, SelectionKey.OP_WRITE);
+	}
+
+	private int read(@NotNull ByteBuffer buffer) throws IOException {
+		if(!buffer.hasRemaining()) return 0;
+		synchronized(readLock) {
+			while(true) {
+				int n = channel.read(buffer);
+				if(n != 0) return n;
+				int millis = timeout;
+				if(!await(readSelector, millis) && millis > 0) throw new SocketTimeoutException("Read timed out");
+			}
+		}
+	}
+
+	private void write(@NotNull ByteBuffer buffer) throws IOException {
+		synchronized(writeLock) {
+			while(buffer.hasRemaining()) {
+				if(channel.write(buffer) == 0) await(writeSelector, 0);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the channel is ready.
+	 * @return whether it is ready, or {@code false} if the timeout elapsed first.
+	 */
+	private boolean await(@NotNull Selector selector, int millis) throws IOException {
+		if(closed) throw new SocketException("Socket closed");
+		try {
+			long start = System.nanoTime();
+			int ready = selector.select(millis);
+			selector.selectedKeys().clear();
+			if(closed) throw new SocketException("Socket closed");
+			// a spurious wakeup is not a timeout
+			return ready > 0 || millis == 0 || System.nanoTime() - start < millis * 1_000_000L;
+		} catch(ClosedSelectorException e) {
+			throw new SocketException("Socket closed");
+		}
+	}
+
+	@Override
+	public @NotNull InputStream getInputStream() throws IOException {
+		if(closed) throw new SocketException("Socket is closed");
+		return in;
+	}
+
+	@Override
+	public @NotNull OutputStream getOutputStream() throws IOException {
+		if(closed) throw new SocketException("Socket is closed");
+		return out;
+	}
+
+	/**
+	 * Always returns {@code null}, as the channel is non-blocking.
+	 */
+	@Override
+	public @Nullable SocketChannel getChannel() {
+		return null;
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) throws SocketException {
+		if(timeout < 0) throw new IllegalArgumentException("timeout < 0");
+		this.timeout = timeout;
+	}
+
+	@Override
+	public int getSoTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public void shutdownInput() throws IOException {
+		channel.shutdownInput();
+	}
+
+	@Override
+	public void shutdownOutput() throws IOException {
+		channel.shutdownOutput();
+	}
+
+	@Override
+	public @Nullable SocketAddress getRemoteSocketAddress() {
+		try {
+			return channel.getRemoteAddress();
+		} catch(IOException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public @Nullable SocketAddress getLocalSocketAddress() {
+		try {
+			return channel.getLocalAddress();
+		} catch(IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Always returns {@code null}, as the peer has no IP address.
+	 */
+	@Override
+	public @Nullable InetAddress getInetAddress() {
+		return null;
+	}
+
+	@Override
+	public int getPort() {
+		return 0;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return true;
+	}
+
+	@Override
+	public boolean isBound() {
+		return true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(closed) return;
+		closed = true;
+		try {
+			channel.close();
+		} finally {
+			// wakes up threads waiting on the selectors
+			readSelector.close();
+			writeSelector.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "UnixDomainSocket[" + getLocalSocketAddress() + "]";
+	}
+
+}
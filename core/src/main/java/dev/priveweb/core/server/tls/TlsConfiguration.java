@@ -0,0 +1,135 @@
+package dev.priveweb.core.server.tls;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Singular;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The TLS settings of secured listeners.
+ * <p>Returning clients resume their sessions instead of going through a full handshake, either from the
+ * server-side session cache, or (with TLS 1.3, when the JDK issues stateless tickets, see the
+ * {@code jdk.tls.server.enableSessionTicketExtension} system property) from a session ticket they were given.</p>
+ * <pre>
+ * TlsConfiguration.builder()
+ * 		.context(TlsConfiguration.createContext(Path.of("keystore.p12"), password))
+ * 		.sessionCacheSize(50_000)
+ * 		.build();
+ * </pre>
+ */
+@Getter
+@Builder
+public final class TlsConfiguration {
+
+	/**
+	 * The context holding the server's keys.
+	 * @see #createContext(Path, char[])
+	 */
+	private final @NonNull SSLContext context;
+
+	/**
+	 * The TLS versions to accept, such as {@code TLSv1.3}; by default, those enabled in the JDK.
+	 */
+	@Singular
+	private final @NotNull List<String> protocols;
+
+	/**
+	 * The application protocols to select with ALPN, in order of preference; by default, {@code h2} and then
+	 * {@code http/1.1}. {@code h2} is skipped if HTTP/2 is disabled on the server.
+	 */
+	@Singular
+	private final @NotNull List<String> applicationProtocols;
+
+	/**
+	 * The maximum number of sessions in the server-side session cache, or {@code 0} for no limit.
+	 */
+	@Builder.Default
+	private final int sessionCacheSize = 20480;
+
+	/**
+	 * How long sessions can be resumed for.
+	 */
+	@Builder.Default
+	private final @NotNull Duration sessionTimeout = Duration.ofHours(24);
+
+	/**
+	 * How long a client may take to complete its handshake.
+	 */
+	@Builder.Default
+	private final @NotNull Duration handshakeTimeout = Duration.ofSeconds(10);
+
+	/**
+	 * The handshake counters and timings of the listeners using this configuration.
+	 */
+	@Builder.Default
+	private final @NotNull TlsMetrics metrics = new TlsMetrics();
+
+	/**
+	 * Creates an {@link SSLContext} with the keys in a key store. The type of the key store
+	 * (such as PKCS #12 or JKS) is detected.
+	 * @param keyStore The key store file.
+	 * @param password The password of the key store and of its keys.
+	 * @return the context.
+	 * @throws IOException if the key store cannot be read.
+	 * @throws GeneralSecurityException if the keys cannot be loaded.
+	 */
+	public static @NotNull SSLContext createContext(@NotNull Path keyStore, char @NotNull [] password) throws IOException, GeneralSecurityException {
+		KeyStore store = KeyStore.getInstance(keyStore.toFile(), password);
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(store, password);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		return context;
+	}
+
+	/**
+	 * Applies the session cache settings to the {@linkplain #context}.
+	 */
+	@ApiStatus.Internal
+	public void applySessionSettings() {
+		SSLSessionContext sessions = context.getServerSessionContext();
+		sessions.setSessionCacheSize(sessionCacheSize);
+		sessions.setSessionTimeout((int) Math.min(sessionTimeout.toSeconds(), Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Creates the engine of an accepted connection.
+	 * @param socket The connection.
+	 * @param http2 Whether to offer {@code h2} with ALPN.
+	 * @return the engine, in server mode.
+	 */
+	@NotNull SSLEngine createEngine(@NotNull Socket socket, boolean http2) {
+		// connections on Unix domain sockets have no peer host
+		SSLEngine engine = socket.getInetAddress() != null
+				? context.createSSLEngine(socket.getInetAddress().getHostAddress(), socket.getPort())
+				: context.createSSLEngine();
+		engine.setUseClientMode(false);
+		if(!protocols.isEmpty()) engine.setEnabledProtocols(protocols.toArray(String[]::new));
+		// the server's order of preference wins
+		List<String> offered = applicationProtocols.isEmpty() ? List.of("h2", "http/1.1") : applicationProtocols;
+		engine.setHandshakeApplicationProtocolSelector((e, requested) -> {
+			for(String protocol : offered) {
+				if(protocol.equals("h2") && !http2) continue;
+				if(requested.contains(protocol)) return protocol;
+			}
+			// no application protocol in common; the handshake goes on without one
+			return null;
+		});
+		return engine;
+	}
+
+}
@@ -0,0 +1,272 @@
+package dev.priveweb.core.server.tls;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+/**
+ * A TLS connection, terminated with an {@link SSLEngine}. The engine only works on buffers, so the same
+ * handshake and record handling serves blocking sockets as well as connectors that move bytes themselves;
+ * here, it is fed from the socket's streams, and exposes the plaintext as streams again.
+ * <p>Reading and writing may happen on different threads at the same time.</p>
+ */
+@ApiStatus.Internal
+public final class TlsConnection {
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final SSLEngine engine;
+	private final InputStream rawIn;
+	private final OutputStream rawOut;
+	// guarded by readLock
+	private final Object readLock = new Object();
+	private ByteBuffer netIn;
+	private ByteBuffer appIn;
+	private boolean inputClosed = false;
+	// guarded by writeLock
+	private final Object writeLock = new Object();
+	private ByteBuffer netOut;
+	private boolean outputClosed = false;
+
+	private TlsConnection(@NotNull Socket socket, @NotNull SSLEngine engine) throws IOException {
+		this.engine = engine;
+		this.rawIn = socket.getInputStream();
+		this.rawOut = socket.getOutputStream();
+		this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+		this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+		this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+	}
+
+	/**
+	 * Performs the handshake of an accepted connection, recording it in the configuration's {@link TlsMetrics}.
+	 * @param socket The connection.
+	 * @param configuration The TLS settings of the listener.
+	 * @param http2 Whether to offer {@code h2} with ALPN.
+	 * @return the connection, ready for application data.
+	 * @throws IOException if the handshake fails or times out.
+	 */
+	public static @NotNull TlsConnection accept(@NotNull Socket socket, @NotNull TlsConfiguration configuration, boolean http2) throws IOException {
+		long start = System.nanoTime();
+		long startMillis = System.currentTimeMillis();
+		TlsConnection connection = new TlsConnection(socket, configuration.createEngine(socket, http2));
+		int timeout = socket.getSoTimeout();
+		try {
+			socket.setSoTimeout((int) Math.min(configuration.getHandshakeTimeout().toMillis(), Integer.MAX_VALUE));
+			connection.handshake();
+			socket.setSoTimeout(timeout);
+		} catch(IOException | RuntimeException e) {
+			configuration.getMetrics().fail();
+			throw e;
+		}
+		// a resumed session was created by an earlier handshake
+		boolean resumed = connection.engine.getSession().getCreationTime() < startMillis;
+		configuration.getMetrics().record(System.nanoTime() - start, resumed);
+		return connection;
+	}
+
+	/**
+	 * Gets the application protocol selected with ALPN.
+	 * @return the protocol (such as {@code h2}), or {@code null} if none was selected.
+	 */
+	public @Nullable String getApplicationProtocol() {
+		String protocol = engine.getApplicationProtocol();
+		return protocol == null || protocol.isEmpty() ? null : protocol;
+	}
+
+	/**
+	 * Gets a stream of the decrypted data from the client.
+	 * @return the stream, which reads {@code -1} once the client has closed its side.
+	 */
+	public @NotNull InputStream getInputStream() {
+		return new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte @NotNull [] b, int off, int len) throws IOException {
+				return TlsConnection.this.read(b, off, len);
+			}
+
+			@Override
+			public int available() {
+				synchronized(readLock) {
+					return appIn.position();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Gets a stream that encrypts data to the client. Every write is sent as one or more records at once,
+	 * so writes should be buffered. Closing the stream sends {@code close_notify}, but does not close the socket.
+	 * @return the stream.
+	 */
+	public @NotNull OutputStream getOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte @NotNull [] b, int off, int len) throws IOException {
+				TlsConnection.this.write(ByteBuffer.wrap(b, off, len));
+			}
+
+			@Override
+			public void close() throws IOException {
+				TlsConnection.this.close();
+			}
+		};
+	}
+
+	private void handshake() throws IOException {
+		engine.beginHandshake();
+		SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+		while(status != SSLEngineResult.HandshakeStatus.FINISHED && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+			switch(status) {
+				case NEED_WRAP -> status = wrapHandshake();
+				case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+					synchronized(readLock) {
+						SSLEngineResult result = unwrap();
+						if(result == null) throw new EOFException("connection closed during the TLS handshake");
+						status = result.getHandshakeStatus();
+					}
+				}
+				case NEED_TASK -> status = runTasks();
+				default -> throw new SSLException("unexpected handshake status " + status);
+			}
+		}
+	}
+
+	private @NotNull SSLEngineResult.HandshakeStatus runTasks() {
+		Runnable task;
+		while((task = engine.getDelegatedTask()) != null) task.run();
+		return engine.getHandshakeStatus();
+	}
+
+	/**
+	 * Sends handshake (or closure) messages that the engine has to send.
+	 */
+	private @NotNull SSLEngineResult.HandshakeStatus wrapHandshake() throws IOException {
+		synchronized(writeLock) {
+			SSLEngineResult result;
+			do {
+				result = wrap(EMPTY);
+			} while(result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP && result.getStatus() == SSLEngineResult.Status.OK);
+			return result.getHandshakeStatus();
+		}
+	}
+
+	/**
+	 * Unwraps one record, reading from the socket as needed.
+	 * @return the result, or {@code null} if the socket was closed first.
+	 */
+	private @Nullable SSLEngineResult unwrap() throws IOException {
+		while(true) {
+			netIn.flip();
+			SSLEngineResult result;
+			try {
+				result = engine.unwrap(netIn, appIn);
+			} finally {
+				netIn.compact();
+			}
+			switch(result.getStatus()) {
+				case OK, CLOSED -> {
+					return result;
+				}
+				case BUFFER_OVERFLOW -> appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+				case BUFFER_UNDERFLOW -> {
+					if(!netIn.hasRemaining() || netIn.capacity() < engine.getSession().getPacketBufferSize()) {
+						netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+					}
+					int n = rawIn.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+					if(n == -1) return null;
+					netIn.position(netIn.position() + n);
+				}
+			}
+		}
+	}
+
+	private int read(byte @NotNull [] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		synchronized(readLock) {
+			while(appIn.position() == 0) {
+				if(inputClosed) return -1;
+				SSLEngineResult result = unwrap();
+				// a connection closed without close_notify ends the stream as well; responses are framed anyway
+				if(result == null || result.getStatus() == SSLEngineResult.Status.CLOSED) inputClosed = true;
+				if(result == null) continue;
+				// post-handshake messages, such as key updates, may need an answer
+				SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+				if(status == SSLEngineResult.HandshakeStatus.NEED_TASK) status = runTasks();
+				if(status == SSLEngineResult.HandshakeStatus.NEED_WRAP) wrapHandshake();
+			}
+			appIn.flip();
+			int n = Math.min(len, appIn.remaining());
+			appIn.get(b, off, n);
+			appIn.compact();
+			return n;
+		}
+	}
+
+	private void write(@NotNull ByteBuffer data) throws IOException {
+		synchronized(writeLock) {
+			if(outputClosed) throw new SocketException("TLS connection closed");
+			while(data.hasRemaining()) {
+				if(wrap(data).getStatus() == SSLEngineResult.Status.CLOSED) throw new SocketException("TLS connection closed");
+			}
+		}
+	}
+
+	/**
+	 * Wraps data into records and sends them. The caller holds the write lock.
+	 */
+	private @NotNull SSLEngineResult wrap(@NotNull ByteBuffer data) throws IOException {
+		while(true) {
+			netOut.clear();
+			SSLEngineResult result = engine.wrap(data, netOut);
+			if(result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+				netOut = ByteBuffer.allocate(Math.max(netOut.capacity() * 2, engine.getSession().getPacketBufferSize()));
+				continue;
+			}
+			if(netOut.position() > 0) {
+				rawOut.write(netOut.array(), netOut.arrayOffset(), netOut.position());
+				rawOut.flush();
+			}
+			return result;
+		}
+	}
+
+	private void close() throws IOException {
+		synchronized(writeLock) {
+			if(outputClosed) return;
+			outputClosed = true;
+			engine.closeOutbound();
+			// send close_notify
+			for(int i = 0; i < 4 && !engine.isOutboundDone(); i++) wrap(EMPTY);
+		}
+	}
+
+	private static @NotNull ByteBuffer grow(@NotNull ByteBuffer buffer, int minimum) {
+		ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minimum));
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+}
@@ -0,0 +1,85 @@
+package dev.priveweb.core.server.tls;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the TLS handshakes of a {@link TlsConfiguration}, and how long they took.
+ * A handshake is timed from the moment the connection is accepted until it completes.
+ */
+public final class TlsMetrics {
+
+	private final LongAdder handshakes = new LongAdder();
+	private final LongAdder resumed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder fullNanos = new LongAdder();
+	private final LongAdder resumedNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	void record(long nanos, boolean resumption) {
+		handshakes.increment();
+		if(resumption) {
+			resumed.increment();
+			resumedNanos.add(nanos);
+		} else {
+			fullNanos.add(nanos);
+		}
+		maxNanos.accumulate(nanos);
+	}
+
+	void fail() {
+		failed.increment();
+	}
+
+	/**
+	 * Gets the number of completed handshakes.
+	 * @return the number of handshakes, including resumed ones.
+	 */
+	public long getHandshakes() {
+		return handshakes.sum();
+	}
+
+	/**
+	 * Gets the number of handshakes that resumed an earlier session, from the session cache or a session ticket.
+	 * @return the number of resumed handshakes.
+	 */
+	public long getResumedHandshakes() {
+		return resumed.sum();
+	}
+
+	/**
+	 * Gets the number of handshakes that failed or timed out.
+	 * @return the number of failed handshakes.
+	 */
+	public long getFailedHandshakes() {
+		return failed.sum();
+	}
+
+	/**
+	 * Gets the average time of full handshakes.
+	 * @return the average time in milliseconds, or {@code 0} if there were none.
+	 */
+	public double getAverageFullHandshakeMillis() {
+		long count = handshakes.sum() - resumed.sum();
+		return count == 0 ? 0 : fullNanos.sum() / 1e6 / count;
+	}
+
+	/**
+	 * Gets the average time of resumed handshakes.
+	 * @return the average time in milliseconds, or {@code 0} if there were none.
+	 */
+	public double getAverageResumedHandshakeMillis() {
+		long count = resumed.sum();
+		return count == 0 ? 0 : resumedNanos.sum() / 1e6 / count;
+	}
+
+	/**
+	 * Gets the time of the slowest handshake.
+	 * @return the time in milliseconds.
+	 */
+	public long getMaxHandshakeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+	}
+
+}
@@ -0,0 +1,4 @@
+/**
+ * TLS termination for listeners, built on {@link javax.net.ssl.SSLEngine}.
+ */
+package dev.priveweb.core.server.tls;
@@ -0,0 +1,62 @@
+package dev.priveweb.core.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that reads at most a fixed number of bytes from an underlying stream,
+ * for example a request body delimited by {@code Content-Length}.
+ * <p>Closing this stream does not close the underlying stream.</p>
+ */
+public class BoundedInputStream extends InputStream {
+
+	private final InputStream in;
+	private long remaining;
+
+	/**
+	 * Creates a new {@link BoundedInputStream}.
+	 * @param in The underlying stream.
+	 * @param length The number of bytes that can be read.
+	 */
+	public BoundedInputStream(@NotNull InputStream in, long length) {
+		Checks.ensurePositive(length);
+		this.in = in;
+		this.remaining = length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(remaining == 0) return -1;
+		int b = in.read();
+		if(b == -1) throw new EOFException("stream ended with " + remaining + " bytes remaining");
+		remaining--;
+		return b;
+	}
+
+	@Override
+	public int read(byte @NotNull [] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		if(remaining == 0) return -1;
+		int n = in.read(b, off, (int) Math.min(len, remaining));
+		if(n == -1) throw new EOFException("stream ended with " + remaining + " bytes remaining");
+		remaining -= n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	/**
+	 * Gets the number of bytes that have not been read yet.
+	 * @return the remaining number of bytes.
+	 */
+	public long remaining() {
+		return remaining;
+	}
+
+}
@@ -0,0 +1,67 @@
+package dev.priveweb.core.util;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of heap {@link ByteBuffer}s of one size, so that buffers for short-lived data such as
+ * frames are reused instead of being allocated for each read.
+ */
+public final class BufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Creates a new {@link BufferPool}.
+	 * @param bufferSize The size of each buffer, in bytes.
+	 * @param maxPooled The maximum number of idle buffers kept in the pool.
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		Checks.ensurePositive(bufferSize);
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * Takes a cleared buffer from the pool, or allocates one if the pool is empty.
+	 * @return the buffer, which has an accessible array.
+	 */
+	public @NotNull ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if(buffer == null) return ByteBuffer.allocate(bufferSize);
+		pooled.decrementAndGet();
+		return buffer.clear();
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers of another size, and buffers beyond the maximum, are dropped.
+	 * The buffer must not be used after it has been released.
+	 * @param buffer The buffer.
+	 */
+	public void release(@NotNull ByteBuffer buffer) {
+		if(buffer.capacity() != bufferSize || !buffer.hasArray() || buffer.isReadOnly()) return;
+		if(pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		buffers.offer(buffer);
+	}
+
+	/**
+	 * Gets the size of the buffers of this pool.
+	 * @return the size, in bytes.
+	 */
+	@Contract(pure = true)
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+}
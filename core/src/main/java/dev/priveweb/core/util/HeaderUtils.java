@@ -3,16 +3,30 @@ package dev.priveweb.core.util;
 import dev.priveweb.core.http.Header;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Unmodifiable;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Utilities for headers.
  */
 public abstract class HeaderUtils {
 
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME_3 = 0x165667B19E3779F9L;
+
 	private HeaderUtils() {
 		//no instance
 	}
@@ -37,4 +51,115 @@ public abstract class HeaderUtils {
 				.toList();
 	}
 
+	/**
+	 * Strips the parameters from a header value such as a media type, for example
+	 * {@code text/html; charset=utf-8} becomes {@code text/html}.
+	 * @param value The header value.
+	 * @return the lower-case value without its parameters.
+	 */
+	@Contract(pure = true)
+	public static @NotNull String stripParameters(@NotNull String value) {
+		int semicolon = value.indexOf(';');
+		return (semicolon == -1 ? value : value.substring(0, semicolon)).strip().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Gets the quality value ({@code q} parameter) of an element of a header such as {@code Accept}.
+	 * @param element The element, for example {@code application/json;q=0.5}.
+	 * @return the quality value, or {@code 1} if it is absent or malformed.
+	 */
+	@Contract(pure = true)
+	public static double getQuality(@NotNull String element) {
+		String[] parameters = element.split(";");
+		for(int i = 1; i < parameters.length; i++) {
+			String parameter = parameters[i].strip();
+			if(parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+				try {
+					return Math.max(0, Math.min(1, Double.parseDouble(parameter.substring(2).strip())));
+				} catch(NumberFormatException e) {
+					return 1;
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Formats a time as an HTTP date, for example {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+	 * @param millis The time, in milliseconds since the epoch.
+	 * @return the formatted date.
+	 */
+	@Contract(pure = true)
+	public static @NotNull String formatDate(long millis) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atOffset(ZoneOffset.UTC));
+	}
+
+	/**
+	 * Parses an HTTP date.
+	 * @param date The date, for example {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+	 * @return the time in milliseconds since the epoch, or {@code null} if the date is malformed.
+	 */
+	@Contract(pure = true)
+	public static @Nullable Long parseDate(@NotNull String date) {
+		try {
+			return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(date.strip())).toEpochMilli();
+		} catch(DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Whether an entity tag matches an {@code If-None-Match} header, using the weak comparison.
+	 * @param ifNoneMatch The values of the {@code If-None-Match} header.
+	 * @param etag The entity tag of the current representation, which may be weak.
+	 * @return {@code true} if any of the tags (or {@code *}) matches.
+	 */
+	@Contract(pure = true)
+	public static boolean matchesETag(@NotNull List<String> ifNoneMatch, @NotNull String etag) {
+		if(etag.startsWith("W/")) etag = etag.substring(2);
+		for(String value : ifNoneMatch) {
+			for(String tag : value.split(",")) {
+				tag = tag.strip();
+				if(tag.startsWith("W/")) tag = tag.substring(2);
+				if(tag.equals("*") || tag.equals(etag)) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Computes a weak entity tag from a response body, for example {@code W/"1f-6b9a0c1d2e3f4a5b"}.
+	 * The body is hashed 8 bytes at a time with a fast non-cryptographic 64-bit hash, so the tag is
+	 * not meant to resist collisions that are made on purpose.
+	 * @param body The response body.
+	 * @return the quoted weak entity tag.
+	 */
+	@Contract(pure = true)
+	public static @NotNull String weakETag(byte @NotNull [] body) {
+		return "W/\"" + Integer.toHexString(body.length) + '-' + Long.toHexString(hash(body)) + '"';
+	}
+
+	/**
+	 * Hashes bytes like the tail of XXH64, one 64-bit word at a time.
+	 */
+	private static long hash(byte @NotNull [] bytes) {
+		long h = PRIME_3 + bytes.length;
+		int i = 0;
+		for(; i + 8 <= bytes.length; i += 8) {
+			long k = (long) LONGS.get(bytes, i) * PRIME_2;
+			h ^= Long.rotateLeft(k, 31) * PRIME_1;
+			h = Long.rotateLeft(h, 27) * PRIME_1 + PRIME_2;
+		}
+		for(; i < bytes.length; i++) {
+			h ^= (bytes[i] & 0xFFL) * PRIME_3;
+			h = Long.rotateLeft(h, 11) * PRIME_1;
+		}
+		// avalanche, so that similar bodies get unrelated tags
+		h ^= h >>> 33;
+		h *= PRIME_2;
+		h ^= h >>> 29;
+		h *= PRIME_3;
+		return h ^ (h >>> 32);
+	}
+
 }
@@ -4,7 +4,10 @@ import dev.priveweb.core.marshal.Marshallable;
 import dev.priveweb.core.protocol.HTTPProtocol;
 import dev.priveweb.core.http.Header;
 import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.request.HTTPRequest;
 import dev.priveweb.core.http.response.HTTPResponse;
+import dev.priveweb.core.http.response.StreamingResponse;
+import dev.priveweb.core.server.PriveServer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -12,8 +15,10 @@ import org.slf4j.LoggerFactory;
 import slf4jansi.AnsiLogger;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -48,6 +53,25 @@ public abstract class IOUtils {
 		}
 	}
 
+	/**
+	 * Reads a single line terminated by {@code LF} (or {@code CRLF}) from the given stream,
+	 * byte by byte, so that no bytes after the line are consumed.
+	 * <p>The line is decoded as {@code ISO-8859-1}, a superset of {@code US-ASCII}, to comply with the HTTP spec.</p>
+	 * @param in The stream to read from.
+	 * @return the line without its terminator, or {@code null} if the stream ended before any byte was read.
+	 */
+	public static @Nullable String readLine(@NotNull InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int b;
+		while((b = in.read()) != -1) {
+			if(b == '\n') break;
+			line.write(b);
+		}
+		if(b == -1 && line.size() == 0) return null;
+		String s = line.toString(StandardCharsets.ISO_8859_1);
+		return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+	}
+
 	@NotNull
 	public static HTTPResponse marshalObjectIntoResponse(@Nullable Object object, @NotNull HTTPProtocol protocol) {
 		// fast-path cases
@@ -57,7 +81,19 @@ public abstract class IOUtils {
 				.header(new Header("Content-Length", "0"))
 				.build();
 		if(object instanceof Marshallable marshallable) return marshallable.marshal(protocol);
+		if(StreamingResponse.isStreamable(object)) return StreamingResponse.of(object, null).marshal(protocol);
 		throw new RuntimeException("Unsupported return type");
 	}
 
+	/**
+	 * Marshals the given object into a response to the given request.
+	 * @see Marshallable#marshal(HTTPProtocol, HTTPRequest, PriveServer)
+	 */
+	@NotNull
+	public static HTTPResponse marshalObjectIntoResponse(@Nullable Object object, @NotNull HTTPProtocol protocol, @NotNull HTTPRequest request, @NotNull PriveServer server) {
+		if(object instanceof Marshallable marshallable) return marshallable.marshal(protocol, request, server);
+		if(StreamingResponse.isStreamable(object)) return StreamingResponse.of(object, null).marshal(protocol, request, server);
+		return marshalObjectIntoResponse(object, protocol);
+	}
+
 }
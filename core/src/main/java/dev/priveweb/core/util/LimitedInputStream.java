@@ -0,0 +1,50 @@
+package dev.priveweb.core.util;
+
+import dev.priveweb.core.exception.PayloadTooLargeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that throws a {@link PayloadTooLargeException} once more than
+ * a given number of bytes have been read from it. Unlike {@link BoundedInputStream}, the
+ * length of the underlying stream is not known in advance.
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+	private final long limit;
+	private long count = 0;
+
+	/**
+	 * Creates a new {@link LimitedInputStream}.
+	 * @param in The underlying stream.
+	 * @param limit The maximum number of bytes that can be read.
+	 */
+	public LimitedInputStream(@NotNull InputStream in, long limit) {
+		super(in);
+		Checks.ensurePositive(limit);
+		this.limit = limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b != -1 && ++count > limit) throw new PayloadTooLargeException("request body", limit);
+		return b;
+	}
+
+	@Override
+	public int read(byte @NotNull [] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if(n > 0 && (count += n) > limit) throw new PayloadTooLargeException("request body", limit);
+		return n;
+	}
+
+	@Override
+	public void close() {
+		// the connection is closed by its handler
+	}
+
+}
@@ -4,6 +4,7 @@ module dev.priveweb.prive {
 	requires lombok;
 	requires org.slf4j;
 	requires moshi;
+	requires okio;
 	requires info.picocli;
 	requires trove4j;
 	requires slf4jansi;
@@ -16,18 +17,22 @@ module dev.priveweb.prive {
 	exports dev.priveweb.core.http;
 	exports dev.priveweb.core.mapper;
 	exports dev.priveweb.core.http.request;
+	exports dev.priveweb.core.http.request.body;
 	exports dev.priveweb.core.http.handlers;
 	exports dev.priveweb.core.protocol;
 	exports dev.priveweb.core.http.response;
 	exports dev.priveweb.core.http.interceptor;
 	exports dev.priveweb.core.marshal;
+	exports dev.priveweb.core.marshal.impl;
 	exports dev.priveweb.core.server;
 	exports dev.priveweb.core.server.impl;
+	exports dev.priveweb.core.server.tls;
 	exports dev.priveweb.core.exception;
 	exports dev.priveweb.core.data.impl;
 	exports dev.priveweb.core.data;
 	exports dev.priveweb.core;
 	exports dev.priveweb.core.http.session;
 	exports dev.priveweb.core.http.request.verbs;
+	exports dev.priveweb.core.http.websocket;
 
 }
\ No newline at end of file
@@ -5,7 +5,10 @@
 open module tests.broskiclan.prive {
 
 	requires java.net.http;
+	requires jdk.httpserver;
 	requires dev.priveweb.prive;
+	requires moshi;
+	requires okio;
 	requires org.junit.jupiter.api;
 	requires lombok;
 	requires org.jetbrains.annotations;
@@ -1,21 +1,45 @@
 package tests.broskiclan.prive;
 
+import com.squareup.moshi.Json;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
 import dev.priveweb.core.data.impl.ChunkedCoder;
+import dev.priveweb.core.data.impl.DeflateCoder;
+import dev.priveweb.core.data.impl.GzipCoder;
+import dev.priveweb.core.exception.PayloadTooLargeException;
 import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.handlers.AssetCache;
+import dev.priveweb.core.http.handlers.CachedAsset;
+import dev.priveweb.core.http.handlers.ProxyHandler;
 import dev.priveweb.core.http.handlers.ResourceHandler;
 import dev.priveweb.core.http.request.HTTPRequest;
 import dev.priveweb.core.http.request.RequestMethod;
+import dev.priveweb.core.http.request.body.MultipartReader;
+import dev.priveweb.core.http.response.BodyWriter;
+import dev.priveweb.core.http.response.EncodedResponse;
+import dev.priveweb.core.http.response.HTTPResponse;
+import dev.priveweb.core.http.response.ResponseCache;
 import dev.priveweb.core.http.response.ResponseObject;
+import dev.priveweb.core.marshal.FastJson;
+import dev.priveweb.core.marshal.JsonAdapterCache;
+import dev.priveweb.core.marshal.impl.MessagePackMarshaller;
 import dev.priveweb.core.protocol.HTTPProtocol;
 import dev.priveweb.core.server.impl.PriveWebServer;
+import dev.priveweb.core.server.tls.TlsConfiguration;
 import dev.priveweb.core.util.Checks;
+import dev.priveweb.core.util.HeaderUtils;
 import dev.priveweb.core.util.IOUtils;
 import lombok.SneakyThrows;
+import okio.Buffer;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -23,9 +47,16 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 
 @SuppressWarnings("all")
@@ -73,6 +104,47 @@ public class PriveTest {
 		System.out.println(responseObject.marshal(HTTPProtocol.HTTP1_1));
 	}
 
+	@Test
+	@SneakyThrows
+	@SuppressWarnings("unchecked")
+	public void test_generic_JSON_marshalling() {
+		ResponseObject<List<String>> responseObject = ResponseObject.<List<String>>builder()
+				.responseCode(ResponseCode.S_200)
+				.responseBody(List.of("Hello", "world!"))
+				.responseBodyClass((Class<List<String>>) (Class<?>) List.class)
+				.responseBodyType(Types.newParameterizedType(List.class, String.class))
+				.build();
+		var response = responseObject.marshal(HTTPProtocol.HTTP1_1);
+		var out = new ByteArrayOutputStream();
+		response.writeBody(out);
+		Checks.ensureEquals(out.toString(StandardCharsets.UTF_8), "[\"Hello\",\"world!\"]");
+		Checks.ensureEquals(response.getContentLength(), (long) out.size());
+		Checks.ensureEquals(responseObject.toJSON(), out.toString(StandardCharsets.UTF_8));
+	}
+
+	@FastJson
+	public static class FastTestClass extends TestClass {
+		private int count = 3;
+		private long id = Long.MAX_VALUE;
+		private double ratio = 0.5;
+		private boolean enabled = true;
+		@Json(name = "escaped\"name") private String escaped = "line\nbreak \"quoted\" \u2028";
+		private String nothing = null;
+		private transient String ignored = "ignored";
+		private List<Integer> numbers = List.of(1, 2, 3);
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_fast_JSON_codec() {
+		var reflective = new Moshi.Builder().build().adapter(FastTestClass.class);
+		var fast = JsonAdapterCache.<FastTestClass>adapter(FastTestClass.class);
+		var json = fast.toJson(new FastTestClass());
+		Checks.ensureEquals(json, reflective.toJson(new FastTestClass()));
+		var decoded = fast.fromJson("{\"count\":7,\"unknown\":{\"a\":[1]},\"escaped\\\"name\":\"x\",\"nothing\":\"y\",\"numbers\":[4]}");
+		Checks.ensureEquals(reflective.toJson(decoded), "{\"count\":7,\"enabled\":true,\"escaped\\\"name\":\"x\",\"id\":9223372036854775807,\"nothing\":\"y\",\"numbers\":[4],\"ratio\":0.5,\"string\":\"Hello, world!\",\"strings\":[\"Hello\",\"world!\"]}");
+	}
+
 	public static class TestClass {
 		private final String string;
 		private final List<String> strings;
@@ -104,4 +176,1145 @@ public class PriveTest {
 		server.halt();
 	}
 
+	@Test
+	@SneakyThrows
+	public void chunked_stream_decoding_test() {
+		var charset = StandardCharsets.ISO_8859_1;
+		var uuidStr = UUID.randomUUID().toString();
+		var bytes = (Integer.toHexString(uuidStr.length()) + ";ext=1\r\n" + uuidStr + "\r\n" + Integer.toHexString(uuidStr.length()) + "\r\n" + uuidStr + "\r\n0\r\n\r\ntrailing").getBytes(charset);
+		var in = new ByteArrayInputStream(bytes);
+		var decode = new ChunkedCoder().decode(in, charset).readAllBytes();
+		Checks.ensureEquals(new String(decode, charset), uuidStr + uuidStr);
+		Checks.ensureEquals(new String(in.readAllBytes(), charset), "trailing"); // nothing after the last chunk is consumed
+	}
+
+	@Test
+	public void test_streamed_json_request_body() throws IOException, InterruptedException, URISyntaxException {
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8665);
+		server.register(new TestListener());
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var json = "{\"string\":\"streamed\",\"strings\":[\"a\",\"b\"]}".getBytes(StandardCharsets.UTF_8);
+		HttpRequest request = HttpRequest.newBuilder(new URI("http://localhost:8665/echo"))
+				.POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(json))) // sent chunked
+				.build();
+		var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		server.halt();
+		Checks.ensureEquals(response.statusCode(), 200);
+		Checks.ensureEquals(response.body(), new String(json, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_MessagePack_round_trip() {
+		var marshaller = new MessagePackMarshaller();
+		var buffer = new Buffer();
+		marshaller.marshal(new FastTestClass(), FastTestClass.class, buffer);
+		var decoded = (FastTestClass) marshaller.unmarshal(FastTestClass.class, buffer);
+		var adapter = JsonAdapterCache.<FastTestClass>adapter(FastTestClass.class);
+		Checks.ensureEquals(adapter.toJson(decoded), adapter.toJson(new FastTestClass()));
+		Checks.ensure(buffer.exhausted());
+		// unknown fields are skipped, and names are matched however they are encoded (here "count" as str 8)
+		buffer.write(new byte[] {(byte) 0x83, (byte) 0xA7}).writeUtf8("unknown").write(new byte[] {(byte) 0x91, (byte) 0x81, (byte) 0xA1, 'a', (byte) 0xCB})
+				.writeLong(Double.doubleToLongBits(1.5))
+				.write(new byte[] {(byte) 0xD9, 5}).writeUtf8("count").writeByte(7)
+				.writeByte(0xA7).writeUtf8("nothing").writeByte(0xC0);
+		var partial = (FastTestClass) marshaller.unmarshal(FastTestClass.class, buffer);
+		Checks.ensure(adapter.toJson(partial).startsWith("{\"count\":7,\"enabled\":true,"));
+		Checks.ensure(buffer.exhausted());
+		var map = Types.newParameterizedType(java.util.Map.class, String.class, TestClass.class);
+		marshaller.marshal(java.util.Map.of("a", new TestClass()), map, buffer);
+		Checks.ensureEquals(JsonAdapterCache.adapter(map).toJson(marshaller.unmarshal(map, buffer)), "{\"a\":{\"string\":\"Hello, world!\",\"strings\":[\"Hello\",\"world!\"]}}");
+		// deeply nested arrays fail to parse instead of overflowing the stack, whether read, typed or skipped
+		var nested = new byte[200_000];
+		Arrays.fill(nested, (byte) 0x91);
+		var list = Types.newParameterizedType(List.class, Object.class);
+		Assertions.assertThrows(IOException.class, () -> marshaller.unmarshal(Object.class, new Buffer().write(nested)));
+		Assertions.assertThrows(IOException.class, () -> marshaller.unmarshal(list, new Buffer().write(nested)));
+		var unknown = new Buffer().write(new byte[] {(byte) 0x81, (byte) 0xA7}).writeUtf8("unknown").write(nested);
+		Assertions.assertThrows(IOException.class, () -> marshaller.unmarshal(FastTestClass.class, unknown));
+	}
+
+	@Test
+	public void test_content_negotiation() throws IOException, InterruptedException, URISyntaxException {
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8666);
+		server.register(new TestListener());
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var json = "{\"string\":\"negotiated\",\"strings\":[\"a\"]}";
+		HttpRequest request = HttpRequest.newBuilder(new URI("http://localhost:8666/echo"))
+				.header("Accept", "application/json;q=0.5, application/msgpack")
+				.POST(HttpRequest.BodyPublishers.ofString(json))
+				.build();
+		var response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+		server.halt();
+		Checks.ensureEquals(response.headers().firstValue("Content-Type").orElseThrow(), "application/msgpack");
+		var decoded = new MessagePackMarshaller().unmarshal(TestClass.class, new Buffer().write(response.body()));
+		Checks.ensureEquals(JsonAdapterCache.adapter(TestClass.class).toJson(decoded), json);
+	}
+
+	private static byte[] multipartBody(String boundary, byte[] file) {
+		var out = new ByteArrayOutputStream();
+		out.writeBytes(("--" + boundary + "\r\n"
+				+ "Content-Disposition: form-data; name=\"title\"\r\n\r\n"
+				+ "hello\r\n"
+				+ "--" + boundary + "\r\n"
+				+ "Content-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n"
+				+ "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+		out.writeBytes(file);
+		out.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+		return out.toByteArray();
+	}
+
+	@Test
+	@SneakyThrows
+	public void multipart_parsing_test() {
+		var boundary = "----prive" + UUID.randomUUID();
+		// large enough to span many buffer refills, with line breaks and dashes that nearly match the delimiter
+		var file = new byte[100_000];
+		new Random(42).nextBytes(file);
+		for(int i = 0; i < file.length; i += 997) {
+			file[i] = '\r';
+			if(i + 3 < file.length) System.arraycopy("\n--".getBytes(StandardCharsets.ISO_8859_1), 0, file, i + 1, 3);
+		}
+		Path spooled;
+		try(var reader = new MultipartReader(new ByteArrayInputStream(multipartBody(boundary, file)), boundary, 1024, -1, null)) {
+			var parts = reader.readAll();
+			Checks.ensureEquals(parts.size(), 2);
+			Checks.ensureEquals(parts.get(0).getName(), "title");
+			Checks.ensureEquals(parts.get(0).getString(), "hello");
+			Checks.ensure(parts.get(0).getBody().isInMemory());
+			Checks.ensureEquals(parts.get(1).getFilename(), "data.bin");
+			Checks.ensureEquals(parts.get(1).getContentType(), "application/octet-stream");
+			Checks.ensure(!parts.get(1).getBody().isInMemory());
+			try(var in = parts.get(1).openStream()) {
+				Checks.ensureEquals(in.readAllBytes(), file);
+			}
+			spooled = parts.get(1).getBody().getFile();
+		}
+		Checks.ensure(!Files.exists(spooled));
+		try(var reader = new MultipartReader(new ByteArrayInputStream(multipartBody(boundary, file)), boundary, 1024, 1000, null)) {
+			Assertions.assertThrows(PayloadTooLargeException.class, reader::readAll);
+		}
+	}
+
+	@Test
+	public void test_multipart_upload() throws IOException, InterruptedException, URISyntaxException {
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8667);
+		server.register(new TestListener());
+		server.setBodySpoolThreshold(4096);
+		server.setMaxRequestBodySize(65536);
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var boundary = "prive-boundary";
+		HttpRequest request = HttpRequest.newBuilder(new URI("http://localhost:8667/upload"))
+				.header("Content-Type", "multipart/form-data; boundary=" + boundary)
+				.POST(HttpRequest.BodyPublishers.ofByteArray(multipartBody(boundary, new byte[10_000])))
+				.build();
+		var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		HttpRequest tooLarge = HttpRequest.newBuilder(new URI("http://localhost:8667/upload"))
+				.header("Content-Type", "multipart/form-data; boundary=" + boundary)
+				.POST(HttpRequest.BodyPublishers.ofByteArray(multipartBody(boundary, new byte[70_000])))
+				.build();
+		var rejected = client.send(tooLarge, HttpResponse.BodyHandlers.ofString());
+		server.halt();
+		Checks.ensureEquals(response.body(), "\"title:hello,file:10000@disk\"");
+		Checks.ensureEquals(rejected.statusCode(), 413);
+	}
+
+	@Test
+	public void test_static_file_transfer() throws IOException, InterruptedException, URISyntaxException {
+		var file = Files.createTempDirectory("prive").resolve("asset.bin");
+		var data = new byte[5 * 1024 * 1024 + 17];
+		new Random(7).nextBytes(data);
+		Files.write(file, data);
+		// streamed when there is no channel
+		var out = new ByteArrayOutputStream();
+		BodyWriter.of(file).writeTo(out);
+		Checks.ensureEquals(out.toByteArray(), data);
+		// sent with transferTo otherwise
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8668);
+		server.register(ResourceHandler.builder().resourcePrefix("/static/").resource(file).build());
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var response = client.send(HttpRequest.newBuilder(new URI("http://localhost:8668/static/asset.bin")).build(), HttpResponse.BodyHandlers.ofByteArray());
+		server.halt();
+		Checks.ensureEquals(response.statusCode(), 200);
+		Checks.ensureEquals(response.headers().firstValue("Content-Length").orElseThrow(), String.valueOf(data.length));
+		Checks.ensureEquals(response.body(), data);
+		Files.delete(file);
+	}
+
+	@Test
+	public void test_asset_cache() throws IOException, InterruptedException, URISyntaxException {
+		var cache = new AssetCache(3000, 2000);
+		for(String key : List.of("a", "b", "c")) {
+			var encoded = EncodedResponse.encode(HTTPResponse.builder().protocol("HTTP/1.1").responseCode(ResponseCode.S_200).responseBody(new byte[1200]).build());
+			cache.put(key, new CachedAsset(encoded, "\"" + key + "\"", 0));
+			if(key.equals("b")) cache.get("a"); // "b" is now the least recently used
+		}
+		Checks.ensure(cache.get("a") != null);
+		Checks.ensure(cache.get("b") == null);
+		Checks.ensure(cache.get("c") != null);
+		Checks.ensure(cache.size() <= 3000);
+		Checks.ensureEquals(cache.getEvictions(), 1L);
+
+		var file = Files.createTempDirectory("prive").resolve("landing.html");
+		Files.writeString(file, "<h1>cached</h1>");
+		var handler = ResourceHandler.builder().resource(file).preload(true).watch(false).build();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8669);
+		server.register(handler);
+		Files.delete(file); // hits must not touch the file system
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var uri = new URI("http://localhost:8669/landing.html");
+		var response = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		var head = client.send(HttpRequest.newBuilder(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+		server.halt();
+		Checks.ensureEquals(response.body(), "<h1>cached</h1>");
+		Checks.ensureEquals(response.headers().firstValue("Content-Type").orElseThrow(), "text/html; charset=utf-8");
+		Checks.ensureEquals(head.body(), "");
+		Checks.ensureEquals(handler.getCache().getHits(), 2L);
+	}
+
+	@Test
+	public void test_conditional_get() throws IOException, InterruptedException, URISyntaxException {
+		var file = Files.createTempDirectory("prive").resolve("app.js");
+		Files.writeString(file, "console.log('prive');");
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8670);
+		// the second handler has no cache, so validators are also checked against the file itself
+		server.register(ResourceHandler.builder().resourcePrefix("/assets/").resource(file).cacheControl("/assets/", "max-age=3600").build());
+		server.register(ResourceHandler.builder().resourcePrefix("/uncached/").resource(file).cache(null).build());
+		// the third handler does not hash the file, so its tag is made of the size and the modification time
+		server.register(ResourceHandler.builder().resourcePrefix("/unhashed/").resource(file).cache(null).maxHashedSize(0).build());
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		for(String prefix : List.of("/assets/", "/uncached/", "/unhashed/")) {
+			var uri = new URI("http://localhost:8670" + prefix + "app.js");
+			var first = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+			var etag = first.headers().firstValue("ETag").orElseThrow();
+			var lastModified = first.headers().firstValue("Last-Modified").orElseThrow();
+			var byTag = client.send(HttpRequest.newBuilder(uri).header("If-None-Match", "\"other\", " + etag).build(), HttpResponse.BodyHandlers.ofString());
+			var byDate = client.send(HttpRequest.newBuilder(uri).header("If-Modified-Since", lastModified).build(), HttpResponse.BodyHandlers.ofString());
+			var changed = client.send(HttpRequest.newBuilder(uri).header("If-None-Match", "\"other\"").build(), HttpResponse.BodyHandlers.ofString());
+			Checks.ensureEquals(first.statusCode(), 200);
+			Checks.ensure(etag.startsWith("\"") && etag.endsWith("\""));
+			Checks.ensureEquals(byTag.statusCode(), 304);
+			Checks.ensureEquals(byTag.headers().firstValue("ETag").orElseThrow(), etag);
+			Checks.ensureEquals(byTag.body(), "");
+			Checks.ensureEquals(byDate.statusCode(), 304);
+			Checks.ensureEquals(changed.statusCode(), 200);
+			Checks.ensureEquals(changed.body(), "console.log('prive');");
+			Checks.ensureEquals(first.headers().firstValue("Cache-Control").orElse(null), prefix.equals("/assets/") ? "max-age=3600" : null);
+			var size = Long.toHexString(Files.size(file));
+			Checks.ensureEquals(etag.startsWith("\"" + size + "-"), prefix.equals("/unhashed/"));
+			var range = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=0-6").header("If-Range", etag).build(), HttpResponse.BodyHandlers.ofString());
+			Checks.ensureEquals(range.statusCode(), 206);
+			Checks.ensureEquals(range.body(), "console");
+		}
+		server.halt();
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_range_requests() {
+		var file = Files.createTempDirectory("prive").resolve("video.bin");
+		var data = new byte[1000];
+		for(int i = 0; i < data.length; i++) data[i] = (byte) (i % 251);
+		Files.write(file, data);
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8671);
+		server.register(ResourceHandler.builder().resource(file).build());
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var uri = new URI("http://localhost:8671/video.bin");
+		var full = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray());
+		var single = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=10-19").build(), HttpResponse.BodyHandlers.ofByteArray());
+		var suffix = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=-5").build(), HttpResponse.BodyHandlers.ofByteArray());
+		var multiple = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=900-909, 0-1, 1-3").build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.ISO_8859_1));
+		var stale = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=10-19").header("If-Range", "\"stale\"").build(), HttpResponse.BodyHandlers.ofByteArray());
+		var unsatisfiable = client.send(HttpRequest.newBuilder(uri).header("Range", "bytes=5000-").build(), HttpResponse.BodyHandlers.ofByteArray());
+		server.halt();
+		Checks.ensureEquals(full.headers().firstValue("Accept-Ranges").orElseThrow(), "bytes");
+		Checks.ensureEquals(single.statusCode(), 206);
+		Checks.ensureEquals(single.headers().firstValue("Content-Range").orElseThrow(), "bytes 10-19/1000");
+		Checks.ensureEquals(single.body(), Arrays.copyOfRange(data, 10, 20));
+		Checks.ensureEquals(suffix.body(), Arrays.copyOfRange(data, 995, 1000));
+		Checks.ensureEquals(multiple.statusCode(), 206);
+		var contentType = multiple.headers().firstValue("Content-Type").orElseThrow();
+		Checks.ensure(contentType.startsWith("multipart/byteranges; boundary="));
+		var boundary = contentType.substring(contentType.indexOf('=') + 1);
+		// "0-1" and "1-3" are coalesced
+		var parts = new MultipartReader(new ByteArrayInputStream(multiple.body().getBytes(StandardCharsets.ISO_8859_1)), boundary, 4096, -1, null).readAll();
+		Checks.ensureEquals(parts.size(), 2);
+		Checks.ensureEquals(parts.get(0).getHeader("Content-Range"), "bytes 0-3/1000");
+		Checks.ensureEquals(parts.get(0).openStream().readAllBytes(), Arrays.copyOfRange(data, 0, 4));
+		Checks.ensureEquals(parts.get(1).getHeader("Content-Range"), "bytes 900-909/1000");
+		Checks.ensureEquals(parts.get(1).openStream().readAllBytes(), Arrays.copyOfRange(data, 900, 910));
+		Checks.ensureEquals(stale.statusCode(), 200);
+		Checks.ensureEquals(stale.body(), data);
+		Checks.ensureEquals(unsatisfiable.statusCode(), 416);
+		Checks.ensureEquals(unsatisfiable.headers().firstValue("Content-Range").orElseThrow(), "bytes */1000");
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_precompressed_resources() {
+		var directory = Files.createTempDirectory("prive");
+		var script = directory.resolve("app.js");
+		var style = directory.resolve("style.css");
+		var image = directory.resolve("logo.png");
+		Files.writeString(script, "console.log('prive');".repeat(100));
+		Files.writeString(style, "body { color: red; }");
+		Files.write(style.resolveSibling("style.css.gz"), new GzipCoder().encode("/* sidecar */".getBytes(), StandardCharsets.UTF_8));
+		Files.write(image, new byte[64]);
+		var handler = ResourceHandler.builder().resource(script).resource(style).resource(image).build();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8672);
+		server.register(handler);
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		java.util.function.BiFunction<String, String, HttpResponse<byte[]>> get = (path, acceptEncoding) -> {
+			try {
+				var builder = HttpRequest.newBuilder(new URI("http://localhost:8672/" + path));
+				if(acceptEncoding != null) builder.header("Accept-Encoding", acceptEncoding);
+				return client.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+			} catch(Exception e) {
+				throw new RuntimeException(e);
+			}
+		};
+		var gzipped = get.apply("app.js", "gzip");
+		var again = get.apply("app.js", "gzip");
+		var deflated = get.apply("app.js", "br;q=1, deflate;q=0.8, gzip;q=0.5");
+		var identity = get.apply("app.js", null);
+		var sidecar = get.apply("style.css", "gzip, deflate");
+		var incompressible = get.apply("logo.png", "gzip");
+		// request bodies are not decompressed, as they could inflate without bound
+		var compressed = new dev.priveweb.core.server.impl.LocalConnector(server)
+				.exchange("POST /app.js HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: gzip, chunked\r\n\r\n0\r\n\r\n");
+		server.halt();
+		Checks.ensureEquals(gzipped.headers().firstValue("Content-Encoding").orElseThrow(), "gzip");
+		Checks.ensureEquals(new GzipCoder().decode(gzipped.body(), StandardCharsets.UTF_8), Files.readAllBytes(script));
+		Checks.ensure(gzipped.headers().firstValue("ETag").orElseThrow().endsWith("-gzip\""));
+		Checks.ensureEquals(gzipped.headers().firstValue("Vary").orElseThrow(), "Accept-Encoding");
+		Checks.ensureEquals(again.body(), gzipped.body());
+		Checks.ensureEquals(deflated.headers().firstValue("Content-Encoding").orElseThrow(), "deflate");
+		Checks.ensureEquals(new DeflateCoder().decode(deflated.body(), StandardCharsets.UTF_8), Files.readAllBytes(script));
+		Checks.ensure(identity.headers().firstValue("Content-Encoding").isEmpty());
+		Checks.ensureEquals(identity.body(), Files.readAllBytes(script));
+		Checks.ensureEquals(new String(new GzipCoder().decode(sidecar.body(), StandardCharsets.UTF_8)), "/* sidecar */");
+		Checks.ensure(incompressible.headers().firstValue("Content-Encoding").isEmpty());
+		Checks.ensure(compressed.startsWith("HTTP/1.1 501 "));
+		// the gzip variant of app.js was compressed once, then served from the cache
+		Checks.ensureEquals(handler.getCache().getHits(), 1L);
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_resource_index_watch() {
+		var directory = Files.createTempDirectory("prive").resolve("site");
+		Files.createDirectories(directory.resolve("docs/guide"));
+		Files.writeString(directory.resolve("index.html"), "<h1>home</h1>");
+		Files.writeString(directory.resolve("docs/guide/Intro.txt"), "first");
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8673);
+		server.register(ResourceHandler.builder().resourcePrefix("/files/").resource(directory).build());
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		java.util.function.Function<String, HttpResponse<String>> get = path -> {
+			try {
+				return client.send(HttpRequest.newBuilder(new URI("http://localhost:8673/files/" + path)).build(), HttpResponse.BodyHandlers.ofString());
+			} catch(Exception e) {
+				throw new RuntimeException(e);
+			}
+		};
+		var home = get.apply("site");
+		var first = get.apply("site/docs/guide/intro.txt");
+		var missing = get.apply("site/docs/missing.txt");
+		// the watcher invalidates the cached response once the file changes
+		Files.writeString(directory.resolve("docs/guide/Intro.txt"), "second, and longer");
+		Files.writeString(directory.resolve("docs/added.txt"), "added");
+		HttpResponse<String> second = first, added = missing;
+		for(int i = 0; i < 100 && (!second.body().equals("second, and longer") || added.statusCode() != 200); i++) {
+			Thread.sleep(100);
+			second = get.apply("site/docs/guide/intro.txt");
+			added = get.apply("site/docs/added.txt");
+		}
+		Files.delete(directory.resolve("docs/guide/Intro.txt"));
+		HttpResponse<String> deleted = second;
+		for(int i = 0; i < 100 && deleted.statusCode() != 404; i++) {
+			Thread.sleep(100);
+			deleted = get.apply("site/docs/guide/intro.txt");
+		}
+		server.halt();
+		Checks.ensureEquals(home.body(), "<h1>home</h1>");
+		Checks.ensureEquals(first.body(), "first");
+		Checks.ensureEquals(missing.statusCode(), 404);
+		Checks.ensureEquals(second.body(), "second, and longer");
+		Checks.ensureEquals(added.body(), "added");
+		Checks.ensureEquals(deleted.statusCode(), 404);
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_automatic_etag() {
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8674);
+		server.register(new TestListener());
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var uri = new URI("http://localhost:8674/status");
+		var first = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		var etag = first.headers().firstValue("ETag").orElseThrow();
+		var unchanged = client.send(HttpRequest.newBuilder(uri).header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.ofString());
+		client.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString("busy")).build(), HttpResponse.BodyHandlers.ofString());
+		var changed = client.send(HttpRequest.newBuilder(uri).header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.ofString());
+		server.halt();
+		Checks.ensure(etag.startsWith("W/\""));
+		Checks.ensureEquals(unchanged.statusCode(), 304);
+		Checks.ensureEquals(unchanged.body(), "");
+		Checks.ensureEquals(unchanged.headers().firstValue("ETag").orElseThrow(), etag);
+		Checks.ensureEquals(changed.statusCode(), 200);
+		Checks.ensure(changed.body().contains("busy"));
+		Checks.ensure(!changed.headers().firstValue("ETag").orElseThrow().equals(etag));
+		Checks.ensureEquals(HeaderUtils.weakETag("busy".getBytes()), HeaderUtils.weakETag("busy".getBytes()));
+		Checks.ensure(!HeaderUtils.weakETag(new byte[16]).equals(HeaderUtils.weakETag(new byte[17])));
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_response_cache() {
+		var cache = new ResponseCache(Runnable::run, 1, 1000, 1000);
+		for(String key : List.of("a", "b", "c")) {
+			cache.get(key, 60_000, 0, () -> HTTPResponse.builder().protocol("HTTP/1.1").responseCode(ResponseCode.S_200).responseBody(new byte[400]).build());
+		}
+		Checks.ensureEquals(cache.count(), 2);
+		Checks.ensureEquals(cache.getEvictions(), 1L);
+		Checks.ensure(cache.size() <= 1000);
+
+		var listener = new TestListener();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8675);
+		server.register(listener);
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var uri = new URI("http://localhost:8675/aggregate?region=eu");
+		// concurrent misses invoke the handler once
+		List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+		for(int i = 0; i < 8; i++) responses.add(client.sendAsync(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString()));
+		for(var response : responses) Checks.ensureEquals(response.get().body(), "\"[eu]#1\"");
+		Checks.ensureEquals(listener.aggregations.get(), 1);
+		var other = client.send(HttpRequest.newBuilder(new URI("http://localhost:8675/aggregate?region=us")).build(), HttpResponse.BodyHandlers.ofString());
+		Checks.ensureEquals(other.body(), "\"[us]#2\"");
+		// an expired response is sent while it is refreshed
+		Thread.sleep(600);
+		var stale = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		HttpResponse<String> refreshed = stale;
+		for(int i = 0; i < 50 && refreshed.body().equals(stale.body()); i++) {
+			Thread.sleep(100);
+			refreshed = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		}
+		// each negotiated format is cached apart
+		var packed = client.send(HttpRequest.newBuilder(uri).header("Accept", "application/msgpack").build(), HttpResponse.BodyHandlers.ofByteArray());
+		var json = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		// handlers of other methods on the same route are cached apart
+		var posted = client.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+		var fetched = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		server.halt();
+		Checks.ensureEquals(posted.body(), "\"posted [eu]\"");
+		Checks.ensureEquals(fetched.body(), "\"[eu]#3\"");
+		Checks.ensureEquals(packed.headers().firstValue("Content-Type").orElseThrow(), "application/msgpack");
+		Checks.ensureEquals(new MessagePackMarshaller().unmarshal(String.class, new Buffer().write(packed.body())), "[eu]#4");
+		Checks.ensureEquals(json.headers().firstValue("Content-Type").orElseThrow(), "application/json");
+		Checks.ensureEquals(json.body(), "\"[eu]#3\"");
+		Checks.ensureEquals(stale.body(), "\"[eu]#1\"");
+		Checks.ensureEquals(refreshed.body(), "\"[eu]#3\"");
+		Checks.ensure(server.getResponseCache().getCollapsed() + server.getResponseCache().getHits() >= 7);
+		Checks.ensure(server.getResponseCache().getStaleHits() >= 1);
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_streamed_responses() {
+		var listener = new TestListener();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8676);
+		server.register(listener);
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		var uri = new URI("http://localhost:8676/export");
+		var array = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		var ndjson = client.send(HttpRequest.newBuilder(uri).header("Accept", "application/json;q=0.5, application/x-ndjson").build(), HttpResponse.BodyHandlers.ofLines());
+		var element = "{\"string\":\"Hello, world!\",\"strings\":[\"Hello\",\"world!\"]}";
+		var lines = ndjson.body().toList();
+		server.halt();
+		Checks.ensureEquals(array.headers().firstValue("Content-Type").orElseThrow(), "application/json");
+		Checks.ensureEquals(array.body(), "[" + String.join(",", java.util.Collections.nCopies(5000, element)) + "]");
+		Checks.ensureEquals(ndjson.headers().firstValue("Content-Type").orElseThrow(), "application/x-ndjson");
+		Checks.ensureEquals(lines.size(), 5000);
+		Checks.ensureEquals(lines.get(4999), element);
+		Checks.ensureEquals(listener.closedExports.get(), 2);
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_server_sent_events() {
+		var listener = new TestListener();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8677);
+		server.register(listener);
+		server.start(true);
+		List<String> head = new ArrayList<>(), events = new ArrayList<>();
+		boolean heartbeat = false;
+		try(var socket = new java.net.Socket("localhost", 8677)) {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			var reader = new java.io.BufferedReader(new java.io.InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			String line;
+			while(!(line = reader.readLine()).isEmpty()) head.add(line);
+			for(int i = 0; i < 7; i++) events.add(reader.readLine());
+			listener.emitters.get(0).send("2", null, "later");
+			for(int i = 0; i < 3; i++) events.add(reader.readLine());
+			for(int i = 0; i < 10 && !heartbeat; i++) heartbeat = reader.readLine().equals(":");
+		}
+		// the next heartbeats fail, which closes the emitter
+		for(int i = 0; i < 50 && listener.closedEmitters.get() == 0; i++) Thread.sleep(100);
+		server.halt();
+		Checks.ensureEquals(head.get(0), "HTTP/1.1 200 OK");
+		Checks.ensure(head.contains("Content-Type: text/event-stream"));
+		Checks.ensure(head.stream().noneMatch(h -> h.startsWith("Content-Length")));
+		Checks.ensureEquals(events, List.of("retry: 2000", "", "id: 1", "event: greeting", "data: hello", "data: world", "", "id: 2", "data: later", ""));
+		Checks.ensure(heartbeat);
+		Checks.ensureEquals(listener.closedEmitters.get(), 1);
+		Checks.ensure(!listener.emitters.get(0).isOpen());
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_server_sent_events_slow_client() {
+		var listener = new TestListener();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8681);
+		server.register(listener);
+		server.start(true);
+		String event = "x".repeat(65536);
+		boolean refused = false, heartbeat = false;
+		long slowest = 0;
+		try(var slow = new java.net.Socket()) {
+			// the slow client never reads past the response head
+			slow.setReceiveBufferSize(4096);
+			slow.connect(new java.net.InetSocketAddress("localhost", 8681));
+			slow.getOutputStream().write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			for(int i = 0; i < 50 && listener.emitters.isEmpty(); i++) Thread.sleep(20);
+			var emitter = listener.emitters.get(0);
+			for(int i = 0; i < 1024 && !refused; i++) {
+				long start = System.nanoTime();
+				try {
+					emitter.send(event);
+				} catch(IOException e) {
+					refused = true;
+				}
+				slowest = Math.max(slowest, System.nanoTime() - start);
+			}
+			// the heartbeats of other clients are not held up
+			try(var other = new java.net.Socket("localhost", 8681)) {
+				other.setSoTimeout(5000);
+				other.getOutputStream().write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				var reader = new java.io.BufferedReader(new java.io.InputStreamReader(other.getInputStream(), StandardCharsets.UTF_8));
+				for(int i = 0; i < 20 && !heartbeat; i++) heartbeat = reader.readLine().equals(":");
+			}
+		}
+		server.halt();
+		// sending only queues, so it never waits for the client
+		Checks.ensure(slowest < 500_000_000L);
+		Checks.ensure(refused);
+		Checks.ensure(!listener.emitters.get(0).isOpen());
+		Checks.ensure(heartbeat);
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_websocket() {
+		var listener = new TestListener();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8678);
+		server.register(listener);
+		server.start(true);
+		// echo, ping and close through the JDK client
+		var received = new java.util.concurrent.LinkedBlockingQueue<Object>();
+		var ws = HttpClient.newHttpClient().newWebSocketBuilder()
+				.subprotocols("echo")
+				.buildAsync(new URI("ws://localhost:8678/echo-ws"), new java.net.http.WebSocket.Listener() {
+					private final StringBuilder text = new StringBuilder();
+
+					@Override
+					public java.util.concurrent.CompletionStage<?> onText(java.net.http.WebSocket webSocket, CharSequence data, boolean last) {
+						text.append(data);
+						if(last) {
+							received.add(text.toString());
+							text.setLength(0);
+						}
+						webSocket.request(1);
+						return null;
+					}
+
+					@Override
+					public java.util.concurrent.CompletionStage<?> onBinary(java.net.http.WebSocket webSocket, java.nio.ByteBuffer data, boolean last) {
+						byte[] bytes = new byte[data.remaining()];
+						data.get(bytes);
+						received.add(bytes);
+						webSocket.request(1);
+						return null;
+					}
+
+					@Override
+					public java.util.concurrent.CompletionStage<?> onPong(java.net.http.WebSocket webSocket, java.nio.ByteBuffer message) {
+						received.add("pong:" + StandardCharsets.UTF_8.decode(message));
+						webSocket.request(1);
+						return null;
+					}
+
+					@Override
+					public java.util.concurrent.CompletionStage<?> onClose(java.net.http.WebSocket webSocket, int statusCode, String reason) {
+						received.add(statusCode);
+						return null;
+					}
+				}).get(5, java.util.concurrent.TimeUnit.SECONDS);
+		Checks.ensureEquals(ws.getSubprotocol(), "echo");
+		String large = "x".repeat(100_000);
+		ws.sendText("hello", true).get();
+		ws.sendText(large, true).get();
+		ws.sendBinary(java.nio.ByteBuffer.wrap(new byte[] {1, 2, 3}), true).get();
+		ws.sendPing(java.nio.ByteBuffer.wrap("ping".getBytes(StandardCharsets.UTF_8))).get();
+		Checks.ensureEquals(received.poll(5, java.util.concurrent.TimeUnit.SECONDS), "hello");
+		Checks.ensureEquals(received.poll(5, java.util.concurrent.TimeUnit.SECONDS), large);
+		Checks.ensure(Arrays.equals((byte[]) received.poll(5, java.util.concurrent.TimeUnit.SECONDS), new byte[] {1, 2, 3}));
+		Checks.ensureEquals(received.poll(5, java.util.concurrent.TimeUnit.SECONDS), "pong:ping");
+		ws.sendClose(java.net.http.WebSocket.NORMAL_CLOSURE, "bye").get();
+		Checks.ensureEquals(received.poll(5, java.util.concurrent.TimeUnit.SECONDS), 1000);
+		// a fragmented, compressed message over a raw connection
+		byte[] accept;
+		byte[] echoed;
+		String message = "compressible ".repeat(20);
+		try(var socket = new java.net.Socket("localhost", 8678)) {
+			socket.setSoTimeout(5000);
+			var out = socket.getOutputStream();
+			var in = new java.io.DataInputStream(new java.io.BufferedInputStream(socket.getInputStream()));
+			out.write(("GET /echo-ws HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: keep-alive, Upgrade\r\n"
+					+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n"
+					+ "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			List<String> head = new ArrayList<>();
+			String line;
+			while(!(line = IOUtils.readLine(in)).isEmpty()) head.add(line);
+			Checks.ensureEquals(head.get(0), "HTTP/1.1 101 Switching Protocols");
+			Checks.ensure(head.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+			Checks.ensure(head.stream().anyMatch(h -> h.startsWith("Sec-WebSocket-Extensions: permessage-deflate")));
+			var deflater = new java.util.zip.Deflater(java.util.zip.Deflater.DEFAULT_COMPRESSION, true);
+			deflater.setInput(message.getBytes(StandardCharsets.UTF_8));
+			byte[] compressed = new byte[1024];
+			int length = deflater.deflate(compressed, 0, compressed.length, java.util.zip.Deflater.SYNC_FLUSH) - 4;
+			int half = length / 2;
+			out.write(maskedFrame(0x40 | 0x1, Arrays.copyOfRange(compressed, 0, half)));
+			out.write(maskedFrame(0x80, Arrays.copyOfRange(compressed, half, length)));
+			out.flush();
+			int b0 = in.readUnsignedByte();
+			Checks.ensureEquals(b0, 0x80 | 0x40 | 0x1);
+			byte[] payload = new byte[in.readUnsignedByte()];
+			in.readFully(payload);
+			// restore the end of the sync flush that the server stripped
+			payload = Arrays.copyOf(payload, payload.length + 4);
+			payload[payload.length - 2] = (byte) 0xFF;
+			payload[payload.length - 1] = (byte) 0xFF;
+			var inflater = new java.util.zip.Inflater(true);
+			inflater.setInput(payload);
+			var decompressed = new ByteArrayOutputStream();
+			byte[] chunk = new byte[1024];
+			int n;
+			while((n = inflater.inflate(chunk)) > 0) decompressed.write(chunk, 0, n);
+			echoed = decompressed.toByteArray();
+			// a close frame without a status code is answered with an empty one
+			out.write(maskedFrame(0x80 | 0x8, new byte[0]));
+			out.flush();
+			accept = new byte[2];
+			in.readFully(accept);
+			Checks.ensureEquals(in.read(), -1);
+		}
+		for(int i = 0; i < 50 && listener.webSocketCloses.size() < 2; i++) Thread.sleep(100);
+		server.halt();
+		Checks.ensureEquals(new String(echoed, StandardCharsets.UTF_8), message);
+		Checks.ensure(Arrays.equals(accept, new byte[] {(byte) 0x88, 0}));
+		Checks.ensureEquals(listener.webSocketCloses, List.of(1000, 1005));
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_http2() {
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), 8679);
+		server.register(new TestListener());
+		server.start(true);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+		// the first request upgrades the connection with Upgrade: h2c, and the others share it
+		var upgraded = client.send(HttpRequest.newBuilder(new URI("http://localhost:8679/status")).build(), HttpResponse.BodyHandlers.ofString());
+		var element = "{\"string\":\"Hello, world!\",\"strings\":[\"Hello\",\"world!\"]}";
+		List<java.util.concurrent.CompletableFuture<HttpResponse<String>>> exports = new ArrayList<>();
+		for(int i = 0; i < 4; i++) exports.add(client.sendAsync(HttpRequest.newBuilder(new URI("http://localhost:8679/export")).build(), HttpResponse.BodyHandlers.ofString()));
+		var echoed = client.send(HttpRequest.newBuilder(new URI("http://localhost:8679/echo"))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(element))
+				.build(), HttpResponse.BodyHandlers.ofString());
+		// cached responses are kept encoded, and sent from their stored status and headers
+		var aggregate = client.send(HttpRequest.newBuilder(new URI("http://localhost:8679/aggregate?region=eu")).build(), HttpResponse.BodyHandlers.ofString());
+		var cached = client.send(HttpRequest.newBuilder(new URI("http://localhost:8679/aggregate?region=eu")).build(), HttpResponse.BodyHandlers.ofString());
+		// with prior knowledge, the client starts with the connection preface
+		byte[] status;
+		try(var socket = new java.net.Socket("localhost", 8679)) {
+			socket.setSoTimeout(5000);
+			var out = socket.getOutputStream();
+			var in = new java.io.DataInputStream(new java.io.BufferedInputStream(socket.getInputStream()));
+			var frames = new ByteArrayOutputStream();
+			frames.writeBytes("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			frames.writeBytes(new byte[] {0, 0, 0, 0x4, 0, 0, 0, 0, 0});
+			var block = new ByteArrayOutputStream();
+			for(String[] field : new String[][] {{":method", "GET"}, {":scheme", "http"}, {":path", "/status"}, {":authority", "localhost"}}) {
+				// literal fields without indexing, with new names
+				block.write(0);
+				block.write(field[0].length());
+				block.writeBytes(field[0].getBytes(StandardCharsets.US_ASCII));
+				block.write(field[1].length());
+				block.writeBytes(field[1].getBytes(StandardCharsets.US_ASCII));
+			}
+			frames.writeBytes(new byte[] {0, 0, (byte) block.size(), 0x1, 0x4 | 0x1, 0, 0, 0, 1});
+			block.writeTo(frames);
+			frames.writeTo(out);
+			out.flush();
+			while(true) {
+				int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+				int type = in.readUnsignedByte();
+				in.readUnsignedByte();
+				int stream = in.readInt();
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				if(type == 0x1 && stream == 1) {
+					status = payload;
+					break;
+				}
+			}
+		}
+		var responses = new ArrayList<HttpResponse<String>>();
+		for(var export : exports) responses.add(export.get(10, java.util.concurrent.TimeUnit.SECONDS));
+		server.halt();
+		Checks.ensureEquals(upgraded.version(), HttpClient.Version.HTTP_2);
+		Checks.ensureEquals(upgraded.statusCode(), 200);
+		Checks.ensure(upgraded.headers().firstValue("ETag").isPresent());
+		for(var response : responses) {
+			Checks.ensureEquals(response.version(), HttpClient.Version.HTTP_2);
+			Checks.ensureEquals(response.body(), "[" + String.join(",", java.util.Collections.nCopies(5000, element)) + "]");
+		}
+		Checks.ensureEquals(echoed.version(), HttpClient.Version.HTTP_2);
+		Checks.ensureEquals(echoed.body(), element);
+		Checks.ensureEquals(cached.version(), HttpClient.Version.HTTP_2);
+		Checks.ensureEquals(cached.statusCode(), 200);
+		Checks.ensureEquals(cached.body(), aggregate.body());
+		Checks.ensureEquals(cached.headers().firstValue("Content-Type"), aggregate.headers().firstValue("Content-Type"));
+		Checks.ensureEquals(cached.headers().firstValue("Content-Length").orElseThrow(), Integer.toString(cached.body().length()));
+		// :status 200 is the eighth entry of the static table
+		Checks.ensureEquals(status[0] & 0xFF, 0x88);
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_tls() {
+		// a self-signed certificate for localhost
+		var keyStore = Files.createTempDirectory("prive-tls").resolve("keystore.p12");
+		char[] password = "changeit".toCharArray();
+		var keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+				"-genkeypair", "-alias", "prive", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+				"-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1", "-storetype", "PKCS12",
+				"-keystore", keyStore.toString(), "-storepass", "changeit").inheritIO().start();
+		Checks.ensureEquals(keytool.waitFor(), 0);
+		var tls = TlsConfiguration.builder()
+				.context(TlsConfiguration.createContext(keyStore, password))
+				.build();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), tls, 8680);
+		server.register(new TestListener());
+		server.start(true);
+		var trustStore = KeyStore.getInstance("PKCS12");
+		trustStore.load(null, null);
+		trustStore.setCertificateEntry("prive", KeyStore.getInstance(keyStore.toFile(), password).getCertificate("prive"));
+		var trustManagers = javax.net.ssl.TrustManagerFactory.getInstance(javax.net.ssl.TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(trustStore);
+		var context = javax.net.ssl.SSLContext.getInstance("TLS");
+		context.init(null, trustManagers.getTrustManagers(), null);
+		var uri = new URI("https://localhost:8680/status");
+		// connections are closed after each HTTP/1.1 response, so the second handshake resumes the first session
+		HttpClient http1 = HttpClient.newBuilder().sslContext(context).version(HttpClient.Version.HTTP_1_1).build();
+		var first = http1.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		var second = http1.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+		// h2 is selected with ALPN
+		HttpClient http2 = HttpClient.newBuilder().sslContext(context).version(HttpClient.Version.HTTP_2).build();
+		var multiplexed = new ArrayList<java.util.concurrent.CompletableFuture<HttpResponse<String>>>();
+		for(int i = 0; i < 3; i++) multiplexed.add(http2.sendAsync(HttpRequest.newBuilder(new URI("https://localhost:8680/export")).build(), HttpResponse.BodyHandlers.ofString()));
+		var responses = new ArrayList<HttpResponse<String>>();
+		for(var response : multiplexed) responses.add(response.get(10, java.util.concurrent.TimeUnit.SECONDS));
+		// a client that does not speak TLS fails its handshake
+		try(var socket = new java.net.Socket("localhost", 8680)) {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write("GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			try {
+				while(socket.getInputStream().read() != -1) {
+					// the server sends an alert, if anything, and closes the connection
+				}
+			} catch(java.net.SocketException ignored) {
+				// or resets it
+			}
+		}
+		for(int i = 0; i < 50 && tls.getMetrics().getFailedHandshakes() == 0; i++) Thread.sleep(100);
+		server.halt();
+		// Unix domain sockets never leave the host, so they speak cleartext even on a server with TLS
+		var path = keyStore.resolveSibling("prive.sock");
+		var domainServer = new PriveWebServer(Executors.newWorkStealingPool(), tls, new int[0]).bind(path);
+		domainServer.register(new TestListener());
+		domainServer.start(true);
+		String local;
+		try(var channel = java.nio.channels.SocketChannel.open(java.net.UnixDomainSocketAddress.of(path))) {
+			java.nio.channels.Channels.newOutputStream(channel).write("GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			local = new String(java.nio.channels.Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+		}
+		domainServer.halt();
+		Checks.ensure(local.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensureEquals(first.version(), HttpClient.Version.HTTP_1_1);
+		Checks.ensureEquals(first.statusCode(), 200);
+		Checks.ensureEquals(second.body(), first.body());
+		for(var response : responses) {
+			Checks.ensureEquals(response.version(), HttpClient.Version.HTTP_2);
+			Checks.ensureEquals(response.statusCode(), 200);
+			Checks.ensure(response.body().endsWith("]"));
+		}
+		// concurrent requests may open more than one HTTP/2 connection
+		Checks.ensure(tls.getMetrics().getHandshakes() >= 3);
+		Checks.ensure(tls.getMetrics().getResumedHandshakes() >= 1);
+		Checks.ensureEquals(tls.getMetrics().getFailedHandshakes(), 1L);
+		Checks.ensure(tls.getMetrics().getAverageFullHandshakeMillis() > 0);
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_unix_domain_socket() {
+		var directory = Files.createTempDirectory("prive-uds");
+		var path = directory.resolve("prive.sock");
+		// a socket file left behind by a process that exited without cleaning up
+		try(var stale = java.nio.channels.ServerSocketChannel.open(java.net.StandardProtocolFamily.UNIX)) {
+			stale.bind(java.net.UnixDomainSocketAddress.of(path));
+		}
+		Checks.ensure(Files.exists(path));
+		var regular = Files.createFile(directory.resolve("regular"));
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), new int[0]); // no TCP ports
+		Assertions.assertThrows(java.net.BindException.class, () -> server.bind(regular));
+		server.bind(path);
+		server.register(new TestListener());
+		server.start(true);
+		var permissions = java.nio.file.attribute.PosixFilePermissions.toString(Files.getPosixFilePermissions(path));
+		String status, export;
+		try(var channel = java.nio.channels.SocketChannel.open(java.net.UnixDomainSocketAddress.of(path))) {
+			var out = java.nio.channels.Channels.newOutputStream(channel);
+			out.write("GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			status = new String(java.nio.channels.Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+		}
+		try(var channel = java.nio.channels.SocketChannel.open(java.net.UnixDomainSocketAddress.of(path))) {
+			var out = java.nio.channels.Channels.newOutputStream(channel);
+			out.write("GET /export HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			export = new String(java.nio.channels.Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+		}
+		server.halt();
+		Checks.ensureEquals(permissions, "rw-rw----");
+		Checks.ensure(status.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensure(export.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensure(export.contains("]"));
+		Checks.ensure(!Files.exists(path));
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_local_connector() {
+		// nothing is bound and the server is not started
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), new int[0]);
+		server.register(new TestListener());
+		var connector = new dev.priveweb.core.server.impl.LocalConnector(server);
+		var posted = connector.exchange("POST /status HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\n\r\nbusy");
+		var status = new String(connector.exchange(HTTPRequest.builder()
+				.requestMethod(RequestMethod.GET)
+				.requestedResource("/status")
+				.protocol("HTTP/1.1")
+				.header(new dev.priveweb.core.http.Header("Host", "localhost"))
+				.build()), StandardCharsets.ISO_8859_1);
+		var missing = connector.exchange("GET /missing HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		Checks.ensure(posted.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensure(posted.endsWith("\r\n\r\n\"busy\""));
+		Checks.ensure(status.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensure(status.endsWith("\r\n\r\n\"busy\""));
+		Checks.ensure(missing.startsWith("HTTP/1.1 404 "));
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_expect_continue() {
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), new int[0]);
+		server.setMaxRequestBodySize(1 << 20);
+		server.register(new TestListener());
+		var connector = new dev.priveweb.core.server.impl.LocalConnector(server);
+		var accepted = connector.exchange("POST /status HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 4\r\n\r\nbusy");
+		// the body of a rejected request is never asked for
+		var missing = connector.exchange("POST /missing HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 4\r\n\r\n");
+		var tooLarge = connector.exchange("POST /status HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 2097152\r\n\r\n");
+		var unreadBody = connector.exchange("GET /status HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 4\r\n\r\n");
+		var unsupported = connector.exchange("POST /status HTTP/1.1\r\nHost: localhost\r\nExpect: 200-ok\r\nContent-Length: 4\r\n\r\nbusy");
+		Checks.ensure(accepted.startsWith("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 200 OK\r\n"));
+		Checks.ensure(accepted.endsWith("\"busy\""));
+		Checks.ensure(missing.startsWith("HTTP/1.1 404 "));
+		Checks.ensure(tooLarge.startsWith("HTTP/1.1 413 "));
+		Checks.ensure(unreadBody.startsWith("HTTP/1.1 400 "));
+		Checks.ensure(unsupported.startsWith("HTTP/1.1 417 "));
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_listener_configuration() {
+		var listeners = dev.priveweb.core.server.impl.ListenerConfiguration.builder()
+				.backlog(4096)
+				.acceptors(4)
+				.sendBufferSize(1 << 16)
+				.build();
+		// every acceptor takes up a thread of the executor
+		var server = new PriveWebServer(Executors.newCachedThreadPool(), listeners, 0);
+		server.register(new TestListener());
+		server.start(true);
+		int port = server.getLocalPorts()[0];
+		var burst = new ArrayList<CompletableFuture<String>>();
+		for(int i = 0; i < 64; i++) {
+			burst.add(CompletableFuture.supplyAsync(() -> {
+				try(var socket = new Socket("localhost", port)) {
+					socket.setSoTimeout(5000);
+					socket.getOutputStream().write("GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					return new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+				} catch(IOException e) {
+					throw new java.io.UncheckedIOException(e);
+				}
+			}, Executors.newCachedThreadPool()));
+		}
+		var responses = new ArrayList<String>();
+		for(var response : burst) responses.add(response.get(10, java.util.concurrent.TimeUnit.SECONDS));
+		server.halt();
+		Checks.ensureEquals(server.getLocalPorts().length, 1);
+		Checks.ensure(port > 0);
+		for(var response : responses) Checks.ensure(response.startsWith("HTTP/1.1 200 OK\r\n"));
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_async_handlers() {
+		var listener = new TestListener();
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), new int[] {0});
+		server.setAsyncTimeout(java.time.Duration.ofMillis(300));
+		server.register(listener);
+		var connector = new dev.priveweb.core.server.impl.LocalConnector(server);
+		var async = connector.exchange("GET /async HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		var timedOut = connector.exchange("GET /async/never HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		var published = connector.exchange("GET /publisher HTTP/1.1\r\nHost: localhost\r\nAccept: application/x-ndjson\r\n\r\n");
+		Checks.ensure(async.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensure(async.endsWith("\r\n\r\n\"async\""));
+		Checks.ensure(timedOut.startsWith("HTTP/1.1 503 "));
+		Checks.ensure(listener.pendingFutures.get(0).isCancelled());
+		Checks.ensureEquals(published.split("\\{\"string\"").length - 1, 100);
+		// a pending response does not hold up the worker, and is cancelled once its client disconnects
+		server.setAsyncTimeout(java.time.Duration.ofSeconds(30));
+		server.start(true);
+		int port = server.getLocalPorts()[0];
+		try(Socket pending = new Socket("localhost", port)) {
+			pending.getOutputStream().write("GET /async/never HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+			pending.getOutputStream().flush();
+			long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+			while(listener.pendingFutures.size() < 2 && System.nanoTime() < deadline) Thread.sleep(10);
+			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+			var status = client.send(HttpRequest.newBuilder(new URI("http://localhost:" + port + "/async")).build(), HttpResponse.BodyHandlers.ofString());
+			Checks.ensureEquals(status.statusCode(), 200);
+			Checks.ensureEquals(status.body(), "\"async\"");
+		}
+		long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+		while(!listener.pendingFutures.get(1).isCancelled() && System.nanoTime() < deadline) Thread.sleep(50);
+		server.halt();
+		Checks.ensure(listener.pendingFutures.get(1).isCancelled());
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_reverse_proxy() {
+		// stand-in upstreams, which keep connections alive; without TCP_NODELAY, they wait for delayed ACKs
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		var connections = java.util.concurrent.ConcurrentHashMap.<Integer>newKeySet();
+		var seenHeaders = new java.util.concurrent.CopyOnWriteArrayList<String>();
+		var upstreams = new ArrayList<com.sun.net.httpserver.HttpServer>();
+		for(String name : List.of("a", "b")) {
+			var upstream = com.sun.net.httpserver.HttpServer.create(new java.net.InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+			upstream.createContext("/", exchange -> {
+				connections.add(exchange.getRemoteAddress().getPort());
+				var headers = exchange.getRequestHeaders();
+				seenHeaders.add(headers.getFirst("Host") + "|" + headers.getFirst("X-Forwarded-Host") + "|" + headers.containsKey("X-Hop") + "|" + headers.containsKey("Keep-Alive"));
+				byte[] request = exchange.getRequestBody().readAllBytes();
+				exchange.getResponseHeaders().add("X-Upstream", name);
+				if(exchange.getRequestURI().getPath().equals("/api/large")) {
+					// sent chunked
+					exchange.sendResponseHeaders(200, 0);
+					try(var out = exchange.getResponseBody()) {
+						for(int i = 0; i < 256; i++) out.write(new byte[4096]);
+					}
+					return;
+				}
+				byte[] body = (exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " + request.length).getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, exchange.getRequestMethod().equals("HEAD") ? -1 : body.length);
+				try(var out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			});
+			upstream.start();
+			upstreams.add(upstream);
+		}
+		var server = new PriveWebServer(Executors.newWorkStealingPool(), new int[0]);
+		var proxy = ProxyHandler.builder()
+				.routePrefix("/legacy/")
+				.upstream(URI.create("http://127.0.0.1:" + upstreams.get(0).getAddress().getPort() + "/api"))
+				.upstream(URI.create("http://127.0.0.1:" + upstreams.get(1).getAddress().getPort() + "/api/"))
+				.build();
+		server.register(proxy);
+		var connector = new dev.priveweb.core.server.impl.LocalConnector(server);
+		var responses = new ArrayList<String>();
+		for(int i = 0; i < 20; i++) {
+			responses.add(connector.exchange("GET /legacy/users/" + i + "?page=2 HTTP/1.1\r\nHost: front.example\r\nConnection: X-Hop, Keep-Alive\r\nX-Hop: 1\r\nKeep-Alive: timeout=5\r\n\r\n"));
+		}
+		// a request routed here under another target is forwarded to the route's path, with the query as the client sent it
+		var rerouted = new ByteArrayOutputStream();
+		proxy.proxy("users/jane", HTTPRequest.builder()
+				.requestMethod(RequestMethod.GET)
+				.requestedResource("/legacy/users/jane")
+				.queryString("?name=bob")
+				.requestTarget("/v1/Users/Jane?Name=Bob")
+				.protocol("HTTP/1.1")
+				.header(new dev.priveweb.core.http.Header("Host", "front.example"))
+				.build()).writeBody(rerouted);
+		var posted = connector.exchange("POST /legacy/upload HTTP/1.1\r\nHost: front.example\r\nContent-Length: 65536\r\n\r\n" + "x".repeat(65536));
+		var chunked = connector.exchange("POST /legacy/upload HTTP/1.1\r\nHost: front.example\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n");
+		var large = connector.exchange("GET /legacy/large HTTP/1.1\r\nHost: front.example\r\n\r\n");
+		var head = connector.exchange("HEAD /legacy/users/1 HTTP/1.1\r\nHost: front.example\r\n\r\n");
+		// the target is forwarded as the client sent it
+		var raw = connector.exchange("GET /Legacy/Users/Jane%2FDoe?Name=Bob HTTP/1.1\r\nHost: front.example\r\n\r\n");
+		proxy.close();
+		for(var upstream : upstreams) upstream.stop(0);
+		var unreachable = connector.exchange("GET /legacy/users/1 HTTP/1.1\r\nHost: front.example\r\n\r\n");
+		Checks.ensure(responses.get(0).startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensure(responses.get(0).endsWith("\r\n\r\nGET /api/users/0?page=2 0"));
+		// round-robin, over one kept-alive connection per upstream; the stand-in names headers in its own case
+		Checks.ensure(responses.get(0).contains("X-upstream: a\r\n"));
+		Checks.ensure(responses.get(1).contains("X-upstream: b\r\n"));
+		Checks.ensure(responses.get(2).contains("X-upstream: a\r\n"));
+		Checks.ensureEquals(connections.size(), 2);
+		// hop-by-hop headers are not forwarded, and the upstream sees its own host
+		Checks.ensure(seenHeaders.get(0).startsWith("127.0.0.1:"));
+		Checks.ensure(seenHeaders.get(0).endsWith("|front.example|false|false"));
+		Checks.ensure(raw.endsWith("GET /api/Users/Jane%2FDoe?Name=Bob 0"));
+		Checks.ensureEquals(rerouted.toString(StandardCharsets.UTF_8), "GET /api/users/jane?Name=Bob 0");
+		Checks.ensure(posted.endsWith("POST /api/upload 65536"));
+		Checks.ensure(chunked.endsWith("POST /api/upload 5"));
+		Checks.ensure(large.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensureEquals(large.length() - large.indexOf("\r\n\r\n") - 4, 256 * 4096);
+		Checks.ensure(head.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensure(head.endsWith("\r\n\r\n"));
+		Checks.ensure(unreachable.startsWith("HTTP/1.1 502 "));
+	}
+
+	@Test
+	@SneakyThrows
+	public void test_admission_control() {
+		var listener = new TestListener();
+		var server = new PriveWebServer(Executors.newCachedThreadPool(), 0);
+		var admission = dev.priveweb.core.server.impl.AdmissionControl.builder()
+				.maxQueuedRequests(1)
+				.targetDelay(java.time.Duration.ofMillis(10))
+				.interval(java.time.Duration.ofMillis(100))
+				.retryAfter(java.time.Duration.ofSeconds(2))
+				.build();
+		server.setAdmissionControl(admission);
+		server.register(listener);
+		server.start(true);
+		int port = server.getLocalPorts()[0];
+		// hold up every worker, so that further requests queue up
+		int workers = Runtime.getRuntime().availableProcessors();
+		var slow = new ArrayList<CompletableFuture<String>>();
+		for(int i = 0; i < workers; i++) slow.add(CompletableFuture.supplyAsync(() -> get(port, "/slow"), Executors.newCachedThreadPool()));
+		long deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+		while(listener.slowRequests.get() < workers && System.nanoTime() < deadline) Thread.sleep(10);
+		var queued = CompletableFuture.supplyAsync(() -> get(port, "/status"), Executors.newCachedThreadPool());
+		deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+		while(admission.getQueuedRequests() < 1 && System.nanoTime() < deadline) Thread.sleep(10);
+		// the queue is full, so this one is turned away at once
+		long start = System.nanoTime();
+		var rejected = get(port, "/status");
+		long rejectedMillis = (System.nanoTime() - start) / 1_000_000;
+		// the queued one waits for a slow request well past the interval, and is shed once a worker takes it
+		var shed = queued.get(5, java.util.concurrent.TimeUnit.SECONDS);
+		for(var response : slow) Checks.ensure(response.get(5, java.util.concurrent.TimeUnit.SECONDS).startsWith("HTTP/1.1 200 OK\r\n"));
+		// without a queue, requests are served again
+		var served = get(port, "/status");
+		server.halt();
+		Checks.ensure(rejected.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+		Checks.ensure(rejected.contains("\r\nRetry-After: 2\r\n"));
+		Checks.ensure(rejectedMillis < 400);
+		Checks.ensure(shed.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+		Checks.ensure(shed.contains("\r\nRetry-After: 2\r\n"));
+		Checks.ensure(served.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensureEquals(admission.getRejectedRequests(), 1L);
+		Checks.ensureEquals(admission.getShedRequests(), 1L);
+		Checks.ensureEquals(admission.getQueuedRequests(), 0);
+		// connections beyond the limit are turned away while they are accepted
+		var limited = new PriveWebServer(Executors.newCachedThreadPool(), 0);
+		var connections = dev.priveweb.core.server.impl.AdmissionControl.builder().maxConnections(1).build();
+		limited.setAdmissionControl(connections);
+		limited.register(listener);
+		limited.start(true);
+		int limitedPort = limited.getLocalPorts()[0];
+		String refused;
+		try(var idle = new Socket("localhost", limitedPort)) {
+			deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+			while(connections.getConnections() < 1 && System.nanoTime() < deadline) Thread.sleep(10);
+			refused = get(limitedPort, "/status");
+		}
+		deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+		while(connections.getConnections() > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+		var accepted = get(limitedPort, "/status");
+		// a connection that was taken over stops being counted once it is closed
+		try(var events = new Socket("localhost", limitedPort)) {
+			events.getOutputStream().write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+			while(listener.emitters.isEmpty() && System.nanoTime() < deadline) Thread.sleep(10);
+		}
+		deadline = System.nanoTime() + java.util.concurrent.TimeUnit.SECONDS.toNanos(5);
+		while(connections.getConnections() > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+		int takenOver = connections.getConnections();
+		limited.halt();
+		Checks.ensure(refused.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+		Checks.ensure(accepted.startsWith("HTTP/1.1 200 OK\r\n"));
+		Checks.ensureEquals(connections.getRejectedConnections(), 1L);
+		Checks.ensureEquals(takenOver, 0);
+		Checks.ensure(!listener.emitters.get(0).isOpen());
+	}
+
+	private static String get(int port, String target) {
+		try(var socket = new Socket("localhost", port)) {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write(("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			return new String(socket.getInputStream().readAllBytes(), StandardCharsets.ISO_8859_1);
+		} catch(IOException e) {
+			throw new java.io.UncheckedIOException(e);
+		}
+	}
+
+	private static byte[] maskedFrame(int head, byte[] payload) {
+		byte[] mask = {0x12, 0x34, 0x56, 0x78};
+		var frame = new ByteArrayOutputStream();
+		frame.write(head);
+		frame.write(0x80 | payload.length);
+		frame.writeBytes(mask);
+		for(int i = 0; i < payload.length; i++) frame.write(payload[i] ^ mask[i & 3]);
+		return frame.toByteArray();
+	}
+
 }
@@ -1,10 +1,44 @@
 package tests.broskiclan.prive;
 
+import dev.priveweb.core.http.ResponseCode;
+import dev.priveweb.core.http.request.RequestBody;
+import dev.priveweb.core.http.request.body.Part;
 import dev.priveweb.core.http.request.verbs.GetRequest;
 import dev.priveweb.core.http.request.QueryParameters;
+import dev.priveweb.core.http.request.verbs.PostRequest;
+import dev.priveweb.core.http.request.verbs.WebSocketRequest;
+import dev.priveweb.core.http.response.AutoETag;
+import dev.priveweb.core.http.response.Cached;
+import dev.priveweb.core.http.response.ResponseObject;
+import dev.priveweb.core.http.response.SseEmitter;
+import dev.priveweb.core.http.websocket.WebSocket;
+import dev.priveweb.core.http.websocket.WebSocketListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestListener {
 
+	private volatile String status = "idle";
+	final AtomicInteger aggregations = new AtomicInteger();
+	final AtomicInteger closedExports = new AtomicInteger();
+	final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+	final AtomicInteger closedEmitters = new AtomicInteger();
+	final List<Integer> webSocketCloses = new CopyOnWriteArrayList<>();
+	final List<CompletableFuture<ResponseObject<String>>> pendingFutures = new CopyOnWriteArrayList<>();
+	final AtomicInteger slowRequests = new AtomicInteger();
+
 	@GetRequest("/wow")
 	public void test(QueryParameters queryParameters) {
 		System.out.println("Query parameters test got " + queryParameters);
@@ -15,4 +49,134 @@ public class TestListener {
 		System.out.println("Hello, from test listener!");
 	}
 
+	@PostRequest("/echo")
+	public ResponseObject<PriveTest.TestClass> echo(@RequestBody PriveTest.TestClass body) {
+		return ResponseObject.<PriveTest.TestClass>builder()
+				.responseCode(ResponseCode.S_200)
+				.responseBody(body)
+				.responseBodyClass(PriveTest.TestClass.class)
+				.build();
+	}
+
+	@PostRequest("/upload")
+	public ResponseObject<String> upload(List<Part> parts) throws IOException {
+		StringJoiner joiner = new StringJoiner(",");
+		for(Part part : parts) joiner.add(part.getName() + ":" + (part.getFilename() == null ? part.getString() : part.getSize() + (part.getBody().isInMemory() ? "" : "@disk")));
+		return ResponseObject.<String>builder()
+				.responseCode(ResponseCode.S_200)
+				.responseBody(joiner.toString())
+				.responseBodyClass(String.class)
+				.build();
+	}
+
+	@AutoETag
+	@GetRequest("/status")
+	public ResponseObject<String> status() {
+		return ResponseObject.<String>builder()
+				.responseCode(ResponseCode.S_200)
+				.responseBody(status)
+				.responseBodyClass(String.class)
+				.build();
+	}
+
+	@PostRequest("/status")
+	public ResponseObject<String> setStatus(@RequestBody String status) {
+		this.status = status;
+		return status();
+	}
+
+	@Cached(ttl = 500, staleWhileRevalidate = 10_000, unit = TimeUnit.MILLISECONDS, query = "region")
+	@GetRequest("/aggregate")
+	public ResponseObject<String> aggregate(QueryParameters queryParameters) throws InterruptedException {
+		Thread.sleep(200); // an expensive aggregate
+		return ResponseObject.<String>builder()
+				.responseCode(ResponseCode.S_200)
+				.responseBody(queryParameters.getQueryParameters("region") + "#" + aggregations.incrementAndGet())
+				.responseBodyClass(String.class)
+				.build();
+	}
+
+	@Cached(ttl = 500, unit = TimeUnit.MILLISECONDS, query = "region")
+	@PostRequest("/aggregate")
+	public ResponseObject<String> submitAggregate(QueryParameters queryParameters) {
+		return ResponseObject.<String>builder()
+				.responseCode(ResponseCode.S_200)
+				.responseBody("posted " + queryParameters.getQueryParameters("region"))
+				.responseBodyClass(String.class)
+				.build();
+	}
+
+	@GetRequest("/slow")
+	public ResponseObject<String> slow() throws InterruptedException {
+		slowRequests.incrementAndGet();
+		Thread.sleep(500); // holds up a worker
+		return ResponseObject.<String>builder()
+				.responseCode(ResponseCode.S_200)
+				.responseBody("slow")
+				.responseBodyClass(String.class)
+				.build();
+	}
+
+	@GetRequest("/export")
+	public Stream<PriveTest.TestClass> export() {
+		return IntStream.range(0, 5000).mapToObj(i -> new PriveTest.TestClass()).onClose(closedExports::incrementAndGet);
+	}
+
+	@GetRequest("/async")
+	public CompletableFuture<ResponseObject<String>> async() {
+		return CompletableFuture.supplyAsync(() -> ResponseObject.<String>builder()
+				.responseCode(ResponseCode.S_200)
+				.responseBody("async")
+				.responseBodyClass(String.class)
+				.build(), CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+	}
+
+	@GetRequest("/async/never")
+	public CompletableFuture<ResponseObject<String>> never() {
+		CompletableFuture<ResponseObject<String>> future = new CompletableFuture<>();
+		pendingFutures.add(future);
+		return future;
+	}
+
+	@GetRequest("/publisher")
+	public Flow.Publisher<PriveTest.TestClass> publisher() {
+		SubmissionPublisher<PriveTest.TestClass> publisher = new SubmissionPublisher<>();
+		CompletableFuture.runAsync(() -> {
+			// waits for the subscriber, so that no items are dropped
+			while(!publisher.hasSubscribers()) Thread.onSpinWait();
+			for(int i = 0; i < 100; i++) publisher.submit(new PriveTest.TestClass());
+			publisher.close();
+		});
+		return publisher;
+	}
+
+	@GetRequest("/events")
+	public SseEmitter events() throws IOException {
+		SseEmitter emitter = new SseEmitter(Duration.ofMillis(100), Duration.ofSeconds(2));
+		emitter.onClose(closedEmitters::incrementAndGet);
+		emitter.send("1", "greeting", "hello\nworld"); // sent once the connection is taken over
+		emitters.add(emitter);
+		return emitter;
+	}
+
+	@WebSocketRequest(value = "/echo-ws", subprotocols = {"chat", "echo"})
+	public WebSocketListener echo() {
+		return new WebSocketListener() {
+			@Override
+			public void onText(WebSocket socket, String message) {
+				socket.sendText(message);
+			}
+
+			@Override
+			public void onBinary(WebSocket socket, ByteBuffer message) {
+				socket.sendBinary(message);
+			}
+
+			@Override
+			public void onClose(WebSocket socket, int code, String reason) {
+				webSocketCloses.add(code);
+			}
+		};
+	}
+
 }